@@ -20,7 +20,6 @@ import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 import dev.galasa.auth.couchdb.internal.beans.AuthDBNameViewDesign;
@@ -142,10 +141,10 @@ public class CouchdbAuthStore extends CouchdbStore implements IAuthStore {
     public void storeToken(String clientId, String description, IInternalUser owner) throws AuthStoreException {
         // Create the JSON payload representing the token to store
         CouchdbUser couchdbUser = new CouchdbUser(owner);
-        String tokenJson = gson.toJson(new CouchdbAuthToken(clientId, description, timeService.now(), couchdbUser));
+        CouchdbAuthToken token = new CouchdbAuthToken(clientId, description, timeService.now(), couchdbUser);
 
         try {
-            createDocument(TOKENS_DATABASE_NAME, tokenJson);
+            createDocument(TOKENS_DATABASE_NAME, token);
         } catch (CouchdbException e) {
             String errorMessage = ERROR_FAILED_TO_CREATE_TOKEN_DOCUMENT.getMessage(e.getMessage());
             throw new AuthStoreException(errorMessage, e);
@@ -211,10 +210,10 @@ public class CouchdbAuthStore extends CouchdbStore implements IAuthStore {
         client.setClientName(clientName);
         client.setLastLogin(Instant.now());
 
-        String userJson = gson.toJson(new UserDoc(loginId, List.of(client)));
+        UserDoc userDoc = new UserDoc(loginId, List.of(client));
 
         try {
-            createDocument(USERS_DATABASE_NAME, userJson);
+            createDocument(USERS_DATABASE_NAME, userDoc);
         } catch (CouchdbException e) {
             String errorMessage = ERROR_FAILED_TO_CREATE_USER_DOCUMENT.getMessage(e.getMessage());
             throw new AuthStoreException(errorMessage, e);
@@ -333,12 +332,11 @@ public class CouchdbAuthStore extends CouchdbStore implements IAuthStore {
     private HttpPut buildUpdateUserDocRequest(UserImpl user, URI couchdbUri) {
         HttpPut request;
 
-        String jsonStructure = user.toJson(gson);
         request = httpRequestFactory
                 .getHttpPutRequest(couchdbUri + "/" + USERS_DATABASE_NAME + "/" + user.getUserNumber());
         request.setHeader("If-Match", user.getVersion());
     
-        request.setEntity(new StringEntity(jsonStructure, StandardCharsets.UTF_8));
+        request.setEntity(user.toJsonEntity(gson));
         return request;
     }
 
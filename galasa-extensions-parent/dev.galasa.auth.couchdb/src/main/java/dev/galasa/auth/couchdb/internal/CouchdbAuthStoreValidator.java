@@ -14,8 +14,6 @@ import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.util.EntityUtils;
 
@@ -27,6 +25,7 @@ import dev.galasa.extensions.common.api.LogFactory;
 import dev.galasa.extensions.common.couchdb.CouchdbBaseValidator;
 import dev.galasa.extensions.common.couchdb.CouchdbClashingUpdateException;
 import dev.galasa.extensions.common.couchdb.CouchdbException;
+import dev.galasa.extensions.common.couchdb.JsonHttpEntity;
 import dev.galasa.extensions.common.couchdb.RetryableCouchdbUpdateOperationProcessor;
 import dev.galasa.auth.couchdb.internal.beans.*;
 import dev.galasa.extensions.common.api.HttpRequestFactory;
@@ -184,7 +183,7 @@ public class CouchdbAuthStoreValidator extends CouchdbBaseValidator {
 
         logger.info("Updating the " + dbName + " design document");
 
-        HttpEntity entity = new StringEntity(gson.toJson(tokenViewDesign), ContentType.APPLICATION_JSON);
+        HttpEntity entity = new JsonHttpEntity(tokenViewDesign, gson);
 
         HttpPut httpPut = requestFactory.getHttpPutRequest(couchdbUri + "/" + dbName +"/_design/docs");
         httpPut.setEntity(entity);
@@ -11,8 +11,11 @@ import java.util.List;
 import java.util.ArrayList;
 import static dev.galasa.extensions.common.Errors.*;
 
+import org.apache.http.HttpEntity;
+
 import dev.galasa.auth.couchdb.internal.beans.FrontEndClient;
 import dev.galasa.auth.couchdb.internal.beans.UserDoc;
+import dev.galasa.extensions.common.couchdb.JsonHttpEntity;
 import dev.galasa.framework.spi.auth.AuthStoreException;
 import dev.galasa.framework.spi.auth.IFrontEndClient;
 import dev.galasa.framework.spi.auth.IUser;
@@ -52,6 +55,10 @@ public class UserImpl implements IUser {
         return gson.toJson(userDocBean);
     }
 
+    public HttpEntity toJsonEntity( GalasaGson gson) {
+        return new JsonHttpEntity(userDocBean, gson);
+    }
+
     @Override
     public String getUserNumber() {
         return this.userDocBean.getUserNumber();
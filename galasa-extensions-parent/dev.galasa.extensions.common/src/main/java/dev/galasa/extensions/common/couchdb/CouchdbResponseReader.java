@@ -0,0 +1,28 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.extensions.common.couchdb;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Reads what is needed out of the JSON body of a CouchDB response as it streams in
+ * from the server, so large responses, such as the results of a query or a view,
+ * never have to be held in memory as a whole.
+ *
+ * @param <T> the type of object read from the response
+ */
+@FunctionalInterface
+public interface CouchdbResponseReader<T> {
+
+    /**
+     * @param reader positioned at the start of the response body
+     * @return the object read from the response
+     * @throws IOException if the response couldn't be read or isn't valid JSON
+     */
+    T readResponse(JsonReader reader) throws IOException;
+}
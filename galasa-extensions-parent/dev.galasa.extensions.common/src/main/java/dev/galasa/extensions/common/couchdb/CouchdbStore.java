@@ -8,16 +8,21 @@ package dev.galasa.extensions.common.couchdb;
 import static dev.galasa.extensions.common.Errors.*;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.CopyOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
 import org.apache.http.ParseException;
@@ -33,9 +38,9 @@ import org.apache.http.util.EntityUtils;
 
 import dev.galasa.extensions.common.api.HttpClientFactory;
 import dev.galasa.extensions.common.api.HttpRequestFactory;
+import dev.galasa.extensions.common.couchdb.pojos.BulkDocs;
 import dev.galasa.extensions.common.couchdb.pojos.IdRev;
 import dev.galasa.extensions.common.couchdb.pojos.PutPostResponse;
-import dev.galasa.extensions.common.couchdb.pojos.ViewResponse;
 import dev.galasa.extensions.common.couchdb.pojos.ViewRow;
 import dev.galasa.framework.spi.utils.GalasaGson;
 
@@ -82,9 +87,28 @@ public abstract class CouchdbStore {
      *                          or creating the document
      */
     protected PutPostResponse createDocument(String dbName, String jsonContent) throws CouchdbException {
+        return createDocument(dbName, new StringEntity(jsonContent, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a new document in the given database, serialising the given object
+     * into JSON as the request is sent rather than building the JSON up front.
+     *
+     * @param dbName   the database to create the new document within
+     * @param document the object to serialise into JSON in order to populate the
+     *                 new document
+     * @return PutPostResponse the response from the CouchDB service
+     * @throws CouchdbException if there is a problem accessing the CouchDB server
+     *                          or creating the document
+     */
+    protected PutPostResponse createDocument(String dbName, Object document) throws CouchdbException {
+        return createDocument(dbName, new JsonHttpEntity(document, gson));
+    }
+
+    private PutPostResponse createDocument(String dbName, HttpEntity documentEntity) throws CouchdbException {
         // Create a new document in the tokens database with the new token to store
         HttpPost postDocument = httpRequestFactory.getHttpPostRequest(storeUri + "/" + dbName);
-        postDocument.setEntity(new StringEntity(jsonContent, StandardCharsets.UTF_8));
+        postDocument.setEntity(documentEntity);
         String responseEntity = sendHttpRequest(postDocument, HttpStatus.SC_CREATED);
 
         // Check that the document was successfully created
@@ -99,6 +123,70 @@ public abstract class CouchdbStore {
         return putPostResponse;
     }
 
+    /**
+     * Creates several new documents in the given database using a single
+     * POST /{db}/_bulk_docs request.
+     *
+     * @param dbName    the database to create the new documents within
+     * @param documents the objects to serialise into JSON, one per new document
+     * @return the responses from the CouchDB service, in the same order as the
+     *         given documents
+     * @throws CouchdbException if there is a problem accessing the CouchDB server
+     *                          or if any of the documents could not be created
+     */
+    protected List<PutPostResponse> createDocuments(String dbName, List<?> documents) throws CouchdbException {
+        List<PutPostResponse> putPostResponses = createDocumentsInBulk(dbName, documents);
+        checkDocumentsCreated(dbName, putPostResponses);
+        return putPostResponses;
+    }
+
+    /**
+     * Creates several new documents in the given database using a single
+     * POST /{db}/_bulk_docs request, without failing if only some of them
+     * could be created. CouchDB creates each document independently, so the
+     * caller can keep track of those which were created before using
+     * {@link #checkDocumentsCreated} to report any which were not.
+     *
+     * @param dbName    the database to create the new documents within
+     * @param documents the objects to serialise into JSON, one per new document
+     * @return the responses from the CouchDB service, in the same order as the
+     *         given documents, each holding either the new document's id and
+     *         revision or the error CouchDB returned for it
+     * @throws CouchdbException if there is a problem accessing the CouchDB server
+     */
+    protected List<PutPostResponse> createDocumentsInBulk(String dbName, List<?> documents) throws CouchdbException {
+        BulkDocs bulkDocs = new BulkDocs();
+        bulkDocs.docs = documents;
+
+        HttpPost postDocuments = httpRequestFactory.getHttpPostRequest(storeUri + "/" + dbName + "/_bulk_docs");
+        postDocuments.setEntity(new JsonHttpEntity(bulkDocs, gson));
+        String responseEntity = sendHttpRequest(postDocuments, HttpStatus.SC_CREATED);
+
+        // CouchDB replies with one result for each document, in the order they were sent
+        PutPostResponse[] putPostResponses = gson.fromJson(responseEntity, PutPostResponse[].class);
+        if (putPostResponses == null || putPostResponses.length != documents.size()) {
+            throw new CouchdbException(ERROR_UNEXPECTED_RESPONSE_FROM_BULK_CREATE_DOCUMENTS.getMessage(dbName));
+        }
+        return Arrays.asList(putPostResponses);
+    }
+
+    /**
+     * @param dbName           the database the documents were created within
+     * @param putPostResponses the responses to a bulk request to create documents
+     * @throws CouchdbException if any of the documents could not be created
+     */
+    protected void checkDocumentsCreated(String dbName, List<PutPostResponse> putPostResponses) throws CouchdbException {
+        for (PutPostResponse putPostResponse : putPostResponses) {
+            if (putPostResponse.error != null) {
+                String errorMessage = ERROR_FAILED_TO_CREATE_COUCHDB_DOCUMENT_IN_BULK.getMessage(dbName, putPostResponse.error, putPostResponse.reason);
+                throw new CouchdbException(errorMessage);
+            }
+            if (putPostResponse.id == null || putPostResponse.rev == null) {
+                throw new CouchdbException(ERROR_UNEXPECTED_RESPONSE_FROM_BULK_CREATE_DOCUMENTS.getMessage(dbName));
+            }
+        }
+    }
+
     /**
      * Sends a GET request to CouchDB's /{db}/_all_docs endpoint and returns the
      * "rows" list in the response,
@@ -112,10 +200,7 @@ public abstract class CouchdbStore {
     protected List<ViewRow> getAllDocsFromDatabase(String dbName) throws CouchdbException {
 
         HttpGet fetchedDocs = httpRequestFactory.getHttpGetRequest(storeUri + "/" + dbName + "/_all_docs");
-        String responseEntity = sendHttpRequest(fetchedDocs, HttpStatus.SC_OK);
-
-        ViewResponse allDocs = gson.fromJson(responseEntity, ViewResponse.class);
-        List<ViewRow> viewRows = allDocs.rows;
+        List<ViewRow> viewRows = sendHttpRequest(fetchedDocs, new ViewRowsReader<>(gson, ViewRow.class), HttpStatus.SC_OK);
 
         if (viewRows == null) {
             String errorMessage = ERROR_FAILED_TO_GET_DOCUMENTS_FROM_DATABASE.getMessage(dbName);
@@ -209,18 +294,7 @@ public abstract class CouchdbStore {
             throws CouchdbException {
         String responseEntity = "";
         try (CloseableHttpResponse response = httpClient.execute(httpRequest)) {
-            StatusLine statusLine = response.getStatusLine();
-            int actualStatusCode = statusLine.getStatusCode();
-
-            if (!isStatusCodeExpected(actualStatusCode, expectedHttpStatusCodes)) {
-                String expectedStatusCodesStr = IntStream.of(expectedHttpStatusCodes)
-                        .mapToObj(Integer::toString)
-                        .collect(Collectors.joining(", "));
-
-                String errorMessage = ERROR_UNEXPECTED_COUCHDB_HTTP_RESPONSE.getMessage(httpRequest.getURI().toString(),
-                        expectedStatusCodesStr, actualStatusCode);
-                throw new CouchdbException(errorMessage);
-            }
+            checkResponseStatusCode(httpRequest, response, expectedHttpStatusCodes);
 
             HttpEntity entity = response.getEntity();
             responseEntity = EntityUtils.toString(entity);
@@ -233,6 +307,67 @@ public abstract class CouchdbStore {
         return responseEntity;
     }
 
+    /**
+     * Sends a given HTTP request to the CouchDB server and reads the response body
+     * as it streams in, rather than reading the whole body into a string first.
+     *
+     * @param <T>                     the type of object read from the response
+     * @param httpRequest             the HTTP request to send to the CouchDB server
+     * @param responseReader          reads what is needed out of the response body
+     * @param expectedHttpStatusCodes the expected Status code to get from the
+     *                                CouchDb server upon the request being actioned
+     * @return the object read from the response
+     * @throws CouchdbException if there was a problem accessing the CouchDB store
+     *                          or its response
+     */
+    protected <T> T sendHttpRequest(HttpUriRequest httpRequest, CouchdbResponseReader<T> responseReader, int... expectedHttpStatusCodes)
+            throws CouchdbException {
+        try (CloseableHttpResponse response = httpClient.execute(httpRequest)) {
+            checkResponseStatusCode(httpRequest, response, expectedHttpStatusCodes);
+
+            return readResponseEntity(response.getEntity(), responseReader);
+
+        } catch (IOException | JsonParseException e) {
+            String errorMessage = ERROR_FAILURE_OCCURRED_WHEN_CONTACTING_COUCHDB
+                    .getMessage(httpRequest.getURI().toString(), e.getMessage());
+            throw new CouchdbException(errorMessage, e);
+        }
+    }
+
+    /**
+     * Reads the JSON body of a CouchDB response as it streams in. Anything the given
+     * reader leaves unread is drained, so the connection can be reused.
+     *
+     * @param <T>            the type of object read from the response
+     * @param entity         the body of the response
+     * @param responseReader reads what is needed out of the response body
+     * @return the object read from the response
+     * @throws IOException if the response couldn't be read or isn't valid JSON
+     */
+    public static <T> T readResponseEntity(HttpEntity entity, CouchdbResponseReader<T> responseReader) throws IOException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8))) {
+            T result = responseReader.readResponse(reader);
+            EntityUtils.consume(entity);
+            return result;
+        }
+    }
+
+    private void checkResponseStatusCode(HttpUriRequest httpRequest, CloseableHttpResponse response, int... expectedHttpStatusCodes)
+            throws CouchdbException {
+        StatusLine statusLine = response.getStatusLine();
+        int actualStatusCode = statusLine.getStatusCode();
+
+        if (!isStatusCodeExpected(actualStatusCode, expectedHttpStatusCodes)) {
+            String expectedStatusCodesStr = IntStream.of(expectedHttpStatusCodes)
+                    .mapToObj(Integer::toString)
+                    .collect(Collectors.joining(", "));
+
+            String errorMessage = ERROR_UNEXPECTED_COUCHDB_HTTP_RESPONSE.getMessage(httpRequest.getURI().toString(),
+                    expectedStatusCodesStr, actualStatusCode);
+            throw new CouchdbException(errorMessage);
+        }
+    }
+
     /**
      * Checks if a given status code is an expected status code using a given array
      * of expected status codes.
@@ -0,0 +1,85 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.extensions.common.couchdb;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import dev.galasa.framework.spi.utils.GalasaGson;
+
+/**
+ * An HTTP entity which serialises an object into JSON as the request is sent,
+ * writing through a Gson JsonWriter straight to the connection's output stream.
+ *
+ * Unlike building the JSON into a String and wrapping it in a StringEntity, the
+ * document is never held in memory in full, which matters for large documents
+ * like the run structure of a long test. As the length isn't known up front, the
+ * request is sent using chunked transfer encoding.
+ *
+ * The entity is repeatable, so the request can be retried. Each attempt
+ * serialises the object again.
+ */
+public class JsonHttpEntity extends AbstractHttpEntity {
+
+    private final Object content;
+    private final Gson gson;
+
+    public JsonHttpEntity(Object content, GalasaGson gson) {
+        this.content = content;
+        this.gson = gson.getGson();
+        setContentType(ContentType.APPLICATION_JSON.toString());
+        setChunked(true);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    // Only used by callers which want to read the entity back, so buffering the whole document is acceptable here.
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeTo(buffer);
+        return new ByteArrayInputStream(buffer.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        // The output stream belongs to the connection, so it is flushed but not closed
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outStream, StandardCharsets.UTF_8));
+        JsonWriter jsonWriter = gson.newJsonWriter(writer);
+        try {
+            gson.toJson(content, content.getClass(), jsonWriter);
+        } catch (RuntimeException e) {
+            throw new IOException("Unable to serialise the JSON document", e);
+        }
+        jsonWriter.flush();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.extensions.common.couchdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import dev.galasa.framework.spi.utils.GalasaGson;
+
+/**
+ * Reads the "rows" of a CouchDB view response, eg: from /{db}/_all_docs or
+ * /{db}/_design/{ddoc}/_view/{view}, one row at a time. The other fields of the
+ * response, such as "total_rows" and "offset", are skipped over without being parsed.
+ *
+ * @param <T> the type each row is read into
+ */
+public class ViewRowsReader<T> implements CouchdbResponseReader<List<T>> {
+
+    private final GalasaGson gson;
+    private final Class<T> rowClass;
+
+    public ViewRowsReader(GalasaGson gson, Class<T> rowClass) {
+        this.gson = gson;
+        this.rowClass = rowClass;
+    }
+
+    /**
+     * @return the rows of the view, or null if the response didn't contain any rows
+     */
+    @Override
+    public List<T> readResponse(JsonReader reader) throws IOException {
+        List<T> rows = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String fieldName = reader.nextName();
+            if ("rows".equals(fieldName) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                rows = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    rows.add(gson.fromJson(reader, rowClass));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return rows;
+    }
+}
@@ -0,0 +1,14 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.extensions.common.couchdb.pojos;
+
+import java.util.List;
+
+public class BulkDocs {
+
+    public List<?> docs;
+
+}
@@ -11,4 +11,8 @@ public class PutPostResponse {
     public boolean ok;
     public String rev;
 
+    // Only set when a document in a _bulk_docs request could not be stored.
+    public String error;
+    public String reason;
+
 }
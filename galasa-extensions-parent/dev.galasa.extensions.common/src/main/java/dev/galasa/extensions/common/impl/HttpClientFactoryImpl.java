@@ -12,9 +12,31 @@ import dev.galasa.extensions.common.api.HttpClientFactory;
 
 public class HttpClientFactoryImpl implements HttpClientFactory {
 
+    // 0 means the HttpClient defaults are used
+    private final int maxConnections;
+
+    public HttpClientFactoryImpl() {
+        this(0);
+    }
+
+    /**
+     * @param maxConnections the size of the connection pool, both per route and in total.
+     * Clients which send several requests at once to the same server need more than the
+     * default of 2 connections per route.
+     */
+    public HttpClientFactoryImpl(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
     @Override
     public CloseableHttpClient createClient() {
-        return HttpClients.createDefault();
+        if (maxConnections <= 0) {
+            return HttpClients.createDefault();
+        }
+        return HttpClients.custom()
+            .setMaxConnPerRoute(maxConnections)
+            .setMaxConnTotal(maxConnections)
+            .build();
     }
 
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.extensions.common.couchdb;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.http.util.EntityUtils;
+import org.junit.*;
+
+import dev.galasa.extensions.common.couchdb.pojos.PutPostResponse;
+import dev.galasa.framework.spi.utils.GalasaGson;
+
+public class JsonHttpEntityTest {
+
+    private GalasaGson gson = new GalasaGson();
+
+    private PutPostResponse createDocument() {
+        PutPostResponse document = new PutPostResponse();
+        document.id = "my-doc-id";
+        document.rev = "1-abc";
+        document.ok = true;
+        document.reason = "caf\u00e9 \"quoted\"";
+        return document;
+    }
+
+    @Test
+    public void testWritesTheSameJsonAsGson() throws Exception {
+        PutPostResponse document = createDocument();
+        JsonHttpEntity entity = new JsonHttpEntity(document, gson);
+
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        entity.writeTo(outStream);
+
+        assertThat(outStream.toString(StandardCharsets.UTF_8)).isEqualTo(gson.toJson(document));
+    }
+
+    @Test
+    public void testEntityIsRepeatableAndCanBeReadBack() throws Exception {
+        PutPostResponse document = createDocument();
+        JsonHttpEntity entity = new JsonHttpEntity(document, gson);
+
+        assertThat(entity.isRepeatable()).isTrue();
+        assertThat(EntityUtils.toString(entity)).isEqualTo(gson.toJson(document));
+        assertThat(EntityUtils.toString(entity)).isEqualTo(gson.toJson(document));
+    }
+
+    @Test
+    public void testEntityIsSentAsChunkedJson() throws Exception {
+        JsonHttpEntity entity = new JsonHttpEntity(List.of("a", "b"), gson);
+
+        assertThat(entity.getContentType().getValue()).startsWith("application/json");
+        assertThat(entity.isChunked()).isTrue();
+        assertThat(entity.getContentLength()).isEqualTo(-1);
+    }
+}
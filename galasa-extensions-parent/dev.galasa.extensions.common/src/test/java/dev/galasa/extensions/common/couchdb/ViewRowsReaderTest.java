@@ -0,0 +1,63 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.extensions.common.couchdb;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.List;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.junit.*;
+
+import dev.galasa.extensions.common.couchdb.pojos.ViewRow;
+import dev.galasa.framework.spi.utils.GalasaGson;
+
+public class ViewRowsReaderTest {
+
+    private GalasaGson gson = new GalasaGson();
+
+    private List<ViewRow> readViewRows(String responseBody) throws Exception {
+        StringEntity entity = new StringEntity(responseBody, ContentType.APPLICATION_JSON);
+        return CouchdbStore.readResponseEntity(entity, new ViewRowsReader<>(gson, ViewRow.class));
+    }
+
+    @Test
+    public void testReadsEachRowAndSkipsTheRestOfTheResponse() throws Exception {
+        // Given...
+        String responseBody = "{\"total_rows\":2,\"offset\":0,\"rows\":["
+            + "{\"id\":\"doc1\",\"key\":\"requestor1\",\"value\":{\"rev\":\"1-abc\"}},"
+            + "{\"id\":\"doc2\",\"key\":\"caf\u00e9\",\"value\":3}"
+            + "],\"update_seq\":\"12-xyz\"}";
+
+        // When...
+        List<ViewRow> rows = readViewRows(responseBody);
+
+        // Then...
+        assertThat(rows).hasSize(2);
+        assertThat(rows.get(0).id).isEqualTo("doc1");
+        assertThat(rows.get(0).key).isEqualTo("requestor1");
+        assertThat(rows.get(1).key).isEqualTo("caf\u00e9");
+    }
+
+    @Test
+    public void testResponseWithoutRowsGivesNull() throws Exception {
+        // When...
+        List<ViewRow> rows = readViewRows("{\"error\":\"not_found\",\"reason\":\"missing\"}");
+
+        // Then...
+        assertThat(rows).isNull();
+    }
+
+    @Test
+    public void testInvalidJsonResponseThrowsError() throws Exception {
+        // When...
+        Throwable thrown = catchThrowable(() -> readViewRows("{\"rows\":[{\"id\":"));
+
+        // Then...
+        assertThat(thrown).isNotNull();
+    }
+}
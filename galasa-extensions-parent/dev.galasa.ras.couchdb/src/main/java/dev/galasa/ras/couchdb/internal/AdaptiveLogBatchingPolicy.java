@@ -0,0 +1,66 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+/**
+ * The default log batching policy.
+ *
+ * Batches start at the minimum number of lines. When a batch fills up quickly the
+ * test is logging heavily, so the line target doubles (up to the maximum) to cut the
+ * number of requests sent to CouchDB. When a batch has to be shipped before it fills
+ * up, the test has gone quiet, so the line target halves again (down to the minimum).
+ *
+ * Whatever the line target, a batch is shipped once it reaches the maximum size
+ * in bytes, so a large stack trace doesn't produce a huge document.
+ */
+public class AdaptiveLogBatchingPolicy implements LogBatchingPolicy {
+
+    private final int minLines;
+    private final int maxLines;
+    private final long maxBytes;
+    private final long maxLingerMillis;
+
+    private int targetLines;
+
+    public AdaptiveLogBatchingPolicy(int minLines, int maxLines, long maxBytes, long maxLingerMillis) {
+        this.minLines = Math.max(1, minLines);
+        this.maxLines = Math.max(this.minLines, maxLines);
+        this.maxBytes = maxBytes;
+        this.maxLingerMillis = Math.max(0, maxLingerMillis);
+        this.targetLines = this.minLines;
+    }
+
+    @Override
+    public boolean isBatchFull(int lineCount, long byteCount) {
+        return lineCount >= targetLines || (maxBytes > 0 && byteCount >= maxBytes);
+    }
+
+    @Override
+    public long getMaxLingerMillis() {
+        return maxLingerMillis;
+    }
+
+    @Override
+    public void batchShipped(int lineCount, long byteCount, long lingerMillis, boolean isFull) {
+        if (isFull) {
+            if (isFilledQuickly(lingerMillis)) {
+                targetLines = (int) Math.min((long) maxLines, targetLines * 2L);
+            }
+        } else {
+            targetLines = Math.max(minLines, targetLines / 2);
+        }
+    }
+
+    // A batch which fills in under a quarter of the linger time means lines are arriving fast.
+    // With no linger time configured, any full batch counts as filling quickly.
+    private boolean isFilledQuickly(long lingerMillis) {
+        return maxLingerMillis == 0 || lingerMillis < (maxLingerMillis / 4);
+    }
+
+    public int getTargetLines() {
+        return targetLines;
+    }
+}
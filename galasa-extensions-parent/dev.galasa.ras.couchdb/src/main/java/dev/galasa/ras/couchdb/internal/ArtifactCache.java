@@ -0,0 +1,260 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.logging.Log;
+
+import dev.galasa.extensions.common.api.LogFactory;
+
+/**
+ * A size bounded cache of artifacts downloaded from CouchDB, held as files in a directory of
+ * their own. Artifacts are cached by a key made from the id and revision of their artifact
+ * document and their path, so a cached artifact is never out of date. The artifacts used
+ * least recently are removed once the cache grows beyond its maximum size.
+ *
+ * When several threads want the same artifact which isn't cached yet, it is only downloaded
+ * once, and they all wait for that download. An artifact which is being read isn't removed
+ * from the cache until it has been read, so the cache may grow beyond its maximum size while
+ * more than that many bytes of artifacts are being read.
+ */
+public class ArtifactCache {
+
+    /**
+     * Downloads an artifact into a file.
+     */
+    public interface ArtifactDownloader {
+        void download(Path target) throws IOException;
+    }
+
+    /**
+     * An artifact which can be read from a local file until it is closed.
+     */
+    public static class CachedArtifact implements Closeable {
+        private final Path path;
+        private final Closeable releaser;
+        private boolean isClosed = false;
+
+        private CachedArtifact(Path path, Closeable releaser) {
+            this.path = path;
+            this.releaser = releaser;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!isClosed) {
+                isClosed = true;
+                releaser.close();
+            }
+        }
+    }
+
+    // An artifact in the cache. All guarded by the cache.
+    private static class CacheEntry {
+        private final Path path;
+        private final long size;
+        private int readerCount;
+        private boolean isRemoved;
+
+        private CacheEntry(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    private final Log logger;
+    private final Path cacheDirectory;
+    private final long maxSizeBytes;
+
+    // In order of when they were last used, least recently used first. Guarded by 'this'.
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<CacheEntry>> downloads = new HashMap<>();
+    private long sizeBytes;
+
+    public ArtifactCache(Path cacheDirectory, long maxSizeBytes, LogFactory logFactory) {
+        this.logger = logFactory.getLog(getClass());
+        this.cacheDirectory = cacheDirectory;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * An artifact which isn't cached, read from a temporary file which is deleted once it is closed.
+     */
+    public static CachedArtifact createUncachedArtifact(Path temporaryFile) {
+        return new CachedArtifact(temporaryFile, () -> Files.deleteIfExists(temporaryFile));
+    }
+
+    /**
+     * @param key identifies the artifact, and must change if the artifact changes
+     * @param downloader downloads the artifact if it isn't already cached
+     * @return the artifact, which must be closed once it has been read
+     */
+    public CachedArtifact getArtifact(String key, ArtifactDownloader downloader) throws IOException {
+        CompletableFuture<CacheEntry> download;
+        boolean isDownloader = false;
+        synchronized (this) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                return read(entry);
+            }
+
+            download = downloads.get(key);
+            if (download == null) {
+                download = new CompletableFuture<>();
+                downloads.put(key, download);
+                isDownloader = true;
+            }
+        }
+
+        if (isDownloader) {
+            return download(key, downloader, download);
+        }
+        return waitForDownload(key, downloader, download);
+    }
+
+    /**
+     * @return how many bytes of artifacts are in the cache
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Removes every artifact from the cache, along with the cache directory, as far as possible.
+     * Artifacts which are still being read are removed once they have been read.
+     */
+    public void clear() {
+        synchronized (this) {
+            Iterator<CacheEntry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                CacheEntry entry = iterator.next();
+                iterator.remove();
+                remove(entry);
+            }
+        }
+        try {
+            Files.deleteIfExists(cacheDirectory);
+        } catch (IOException e) {
+            logger.debug("Unable to delete the artifact cache directory " + cacheDirectory, e);
+        }
+    }
+
+    private CachedArtifact download(String key, ArtifactDownloader downloader, CompletableFuture<CacheEntry> download) throws IOException {
+        // Every download has a file of its own, so a file still being read is never replaced or deleted by another download
+        Path cachedPath = null;
+        try {
+            Files.createDirectories(cacheDirectory);
+            cachedPath = Files.createTempFile(cacheDirectory, "artifact", ".tmp");
+            downloader.download(cachedPath);
+        } catch (IOException | RuntimeException e) {
+            if (cachedPath != null) {
+                Files.deleteIfExists(cachedPath);
+            }
+            // Whoever is waiting tries again for themselves, rather than being given this failure
+            synchronized (this) {
+                downloads.remove(key);
+            }
+            download.complete(null);
+            throw e;
+        }
+
+        CacheEntry entry = new CacheEntry(cachedPath, Files.size(cachedPath));
+        CachedArtifact artifact;
+        synchronized (this) {
+            downloads.remove(key);
+            artifact = read(entry);
+            if (entry.size <= maxSizeBytes) {
+                entries.put(key, entry);
+                sizeBytes += entry.size;
+                evict();
+            } else {
+                // Too big to be worth caching, so it goes once it has been read
+                entry.isRemoved = true;
+            }
+        }
+        download.complete(entry);
+        return artifact;
+    }
+
+    private CachedArtifact waitForDownload(String key, ArtifactDownloader downloader, CompletableFuture<CacheEntry> download) throws IOException {
+        CacheEntry entry;
+        try {
+            entry = download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for artifact to be downloaded");
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to download artifact", e.getCause());
+        }
+
+        synchronized (this) {
+            if (entry != null && (!entry.isRemoved || entry.readerCount > 0)) {
+                // Still there, even if it has been removed from the cache since
+                return read(entry);
+            }
+        }
+        return getArtifact(key, downloader);
+    }
+
+    // Guarded by 'this'
+    private CachedArtifact read(CacheEntry entry) {
+        entry.readerCount++;
+        return new CachedArtifact(entry.path, () -> release(entry));
+    }
+
+    private synchronized void release(CacheEntry entry) {
+        entry.readerCount--;
+        if (entry.isRemoved && entry.readerCount == 0) {
+            delete(entry);
+        } else if (!entry.isRemoved) {
+            evict();
+        }
+    }
+
+    // Guarded by 'this'. Removes the least recently used artifacts which aren't being read, until the cache fits again
+    private void evict() {
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+            CacheEntry entry = iterator.next();
+            if (entry.readerCount == 0) {
+                iterator.remove();
+                remove(entry);
+            }
+        }
+    }
+
+    // Guarded by 'this'
+    private void remove(CacheEntry entry) {
+        sizeBytes -= entry.size;
+        entry.isRemoved = true;
+        if (entry.readerCount == 0) {
+            delete(entry);
+        }
+    }
+
+    private void delete(CacheEntry entry) {
+        try {
+            Files.deleteIfExists(entry.path);
+        } catch (IOException e) {
+            logger.debug("Unable to delete cached artifact " + entry.path, e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import dev.galasa.extensions.common.couchdb.CouchdbException;
+import dev.galasa.extensions.common.couchdb.pojos.PutPostResponse;
+
+/**
+ * The artifact documents a run stores its artifacts in.
+ *
+ * Adding an attachment to a CouchDB document needs the document's latest revision,
+ * so only one artifact can be uploaded into a document at a time. To let several
+ * artifacts upload at once, each upload leases a document of its own for as long
+ * as it takes. When every document is in use, another artifact document is created
+ * for the run, up to a limit. After that, uploads wait for a document to be released.
+ *
+ * Uploads always get the earliest created document which is free, so a run which
+ * stores its artifacts one at a time keeps them all in its first artifact document.
+ */
+public class ArtifactDocumentPool {
+
+    /**
+     * Creates a new artifact document for the run, and records it against the run.
+     */
+    public interface ArtifactDocumentCreator {
+        PutPostResponse createArtifactDocument() throws CouchdbException;
+    }
+
+    public static class ArtifactDocument {
+        private final int index;
+        private final String id;
+        private volatile String revision;
+
+        private ArtifactDocument(int index, String id, String revision) {
+            this.index = index;
+            this.id = id;
+            this.revision = revision;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getRevision() {
+            return revision;
+        }
+
+        public void setRevision(String revision) {
+            this.revision = revision;
+        }
+    }
+
+    private final ArtifactDocumentCreator creator;
+    private final int maxDocuments;
+    private final ArtifactDocument firstDocument;
+
+    // Guarded by 'this'
+    private final PriorityQueue<ArtifactDocument> freeDocuments = new PriorityQueue<>(Comparator.comparingInt(doc -> doc.index));
+    private int documentCount = 1;
+
+    public ArtifactDocumentPool(String firstDocumentId, String firstDocumentRevision, int maxDocuments, ArtifactDocumentCreator creator) {
+        this.creator = creator;
+        this.maxDocuments = Math.max(1, maxDocuments);
+        this.firstDocument = new ArtifactDocument(0, firstDocumentId, firstDocumentRevision);
+        this.freeDocuments.add(firstDocument);
+    }
+
+    public ArtifactDocument getFirstDocument() {
+        return firstDocument;
+    }
+
+    /**
+     * Gets an artifact document which no other upload is using, waiting for one if need be.
+     * The document must be given back using {@link #release(ArtifactDocument)}.
+     */
+    public ArtifactDocument lease() throws CouchdbException, InterruptedException {
+        int newDocumentIndex;
+        synchronized (this) {
+            while (freeDocuments.isEmpty() && documentCount >= maxDocuments) {
+                wait();
+            }
+            if (!freeDocuments.isEmpty()) {
+                return freeDocuments.poll();
+            }
+            newDocumentIndex = documentCount;
+            documentCount++;
+        }
+
+        // Created without holding the lock, so other uploads can carry on in the meantime
+        try {
+            PutPostResponse newDocument = creator.createArtifactDocument();
+            return new ArtifactDocument(newDocumentIndex, newDocument.id, newDocument.rev);
+        } catch (CouchdbException | RuntimeException e) {
+            synchronized (this) {
+                documentCount--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a leased document, so another upload can use it.
+     */
+    public synchronized void release(ArtifactDocument document) {
+        freeDocuments.add(document);
+        notifyAll();
+    }
+}
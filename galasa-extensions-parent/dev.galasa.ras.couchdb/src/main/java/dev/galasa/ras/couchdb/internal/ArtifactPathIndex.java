@@ -0,0 +1,118 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The artifact paths of a run, held as a tree with a node for each directory and artifact, so
+ * a directory is listed by going straight to its node rather than by looking through every
+ * path, and a path is found by following its names down from the root.
+ *
+ * Paths can be found, directories listed and paths added by many threads at once. There is no
+ * lock over the whole tree. Each directory's children are a concurrent map, so threads adding
+ * paths to different directories don't get in each other's way, and when threads add the same
+ * new directory at once, only one of them creates it.
+ */
+public class ArtifactPathIndex {
+
+    private static class Node {
+        private final CouchdbArtifactPath path;
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+
+        private Node(CouchdbArtifactPath path) {
+            this.path = path;
+        }
+    }
+
+    private final Node root;
+
+    public ArtifactPathIndex(CouchdbArtifactPath root) {
+        this.root = new Node(root.toAbsolutePath());
+    }
+
+    /**
+     * Adds a path, along with any of its parent directories which aren't already there. A path
+     * which is already there is kept, rather than being replaced.
+     */
+    public void add(CouchdbArtifactPath path) {
+        path = path.toAbsolutePath();
+        List<String> names = getNames(path);
+
+        // The paths of the parent directories are only made if some of them are new
+        CouchdbArtifactPath[] pathsByDepth = null;
+
+        Node node = root;
+        for (int depth = 0; depth < names.size(); depth++) {
+            Node child = node.children.get(names.get(depth));
+            if (child == null) {
+                if (pathsByDepth == null) {
+                    pathsByDepth = getPathsByDepth(path, names.size());
+                }
+                // Another thread may have added it since, in which case theirs is kept
+                CouchdbArtifactPath childPath = pathsByDepth[depth];
+                child = node.children.computeIfAbsent(names.get(depth), name -> new Node(childPath));
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * @return the path as it was added, or null if it hasn't been added
+     */
+    public CouchdbArtifactPath find(Path path) {
+        Node node = findNode(path);
+        return (node == null) ? null : node.path;
+    }
+
+    /**
+     * @return the paths directly within a directory, or an empty list if there is no such directory
+     */
+    public List<CouchdbArtifactPath> getChildren(Path directory) {
+        List<CouchdbArtifactPath> children = new ArrayList<>();
+        Node node = findNode(directory);
+        if (node != null) {
+            for (Node child : node.children.values()) {
+                children.add(child.path);
+            }
+        }
+        return children;
+    }
+
+    private Node findNode(Path path) {
+        Node node = root;
+        for (Path name : path.toAbsolutePath()) {
+            node = node.children.get(name.toString());
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private List<String> getNames(Path path) {
+        List<String> names = new ArrayList<>(path.getNameCount());
+        for (Path name : path) {
+            names.add(name.toString());
+        }
+        return names;
+    }
+
+    // The path of each directory on the way to the path, then the path itself
+    private CouchdbArtifactPath[] getPathsByDepth(CouchdbArtifactPath path, int depthCount) {
+        CouchdbArtifactPath[] pathsByDepth = new CouchdbArtifactPath[depthCount];
+        CouchdbArtifactPath pathAtDepth = path;
+        for (int depth = depthCount - 1; depth >= 0; depth--) {
+            pathsByDepth[depth] = pathAtDepth;
+            pathAtDepth = pathAtDepth.getParent();
+        }
+        return pathsByDepth;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * The ways artifacts and run log documents can be compressed before they are sent to CouchDB.
+ *
+ * A compressed artifact is marked by a content-encoding parameter on the content type of
+ * its attachment, eg: "plain/text; content-encoding=gzip", so the marker is kept with the
+ * attachment itself, however many other attachments share its artifact document. The length
+ * of the artifact before it was compressed follows it where it is known when the artifact
+ * is sent, eg: "plain/text; content-encoding=gzip; uncompressed-length=12345", as CouchDB
+ * only knows the compressed length.
+ */
+public enum ContentEncoding {
+
+    GZIP("gzip") {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+    },
+
+    DEFLATE("deflate") {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new DeflaterOutputStream(out);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new InflaterInputStream(in);
+        }
+    };
+
+    private static final int    BUFFER_SIZE            = 8192;
+    private static final String CONTENT_TYPE_PARAMETER = "content-encoding=";
+    private static final String LENGTH_PARAMETER       = "uncompressed-length=";
+
+    private final String name;
+
+    private ContentEncoding(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Wraps a stream so that whatever is written to it is compressed. Closing the
+     * returned stream also closes the stream it wraps.
+     */
+    public abstract OutputStream compress(OutputStream out) throws IOException;
+
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    public byte[] compress(byte[] content) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(32, content.length / 4));
+        try (OutputStream compressor = compress(buffer)) {
+            compressor.write(content);
+        }
+        return buffer.toByteArray();
+    }
+
+    public byte[] decompress(byte[] content) throws IOException {
+        try (InputStream decompressor = decompress(new ByteArrayInputStream(content))) {
+            return decompressor.readAllBytes();
+        }
+    }
+
+    /**
+     * An entity which sends the given entity compressed. As the compressed length isn't
+     * known up front, it is sent using chunked transfer encoding.
+     */
+    public HttpEntity compress(HttpEntity entity) {
+        return new CompressingHttpEntity(entity, this);
+    }
+
+    public String addToContentType(String contentType) {
+        return contentType + "; " + CONTENT_TYPE_PARAMETER + this.name;
+    }
+
+    public String addToContentType(String contentType, long uncompressedLength) {
+        return addToContentType(contentType) + "; " + LENGTH_PARAMETER + uncompressedLength;
+    }
+
+    /**
+     * @return the length of the content before it was compressed, as marked on a content type,
+     *         or null if it isn't marked
+     */
+    public static Long getUncompressedLength(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int parameterIndex = contentType.indexOf(LENGTH_PARAMETER);
+        if (parameterIndex < 0) {
+            return null;
+        }
+        String length = contentType.substring(parameterIndex + LENGTH_PARAMETER.length());
+        int parameterEnd = length.indexOf(';');
+        if (parameterEnd >= 0) {
+            length = length.substring(0, parameterEnd);
+        }
+        try {
+            return Long.valueOf(length.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the encoding marked on a content type, or null if the content isn't compressed
+     * @throws IllegalArgumentException if the content was compressed in a way we don't know about
+     */
+    public static ContentEncoding fromContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int parameterIndex = contentType.indexOf(CONTENT_TYPE_PARAMETER);
+        if (parameterIndex < 0) {
+            return null;
+        }
+        String encodingName = contentType.substring(parameterIndex + CONTENT_TYPE_PARAMETER.length());
+        int parameterEnd = encodingName.indexOf(';');
+        if (parameterEnd >= 0) {
+            encodingName = encodingName.substring(0, parameterEnd);
+        }
+        return fromName(encodingName);
+    }
+
+    public static String removeFromContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int parameterIndex = contentType.indexOf(CONTENT_TYPE_PARAMETER);
+        if (parameterIndex < 0) {
+            return contentType;
+        }
+        int typeEnd = contentType.lastIndexOf(';', parameterIndex);
+        if (typeEnd < 0) {
+            typeEnd = parameterIndex;
+        }
+        return contentType.substring(0, typeEnd).trim();
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no encoding with the given name
+     */
+    public static ContentEncoding fromName(String name) {
+        String trimmedName = name.trim();
+        for (ContentEncoding encoding : values()) {
+            if (encoding.name.equalsIgnoreCase(trimmedName)) {
+                return encoding;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported content encoding '" + trimmedName + "'");
+    }
+
+    private static class CompressingHttpEntity extends HttpEntityWrapper {
+
+        private final ContentEncoding encoding;
+
+        CompressingHttpEntity(HttpEntity wrappedEntity, ContentEncoding encoding) {
+            super(wrappedEntity);
+            this.encoding = encoding;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public boolean isChunked() {
+            return true;
+        }
+
+        // Only used by callers which want to read the entity back, so buffering the compressed content is acceptable here.
+        @Override
+        public InputStream getContent() throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            writeTo(buffer);
+            return new ByteArrayInputStream(buffer.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            // The output stream belongs to the connection, so closing the compressor must not close it
+            OutputStream unclosableOutStream = new FilterOutputStream(outStream) {
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    out.write(bytes, offset, length);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+
+            try (OutputStream compressor = encoding.compress(unclosableOutStream)) {
+                wrappedEntity.writeTo(compressor);
+            }
+        }
+    }
+}
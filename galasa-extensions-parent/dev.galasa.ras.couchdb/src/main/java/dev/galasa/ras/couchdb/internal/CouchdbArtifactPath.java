@@ -18,10 +18,19 @@ import dev.galasa.framework.spi.ras.ResultArchiveStorePath;
 public class CouchdbArtifactPath extends ResultArchiveStorePath {
 
     private String  contentType;
-    private int     length;
+    private long    length;
 
     private String  artifactRecordId;
 
+    // The revision of the artifact document when the artifact was found, if it is known
+    private String  artifactRecordRevision;
+
+    // Base64 encoded content, for artifacts held inline in their artifact document
+    private String  inlineArtifactData;
+
+    // Null unless the artifact was compressed before it was stored
+    private ContentEncoding contentEncoding;
+
     private boolean directory = false;
 
     public CouchdbArtifactPath(@NotNull FileSystem fileSystem, String pathName) {
@@ -39,17 +48,49 @@ public class CouchdbArtifactPath extends ResultArchiveStorePath {
 
         JsonElement ct = artifactDetails.get("content_type");
         if (ct != null) {
-            this.contentType = ct.getAsString();
+            setContentType(ct.getAsString());
         } else {
             this.contentType = "unknown";
         }
 
         JsonElement len = artifactDetails.get("length");
         if (len != null) {
-            this.length = len.getAsInt();
+            this.length = len.getAsLong();
         } else {
             this.length = 0;
         }
+
+        // CouchDB only knows how long a compressed artifact is once compressed
+        if (this.contentEncoding != null && ct != null) {
+            Long uncompressedLength = ContentEncoding.getUncompressedLength(ct.getAsString());
+            if (uncompressedLength != null) {
+                this.length = uncompressedLength;
+            }
+        }
+    }
+
+    protected CouchdbArtifactPath(@NotNull FileSystem fileSystem, String pathName, String contentType, long length,
+            String artifactRecordId, String inlineArtifactData) {
+        super(fileSystem, pathName);
+        this.artifactRecordId = artifactRecordId;
+        if (contentType != null) {
+            setContentType(contentType);
+        } else {
+            this.contentType = "unknown";
+        }
+        this.length = length;
+        this.inlineArtifactData = inlineArtifactData;
+    }
+
+    // The content type of a compressed artifact is marked with how it was compressed
+    private void setContentType(String storedContentType) {
+        this.contentType = ContentEncoding.removeFromContentType(storedContentType);
+        try {
+            this.contentEncoding = ContentEncoding.fromContentType(storedContentType);
+        } catch (IllegalArgumentException e) {
+            // Compressed in a way we don't understand, so leave it to the reader to make sense of
+            this.contentType = storedContentType;
+        }
     }
 
     @Override
@@ -82,6 +123,29 @@ public class CouchdbArtifactPath extends ResultArchiveStorePath {
         return this.artifactRecordId;
     }
 
+    public String getArtifactRecordRevision() {
+        return this.artifactRecordRevision;
+    }
+
+    protected void setArtifactRecordRevision(String artifactRecordRevision) {
+        this.artifactRecordRevision = artifactRecordRevision;
+    }
+
+    public String getInlineArtifactData() {
+        return this.inlineArtifactData;
+    }
+
+    public ContentEncoding getContentEncoding() {
+        return this.contentEncoding;
+    }
+
+    /**
+     * @return true if the artifact can be read a range of bytes at a time, being an attachment stored as it was written
+     */
+    public boolean isRangeReadable() {
+        return this.artifactRecordId != null && this.inlineArtifactData == null && this.contentEncoding == null;
+    }
+
     public CoucbDbBasicAttributes readAttributes() {
         return new CoucbDbBasicAttributes(this);
     }
@@ -94,6 +158,10 @@ public class CouchdbArtifactPath extends ResultArchiveStorePath {
         return this.length;
     }
 
+    protected void setLength(long length) {
+        this.length = length;
+    }
+
     public String getContentType() {
         return contentType;
     }
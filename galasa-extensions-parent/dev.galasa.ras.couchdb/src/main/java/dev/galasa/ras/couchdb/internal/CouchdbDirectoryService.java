@@ -5,27 +5,41 @@
  */
 package dev.galasa.ras.couchdb.internal;
 
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URISyntaxException;
+import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import javax.validation.constraints.NotNull;
 
 import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import org.apache.commons.logging.Log;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
 import org.apache.http.ParseException;
 import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -50,14 +64,25 @@ import dev.galasa.framework.spi.ras.RasSortField;
 import dev.galasa.framework.spi.ras.RasSearchCriteriaStatus;
 import dev.galasa.framework.spi.ras.RasTestClass;
 import dev.galasa.framework.spi.ras.ResultArchiveStoreFileStore;
+import dev.galasa.framework.spi.utils.ITimeService;
+import dev.galasa.framework.spi.utils.SystemTimeService;
 import dev.galasa.extensions.common.api.LogFactory;
+import dev.galasa.extensions.common.couchdb.CouchdbStore;
+import dev.galasa.extensions.common.couchdb.JsonHttpEntity;
+import dev.galasa.extensions.common.couchdb.ViewRowsReader;
+import dev.galasa.extensions.common.couchdb.pojos.BulkDocs;
 import dev.galasa.extensions.common.couchdb.pojos.IdRev;
-import dev.galasa.extensions.common.couchdb.pojos.Row;
-import dev.galasa.extensions.common.couchdb.pojos.ViewResponse;
+import dev.galasa.extensions.common.couchdb.pojos.PutPostResponse;
 import dev.galasa.extensions.common.couchdb.pojos.ViewRow;
 import dev.galasa.extensions.common.api.HttpRequestFactory;
+import dev.galasa.ras.couchdb.internal.pojos.Changes;
+import dev.galasa.ras.couchdb.internal.pojos.DeletedDocument;
+import dev.galasa.ras.couchdb.internal.pojos.DocumentKeys;
+import dev.galasa.ras.couchdb.internal.pojos.DocumentRevisionRow;
+import dev.galasa.ras.couchdb.internal.pojos.ExecutionStats;
 import dev.galasa.ras.couchdb.internal.pojos.Find;
-import dev.galasa.ras.couchdb.internal.pojos.FoundRuns;
+import dev.galasa.ras.couchdb.internal.pojos.RunDocumentRow;
+import dev.galasa.ras.couchdb.internal.pojos.RunDocuments;
 import dev.galasa.ras.couchdb.internal.pojos.TestStructureCouchdb;
 
 public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryService {
@@ -72,11 +97,48 @@ public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryServ
 
     private static final int COUCHDB_RESULTS_LIMIT_PER_QUERY = 100;
 
+    // The number of run documents fetched by each request when listing every run
+    static final int COUCHDB_ALL_DOCS_PAGE_SIZE = 100;
+
+    private static final String REQUESTORS_VIEW       = "requestors-view";
+    private static final String RESULT_VIEW           = "result-view";
+    private static final String BUNDLE_TESTNAMES_VIEW = "bundle-testnames-view";
+
+    // How often CouchDB sends a heartbeat on the feed of changes to runs when nothing is changing
+    private static final int RUN_CHANGES_HEARTBEAT_MILLIS = 30000;
+
+    // The most runs the index of recently changed runs holds
+    private static final int MAX_RECENTLY_CHANGED_RUNS = 1000;
+
+    // How many runs are discarded together when many runs are discarded at once
+    static final int DISCARD_RUNS_PER_BATCH = 100;
+
+    // The most documents whose revisions are found, or which are deleted, in one request when discarding runs
+    static final int DISCARD_MAX_DOCUMENTS_PER_REQUEST = 1000;
+
+    private final FacetCache facetCache;
+    private final ITimeService timeService;
+    private final RunQueryPlanner queryPlanner = new RunQueryPlanner();
+    private final RunQueryStatistics queryStatistics;
+
+    // Guarded by 'this'. Only started once something wants to follow changes to runs
+    private RunChangesFollower runChangesFollower;
+
+    // Guarded by 'this'. Shared by every run whose artifacts are looked at, so it bounds the loads across all of them
+    private ExecutorService artifactDocumentLoader;
+
     public CouchdbDirectoryService(CouchdbRasStore store, LogFactory logFactory, HttpRequestFactory requestFactory) {
+        this(store, logFactory, requestFactory, new SystemTimeService());
+    }
+
+    public CouchdbDirectoryService(CouchdbRasStore store, LogFactory logFactory, HttpRequestFactory requestFactory, ITimeService timeService) {
         this.store = store;
         this.logFactory = logFactory;
         this.logger = logFactory.getLog(getClass());
         this.requestFactory = requestFactory;
+        this.timeService = timeService;
+        this.facetCache = new FacetCache(store.getFacetCacheTtlSeconds(), timeService, new RunChangesChecker(), logFactory);
+        this.queryStatistics = new RunQueryStatistics(store.getSlowQueryThresholdMillis(), logFactory);
     }
 
     @Override
@@ -96,95 +158,259 @@ public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryServ
 
     public Path getRunArtifactPath(TestStructureCouchdb ts) throws CouchdbRasException {
         CouchdbRasFileSystemProvider runProvider = createFileSystemProvider();
-        if (ts.getArtifactRecordIds() == null || ts.getArtifactRecordIds().isEmpty()) {
+        List<String> artifactRecordIds = ts.getArtifactRecordIds();
+        if (artifactRecordIds == null || artifactRecordIds.isEmpty()) {
             return runProvider.getRoot();
         }
 
-        for (String artifactRecordId : ts.getArtifactRecordIds()) {
-            HttpGet httpGet = requestFactory.getHttpGetRequest(store.getCouchdbUri() + "/galasa_artifacts/" + artifactRecordId);
+        FileSystem fileSystem = runProvider.getActualFileSystem();
+        ExecutorService loader = getArtifactDocumentLoader();
 
-            try (CloseableHttpResponse response = store.getHttpClient().execute(httpGet)) {
-                StatusLine statusLine = response.getStatusLine();
-                if (statusLine.getStatusCode() == HttpStatus.SC_NOT_FOUND) { // TODO Ignore it for now
-                    continue;
+        if (loader == null || artifactRecordIds.size() == 1) {
+            for (String artifactRecordId : artifactRecordIds) {
+                addArtifactPaths(runProvider, loadArtifactPaths(fileSystem, artifactRecordId));
+            }
+        } else {
+            // Each artifact document is loaded on the shared loader threads, and the paths found
+            // are added to the run's file system here, in the order of the artifact documents
+            List<Future<List<CouchdbArtifactPath>>> loadedPaths = new ArrayList<>();
+            for (String artifactRecordId : artifactRecordIds) {
+                loadedPaths.add(loader.submit(() -> loadArtifactPaths(fileSystem, artifactRecordId)));
+            }
+
+            try {
+                for (Future<List<CouchdbArtifactPath>> paths : loadedPaths) {
+                    addArtifactPaths(runProvider, paths.get());
                 }
-                if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
-                    throw new CouchdbRasException("Unable to find artifacts - " + statusLine.toString());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CouchdbRasException) {
+                    throw (CouchdbRasException) e.getCause();
                 }
-
-                HttpEntity entity = response.getEntity();
-                String responseEntity = EntityUtils.toString(entity);
-                JsonObject artifactRecord = store.getGson().fromJson(responseEntity, JsonObject.class);
-
-                JsonElement attachmentsElement = artifactRecord.get("_attachments");
-
-                if (attachmentsElement != null) {
-                    if (attachmentsElement instanceof JsonObject) {
-                        JsonObject attachments = (JsonObject) attachmentsElement;
-                        Set<Entry<String, JsonElement>> entries = attachments.entrySet();
-                        if (entries != null) {
-                            for (Entry<String, JsonElement> entry : entries) {
-                                JsonElement elem = entry.getValue();
-                                if (elem instanceof JsonObject) {
-                                    runProvider.addPath(new CouchdbArtifactPath(runProvider.getActualFileSystem(),
-                                            entry.getKey(), (JsonObject) elem, artifactRecordId));
-                                }
-                            }
-                        }
-                    }
+                throw new CouchdbRasException("Unable to find runs", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CouchdbRasException("Interrupted while finding the artifacts of run " + ts.getRunName(), e);
+            } finally {
+                for (Future<List<CouchdbArtifactPath>> paths : loadedPaths) {
+                    paths.cancel(true);
                 }
-            } catch (CouchdbRasException e) {
-                throw e;
-            } catch (Exception e) {
-                throw new CouchdbRasException("Unable to find runs", e);
             }
         }
 
         return runProvider.getRoot();
     }
 
-    private @NotNull List<IRunResult> getAllRuns() throws ResultArchiveStoreException {
+    private void addArtifactPaths(CouchdbRasFileSystemProvider runProvider, List<CouchdbArtifactPath> artifactPaths) {
+        for (CouchdbArtifactPath artifactPath : artifactPaths) {
+            runProvider.addPath(artifactPath);
+        }
+    }
 
-        ArrayList<IRunResult> runs = new ArrayList<>();
+    // Null if artifact documents are loaded one after another on the thread which wants them
+    private synchronized ExecutorService getArtifactDocumentLoader() {
+        int maxConcurrentLoads = store.getArtifactDocumentMaxConcurrentLoads();
+        if (artifactDocumentLoader == null && maxConcurrentLoads > 1) {
+            artifactDocumentLoader = LoaderThreadPool.create("couchdb-artifact-document-loader", maxConcurrentLoads);
+        }
+        return artifactDocumentLoader;
+    }
 
-        HttpGet httpGet = requestFactory.getHttpGetRequest(store.getCouchdbUri() + "/" + CouchdbRasStore.RUNS_DB + "/_all_docs");
+    private List<CouchdbArtifactPath> loadArtifactPaths(FileSystem fileSystem, String artifactRecordId) throws CouchdbRasException {
+        HttpGet httpGet = requestFactory.getHttpGetRequest(store.getCouchdbUri() + "/" + CouchdbRasStore.ARTIFACTS_DB + "/" + artifactRecordId);
 
         try (CloseableHttpResponse response = store.getHttpClient().execute(httpGet)) {
             StatusLine statusLine = response.getStatusLine();
+            // An artifact document may have been deleted, or never created if the run stopped early.
+            // The run's other artifacts can still be read, so a missing document is skipped.
+            if (statusLine.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                return Collections.emptyList();
+            }
             if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
-                throw new CouchdbRasException("Unable to find runs - " + statusLine.toString());
+                throw new CouchdbRasException("Unable to find artifacts - " + statusLine.toString());
             }
 
-            HttpEntity entity = response.getEntity();
-            String responseEntity = EntityUtils.toString(entity);
-            FoundRuns found = store.getGson().fromJson(responseEntity, FoundRuns.class);
-            if (found.rows == null) {
-                throw new CouchdbRasException("Unable to find rows - Invalid JSON response");
+            return CouchdbStore.readResponseEntity(response.getEntity(),
+                reader -> readArtifactPaths(reader, fileSystem, artifactRecordId));
+        } catch (CouchdbRasException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CouchdbRasException("Unable to find runs", e);
+        }
+    }
+
+    /**
+     * Reads the paths of the artifacts held by an artifact document as the document streams in,
+     * one attachment stub at a time, without building the whole document in memory.
+     */
+    private List<CouchdbArtifactPath> readArtifactPaths(JsonReader reader, FileSystem fileSystem, String artifactRecordId) throws IOException {
+        List<CouchdbArtifactPath> artifactPaths = new ArrayList<>();
+        String artifactPath = null;
+        String contentType = null;
+        Long length = null;
+        String inlineArtifactData = null;
+        String artifactRecordRevision = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String fieldName = reader.nextName();
+            JsonToken token = reader.peek();
+            if (token == JsonToken.NULL) {
+                reader.skipValue();
+            } else if ("_attachments".equals(fieldName) && token == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String attachmentName = reader.nextName();
+                    if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        JsonObject attachmentStub = store.getGson().fromJson(reader, JsonObject.class);
+                        artifactPaths.add(new CouchdbArtifactPath(fileSystem, attachmentName, attachmentStub, artifactRecordId));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if ("artifactPath".equals(fieldName) && token == JsonToken.STRING) {
+                artifactPath = reader.nextString();
+            } else if ("contentType".equals(fieldName) && token == JsonToken.STRING) {
+                contentType = reader.nextString();
+            } else if ("length".equals(fieldName) && (token == JsonToken.NUMBER || token == JsonToken.STRING)) {
+                length = reader.nextLong();
+            } else if ("inlineArtifactData".equals(fieldName) && token == JsonToken.STRING) {
+                inlineArtifactData = reader.nextString();
+            } else if ("_rev".equals(fieldName) && token == JsonToken.STRING) {
+                artifactRecordRevision = reader.nextString();
+            } else {
+                reader.skipValue();
             }
+        }
+        reader.endObject();
+
+        // An artifact held inline in an artifact document of its own, rather than as an attachment
+        if (inlineArtifactData != null && artifactPath != null) {
+            artifactPaths.add(0, new CouchdbArtifactPath(fileSystem, artifactPath, contentType, (length == null) ? 0 : length,
+                artifactRecordId, inlineArtifactData));
+        }
 
-            if (found.warning != null) {
-                logger.warn("CouchDB warning detected - " + found.warning);
+        // The stub of a compressed attachment only has its compressed length, but an artifact document
+        // of its own also holds the length of the artifact as it was written
+        if (artifactPath != null && length != null) {
+            for (CouchdbArtifactPath path : artifactPaths) {
+                if (path.getContentEncoding() != null && artifactPath.equals(path.toString())) {
+                    path.setLength(length);
+                }
             }
+        }
+
+        // The revision can come after the attachments, so it is only known once the whole document has been read
+        for (CouchdbArtifactPath path : artifactPaths) {
+            path.setArtifactRecordRevision(artifactRecordRevision);
+        }
+        return artifactPaths;
+    }
+
+    // Fetches every run a page of documents at a time, using _all_docs with include_docs, so each request
+    // returns at most a page of run documents however many runs there are. Each page asks for one row more
+    // than it needs, and that row's key is where the next page starts. The next page is fetched and parsed in
+    // the background while the runs of the current page are worked through.
+    private @NotNull List<IRunResult> getAllRuns() throws ResultArchiveStoreException {
+
+        ArrayList<IRunResult> runs = new ArrayList<>();
+
+        ExecutorService pageFetcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "couchdb-run-page-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            Future<RunDocuments> nextPage = pageFetcher.submit(() -> fetchRunDocumentsPage(null));
+            while (nextPage != null) {
+                List<RunDocumentRow> rows = waitForRunDocumentsPage(nextPage).rows;
+
+                nextPage = null;
+                if (rows.size() > COUCHDB_ALL_DOCS_PAGE_SIZE) {
+                    String nextPageStartKey = rows.get(COUCHDB_ALL_DOCS_PAGE_SIZE).id;
+                    nextPage = pageFetcher.submit(() -> fetchRunDocumentsPage(nextPageStartKey));
+                    rows = rows.subList(0, COUCHDB_ALL_DOCS_PAGE_SIZE);
+                }
 
-            for (Row row : found.rows) {
-                CouchdbRunResult cdbrr = fetchRun(row.id);
-                if (cdbrr != null) {
-                    if (cdbrr.getTestStructure() != null && cdbrr.getTestStructure().isValid()) {
-                        runs.add(cdbrr);
+                for (RunDocumentRow row : rows) {
+                    // Design documents live in the same database, but aren't runs
+                    if (row.id == null || row.id.startsWith("_design/") || row.doc == null) {
+                        continue;
+                    }
+                    if (row.doc.isValid()) {
+                        runs.add(new CouchdbRunResult(store, row.doc, logFactory));
                     }
                 }
             }
+        } finally {
+            pageFetcher.shutdownNow();
+        }
+
+        return runs;
+    }
+
+    private RunDocuments waitForRunDocumentsPage(Future<RunDocuments> page) throws ResultArchiveStoreException {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResultArchiveStoreException("Interrupted while finding runs", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ResultArchiveStoreException) {
+                throw (ResultArchiveStoreException) cause;
+            }
+            throw new ResultArchiveStoreException("Unable to find runs", cause);
+        }
+    }
+
+    private RunDocuments fetchRunDocumentsPage(String startKey) throws ResultArchiveStoreException {
+        try {
+            URIBuilder builder = new URIBuilder(store.getCouchdbUri() + "/" + CouchdbRasStore.RUNS_DB + "/_all_docs");
+            builder.addParameter("include_docs", "true");
+            builder.addParameter("limit", Integer.toString(COUCHDB_ALL_DOCS_PAGE_SIZE + 1));
+            if (startKey != null) {
+                builder.addParameter("startkey", store.getGson().toJson(startKey));
+            }
+
+            HttpGet httpGet = requestFactory.getHttpGetRequest(builder.build().toString());
+            try (CloseableHttpResponse response = store.getHttpClient().execute(httpGet)) {
+                StatusLine statusLine = response.getStatusLine();
+                if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
+                    throw new CouchdbRasException("Unable to find runs - " + statusLine.toString());
+                }
+
+                HttpEntity entity = response.getEntity();
+                String responseEntity = EntityUtils.toString(entity);
+                RunDocuments found = store.getGson().fromJson(responseEntity, RunDocuments.class);
+                if (found.rows == null) {
+                    throw new CouchdbRasException("Unable to find rows - Invalid JSON response");
+                }
+
+                if (found.warning != null) {
+                    logger.warn("CouchDB warning detected - " + found.warning);
+                }
+                return found;
+            }
         } catch (CouchdbRasException e) {
             throw e;
         } catch (Exception e) {
             throw new ResultArchiveStoreException("Unable to find runs", e);
         }
-
-        return runs;
     }
 
     private CouchdbRunResult fetchRun(String id) throws ParseException, IOException, ResultArchiveStoreException {
         CouchdbRunResult runResult = null;
+        TestStructureCouchdb ts = fetchRunDocument(id);
+        if (ts != null) {
+            runResult = new CouchdbRunResult(store, ts, logFactory);
+        }
+        return runResult;
+    }
+
+    private TestStructureCouchdb fetchRunDocument(String id) throws ParseException, IOException {
         HttpGet httpGet = requestFactory.getHttpGetRequest(store.getCouchdbUri() + "/" + CouchdbRasStore.RUNS_DB + "/" + id);
 
         try (CloseableHttpResponse response = store.getHttpClient().execute(httpGet)) {
@@ -195,19 +421,27 @@ public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryServ
 
             HttpEntity entity = response.getEntity();
             String responseEntity = EntityUtils.toString(entity);
-            TestStructureCouchdb ts = store.getGson().fromJson(responseEntity, TestStructureCouchdb.class);
+            return store.getGson().fromJson(responseEntity, TestStructureCouchdb.class);
+        }
+    }
 
-            runResult = new CouchdbRunResult(store, ts, logFactory);
+    private TestStructureCouchdb loadRunDocument(String id) throws ResultArchiveStoreException {
+        try {
+            return fetchRunDocument(id);
+        } catch (ParseException | IOException e) {
+            throw new CouchdbRasException("Unable to load run document " + id, e);
         }
-        return runResult;
     }
 
     @Override
     public @NotNull List<String> getRequestors() throws ResultArchiveStoreException {
+        return facetCache.getFacets(REQUESTORS_VIEW, this::getRequestorsFromCouchdb);
+    }
+
+    private List<String> getRequestorsFromCouchdb() throws ResultArchiveStoreException {
         ArrayList<String> requestors = new ArrayList<>();
 
-        HttpGet httpGet = requestFactory.getHttpGetRequest(
-                store.getCouchdbUri() + "/" + CouchdbRasStore.RUNS_DB + "/_design/docs/_view/requestors-view?group=true");
+        HttpGet httpGet = requestFactory.getHttpGetRequest(getFacetViewUri(REQUESTORS_VIEW));
 
         try (CloseableHttpResponse response = store.getHttpClient().execute(httpGet)) {
             StatusLine statusLine = response.getStatusLine();
@@ -215,14 +449,12 @@ public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryServ
                 throw new CouchdbRasException("Unable to find runs - " + statusLine.toString());
             }
 
-            HttpEntity entity = response.getEntity();
-            String responseEntity = EntityUtils.toString(entity);
-            ViewResponse view = store.getGson().fromJson(responseEntity, ViewResponse.class);
-            if (view.rows == null) {
+            List<ViewRow> rows = CouchdbStore.readResponseEntity(response.getEntity(), new ViewRowsReader<>(store.getGson(), ViewRow.class));
+            if (rows == null) {
                 throw new CouchdbRasException("Unable to find requestors - Invalid JSON response");
             }
 
-            for (ViewRow row : view.rows) {
+            for (ViewRow row : rows) {
                 requestors.add(row.key);
             }
         } catch (CouchdbRasException e) {
@@ -236,10 +468,13 @@ public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryServ
 
     @Override
     public @NotNull List<String> getResultNames() throws ResultArchiveStoreException {
+        return facetCache.getFacets(RESULT_VIEW, this::getResultNamesFromCouchdb);
+    }
+
+    private List<String> getResultNamesFromCouchdb() throws ResultArchiveStoreException {
         ArrayList<String> results = new ArrayList<>();
 
-        HttpGet httpGet = requestFactory.getHttpGetRequest(
-                store.getCouchdbUri() + "/" + CouchdbRasStore.RUNS_DB + "/_design/docs/_view/result-view?group=true");
+        HttpGet httpGet = requestFactory.getHttpGetRequest(getFacetViewUri(RESULT_VIEW));
 
         try (CloseableHttpResponse response = store.getHttpClient().execute(httpGet)) {
             StatusLine statusLine = response.getStatusLine();
@@ -247,14 +482,12 @@ public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryServ
                 throw new CouchdbRasException("Unable to find results - " + statusLine.toString());
             }
 
-            HttpEntity entity = response.getEntity();
-            String responseEntity = EntityUtils.toString(entity);
-            ViewResponse view = store.getGson().fromJson(responseEntity, ViewResponse.class);
-            if (view.rows == null) {
+            List<ViewRow> rows = CouchdbStore.readResponseEntity(response.getEntity(), new ViewRowsReader<>(store.getGson(), ViewRow.class));
+            if (rows == null) {
                 throw new CouchdbRasException("Unable to find results - Invalid JSON response");
             }
 
-            for (ViewRow row : view.rows) {
+            for (ViewRow row : rows) {
                 if (row.key != null) {
                     results.add(row.key);
                 }
@@ -273,10 +506,13 @@ public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryServ
 
     @Override
     public @NotNull List<RasTestClass> getTests() throws ResultArchiveStoreException {
+        return facetCache.getFacets(BUNDLE_TESTNAMES_VIEW, this::getTestsFromCouchdb);
+    }
+
+    private List<RasTestClass> getTestsFromCouchdb() throws ResultArchiveStoreException {
         ArrayList<RasTestClass> tests = new ArrayList<>();
 
-        HttpGet httpGet = requestFactory.getHttpGetRequest(
-                store.getCouchdbUri() + "/" + CouchdbRasStore.RUNS_DB + "/_design/docs/_view/bundle-testnames-view?group=true");
+        HttpGet httpGet = requestFactory.getHttpGetRequest(getFacetViewUri(BUNDLE_TESTNAMES_VIEW));
 
         try (CloseableHttpResponse response = store.getHttpClient().execute(httpGet)) {
             StatusLine statusLine = response.getStatusLine();
@@ -284,14 +520,12 @@ public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryServ
                 throw new CouchdbRasException("Unable to find tests - " + statusLine.toString());
             }
 
-            HttpEntity entity = response.getEntity();
-            String responseEntity = EntityUtils.toString(entity);
-            ViewResponse view = store.getGson().fromJson(responseEntity, ViewResponse.class);
-            if (view.rows == null) {
+            List<ViewRow> rows = CouchdbStore.readResponseEntity(response.getEntity(), new ViewRowsReader<>(store.getGson(), ViewRow.class));
+            if (rows == null) {
                 throw new CouchdbRasException("Unable to find rows - Invalid JSON response");
             }
 
-            for (ViewRow row : view.rows) {
+            for (ViewRow row : rows) {
                 String bundleTestname = row.key;
                 if (bundleTestname == null) {
                     continue;
@@ -320,64 +554,178 @@ public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryServ
         return tests;
     }
 
+    private String getFacetViewUri(String viewName) {
+        return store.getCouchdbUri() + "/" + CouchdbRasStore.RUNS_DB + "/_design/docs/_view/" + viewName + "?group=true";
+    }
+
+    private Changes getRunChanges(String since, int limit) throws ResultArchiveStoreException {
+        String encodedSince = URLEncoder.encode(since, UTF8);
+        HttpGet httpGet = requestFactory.getHttpGetRequest(
+                store.getCouchdbUri() + "/" + CouchdbRasStore.RUNS_DB + "/_changes?since=" + encodedSince + "&limit=" + limit);
+
+        try (CloseableHttpResponse response = store.getHttpClient().execute(httpGet)) {
+            StatusLine statusLine = response.getStatusLine();
+            if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
+                throw new CouchdbRasException("Unable to get run changes - " + statusLine.toString());
+            }
+
+            Changes changes = CouchdbStore.readResponseEntity(response.getEntity(), reader -> store.getGson().fromJson(reader, Changes.class));
+            if (changes == null || changes.results == null || changes.last_seq == null) {
+                throw new CouchdbRasException("Unable to get run changes - Invalid JSON response");
+            }
+            return changes;
+        } catch (CouchdbRasException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ResultArchiveStoreException("Unable to get run changes", e);
+        }
+    }
+
+    /**
+     * Tells the given listener about each change made to a run from now on, as it happens.
+     * The first listener starts a follower of the runs database's continuous _changes feed.
+     */
+    public void addRunChangeListener(RunChangesFollower.RunChangeListener listener) {
+        getRunChangesFollower().addListener(listener);
+    }
+
+    public void removeRunChangeListener(RunChangesFollower.RunChangeListener listener) {
+        getRunChangesFollower().removeListener(listener);
+    }
+
+    /**
+     * @return the runs which have changed since changes to runs started being followed,
+     *         most recently changed first. Starts following changes if nothing has yet
+     */
+    public List<TestStructureCouchdb> getRecentlyChangedRuns() {
+        return getRunChangesFollower().getRecentRuns();
+    }
+
+    public synchronized void shutdown() {
+        if (runChangesFollower != null) {
+            runChangesFollower.close();
+            runChangesFollower = null;
+        }
+        if (artifactDocumentLoader != null) {
+            artifactDocumentLoader.shutdownNow();
+            artifactDocumentLoader = null;
+        }
+    }
+
+    private synchronized RunChangesFollower getRunChangesFollower() {
+        if (runChangesFollower == null) {
+            runChangesFollower = new RunChangesFollower("now", MAX_RECENTLY_CHANGED_RUNS, this::openRunChangesFeed,
+                store.getGson(), timeService, logFactory);
+
+            // Facets are held until they expire, unless a change to a run shows they are out of date sooner
+            runChangesFollower.addListener(new FacetCacheInvalidator());
+            runChangesFollower.start();
+        }
+        return runChangesFollower;
+    }
+
+    private Reader openRunChangesFeed(String since) throws IOException, ResultArchiveStoreException {
+        String encodedSince = URLEncoder.encode(since, UTF8);
+        HttpGet httpGet = requestFactory.getHttpGetRequest(store.getCouchdbUri() + "/" + CouchdbRasStore.RUNS_DB
+            + "/_changes?feed=continuous&include_docs=true&heartbeat=" + RUN_CHANGES_HEARTBEAT_MILLIS + "&since=" + encodedSince);
+
+        // Heartbeats keep arriving on a live feed, so a long silence means the connection is dead
+        httpGet.setConfig(RequestConfig.custom().setSocketTimeout(RUN_CHANGES_HEARTBEAT_MILLIS * 2).build());
+
+        CloseableHttpResponse response = store.getHttpClient().execute(httpGet);
+        StatusLine statusLine = response.getStatusLine();
+        if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
+            response.close();
+            throw new CouchdbRasException("Unable to follow run changes - " + statusLine.toString());
+        }
+
+        return new FilterReader(new InputStreamReader(response.getEntity().getContent(), UTF8)) {
+            // The feed never ends by itself, so disconnect rather than reading to the end of it
+            @Override
+            public void close() throws IOException {
+                httpGet.abort();
+                response.close();
+            }
+        };
+    }
+
+    private class FacetCacheInvalidator implements RunChangesFollower.RunChangeListener {
+
+        @Override
+        public void runChanged(TestStructureCouchdb run, TestStructureCouchdb previousRun) {
+            if (previousRun == null
+                    || !Objects.equals(run.getRequestor(), previousRun.getRequestor())
+                    || !Objects.equals(run.getResult(), previousRun.getResult())
+                    || !Objects.equals(run.getBundle(), previousRun.getBundle())
+                    || !Objects.equals(run.getTestName(), previousRun.getTestName())) {
+                facetCache.invalidate();
+            }
+        }
+
+        @Override
+        public void runDeleted(String runDocumentId) {
+            facetCache.invalidate();
+        }
+    }
+
+    private class RunChangesChecker implements FacetCache.RunChangesChecker {
+
+        @Override
+        public String getLatestSequence() throws ResultArchiveStoreException {
+            return getRunChanges("now", 0).last_seq.getAsString();
+        }
+
+        @Override
+        public boolean hasChangedSince(String sequence) throws ResultArchiveStoreException {
+            return !getRunChanges(sequence, 1).results.isEmpty();
+        }
+    }
+
     @Override
     public @NotNull RasRunResultPage getRunsPage(int maxResults, RasSortField primarySort, String pageToken, @NotNull IRasSearchCriteria... searchCriterias)
             throws ResultArchiveStoreException {
 
         HttpPost httpPost = requestFactory.getHttpPostRequest(store.getCouchdbUri() + "/" + CouchdbRasStore.RUNS_DB + "/_find");
 
+        JsonObject selector = buildGetRunsQuery(searchCriterias);
+        RunQueryPlanner.RunQueryPlan plan = queryPlanner.plan(selector, primarySort);
+
         Find find = new Find();
-        find.selector = buildGetRunsQuery(searchCriterias);
+        find.selector = selector;
+        find.fields = CouchdbRunSummaryResult.SUMMARY_FIELDS;
         find.execution_stats = true;
         find.limit = maxResults;
         find.bookmark = pageToken;
-        if (primarySort != null) {
-            find.sort = buildQuerySortJson(primarySort);
-        }
+        find.sort = plan.getSort();
+        find.use_index = plan.getIndexHint();
 
-        return getRunsPageFromCouchdb(httpPost, find);
+        return getRunsPageFromCouchdb(httpPost, find, plan.getShape());
     }
 
-    private RasRunResultPage getRunsPageFromCouchdb(HttpPost httpPost, Find query) throws ResultArchiveStoreException {
-        ArrayList<IRunResult> runs = new ArrayList<>();
+    /**
+     * @return the execution statistics of the searches for runs made so far, by the shape of the search
+     */
+    public Map<String, RunQueryStatistics.QueryShapeStatistics> getRunQueryStatistics() {
+        return queryStatistics.getStatistics();
+    }
+
+    private RasRunResultPage getRunsPageFromCouchdb(HttpPost httpPost, Find query, String queryShape) throws ResultArchiveStoreException {
         RasRunResultPage runsPage = null;
         String requestContent = store.getGson().toJson(query);
         httpPost.setEntity(new StringEntity(requestContent, UTF8));
 
         try (CloseableHttpResponse response = store.getHttpClient().execute(httpPost)) {
             StatusLine statusLine = response.getStatusLine();
-            HttpEntity entity = response.getEntity();
-            String responseEntity = EntityUtils.toString(entity);
-
             if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
                 throw new CouchdbRasException("Unable to find runs - " + statusLine.toString());
             }
 
-            FoundRuns found = store.getGson().fromJson(responseEntity, FoundRuns.class);
-            if (found.docs == null) {
+            // Read the runs as the response streams in, so the page of runs is never held as one big string
+            boolean isSummaryQuery = query.fields != null;
+            runsPage = CouchdbStore.readResponseEntity(response.getEntity(), reader -> readFoundRuns(reader, isSummaryQuery, queryShape));
+            if (runsPage == null) {
                 throw new CouchdbRasException("Unable to find runs - Invalid JSON response");
             }
-
-            if (found.warning != null) {
-                logger.warn("CouchDB warning detected - " + found.warning);
-            }
-
-            for (TestStructureCouchdb ts : found.docs) {
-                if (ts.isValid()) {
-
-                    // Don't load the artifacts for the found runs, just set a root location for artifacts
-                    // and add this run to the results
-                    runs.add(new CouchdbRunResult(store, ts, logFactory));
-                }
-            }
-
-            // CouchDB sometimes returns a 'nil' string as a bookmark to indicate no bookmark,
-            // so turn it into an actual null value
-            if (found.bookmark != null && found.bookmark.equals("nil")) {
-                found.bookmark = null;
-            }
-
-            runsPage = new RasRunResultPage(runs, found.bookmark);
         } catch (CouchdbRasException e) {
             throw e;
         } catch (Exception e) {
@@ -386,14 +734,63 @@ public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryServ
         return runsPage;
     }
 
-    private JsonArray buildQuerySortJson(@NotNull RasSortField primarySort) {
-        JsonArray sort = new JsonArray();
+    /**
+     * Reads the response of a _find query one run document at a time, skipping over
+     * the parts of the response which aren't needed. The execution statistics of the
+     * query are added to the statistics for its shape.
+     *
+     * @return the page of runs found, or null if the response didn't contain any documents
+     */
+    private RasRunResultPage readFoundRuns(JsonReader reader, boolean isSummaryQuery, String queryShape) throws IOException {
+        ArrayList<IRunResult> runs = null;
+        String bookmark = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String fieldName = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if ("docs".equals(fieldName)) {
+                runs = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    TestStructureCouchdb ts = store.getGson().fromJson(reader, TestStructureCouchdb.class);
+                    if (ts.isValid()) {
+
+                        // Don't load the artifacts for the found runs, just set a root location for artifacts
+                        // and add this run to the results. If only the run summaries were asked for, the rest
+                        // of each run document is loaded when it is needed
+                        if (isSummaryQuery) {
+                            runs.add(new CouchdbRunSummaryResult(store, ts, logFactory, this::loadRunDocument));
+                        } else {
+                            runs.add(new CouchdbRunResult(store, ts, logFactory));
+                        }
+                    }
+                }
+                reader.endArray();
+            } else if ("bookmark".equals(fieldName)) {
+                bookmark = reader.nextString();
+            } else if ("warning".equals(fieldName)) {
+                logger.warn("CouchDB warning detected - " + reader.nextString());
+            } else if ("execution_stats".equals(fieldName)) {
+                queryStatistics.record(queryShape, store.getGson().fromJson(reader, ExecutionStats.class));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (runs == null) {
+            return null;
+        }
 
-        JsonObject primarySortJson = new JsonObject();
-        primarySortJson.addProperty(primarySort.getFieldName(), primarySort.getSortDirection());
+        // CouchDB sometimes returns a 'nil' string as a bookmark to indicate no bookmark,
+        // so turn it into an actual null value
+        if (bookmark != null && bookmark.equals("nil")) {
+            bookmark = null;
+        }
 
-        sort.add(primarySortJson);
-        return sort;
+        return new RasRunResultPage(runs, bookmark);
     }
 
     @Override
@@ -405,29 +802,48 @@ public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryServ
         }
 
         ArrayList<IRunResult> runs = new ArrayList<>();
+        try (CouchdbRunResultIterator runsIterator = getRunsIterator(searchCriterias)) {
+            while (runsIterator.hasNext()) {
+                runs.add(runsIterator.next());
+            }
+        } catch (UncheckedResultArchiveStoreException e) {
+            throw e.getCause();
+        }
 
-        HttpPost httpPost = requestFactory.getHttpPostRequest(store.getCouchdbUri() + "/" + CouchdbRasStore.RUNS_DB + "/_find");
+        return runs;
+    }
 
-        Find find = new Find();
-        find.selector = buildGetRunsQuery(searchCriterias);
-        find.execution_stats = true;
-        find.limit = COUCHDB_RESULTS_LIMIT_PER_QUERY;
+    /**
+     * Finds runs matching the given criteria, fetching them a page at a time as the
+     * iterator is advanced, so only a couple of pages of runs are held in memory
+     * however many runs match. The iterator should be closed if it isn't iterated to the end.
+     */
+    public CouchdbRunResultIterator getRunsIterator(@NotNull IRasSearchCriteria... searchCriterias)
+            throws ResultArchiveStoreException {
 
-        while (true) {
-            RasRunResultPage runsPage = getRunsPageFromCouchdb(httpPost, find);
+        JsonObject selector = buildGetRunsQuery(searchCriterias);
+        RunQueryPlanner.RunQueryPlan plan = queryPlanner.plan(selector, null);
 
-            List<IRunResult> returnedRuns = runsPage.getRuns();
-            if (!returnedRuns.isEmpty()) {
-                runs.addAll(returnedRuns);
-            } else {
-                // No runs were found, so we've reached the end
-                break;
-            }
+        return new CouchdbRunResultIterator(bookmark -> {
+            HttpPost httpPost = requestFactory.getHttpPostRequest(store.getCouchdbUri() + "/" + CouchdbRasStore.RUNS_DB + "/_find");
 
-            find.bookmark = runsPage.getNextCursor();
-        }
+            Find find = new Find();
+            find.selector = selector;
+            find.execution_stats = true;
+            find.limit = COUCHDB_RESULTS_LIMIT_PER_QUERY;
+            find.bookmark = bookmark;
+            find.use_index = plan.getIndexHint();
 
-        return runs;
+            return getRunsPageFromCouchdb(httpPost, find, plan.getShape());
+        });
+    }
+
+    /**
+     * As {@link #getRunsIterator}, as a stream which should be closed once it is finished with.
+     */
+    public Stream<IRunResult> getRunsStream(@NotNull IRasSearchCriteria... searchCriterias)
+            throws ResultArchiveStoreException {
+        return getRunsIterator(searchCriterias).stream();
     }
 
     public void discardRun(@NotNull TestStructureCouchdb runTestStructure) throws ResultArchiveStoreException {
@@ -441,6 +857,187 @@ public class CouchdbDirectoryService implements IResultArchiveStoreDirectoryServ
         }
     }
 
+    /**
+     * Discards many runs, with their logs and artifacts. The runs are discarded in batches. The
+     * revisions of the documents of a batch are found with one _all_docs request per database,
+     * then the documents are deleted with one _bulk_docs request per database, rather than a
+     * GET and a DELETE for each document. Several batches are discarded at the same time.
+     *
+     * Every batch is attempted, even if others fail, so as many runs as possible are discarded.
+     */
+    public void discardRuns(@NotNull List<TestStructureCouchdb> runs) throws ResultArchiveStoreException {
+        List<List<TestStructureCouchdb>> batches = new ArrayList<>();
+        for (int start = 0; start < runs.size(); start += DISCARD_RUNS_PER_BATCH) {
+            batches.add(runs.subList(start, Math.min(runs.size(), start + DISCARD_RUNS_PER_BATCH)));
+        }
+
+        List<ResultArchiveStoreException> failures = new ArrayList<>();
+        int failedRunCount = 0;
+
+        int maxConcurrentBatches = Math.min(store.getRunDiscardMaxConcurrentBatches(), batches.size());
+        if (maxConcurrentBatches <= 1) {
+            for (List<TestStructureCouchdb> batch : batches) {
+                try {
+                    discardRunBatch(batch);
+                } catch (ResultArchiveStoreException e) {
+                    failures.add(e);
+                    failedRunCount += batch.size();
+                }
+            }
+        } else {
+            ExecutorService discarder = LoaderThreadPool.create("couchdb-run-discarder", maxConcurrentBatches);
+            try {
+                List<Future<Void>> discards = new ArrayList<>();
+                for (List<TestStructureCouchdb> batch : batches) {
+                    discards.add(discarder.submit(() -> {
+                        discardRunBatch(batch);
+                        return null;
+                    }));
+                }
+
+                for (int i = 0; i < discards.size(); i++) {
+                    try {
+                        discards.get(i).get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        failures.add((cause instanceof ResultArchiveStoreException) ? (ResultArchiveStoreException) cause
+                            : new ResultArchiveStoreException("Unable to discard runs", cause));
+                        failedRunCount += batches.get(i).size();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ResultArchiveStoreException("Interrupted while discarding runs", e);
+            } finally {
+                discarder.shutdownNow();
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            ResultArchiveStoreException failure = new ResultArchiveStoreException(
+                "Failed to discard " + failedRunCount + " of " + runs.size() + " runs", failures.get(0));
+            for (ResultArchiveStoreException otherFailure : failures.subList(1, failures.size())) {
+                failure.addSuppressed(otherFailure);
+            }
+            throw failure;
+        }
+    }
+
+    private void discardRunBatch(List<TestStructureCouchdb> runs) throws ResultArchiveStoreException {
+        List<String> logRecordIds = new ArrayList<>();
+        List<String> artifactRecordIds = new ArrayList<>();
+        List<DeletedDocument> runDocuments = new ArrayList<>();
+        List<String> runIdsWithoutRevision = new ArrayList<>();
+        for (TestStructureCouchdb run : runs) {
+            if (run.getLogRecordIds() != null) {
+                logRecordIds.addAll(run.getLogRecordIds());
+            }
+            if (run.getArtifactRecordIds() != null) {
+                artifactRecordIds.addAll(run.getArtifactRecordIds());
+            }
+            if (run._rev == null) {
+                runIdsWithoutRevision.add(run._id);
+            } else {
+                runDocuments.add(new DeletedDocument(run._id, run._rev));
+            }
+        }
+
+        try {
+            // The run documents go last, so a run whose logs or artifacts couldn't be deleted can still be found and discarded again
+            deleteDocuments(CouchdbRasStore.LOG_DB, findDocumentRevisions(CouchdbRasStore.LOG_DB, logRecordIds));
+            deleteDocuments(CouchdbRasStore.ARTIFACTS_DB, findDocumentRevisions(CouchdbRasStore.ARTIFACTS_DB, artifactRecordIds));
+
+            runDocuments.addAll(findDocumentRevisions(CouchdbRasStore.RUNS_DB, runIdsWithoutRevision));
+            deleteDocuments(CouchdbRasStore.RUNS_DB, runDocuments);
+        } catch (CouchdbRasException e) {
+            throw new ResultArchiveStoreException("Failed to discard " + runs.size() + " runs, starting with run: " + runs.get(0)._id, e);
+        }
+    }
+
+    /**
+     * Finds the current revisions of documents, a request at a time for as many of them as a request
+     * holds. Documents which don't exist, or have already been deleted, are left out.
+     */
+    private List<DeletedDocument> findDocumentRevisions(String databaseName, List<String> ids) throws CouchdbRasException {
+        List<DeletedDocument> documents = new ArrayList<>();
+        for (int start = 0; start < ids.size(); start += DISCARD_MAX_DOCUMENTS_PER_REQUEST) {
+            DocumentKeys keys = new DocumentKeys();
+            keys.keys = ids.subList(start, Math.min(ids.size(), start + DISCARD_MAX_DOCUMENTS_PER_REQUEST));
+
+            // The keys are POSTed rather than given on the URL of a GET, as there are too many of them for a URL
+            HttpPost httpPost = requestFactory.getHttpPostRequest(store.getCouchdbUri() + "/" + databaseName + "/_all_docs");
+            httpPost.setEntity(new JsonHttpEntity(keys, store.getGson()));
+
+            try (CloseableHttpResponse response = store.getHttpClient().execute(httpPost)) {
+                StatusLine statusLine = response.getStatusLine();
+                if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
+                    throw new CouchdbRasException("Unable to find the revisions of documents in " + databaseName + " - " + statusLine.toString());
+                }
+
+                List<DocumentRevisionRow> rows = CouchdbStore.readResponseEntity(response.getEntity(),
+                    new ViewRowsReader<>(store.getGson(), DocumentRevisionRow.class));
+                if (rows == null) {
+                    throw new CouchdbRasException("Unable to find the revisions of documents in " + databaseName + " - Invalid JSON response");
+                }
+
+                for (DocumentRevisionRow row : rows) {
+                    if (row.error == null && row.value != null && !row.value.deleted) {
+                        documents.add(new DeletedDocument(row.id, row.value.rev));
+                    }
+                }
+            } catch (IOException | JsonParseException e) {
+                throw new CouchdbRasException("Unable to find the revisions of documents in " + databaseName, e);
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Deletes documents, a _bulk_docs request at a time for as many of them as a request holds.
+     * Documents which have gone already are ignored, but any other document which couldn't be
+     * deleted, such as one which has been updated since its revision was found, is a failure.
+     */
+    private void deleteDocuments(String databaseName, List<DeletedDocument> documents) throws CouchdbRasException {
+        for (int start = 0; start < documents.size(); start += DISCARD_MAX_DOCUMENTS_PER_REQUEST) {
+            BulkDocs bulkDocs = new BulkDocs();
+            bulkDocs.docs = documents.subList(start, Math.min(documents.size(), start + DISCARD_MAX_DOCUMENTS_PER_REQUEST));
+
+            HttpPost httpPost = requestFactory.getHttpPostRequest(store.getCouchdbUri() + "/" + databaseName + "/_bulk_docs");
+            httpPost.setEntity(new JsonHttpEntity(bulkDocs, store.getGson()));
+
+            try (CloseableHttpResponse response = store.getHttpClient().execute(httpPost)) {
+                StatusLine statusLine = response.getStatusLine();
+                int statusCode = statusLine.getStatusCode();
+                if (statusCode != HttpStatus.SC_CREATED && statusCode != HttpStatus.SC_ACCEPTED) {
+                    throw new CouchdbRasException("Unable to delete documents from " + databaseName + " - " + statusLine.toString());
+                }
+
+                PutPostResponse[] results = CouchdbStore.readResponseEntity(response.getEntity(),
+                    reader -> store.getGson().fromJson(reader, PutPostResponse[].class));
+                if (results == null) {
+                    throw new CouchdbRasException("Unable to delete documents from " + databaseName + " - Invalid JSON response");
+                }
+
+                int failedCount = 0;
+                PutPostResponse firstFailure = null;
+                for (PutPostResponse result : results) {
+                    if (result.error != null && !"not_found".equals(result.error)) {
+                        failedCount++;
+                        if (firstFailure == null) {
+                            firstFailure = result;
+                        }
+                    }
+                }
+                if (firstFailure != null) {
+                    throw new CouchdbRasException("Unable to delete " + failedCount + " documents from " + databaseName
+                        + " - document " + firstFailure.id + " failed with " + firstFailure.error + ": " + firstFailure.reason);
+                }
+            } catch (IOException | JsonParseException e) {
+                throw new CouchdbRasException("Unable to delete documents from " + databaseName, e);
+            }
+        }
+    }
+
     private void discardRunLogs(List<String> ids) throws ResultArchiveStoreException {
         for (String id : ids) {
             discardRecord(CouchdbRasStore.LOG_DB, id);
@@ -9,23 +9,17 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Iterator;
 
 public class CouchdbDirectoryStream implements DirectoryStream<Path> {
 
     private ArrayList<Path> children = new ArrayList<>();
 
-    public CouchdbDirectoryStream(Path dir, Filter<? super Path> filter, HashSet<CouchdbArtifactPath> paths)
+    public CouchdbDirectoryStream(Path dir, Filter<? super Path> filter, ArtifactPathIndex paths)
             throws IOException {
-        dir = dir.toAbsolutePath();
-
-        for (CouchdbArtifactPath path : paths) {
-            CouchdbArtifactPath parent = path.getParent();
-            if (parent != null && path.getParent().equals(dir)) {
-                if (filter.accept(path)) {
-                    children.add(path);
-                }
+        for (CouchdbArtifactPath path : paths.getChildren(dir)) {
+            if (filter.accept(path)) {
+                children.add(path);
             }
         }
     }
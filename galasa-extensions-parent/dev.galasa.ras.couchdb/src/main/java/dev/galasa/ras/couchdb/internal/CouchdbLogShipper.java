@@ -0,0 +1,262 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+
+import dev.galasa.extensions.common.api.LogFactory;
+import dev.galasa.framework.spi.ResultArchiveStoreException;
+import dev.galasa.ras.couchdb.internal.pojos.LogLines;
+
+/**
+ * Sends batches of run log lines to CouchDB on a dedicated thread, so the test
+ * thread does not have to wait for the network every time a batch fills up.
+ *
+ * Batches are queued in the order they are submitted, and are sent in that
+ * same order. The queue is bounded, so once it is full the submitting thread
+ * blocks until the sender catches up, though not for ever if the sender has
+ * stopped or is stuck. When the sender falls behind, all the
+ * batches waiting in the queue (up to a limit) are handed over in one go, so
+ * they can be stored using a single request.
+ *
+ * A batch which can't be stored is not retried, so its lines are lost. The
+ * first such failure is reported to the next submitter, but it is also kept,
+ * along with a count of the lost lines, so that every later flush and the
+ * final shutdown still find out the test log is incomplete.
+ */
+public class CouchdbLogShipper {
+
+    /**
+     * Lambda which does the actual work of storing batches of log lines.
+     */
+    public interface LogBatchSender {
+        /**
+         * @param batches one or more batches of log lines, in the order they were submitted
+         */
+        public void send(List<LogLines> batches) throws ResultArchiveStoreException;
+    }
+
+    // Placed on the queue to tell the sender thread there is nothing more to send.
+    private static final LogLines END_OF_BATCHES = new LogLines();
+
+    private static final long WAIT_INTERVAL_MILLIS = 1000;
+
+    // How long to wait for room on the queue before giving up on a sender which is stuck
+    private static final long QUEUE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Log logger;
+    private final LogBatchSender sender;
+    private final int maxBatchesPerSend;
+    private final BlockingQueue<LogLines> queue;
+    private final Thread senderThread;
+
+    // Guards the submitted and delivered counts, which let flushing threads
+    // find out when everything they submitted has been dealt with, and the
+    // record of batches which could not be stored.
+    private final Object deliveryLock = new Object();
+    private long submittedCount = 0;
+    private long deliveredCount = 0;
+
+    // The first failure to store a batch, kept for as long as the shipper runs
+    private ResultArchiveStoreException sendFailure;
+    private boolean isSendFailureReportedToSubmitter = false;
+    private long lostLineCount = 0;
+
+    private volatile boolean isShutdown = false;
+
+    public CouchdbLogShipper(String runName, int queueDepth, int maxBatchesPerSend, LogBatchSender sender, LogFactory logFactory) {
+        this.logger = logFactory.getLog(getClass());
+        this.sender = sender;
+        this.maxBatchesPerSend = Math.max(1, maxBatchesPerSend);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueDepth));
+
+        this.senderThread = new Thread(this::sendBatches, "couchdb-log-shipper-" + runName);
+        this.senderThread.setDaemon(true);
+        this.senderThread.start();
+    }
+
+    /**
+     * Queues a batch of log lines to be sent to CouchDB, blocking if the queue is full.
+     *
+     * @param batch the batch of log lines to send
+     * @throws ResultArchiveStoreException if an earlier batch failed to be sent and no submitter has been told yet,
+     *     the shipper has been shut down, or the sender has stopped or not made room on the queue in time
+     */
+    public void submit(LogLines batch) throws ResultArchiveStoreException {
+        throwIfSendFailureUnreported();
+
+        if (isShutdown) {
+            throw new CouchdbRasException("Unable to store the test log - the log shipper has been shut down");
+        }
+
+        synchronized (deliveryLock) {
+            submittedCount++;
+        }
+
+        boolean isQueued = false;
+        try {
+            isQueued = enqueue(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CouchdbRasException("Interrupted while waiting to queue the test log", e);
+        } finally {
+            if (!isQueued) {
+                synchronized (deliveryLock) {
+                    submittedCount--;
+                }
+            }
+        }
+
+        if (!isQueued) {
+            throwIfSendFailureUnreported();
+            throw new CouchdbRasException("Unable to store the test log - the log shipper is not taking any more batches");
+        }
+    }
+
+    /**
+     * Blocks until every batch submitted before this call has been sent to CouchDB.
+     *
+     * @throws ResultArchiveStoreException if any batch sent so far has failed to be stored
+     */
+    public void waitForDelivery() throws ResultArchiveStoreException {
+        synchronized (deliveryLock) {
+            long target = submittedCount;
+            while (deliveredCount < target && senderThread.isAlive()) {
+                try {
+                    deliveryLock.wait(WAIT_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CouchdbRasException("Interrupted while waiting for the test log to be stored", e);
+                }
+            }
+            if (sendFailure != null) {
+                throw new CouchdbRasException(lostLineCount + " lines of the test log could not be stored", sendFailure);
+            }
+        }
+    }
+
+    /**
+     * Sends everything which is already queued, then stops the sender thread.
+     * Any lines of the test log which could not be stored are reported in the error log.
+     */
+    public void shutdown() {
+        if (isShutdown) {
+            return;
+        }
+        isShutdown = true;
+
+        try {
+            if (enqueue(END_OF_BATCHES)) {
+                senderThread.join(QUEUE_TIMEOUT_MILLIS);
+            } else {
+                logger.error("The log shipper is not taking any more batches, so " + queue.size()
+                    + " batches of the test log will not be stored");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while waiting for the log shipper to finish", e);
+        }
+
+        synchronized (deliveryLock) {
+            if (sendFailure != null) {
+                logger.error(lostLineCount + " lines of the test log could not be stored", sendFailure);
+            }
+        }
+    }
+
+    // Waits for room on the queue, for as long as the sender thread is still running and the wait hasn't timed out.
+    private boolean enqueue(LogLines batch) throws InterruptedException {
+        long deadlineMillis = System.currentTimeMillis() + QUEUE_TIMEOUT_MILLIS;
+        while (senderThread.isAlive()) {
+            long remainingMillis = deadlineMillis - System.currentTimeMillis();
+            if (remainingMillis <= 0) {
+                return false;
+            }
+            if (queue.offer(batch, Math.min(WAIT_INTERVAL_MILLIS, remainingMillis), TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sendBatches() {
+        List<LogLines> batches = new ArrayList<>(maxBatchesPerSend);
+        boolean isEndReached = false;
+        while (!isEndReached) {
+            batches.clear();
+            try {
+                batches.add(queue.take());
+            } catch (InterruptedException e) {
+                logger.error("Log shipper interrupted, the remaining log batches will not be stored", e);
+                return;
+            }
+
+            // Pick up anything else which queued while we were busy sending the last lot
+            queue.drainTo(batches, maxBatchesPerSend - 1);
+
+            int endIndex = batches.indexOf(END_OF_BATCHES);
+            if (endIndex >= 0) {
+                isEndReached = true;
+                batches.subList(endIndex, batches.size()).clear();
+            }
+
+            if (!batches.isEmpty()) {
+                sendAndRecordDelivery(batches);
+            }
+        }
+    }
+
+    private void sendAndRecordDelivery(List<LogLines> batches) {
+        ResultArchiveStoreException failure = null;
+        try {
+            sender.send(batches);
+        } catch (ResultArchiveStoreException e) {
+            failure = e;
+        } catch (Exception e) {
+            failure = new CouchdbRasException("Unable to store the test log", e);
+        }
+
+        synchronized (deliveryLock) {
+            if (failure != null) {
+                long lineCount = countLines(batches);
+                logger.error("Unable to store a batch of the test log, " + lineCount + " lines have been lost", failure);
+                lostLineCount += lineCount;
+                if (sendFailure == null) {
+                    sendFailure = failure;
+                }
+            }
+            deliveredCount += batches.size();
+            deliveryLock.notifyAll();
+        }
+    }
+
+    private long countLines(List<LogLines> batches) {
+        long lineCount = 0;
+        for (LogLines batch : batches) {
+            if (batch.lines != null) {
+                lineCount += batch.lines.size();
+            }
+        }
+        return lineCount;
+    }
+
+    // Tells the first submitter after a send failure about it. Later submitters carry on,
+    // as the failure stays on record for waitForDelivery and shutdown to report.
+    private void throwIfSendFailureUnreported() throws ResultArchiveStoreException {
+        synchronized (deliveryLock) {
+            if (sendFailure != null && !isSendFailureReportedToSubmitter) {
+                isSendFailureReportedToSubmitter = true;
+                throw sendFailure;
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Reads a large artifact a block at a time, fetching each block from CouchDB with an HTTP Range
+ * request when it is first read, rather than downloading the whole artifact before any of it can
+ * be read. The blocks read most recently are kept, and while the artifact is being read from start
+ * to end, the next few blocks are fetched in the background ahead of the reader.
+ */
+public class CouchdbRangeReadByteChannel implements SeekableByteChannel {
+
+    /**
+     * Fetches a range of the bytes of an artifact.
+     */
+    public interface RangeFetcher {
+        byte[] fetchRange(long start, int length) throws IOException;
+    }
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_CACHED_BLOCKS = 8;
+    public static final int DEFAULT_PREFETCH_BLOCKS = 2;
+
+    private final long size;
+    private final RangeFetcher fetcher;
+    private final ExecutorService prefetcher;
+    private final int blockSize;
+    private final int maxCachedBlocks;
+    private final int prefetchBlocks;
+
+    // All guarded by 'this'. The blocks in order of when they were last read, least recently read first.
+    private final LinkedHashMap<Long, Future<byte[]>> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private long position;
+    private long lastBlockRead = -1;
+    private boolean isOpen = true;
+
+    public CouchdbRangeReadByteChannel(long size, RangeFetcher fetcher, ExecutorService prefetcher) {
+        this(size, fetcher, prefetcher, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_CACHED_BLOCKS, DEFAULT_PREFETCH_BLOCKS);
+    }
+
+    /**
+     * @param size the length of the artifact
+     * @param prefetcher the executor to fetch blocks ahead of the reader on, or null to only fetch blocks as they are read
+     * @param maxCachedBlocks the most blocks kept, which is always more than the blocks fetched ahead
+     */
+    public CouchdbRangeReadByteChannel(long size, RangeFetcher fetcher, ExecutorService prefetcher, int blockSize,
+            int maxCachedBlocks, int prefetchBlocks) {
+        this.size = size;
+        this.fetcher = fetcher;
+        this.prefetcher = prefetcher;
+        this.blockSize = blockSize;
+        this.prefetchBlocks = (prefetcher == null) ? 0 : Math.max(0, prefetchBlocks);
+        this.maxCachedBlocks = Math.max(maxCachedBlocks, this.prefetchBlocks + 1);
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            long blockIndex = position / blockSize;
+            byte[] block = getBlock(blockIndex);
+
+            int offset = (int) (position - blockIndex * blockSize);
+            int count = Math.min(dst.remaining(), block.length - offset);
+            if (count <= 0) {
+                throw new IOException("Artifact ended at " + position + " bytes, before its length of " + size + " bytes");
+            }
+            dst.put(block, offset, count);
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Position " + newPosition + " is negative");
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return isOpen;
+    }
+
+    @Override
+    public synchronized void close() {
+        isOpen = false;
+        for (Future<byte[]> block : blocks.values()) {
+            block.cancel(true);
+        }
+        blocks.clear();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    // Guarded by 'this'
+    private byte[] getBlock(long blockIndex) throws IOException {
+        boolean isSequential = (blockIndex == lastBlockRead || blockIndex == lastBlockRead + 1);
+        lastBlockRead = blockIndex;
+
+        Future<byte[]> block = blocks.get(blockIndex);
+        if (block == null) {
+            // Fetched on this thread, as the reader has to wait for it anyway
+            block = CompletableFuture.completedFuture(fetchBlock(blockIndex));
+            blocks.put(blockIndex, block);
+        }
+
+        if (isSequential) {
+            prefetch(blockIndex);
+        }
+        evict();
+
+        try {
+            return block.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching artifact block " + blockIndex);
+        } catch (ExecutionException e) {
+            // Forgotten, so reading it again fetches it again
+            blocks.remove(blockIndex);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to fetch artifact block " + blockIndex, e.getCause());
+        }
+    }
+
+    // Guarded by 'this'
+    private void prefetch(long blockIndex) {
+        long blockCount = (size + blockSize - 1) / blockSize;
+        for (long nextIndex = blockIndex + 1; nextIndex <= blockIndex + prefetchBlocks && nextIndex < blockCount; nextIndex++) {
+            if (!blocks.containsKey(nextIndex)) {
+                long toFetchIndex = nextIndex;
+                try {
+                    blocks.put(toFetchIndex, prefetcher.submit(() -> fetchBlock(toFetchIndex)));
+                } catch (RejectedExecutionException e) {
+                    // The store is shutting down, so leave the block to be fetched when it is read
+                    return;
+                }
+            }
+        }
+    }
+
+    // Guarded by 'this'
+    private void evict() {
+        Iterator<Map.Entry<Long, Future<byte[]>>> iterator = blocks.entrySet().iterator();
+        while (blocks.size() > maxCachedBlocks && iterator.hasNext()) {
+            Map.Entry<Long, Future<byte[]>> block = iterator.next();
+            if (block.getKey() != lastBlockRead) {
+                block.getValue().cancel(true);
+                iterator.remove();
+            }
+        }
+    }
+
+    private byte[] fetchBlock(long blockIndex) throws IOException {
+        long start = blockIndex * blockSize;
+        int length = (int) Math.min(blockSize, size - start);
+        return fetcher.fetchRange(start, length);
+    }
+}
@@ -12,7 +12,6 @@ import java.nio.file.AccessMode;
 import java.nio.file.DirectoryStream;
 import java.nio.file.DirectoryStream.Filter;
 import java.nio.file.FileStore;
-import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
@@ -26,12 +25,12 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import dev.galasa.ResultArchiveStoreContentType;
 import dev.galasa.SetContentType;
 import dev.galasa.framework.spi.ras.ResultArchiveStoreFileSystemProvider;
 import dev.galasa.extensions.common.api.LogFactory;
-import dev.galasa.extensions.common.couchdb.CouchdbException;
 
 public class CouchdbRasFileSystemProvider extends ResultArchiveStoreFileSystemProvider {
 
@@ -39,9 +38,10 @@ public class CouchdbRasFileSystemProvider extends ResultArchiveStoreFileSystemPr
     private static final String                                BASIC_SIZE       = "size";
     private static final String                                POSIX_SIZE       = "posix:size";
 
-    private final HashMap<Path, ResultArchiveStoreContentType> contentTypes     = new HashMap<>();
+    // Artifacts are written by many threads at once, while others list and read them
+    private final Map<Path, ResultArchiveStoreContentType>     contentTypes     = new ConcurrentHashMap<>();
 
-    private final HashSet<CouchdbArtifactPath>                 paths            = new HashSet<>();
+    private final ArtifactPathIndex                            paths;
 
     private final CouchdbRasStore                              couchdbRasStore;
 
@@ -52,25 +52,11 @@ public class CouchdbRasFileSystemProvider extends ResultArchiveStoreFileSystemPr
         this.logFactory = logFactory;
         fileSystem = new CouchdbFileSystem(this);
         this.couchdbRasStore = couchdbRasStore;
-        paths.add(new CouchdbArtifactPath(fileSystem, "/"));
+        this.paths = new ArtifactPathIndex(new CouchdbArtifactPath(fileSystem, "/"));
     }
 
     protected void addPath(CouchdbArtifactPath path) {
-        path = path.toAbsolutePath();
-        if (paths.contains(path)) {
-            return;
-        }
         paths.add(path);
-
-        CouchdbArtifactPath parentPath = (CouchdbArtifactPath) path.getParent();
-        while (parentPath != null && !paths.contains(parentPath)) {
-            if (paths.contains(parentPath)) {
-                return;
-            }
-            paths.add(parentPath);
-            parentPath = parentPath.getParent();
-        }
-
     }
 
     @Override
@@ -104,24 +90,28 @@ public class CouchdbRasFileSystemProvider extends ResultArchiveStoreFileSystemPr
             passThroughOptions.add(StandardOpenOption.WRITE);
             passThroughOptions.add(StandardOpenOption.TRUNCATE_EXISTING);
 
+            int streamingThreshold = this.couchdbRasStore.getArtifactStreamingThreshold();
+            if (streamingThreshold > 0) {
+                return new CouchdbRasStreamingWriteByteChannel(this, this.couchdbRasStore, absolute, contentType, passThroughOptions,
+                        attrs, streamingThreshold, this.logFactory);
+            }
+
             return new CouchdbRasWriteByteChannel(this, this.couchdbRasStore, absolute, contentType, passThroughOptions,
                     attrs, this.logFactory );
         } else {
-            CouchdbArtifactPath cdbPath = (CouchdbArtifactPath) path;
+            CouchdbArtifactPath cdbPath = findArtifactPath(path);
 
-            for (CouchdbArtifactPath artifactPath : paths) {
-                if (artifactPath.toString().equals(path.toString())) {
-                    cdbPath = artifactPath;
-                }
+            // Large artifacts are read a block at a time, so reading the start of one doesn't download all of it
+            int rangeReadThreshold = this.couchdbRasStore.getArtifactRangeReadThreshold();
+            if (rangeReadThreshold > 0 && cdbPath.getLength() >= rangeReadThreshold && cdbPath.isRangeReadable()) {
+                return this.couchdbRasStore.openRangeReadChannel(cdbPath);
             }
 
-            Path cachePath = Files.createTempFile("galasa_couchdb", "temp");
-            try {
-                couchdbRasStore.retrieveArtifact(cdbPath, cachePath);
-            } catch (CouchdbException e) {
-                throw new IOException("Unable to retrieve artifact", e);
+            ArtifactCache.CachedArtifact cachedArtifact = couchdbRasStore.retrieveCachedArtifact(cdbPath);
+            if (this.couchdbRasStore.isArtifactMemoryMappedReads()) {
+                return new CouchdbRasMappedReadByteChannel(cachedArtifact);
             }
-            return new CouchdbRasReadByteChannel(cachePath);
+            return new CouchdbRasReadByteChannel(cachedArtifact);
         }
     }
 
@@ -145,7 +135,7 @@ public class CouchdbRasFileSystemProvider extends ResultArchiveStoreFileSystemPr
             throws IOException {
         if (path instanceof CouchdbArtifactPath
                 && (type == CoucbDbBasicAttributes.class || type == BasicFileAttributes.class)) {
-            CouchdbArtifactPath caPath = (CouchdbArtifactPath) path;
+            CouchdbArtifactPath caPath = findArtifactPath(path);
             return (A) caPath.readAttributes();
         }
         return null;
@@ -159,7 +149,7 @@ public class CouchdbRasFileSystemProvider extends ResultArchiveStoreFileSystemPr
             return returnAttrs;
         }
 
-        CouchdbArtifactPath caPath = (CouchdbArtifactPath) path;
+        CouchdbArtifactPath caPath = findArtifactPath(path);
 
         final ArrayList<String> attrs = new ArrayList<>(Arrays.asList(attributes.replaceAll(" ", "").split(",")));
 
@@ -208,13 +198,18 @@ public class CouchdbRasFileSystemProvider extends ResultArchiveStoreFileSystemPr
         return returnAttrs;
     }
     
+    // A path made by resolving names doesn't know the content type or length of the artifact it names,
+    // so the path found when the artifact was stored or listed is used instead, if there is one
+    private CouchdbArtifactPath findArtifactPath(Path path) {
+        CouchdbArtifactPath foundPath = paths.find(path);
+        return (foundPath != null) ? foundPath : (CouchdbArtifactPath) path;
+    }
+
     @Override
     public void checkAccess(Path path, AccessMode... modes) throws IOException {
         if (modes.length == 0) { // Check the file exists
-            for(CouchdbArtifactPath p : this.paths) {
-                if (p.compareTo(path) == 0) {
-                    return;
-                }
+            if (this.paths.find(path) != null) {
+                return;
             }
             throw new IOException("Path " + path.toString() + " is missing");
         }
@@ -0,0 +1,149 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a local copy of an artifact through memory mapped regions of the file, so reads are
+ * copied straight out of the page cache rather than each one being a call into the operating
+ * system. Files larger than a region are mapped a region at a time, as a region can be at most
+ * 2GB, and each region is only mapped once something is read from it.
+ *
+ * The mapping lasts until it is garbage collected, which may be after the channel is closed,
+ * so this is best suited to artifacts which are read many times, such as those in the artifact cache.
+ */
+public class CouchdbRasMappedReadByteChannel implements SeekableByteChannel {
+
+    static final long DEFAULT_REGION_SIZE = Integer.MAX_VALUE;
+
+    private final ArtifactCache.CachedArtifact cachedArtifact;
+    private final long regionSize;
+    private final long size;
+
+    // All guarded by 'this'
+    private final MappedByteBuffer[] regions;
+    private FileChannel fileChannel;
+    private long position;
+
+    public CouchdbRasMappedReadByteChannel(ArtifactCache.CachedArtifact cachedArtifact) throws IOException {
+        this(cachedArtifact, DEFAULT_REGION_SIZE);
+    }
+
+    CouchdbRasMappedReadByteChannel(ArtifactCache.CachedArtifact cachedArtifact, long regionSize) throws IOException {
+        this.cachedArtifact = cachedArtifact;
+        this.regionSize = regionSize;
+        try {
+            this.fileChannel = FileChannel.open(cachedArtifact.getPath(), StandardOpenOption.READ);
+            this.size = fileChannel.size();
+        } catch (IOException e) {
+            cachedArtifact.close();
+            throw e;
+        }
+        this.regions = new MappedByteBuffer[(int) ((size + regionSize - 1) / regionSize)];
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            int regionIndex = (int) (position / regionSize);
+            ByteBuffer region = getRegion(regionIndex).duplicate();
+            region.position((int) (position - regionIndex * regionSize));
+            if (region.remaining() > dst.remaining()) {
+                region.limit(region.position() + dst.remaining());
+            }
+
+            int count = region.remaining();
+            dst.put(region);
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Position " + newPosition + " is negative");
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return fileChannel != null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (fileChannel == null) {
+            return;
+        }
+        try {
+            fileChannel.close();
+        } finally {
+            fileChannel = null;
+            for (int i = 0; i < regions.length; i++) {
+                regions[i] = null;
+            }
+            cachedArtifact.close();
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (fileChannel == null) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    // Guarded by 'this'
+    private MappedByteBuffer getRegion(int regionIndex) throws IOException {
+        MappedByteBuffer region = regions[regionIndex];
+        if (region == null) {
+            long start = regionIndex * regionSize;
+            region = fileChannel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(regionSize, size - start));
+            regions[regionIndex] = region;
+        }
+        return region;
+    }
+}
@@ -19,12 +19,27 @@ import java.nio.file.Path;
  */
 public class CouchdbRasReadByteChannel implements SeekableByteChannel {
 
-    private final Path                cachePath;
-    private final SeekableByteChannel cacheByteChannel;
+    private final ArtifactCache.CachedArtifact cachedArtifact;
+    private final SeekableByteChannel          cacheByteChannel;
 
+    /**
+     * Reads a temporary copy of an artifact, which is deleted when the channel is closed.
+     */
     public CouchdbRasReadByteChannel(Path cachePath) throws IOException {
-        this.cachePath = cachePath;
-        this.cacheByteChannel = Files.newByteChannel(cachePath);
+        this(ArtifactCache.createUncachedArtifact(cachePath));
+    }
+
+    /**
+     * Reads an artifact from the artifact cache, which is released when the channel is closed.
+     */
+    public CouchdbRasReadByteChannel(ArtifactCache.CachedArtifact cachedArtifact) throws IOException {
+        this.cachedArtifact = cachedArtifact;
+        try {
+            this.cacheByteChannel = Files.newByteChannel(cachedArtifact.getPath());
+        } catch (IOException e) {
+            cachedArtifact.close();
+            throw e;
+        }
     }
 
     /*
@@ -46,7 +61,7 @@ public class CouchdbRasReadByteChannel implements SeekableByteChannel {
     public void close() throws IOException {
         cacheByteChannel.close();
         try {
-            Files.delete(cachePath);
+            cachedArtifact.close();
         } catch (Exception e) {
         } // *** Hide any delete problems
     }
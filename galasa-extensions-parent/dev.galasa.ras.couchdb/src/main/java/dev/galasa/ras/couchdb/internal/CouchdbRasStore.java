@@ -6,23 +6,41 @@
 package dev.galasa.ras.couchdb.internal;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.validation.constraints.NotNull;
 import org.apache.commons.logging.Log;
 import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.client.methods.HttpPut;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import com.google.gson.JsonObject;
+
+import dev.galasa.ResultArchiveStoreContentType;
+import dev.galasa.framework.spi.ConfigurationPropertyStoreException;
+import dev.galasa.framework.spi.IConfigurationPropertyStoreService;
 import dev.galasa.framework.spi.IFramework;
 import dev.galasa.framework.spi.IResultArchiveStoreDirectoryService;
 import dev.galasa.framework.spi.IResultArchiveStoreService;
@@ -39,6 +57,7 @@ import dev.galasa.extensions.common.api.LogFactory;
 import dev.galasa.extensions.common.couchdb.CouchdbException;
 import dev.galasa.extensions.common.couchdb.CouchdbStore;
 import dev.galasa.extensions.common.couchdb.CouchdbValidator;
+import dev.galasa.extensions.common.couchdb.JsonHttpEntity;
 import dev.galasa.extensions.common.couchdb.pojos.PutPostResponse;
 import dev.galasa.extensions.common.impl.HttpClientFactoryImpl;
 import dev.galasa.extensions.common.impl.HttpRequestFactoryImpl;
@@ -56,6 +75,13 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
     public static final String RUNS_DB              = "galasa_run";
     public static final String LOG_DB               = "galasa_log";
 
+    // Connections for the threads which call the store themselves, such as the test, the log shipper
+    // and requests to the API server, on top of those used by the store's own pools of threads
+    private static final int   CALLER_HTTP_CONNECTIONS = 4;
+
+    // The _changes feed follower holds a connection for as long as it runs
+    private static final int   CHANGES_FEED_HTTP_CONNECTIONS = 1;
+
     private final Log                          logger            ;
 
     private final IFramework                   framework;                                         // NOSONAR
@@ -72,22 +98,76 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
 
     private long                               logOrder           = 0;
 
-    private final ArrayList<String>            logCache           = new ArrayList<>(100);
+    private static final int                   MAX_SPARE_LOG_BUFFERS = 4;
+
+    // The most blocks of artifacts being read a block at a time which are fetched ahead of their readers at once
+    private static final int                   MAX_CONCURRENT_BLOCK_PREFETCHES = 4;
+
+    // The log cache is handed over to the log shipper as it is, rather than copied, so it is swapped for
+    // a spare buffer each time it's shipped. Buffers come back to the spares once their lines are stored.
+    private final Object                       logCacheLock       = new Object();
+    private ArrayList<String>                  logCache           = new ArrayList<>(100);
+    private final ConcurrentLinkedQueue<ArrayList<String>> spareLogBuffers = new ConcurrentLinkedQueue<>();
+    private long                               logCacheBytes;
+    private long                               logCacheOldestLineMillis;
+    private LogBatchingPolicy                  logBatchingPolicy;
+    private ScheduledExecutorService           logLingerTimer;
 
     private ArrayList<String>                  logIds             = new ArrayList<>();
     private ArrayList<String>                  artifactDocumentId = new ArrayList<>();;
-    private String                             artifactDocumentRev;
+    private ArtifactDocumentPool               artifactDocuments;
+    private int                                artifactStreamingThreshold;
+    private boolean                            isOneArtifactPerDocument;
+    private int                                inlineArtifactMaxSize;
+
+    // Null when nothing is compressed
+    private ContentEncoding                    contentEncoding;
+    private int                                compressionThreshold;
+
+    // A snapshot of the test structure last given to updateTestStructure, along with its status and result.
+    // It is only turned back into a test structure when it is written. All guarded by 'this'.
+    private JsonObject                         lastTestStructureJson;
+    private String                             lastStatus;
+    private String                             lastResult;
+
+    // Shared by everything which looks up runs through this store, so what it caches is shared too
+    private CouchdbDirectoryService            directoryService;
+    private int                                facetCacheTtlSeconds;
+    private int                                slowQueryThresholdMillis;
+    private int                                artifactDocumentMaxConcurrentLoads;
+    private int                                logDocumentMaxConcurrentLoads;
+    private int                                runDiscardMaxConcurrentBatches;
+    private int                                artifactCacheMaxSizeMb;
+    private int                                artifactRangeReadThreshold;
+    private boolean                            isArtifactMemoryMappedReads;
+
+    // Guarded by 'this'. Shared by every artifact read a block at a time through this store
+    private ExecutorService                    artifactBlockPrefetcher;
 
-    private TestStructure                      lastTestStructure;
+    // Guarded by 'this'. Shared by every run whose artifacts are read through this store, so popular artifacts are only downloaded once
+    private ArtifactCache                      artifactCache;
+
+    // Guarded by 'this'. Shared by every run log read through this store, so it bounds the loads across all of them
+    private ExecutorService                    logDocumentLoader;
+
+    // Changes to the run document are coalesced, so a long run log doesn't rewrite it for every batch of lines.
+    // All guarded by 'this'.
+    private boolean                            isTestStructureDirty = false;
+    private String                             storedStatus;
+    private String                             storedResult;
+    private long                               lastRunDocumentWriteMillis;
+    private long                               runUpdateIntervalMillis;
     private ITimeService timeService ;
 
+    private CouchdbLogShipper                  logShipper;
+
     private LogFactory logFactory;
 
     public CouchdbRasStore(IFramework framework, URI rasUri) throws CouchdbException, CouchdbRasException {
         this(
             framework,
             rasUri,
-            new HttpClientFactoryImpl(),
+            new HttpClientFactoryImpl(getMaxHttpConnections(framework, new LogFactoryImpl().getLog(CouchdbRasStore.class))),
             new CouchdbValidatorImpl(),
             new LogFactoryImpl(),
             new HttpRequestFactoryImpl(COUCHDB_AUTH_TYPE, new SystemEnvironment().getenv(COUCHDB_AUTH_ENV_VAR))
@@ -111,19 +191,132 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
 
         // *** If this is a run, ensure we can create the run document
         if (this.run != null) {
-            lastTestStructure = new TestStructure();
-            lastTestStructure.setRunName(this.run.getName());
+            this.runUpdateIntervalMillis = getCpsIntValue(CpsPropertyDef.RUN_UPDATE_INTERVAL_MILLIS);
+            this.artifactStreamingThreshold = getCpsIntValue(CpsPropertyDef.ARTIFACT_STREAMING_THRESHOLD);
+            this.isOneArtifactPerDocument = getCpsBooleanValue(CpsPropertyDef.ONE_ARTIFACT_PER_DOCUMENT);
+            this.inlineArtifactMaxSize = getCpsIntValue(CpsPropertyDef.INLINE_ARTIFACT_MAX_SIZE);
+            this.contentEncoding = getCpsContentEncoding(CpsPropertyDef.COMPRESSION_ALGORITHM);
+            this.compressionThreshold = getCpsIntValue(CpsPropertyDef.COMPRESSION_THRESHOLD);
+
+            TestStructure initialTestStructure = new TestStructure();
+            initialTestStructure.setRunName(this.run.getName());
             try {
-                updateTestStructure(lastTestStructure);
+                updateTestStructure(initialTestStructure);
             } catch (ResultArchiveStoreException e) {
                 throw new CouchdbException("Validation failed - unable to create initial run document", e);
             }
 
-            createArtifactDocument();
+            // Each artifact creates its own document when it is stored, so the run doesn't need a shared one
+            if (!this.isOneArtifactPerDocument) {
+                createArtifactDocument();
+            }
+
+            int logShipperQueueDepth = getCpsIntValue(CpsPropertyDef.LOG_SHIPPER_QUEUE_DEPTH);
+            int maxBatchesPerRequest = getCpsIntValue(CpsPropertyDef.LOG_SHIPPER_MAX_BATCHES_PER_REQUEST);
+            this.logShipper = new CouchdbLogShipper(this.run.getName(), logShipperQueueDepth, maxBatchesPerRequest,
+                this::storeLogLines, this.logFactory);
+
+            this.logBatchingPolicy = new AdaptiveLogBatchingPolicy(
+                getCpsIntValue(CpsPropertyDef.LOG_BATCH_MIN_LINES),
+                getCpsIntValue(CpsPropertyDef.LOG_BATCH_MAX_LINES),
+                getCpsIntValue(CpsPropertyDef.LOG_BATCH_MAX_BYTES),
+                getCpsIntValue(CpsPropertyDef.LOG_BATCH_MAX_LINGER_MILLIS)
+            );
+            startLogLingerTimer();
         }
 
         ResultArchiveStoreFileStore fileStore = new ResultArchiveStoreFileStore();
         this.provider = new CouchdbRasFileSystemProvider(fileStore, this, this.logFactory);
+
+        this.facetCacheTtlSeconds = getCpsIntValue(CpsPropertyDef.FACET_CACHE_TTL_SECONDS);
+        this.slowQueryThresholdMillis = getCpsIntValue(CpsPropertyDef.SLOW_QUERY_THRESHOLD_MILLIS);
+        this.artifactDocumentMaxConcurrentLoads = getCpsIntValue(CpsPropertyDef.ARTIFACT_DOCUMENT_MAX_CONCURRENT_LOADS);
+        this.logDocumentMaxConcurrentLoads = getCpsIntValue(CpsPropertyDef.LOG_DOCUMENT_MAX_CONCURRENT_LOADS);
+        this.runDiscardMaxConcurrentBatches = getCpsIntValue(CpsPropertyDef.RUN_DISCARD_MAX_CONCURRENT_BATCHES);
+        this.artifactCacheMaxSizeMb = getCpsIntValue(CpsPropertyDef.ARTIFACT_CACHE_MAX_SIZE_MB);
+        this.artifactRangeReadThreshold = getCpsIntValue(CpsPropertyDef.ARTIFACT_RANGE_READ_THRESHOLD);
+        this.isArtifactMemoryMappedReads = getCpsBooleanValue(CpsPropertyDef.ARTIFACT_MEMORY_MAPPED_READS);
+        this.directoryService = new CouchdbDirectoryService(this, this.logFactory, this.httpRequestFactory);
+    }
+
+    // All requests go to the same couchdb server, so this is the limit per route as well as in total.
+    // Unless it is set in the CPS, there are enough connections for all the store's pools of threads
+    // to be busy at once without waiting for each other.
+    private static int getMaxHttpConnections(IFramework framework, Log logger) throws CouchdbException {
+        int maxConnections = getCpsIntValue(framework, logger, CpsPropertyDef.HTTP_MAX_CONNECTIONS);
+        if (maxConnections <= 0) {
+            maxConnections = CALLER_HTTP_CONNECTIONS
+                + CHANGES_FEED_HTTP_CONNECTIONS
+                + MAX_CONCURRENT_BLOCK_PREFETCHES
+                + getCpsIntValue(framework, logger, CpsPropertyDef.ARTIFACT_MAX_CONCURRENT_UPLOADS)
+                + getCpsIntValue(framework, logger, CpsPropertyDef.ARTIFACT_DOCUMENT_MAX_CONCURRENT_LOADS)
+                + getCpsIntValue(framework, logger, CpsPropertyDef.LOG_DOCUMENT_MAX_CONCURRENT_LOADS)
+                + getCpsIntValue(framework, logger, CpsPropertyDef.RUN_DISCARD_MAX_CONCURRENT_BATCHES);
+        }
+        return maxConnections;
+    }
+
+    private int getCpsIntValue(CpsPropertyDef property) throws CouchdbException {
+        return getCpsIntValue(this.framework, this.logger, property);
+    }
+
+    private static int getCpsIntValue(IFramework framework, Log logger, CpsPropertyDef property) throws CouchdbException {
+        IConfigurationPropertyStoreService cps = getCps(framework, property);
+
+        int value = property.getDefaultValue();
+        if (cps != null) {
+            try {
+                value = property.getCpsIntValue(logger, cps);
+            } catch (CouchdbRasException e) {
+                throw new CouchdbException(e.getMessage(), e);
+            }
+        }
+        return value;
+    }
+
+    private boolean getCpsBooleanValue(CpsPropertyDef property) throws CouchdbException {
+        IConfigurationPropertyStoreService cps = getCps(property);
+
+        boolean value = (property.getDefaultValue() != 0);
+        if (cps != null) {
+            try {
+                value = property.getCpsBooleanValue(logger, cps);
+            } catch (CouchdbRasException e) {
+                throw new CouchdbException(e.getMessage(), e);
+            }
+        }
+        return value;
+    }
+
+    private ContentEncoding getCpsContentEncoding(CpsPropertyDef property) throws CouchdbException {
+        IConfigurationPropertyStoreService cps = getCps(property);
+        if (cps == null) {
+            return null;
+        }
+
+        try {
+            String algorithm = property.getCpsStringValue(logger, cps);
+            if (algorithm == null) {
+                return null;
+            }
+            return ContentEncoding.fromName(algorithm);
+        } catch (CouchdbRasException e) {
+            throw new CouchdbException(e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            throw new CouchdbException("Invalid value for CPS property couchdb." + property.getPropertyName() + " - " + e.getMessage(), e);
+        }
+    }
+
+    private IConfigurationPropertyStoreService getCps(CpsPropertyDef property) throws CouchdbException {
+        return getCps(this.framework, property);
+    }
+
+    private static IConfigurationPropertyStoreService getCps(IFramework framework, CpsPropertyDef property) throws CouchdbException {
+        try {
+            return framework.getConfigurationPropertyService(property.getNamespace());
+        } catch (ConfigurationPropertyStoreException e) {
+            throw new CouchdbException("Unable to access the CPS namespace " + property.getNamespace(), e);
+        }
     }
 
     // Protected so that we can create artifact documents from elsewhere.
@@ -137,10 +330,118 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
         artifacts.runId = this.runDocumentId;
         artifacts.runName = this.run.getName();
 
-        String jsonArtifacts = gson.toJson(artifacts);
-        PutPostResponse putPostResponse = createDocument(ARTIFACTS_DB, jsonArtifacts);
+        PutPostResponse putPostResponse = createDocument(ARTIFACTS_DB, artifacts);
         this.artifactDocumentId.add(putPostResponse.id);
-        this.artifactDocumentRev = putPostResponse.rev;
+
+        int maxConcurrentUploads = getCpsIntValue(CpsPropertyDef.ARTIFACT_MAX_CONCURRENT_UPLOADS);
+        this.artifactDocuments = new ArtifactDocumentPool(putPostResponse.id, putPostResponse.rev, maxConcurrentUploads,
+            this::createArtifactDocumentForUpload);
+    }
+
+    /**
+     * Gets an artifact document which no other upload is using, creating a new one for
+     * the run if they are all busy. The document must be given back using
+     * {@link #releaseArtifactDocument}, with its revision updated if it was changed.
+     */
+    public ArtifactDocumentPool.ArtifactDocument leaseArtifactDocument() throws CouchdbException, InterruptedException {
+        return this.artifactDocuments.lease();
+    }
+
+    public void releaseArtifactDocument(ArtifactDocumentPool.ArtifactDocument artifactDocument) {
+        this.artifactDocuments.release(artifactDocument);
+    }
+
+    // Ships lines which have been sitting in the log cache for longer than the batching policy allows,
+    // so the log of a quiet test still reaches CouchDB before the next heartbeat.
+    private void startLogLingerTimer() {
+        long maxLingerMillis = logBatchingPolicy.getMaxLingerMillis();
+        if (maxLingerMillis <= 0) {
+            return;
+        }
+
+        String threadName = "couchdb-log-linger-" + this.run.getName();
+        this.logLingerTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long checkIntervalMillis = Math.max(100, maxLingerMillis / 2);
+        this.logLingerTimer.scheduleWithFixedDelay(this::shipLingeringLogLines, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void shipLingeringLogLines() {
+        try {
+            synchronized (logCacheLock) {
+                long lingerMillis = timeService.now().toEpochMilli() - logCacheOldestLineMillis;
+                if (!logCache.isEmpty() && lingerMillis >= logBatchingPolicy.getMaxLingerMillis()) {
+                    shipLogCache(false);
+                }
+            }
+        } catch (ResultArchiveStoreException e) {
+            logger.error("Unable to ship the lines waiting in the test log cache", e);
+        }
+    }
+
+    // Creates another artifact document for the run, which is shared by the artifacts uploaded into it.
+    protected PutPostResponse createArtifactDocumentForUpload() throws CouchdbException {
+        return createArtifactDocumentForUpload(null, null, null, null);
+    }
+
+    // Creates an artifact document to hold a single artifact which is uploaded on its own.
+    // The run's shared artifact document and its revision are not affected.
+    // If inline data is given, the document holds the artifact itself, otherwise the artifact must be attached to it.
+    protected PutPostResponse createArtifactDocumentForUpload(String artifactPath, String contentType, Long length,
+            String inlineArtifactData) throws CouchdbException {
+        Artifacts artifacts = new Artifacts();
+        artifacts.runId = this.runDocumentId;
+        artifacts.runName = this.run.getName();
+        artifacts.artifactPath = artifactPath;
+        artifacts.contentType = contentType;
+        artifacts.length = length;
+        artifacts.inlineArtifactData = inlineArtifactData;
+
+        PutPostResponse putPostResponse = createDocument(ARTIFACTS_DB, artifacts);
+        addArtifactRecordId(putPostResponse.id);
+        return putPostResponse;
+    }
+
+    // An artifact streamed into an artifact document of its own starts being compressed before its length
+    // is known, so its length is added to the document once it has been stored. The document is rewritten
+    // with a stub of its attachment, which CouchDB keeps as it is.
+    protected PutPostResponse updateArtifactDocumentLength(String artifactDocumentId, String artifactDocumentRev,
+            String artifactPath, String contentType, long length) throws CouchdbException {
+        Artifacts artifacts = new Artifacts();
+        artifacts.runId = this.runDocumentId;
+        artifacts.runName = this.run.getName();
+        artifacts.artifactPath = artifactPath;
+        artifacts.contentType = contentType;
+        artifacts.length = length;
+
+        JsonObject attachmentStub = new JsonObject();
+        attachmentStub.addProperty("stub", true);
+        JsonObject attachments = new JsonObject();
+        attachments.add(artifactPath, attachmentStub);
+
+        JsonObject document = gson.toJsonTree(artifacts).getAsJsonObject();
+        document.add("_attachments", attachments);
+
+        HttpPut request = httpRequestFactory.getHttpPutRequest(this.storeUri + "/" + ARTIFACTS_DB + "/" + artifactDocumentId);
+        request.setHeader("If-Match", artifactDocumentRev);
+        request.setEntity(new JsonHttpEntity(document, gson));
+
+        String entity = sendHttpRequest(request, HttpStatus.SC_CREATED);
+        PutPostResponse putPostResponse = gson.fromJson(entity, PutPostResponse.class);
+        if (putPostResponse == null || putPostResponse.id == null || putPostResponse.rev == null) {
+            throw new CouchdbException("Unable to store the length of artifact " + artifactPath + " - Invalid JSON response");
+        }
+        return putPostResponse;
+    }
+
+    // The artifact record ids are serialised as part of the test structure, so they must not change while it is being written.
+    private synchronized void addArtifactRecordId(String artifactRecordId) {
+        this.artifactDocumentId.add(artifactRecordId);
+        this.isTestStructureDirty = true;
     }
 
     @Override
@@ -149,35 +450,124 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
             throw new ResultArchiveStoreException("Not a run");
         }
 
-        String[] lines = message.split("\r\n?|\n");
+        // Lines are added one at a time, so a very long message is split across several batches
+        synchronized (logCacheLock) {
+            LogLineSplitter.forEachLine(message, this::addLineToLogCache);
+        }
+    }
 
-        synchronized (logCache) {
-            logCache.addAll(Arrays.asList(lines));
-            if (logCache.size() >= 100) {
-                flushLogCache();
-            }
+    // Must be called holding the log cache lock.
+    private void addLineToLogCache(String line) throws ResultArchiveStoreException {
+        if (logCache.isEmpty()) {
+            logCacheOldestLineMillis = timeService.now().toEpochMilli();
+        }
+        logCache.add(line);
+        logCacheBytes += line.length();
+
+        if (logBatchingPolicy.isBatchFull(logCache.size(), logCacheBytes)) {
+            shipLogCache(true);
         }
     }
 
-    private void flushLogCache() throws ResultArchiveStoreException {
-        LogLines logLines = new LogLines();
-        synchronized (logCache) {
+    // Hands whatever is in the log cache over to the log shipper, without waiting for it to be stored.
+    // Batches are submitted while the cache is locked, so they reach CouchDB in the order they were written.
+    // If the batch can't be submitted, for instance because the linger timer was interrupted by shutdown,
+    // its lines are put back in the cache so a later flush can still ship them.
+    private void shipLogCache(boolean isFull) throws ResultArchiveStoreException {
+        synchronized (logCacheLock) {
             if (logCache.isEmpty()) {
                 return;
             }
-            logLines.lines = new ArrayList<>(logCache);
+            long lingerMillis = timeService.now().toEpochMilli() - logCacheOldestLineMillis;
+            ArrayList<String> batchLines = logCache;
+            int batchLineCount = logCache.size();
+            long batchBytes = logCacheBytes;
+
+            LogLines logLines = new LogLines();
+            logLines.lines = batchLines;
             logOrder++;
             logLines.order = logOrder;
 
-            logCache.clear();
+            ArrayList<String> spareLogBuffer = spareLogBuffers.poll();
+            logCache = (spareLogBuffer != null) ? spareLogBuffer : new ArrayList<>(batchLineCount);
+            logCacheBytes = 0;
+
+            logLines.runName = this.run.getName();
+            logLines.runId = this.runDocumentId;
+
+            try {
+                logShipper.submit(logLines);
+            } catch (ResultArchiveStoreException e) {
+                logCache = batchLines;
+                logCacheBytes = batchBytes;
+                logOrder--;
+                throw e;
+            }
+            // The shipper may already have recycled the batch's buffer, so it isn't looked at again
+            logBatchingPolicy.batchShipped(batchLineCount, batchBytes, lingerMillis, isFull);
+        }
+    }
+
+    // Ships the log cache and waits until everything written so far has been stored.
+    private void flushLogCache() throws ResultArchiveStoreException {
+        if (this.run == null) {
+            return;
+        }
+        shipLogCache(false);
+        logShipper.waitForDelivery();
+    }
+
+    // Writes any run document changes which have been held back.
+    private synchronized void flushTestStructure() throws ResultArchiveStoreException {
+        if (this.run == null || !isTestStructureDirty) {
+            return;
+        }
+        writeTestStructure();
+    }
+
+    // Called on the log shipper thread to store batches of log lines.
+    // A backlog of batches is stored using a single _bulk_docs request.
+    private void storeLogLines(List<LogLines> batches) throws ResultArchiveStoreException {
+        if (batches.size() == 1) {
+            storeLogLines(batches.get(0));
+            return;
+        }
+
+        List<LogLines> encodedBatches = new ArrayList<>(batches.size());
+        for (LogLines logLines : batches) {
+            encodedBatches.add(encodeLogLines(logLines));
+        }
+
+        try {
+            // The documents which were created are part of the log, even if others in the same request failed
+            List<PutPostResponse> putPostResponses = createDocumentsInBulk(LOG_DB, encodedBatches);
+            if (addLogRecordIds(putPostResponses)) {
+                testStructureChanged();
+            }
+            checkDocumentsCreated(LOG_DB, putPostResponses);
+        } catch (CouchdbException e) {
+            throw new ResultArchiveStoreException(e);
+        }
+
+        for (LogLines logLines : batches) {
+            recycleLogBuffer(logLines);
         }
-        logLines.runName = this.run.getName();
-        logLines.runId = this.runDocumentId;
+    }
 
-        String jsonStructure = gson.toJson(logLines);
+    // Once a batch is stored its lines aren't needed, so the buffer holding them can be used for a later batch.
+    @SuppressWarnings("unchecked")
+    private void recycleLogBuffer(LogLines logLines) {
+        if (logLines.lines instanceof ArrayList && spareLogBuffers.size() < MAX_SPARE_LOG_BUFFERS) {
+            ArrayList<String> buffer = (ArrayList<String>) logLines.lines;
+            logLines.lines = null;
+            buffer.clear();
+            spareLogBuffers.offer(buffer);
+        }
+    }
 
+    private void storeLogLines(LogLines logLines) throws ResultArchiveStoreException {
         HttpPost request = httpRequestFactory.getHttpPostRequest(this.storeUri + "/"+LOG_DB);
-        request.setEntity(new StringEntity(jsonStructure, StandardCharsets.UTF_8));
+        request.setEntity(new JsonHttpEntity(encodeLogLines(logLines), gson));
 
         try{
             String entity = sendHttpRequest(request, HttpStatus.SC_CREATED);
@@ -186,8 +576,9 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
                 throw new CouchdbException("Unable to store the test structure - Invalid JSON response");
             }
 
-            this.logIds.add(putPostResponse.id);
-            this.updateTestStructure(lastTestStructure);
+            addLogRecordId(putPostResponse.id);
+            testStructureChanged();
+            recycleLogBuffer(logLines);
         } catch (CouchdbException e) {
             throw new ResultArchiveStoreException(e);
         } catch (Exception e) {
@@ -195,6 +586,62 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
         }
     }
 
+    // The log document to send to CouchDB for a batch of lines, which holds the lines compressed
+    // if they are big enough to be worth it. The batch itself is left alone, so its buffer can be recycled.
+    private LogLines encodeLogLines(LogLines logLines) throws ResultArchiveStoreException {
+        if (contentEncoding == null || logLines.lines == null) {
+            return logLines;
+        }
+
+        long batchBytes = 0;
+        for (String line : logLines.lines) {
+            batchBytes += line.length() + 1;
+        }
+        if (batchBytes < compressionThreshold) {
+            return logLines;
+        }
+
+        // Lines never contain line breaks, as messages are split into lines before they are batched
+        StringBuilder joinedLines = new StringBuilder((int) batchBytes);
+        for (String line : logLines.lines) {
+            if (joinedLines.length() > 0) {
+                joinedLines.append('\n');
+            }
+            joinedLines.append(line);
+        }
+
+        LogLines encodedLogLines = new LogLines();
+        encodedLogLines.runId = logLines.runId;
+        encodedLogLines.runName = logLines.runName;
+        encodedLogLines.order = logLines.order;
+        encodedLogLines.contentEncoding = contentEncoding.getName();
+        try {
+            byte[] compressedLines = contentEncoding.compress(joinedLines.toString().getBytes(StandardCharsets.UTF_8));
+            encodedLogLines.compressedLines = Base64.getEncoder().encodeToString(compressedLines);
+        } catch (IOException e) {
+            throw new ResultArchiveStoreException("Unable to compress the test log", e);
+        }
+        return encodedLogLines;
+    }
+
+    // The lines of a log document, whether or not they were compressed.
+    private List<String> decodeLogLines(LogLines logLines) throws ResultArchiveStoreException {
+        if (logLines.contentEncoding == null) {
+            return logLines.lines;
+        }
+        if (logLines.compressedLines == null) {
+            return null;
+        }
+
+        try {
+            ContentEncoding encoding = ContentEncoding.fromName(logLines.contentEncoding);
+            byte[] lines = encoding.decompress(Base64.getDecoder().decode(logLines.compressedLines));
+            return Arrays.asList(new String(lines, StandardCharsets.UTF_8).split("\n", -1));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ResultArchiveStoreException("Unable to decompress the test log", e);
+        }
+    }
+
     @Override
     public void writeLog(@NotNull List<String> messages) throws ResultArchiveStoreException {
         if (this.run == null) {
@@ -206,6 +653,26 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
         }
     }
 
+    // The log record ids are serialised as part of the test structure, so they must not change while it is being written.
+    private synchronized void addLogRecordId(String logRecordId) {
+        this.logIds.add(logRecordId);
+    }
+
+    // Only adds the log records which were created, returning whether there were any.
+    private synchronized boolean addLogRecordIds(List<PutPostResponse> logRecords) {
+        boolean isAnyAdded = false;
+        for (PutPostResponse logRecord : logRecords) {
+            if (logRecord.error == null && logRecord.id != null && logRecord.rev != null) {
+                this.logIds.add(logRecord.id);
+                isAnyAdded = true;
+            }
+        }
+        return isAnyAdded;
+    }
+
+    // The framework goes on changing the test structure after handing it over, so a JSON snapshot
+    // is taken here, on the caller's thread. A test structure is only made from the snapshot when
+    // a write is due, which most updates during a long run are not.
     @Override
     public synchronized void updateTestStructure(@NotNull TestStructure testStructure)
             throws ResultArchiveStoreException {
@@ -213,12 +680,33 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
             throw new ResultArchiveStoreException("Not a run");
         }
 
-        this.lastTestStructure = testStructure;
-        this.lastTestStructure.setLogRecordIds(this.logIds);
-        this.lastTestStructure.setArtifactRecordIds(this.artifactDocumentId);
-        this.lastTestStructure.normalise();
+        this.lastTestStructureJson = gson.toJsonTree(testStructure).getAsJsonObject();
+        this.lastStatus = testStructure.getStatus();
+        this.lastResult = testStructure.getResult();
+        testStructureChanged();
+    }
+
+    // Also called on the log shipper thread, each time new log records are stored.
+    // The run document is only written if it hasn't been created yet, the status or result of
+    // the run has changed, or the last write was long enough ago. Otherwise the change is held
+    // back until the next write, flush or shutdown.
+    private synchronized void testStructureChanged() throws ResultArchiveStoreException {
+        this.isTestStructureDirty = true;
+
+        boolean isStatusChanged = !Objects.equals(lastStatus, storedStatus)
+            || !Objects.equals(lastResult, storedResult);
+        boolean isIntervalExpired = (timeService.now().toEpochMilli() - lastRunDocumentWriteMillis) >= runUpdateIntervalMillis;
+
+        if (runDocumentId == null || isStatusChanged || isIntervalExpired) {
+            writeTestStructure();
+        }
+    }
 
-        String jsonStructure = gson.toJson(testStructure);
+    private synchronized void writeTestStructure() throws ResultArchiveStoreException {
+        TestStructure testStructure = gson.fromJson(this.lastTestStructureJson, TestStructure.class);
+        testStructure.setLogRecordIds(this.logIds);
+        testStructure.setArtifactRecordIds(this.artifactDocumentId);
+        testStructure.normalise();
 
         HttpEntityEnclosingRequestBase request;
         if (runDocumentId == null) {
@@ -227,7 +715,7 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
             request = httpRequestFactory.getHttpPutRequest(this.storeUri + "/"+RUNS_DB+"/" + runDocumentId);
             request.setHeader("If-Match", runDocumentRevision);
         }
-        request.setEntity(new StringEntity(jsonStructure, StandardCharsets.UTF_8));
+        request.setEntity(new JsonHttpEntity(testStructure, gson));
 
         try{
             String entity = sendHttpRequest(request, HttpStatus.SC_CREATED);
@@ -237,48 +725,192 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
                 }
                 this.runDocumentId = putPostResponse.id;
                 this.runDocumentRevision = putPostResponse.rev;
+
+                this.isTestStructureDirty = false;
+                this.storedStatus = lastStatus;
+                this.storedResult = lastResult;
+                this.lastRunDocumentWriteMillis = timeService.now().toEpochMilli();
         } catch (CouchdbException e){
             throw new ResultArchiveStoreException(e);
         }
     }
 
     public void retrieveArtifact(CouchdbArtifactPath path, Path cachePath) throws CouchdbException {
-        String artifactRecordId = path.getArtifactRecordId();
+        // Small artifacts may already have been read in with their artifact document
+        String inlineArtifactData = path.getInlineArtifactData();
+        if (inlineArtifactData != null) {
+            try {
+                Files.write(cachePath, Base64.getDecoder().decode(inlineArtifactData));
+            } catch (IOException | IllegalArgumentException e) {
+                throw new CouchdbException("Unable to retrieve inline artifact " + path.toString(), e);
+            }
+            return;
+        }
+
+        String artifactURI = getArtifactUri(path);
+
+        ContentEncoding artifactEncoding = path.getContentEncoding();
+        if (artifactEncoding == null) {
+            retrieveArtifactFromDatabase(artifactURI, cachePath,StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            retrieveCompressedArtifact(artifactURI, artifactEncoding, cachePath);
+        }
+    }
+
+    private String getArtifactUri(CouchdbArtifactPath path) throws CouchdbException {
         String encodedPath;
         try {
             encodedPath = URLEncoder.encode(path.toString(), "utf-8");
         } catch (UnsupportedEncodingException e) {
             throw new CouchdbException("Problem encoding artifact path", e);
         }
+        return this.storeUri + "/"+ARTIFACTS_DB+"/" + path.getArtifactRecordId() + "/" + encodedPath;
+    }
 
-        String artifactURI= this.storeUri + "/"+ARTIFACTS_DB+"/" + artifactRecordId + "/" + encodedPath;
-        retrieveArtifactFromDatabase(artifactURI, cachePath,StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * Opens a channel which reads an artifact a block at a time, each block fetched with an HTTP Range
+     * request when it is needed. Only for artifacts which are {@link CouchdbArtifactPath#isRangeReadable()}.
+     */
+    public SeekableByteChannel openRangeReadChannel(CouchdbArtifactPath path) throws IOException {
+        String artifactURI;
+        try {
+            artifactURI = getArtifactUri(path);
+        } catch (CouchdbException e) {
+            throw new IOException("Unable to retrieve artifact", e);
+        }
+        return new CouchdbRangeReadByteChannel(path.getLength(),
+            (start, length) -> retrieveArtifactRange(artifactURI, start, length), getArtifactBlockPrefetcher());
     }
 
-    public String getLog(TestStructure ts) throws ResultArchiveStoreException {
-        StringBuilder sb = new StringBuilder();
-
-        for (String logRecordId : ts.getLogRecordIds()) {
-            HttpGet httpGet = httpRequestFactory.getHttpGetRequest(this.storeUri + "/"+LOG_DB+"/" + logRecordId);
-
-            try{
-                String entity = sendHttpRequest(httpGet, HttpStatus.SC_OK);
-                LogLines logLines = gson.fromJson(entity, LogLines.class);
-                if (logLines.lines != null) {
-                    for (String line : logLines.lines) {
-                        if (sb.length() > 0) {
-                            sb.append("\n");
-                        }
-                        sb.append(line);
+    private byte[] retrieveArtifactRange(String artifactURI, long start, int length) throws IOException {
+        HttpGet httpGet = httpRequestFactory.getHttpGetRequest(artifactURI);
+        httpGet.setHeader("Range", "bytes=" + start + "-" + (start + length - 1));
+
+        try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
+            StatusLine statusLine = response.getStatusLine();
+            int statusCode = statusLine.getStatusCode();
+            if (statusCode == HttpStatus.SC_PARTIAL_CONTENT) {
+                return EntityUtils.toByteArray(response.getEntity());
+            }
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new IOException("Unable to retrieve artifact " + artifactURI + " - " + statusLine.toString());
+            }
+
+            // The range was ignored, so pick it out of the whole artifact
+            try (InputStream content = response.getEntity().getContent()) {
+                long toSkip = start;
+                while (toSkip > 0) {
+                    long skipped = content.skip(toSkip);
+                    if (skipped <= 0) {
+                        throw new IOException("Artifact " + artifactURI + " ended before byte " + start);
                     }
+                    toSkip -= skipped;
                 }
+                return content.readNBytes(length);
+            }
+        }
+    }
+
+    // Null if blocks are only fetched as they are read
+    private synchronized ExecutorService getArtifactBlockPrefetcher() {
+        if (artifactBlockPrefetcher == null && !shutdown) {
+            artifactBlockPrefetcher = LoaderThreadPool.create("couchdb-artifact-block-prefetcher", MAX_CONCURRENT_BLOCK_PREFETCHES);
+        }
+        return artifactBlockPrefetcher;
+    }
+
+    /**
+     * Retrieves an artifact into a local file to be read. Artifacts whose artifact document revision
+     * is known are kept in the artifact cache, so reading them again doesn't download them again.
+     *
+     * @return the artifact, which must be closed once it has been read
+     */
+    public ArtifactCache.CachedArtifact retrieveCachedArtifact(CouchdbArtifactPath path) throws IOException {
+        ArtifactCache cache = getArtifactCache();
+        String revision = path.getArtifactRecordRevision();
+        if (cache == null || revision == null || path.getArtifactRecordId() == null) {
+            Path cachePath = Files.createTempFile("galasa_couchdb", "temp");
+            try {
+                retrieveArtifact(path, cachePath);
+            } catch (CouchdbException e) {
+                Files.deleteIfExists(cachePath);
+                throw new IOException("Unable to retrieve artifact", e);
+            }
+            return ArtifactCache.createUncachedArtifact(cachePath);
+        }
+
+        String key = path.getArtifactRecordId() + "/" + revision + "/" + path.toString();
+        return cache.getArtifact(key, cachePath -> {
+            try {
+                retrieveArtifact(path, cachePath);
             } catch (CouchdbException e) {
-                throw new ResultArchiveStoreException(e);
-            } catch (Exception e) {
-                throw new ResultArchiveStoreException("Unable to find runs", e);
+                throw new IOException("Unable to retrieve artifact", e);
             }
+        });
+    }
+
+    // Null if artifacts are downloaded every time they are read
+    private synchronized ArtifactCache getArtifactCache() throws IOException {
+        if (artifactCache == null && artifactCacheMaxSizeMb > 0 && !shutdown) {
+            Path cacheDirectory = Files.createTempDirectory("galasa_couchdb_artifact_cache");
+            artifactCache = new ArtifactCache(cacheDirectory, artifactCacheMaxSizeMb * 1024L * 1024L, logFactory);
+        }
+        return artifactCache;
+    }
+
+    // Decompresses the artifact as it is downloaded, so the cached copy is the artifact as it was written.
+    private void retrieveCompressedArtifact(String artifactURI, ContentEncoding artifactEncoding, Path cachePath) throws CouchdbException {
+        HttpGet httpGet = httpRequestFactory.getHttpGetRequest(artifactURI);
+        try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
+            StatusLine statusLine = response.getStatusLine();
+            if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
+                throw new CouchdbException("Unable to retrieve artifact " + artifactURI + " - " + statusLine.toString());
+            }
+            try (InputStream content = artifactEncoding.decompress(response.getEntity().getContent())) {
+                Files.copy(content, cachePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (CouchdbException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CouchdbException("Unable to retrieve artifact", e);
+        }
+    }
+
+    public String getLog(TestStructure ts) throws ResultArchiveStoreException {
+        return createRunLog(ts).getLog();
+    }
+
+    /**
+     * @return the log of a run, which can be read whole, streamed or read a range of lines at a time
+     */
+    public CouchdbRunLog createRunLog(TestStructure ts) {
+        return new CouchdbRunLog(ts.getLogRecordIds(), this::loadLogDocument, getLogDocumentLoader(), logDocumentMaxConcurrentLoads);
+    }
+
+    // Null if run logs are loaded one document after another on the thread reading them
+    private synchronized ExecutorService getLogDocumentLoader() {
+        if (logDocumentLoader == null && logDocumentMaxConcurrentLoads > 1 && !shutdown) {
+            logDocumentLoader = LoaderThreadPool.create("couchdb-log-document-loader", logDocumentMaxConcurrentLoads);
+        }
+        return logDocumentLoader;
+    }
+
+    private LogLines loadLogDocument(String logRecordId) throws ResultArchiveStoreException {
+        HttpGet httpGet = httpRequestFactory.getHttpGetRequest(this.storeUri + "/"+LOG_DB+"/" + logRecordId);
+
+        try{
+            String entity = sendHttpRequest(httpGet, HttpStatus.SC_OK);
+            LogLines logLines = gson.fromJson(entity, LogLines.class);
+            logLines.lines = decodeLogLines(logLines);
+            logLines.compressedLines = null;
+            return logLines;
+        } catch (CouchdbException e) {
+            throw new ResultArchiveStoreException(e);
+        } catch (ResultArchiveStoreException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ResultArchiveStoreException("Unable to find runs", e);
         }
-        return sb.toString();
     }
 
     @Override
@@ -296,17 +928,54 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
         } catch (ResultArchiveStoreException e) {
             logger.error("Error with heartbeat flush", e);
         }
+
+        try {
+            flushTestStructure();
+        } catch (ResultArchiveStoreException e) {
+            logger.error("Error with heartbeat flush of the run document", e);
+        }
     }
 
     @Override
     public void shutdown() {
         this.shutdown = true;
+        if (this.logLingerTimer != null) {
+            this.logLingerTimer.shutdownNow();
+        }
+
         try {
             flushLogCache();
         } catch (ResultArchiveStoreException e) {
             logger.error("Error with shutdown flush", e);
         }
 
+        if (this.logShipper != null) {
+            this.logShipper.shutdown();
+        }
+
+        try {
+            flushTestStructure();
+        } catch (ResultArchiveStoreException e) {
+            logger.error("Error with shutdown flush of the run document", e);
+        }
+
+        this.directoryService.shutdown();
+
+        synchronized (this) {
+            if (this.logDocumentLoader != null) {
+                this.logDocumentLoader.shutdownNow();
+                this.logDocumentLoader = null;
+            }
+            if (this.artifactCache != null) {
+                this.artifactCache.clear();
+                this.artifactCache = null;
+            }
+            if (this.artifactBlockPrefetcher != null) {
+                this.artifactBlockPrefetcher.shutdownNow();
+                this.artifactBlockPrefetcher = null;
+            }
+        }
+
         try {
             this.httpClient.close();
         } catch (IOException e) {
@@ -317,16 +986,51 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
         return this.shutdown;
     }
 
+    public int getFacetCacheTtlSeconds() {
+        return this.facetCacheTtlSeconds;
+    }
+
+    public int getSlowQueryThresholdMillis() {
+        return this.slowQueryThresholdMillis;
+    }
+
+    public int getArtifactDocumentMaxConcurrentLoads() {
+        return this.artifactDocumentMaxConcurrentLoads;
+    }
+
+    public boolean isArtifactMemoryMappedReads() {
+        return this.isArtifactMemoryMappedReads;
+    }
+
+    public int getArtifactRangeReadThreshold() {
+        return this.artifactRangeReadThreshold;
+    }
+
+    public int getArtifactCacheMaxSizeMb() {
+        return this.artifactCacheMaxSizeMb;
+    }
+
+    public int getRunDiscardMaxConcurrentBatches() {
+        return this.runDiscardMaxConcurrentBatches;
+    }
+
     public CloseableHttpClient getHttpClient() {
         return this.httpClient;
     }
 
+    // Null when each artifact is stored in a document of its own
     public String getArtifactDocumentId() {
-        return this.artifactDocumentId.get(0);
+        if (this.artifactDocuments == null) {
+            return null;
+        }
+        return this.artifactDocuments.getFirstDocument().getId();
     }
 
     public String getArtifactDocumentRev() {
-        return this.artifactDocumentRev;
+        if (this.artifactDocuments == null) {
+            return null;
+        }
+        return this.artifactDocuments.getFirstDocument().getRevision();
     }
 
     public URI getCouchdbUri() {
@@ -337,14 +1041,36 @@ public class CouchdbRasStore extends CouchdbStore implements IResultArchiveStore
         return this.gson;
     }
 
-    public void updateArtifactDocumentRev(String newArtifactDocumentRev) {
-        this.artifactDocumentRev = newArtifactDocumentRev;
+    // 0 means artifacts are staged in temporary files rather than streamed.
+    public int getArtifactStreamingThreshold() {
+        return this.artifactStreamingThreshold;
+    }
+
+    public boolean isOneArtifactPerDocument() {
+        return this.isOneArtifactPerDocument;
+    }
+
+    // 0 means artifacts are never held inline in their artifact document.
+    public int getInlineArtifactMaxSize() {
+        return this.inlineArtifactMaxSize;
+    }
+
+    // How an artifact is to be compressed, or null if it should be sent as it is.
+    // Only text artifacts are compressed, as other content types are usually compressed already.
+    public ContentEncoding getArtifactContentEncoding(ResultArchiveStoreContentType contentType, long length) {
+        if (this.contentEncoding == null || length < this.compressionThreshold) {
+            return null;
+        }
+        if (!ResultArchiveStoreContentType.TEXT.value().equals(contentType.value())) {
+            return null;
+        }
+        return this.contentEncoding;
     }
 
     @Override
     public @NotNull List<IResultArchiveStoreDirectoryService> getDirectoryServices() {
         ArrayList<IResultArchiveStoreDirectoryService> dirs = new ArrayList<>();
-        dirs.add(new CouchdbDirectoryService(this, this.logFactory, this.httpRequestFactory));
+        dirs.add(this.directoryService);
         return dirs;
     }
 
@@ -0,0 +1,302 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+
+import dev.galasa.ResultArchiveStoreContentType;
+import dev.galasa.extensions.common.api.LogFactory;
+import dev.galasa.extensions.common.couchdb.CouchdbException;
+import dev.galasa.extensions.common.couchdb.pojos.PutPostResponse;
+
+/**
+ * A write channel which sends an artifact to CouchDB as it is written, rather
+ * than staging it in a temporary file and uploading it on close.
+ *
+ * The first part of the artifact is held in memory. If the artifact is closed
+ * before that fills up, it is stored like any other artifact. Once it grows past the in-memory limit, a chunked PUT is started on a
+ * separate thread, and everything written from then on is piped straight into
+ * it. Streamed artifacts are stored in an artifact document of their own, so a
+ * long upload doesn't hold up other artifacts waiting on the run's artifact document.
+ *
+ * Streaming only works if the artifact is written from start to end. If the
+ * writer seeks or truncates before streaming has started, the channel falls back
+ * to staging the artifact in a temporary file. Once streaming has started the
+ * bytes already sent can't be changed, so seeking or truncating fails.
+ */
+public class CouchdbRasStreamingWriteByteChannel implements SeekableByteChannel {
+
+    private final Log                           logger;
+    private final LogFactory                    logFactory;
+
+    private final CouchdbRasFileSystemProvider  couchdbRasFileSystemProvider;
+    private final CouchdbRasStore               couchdbRasStore;
+    private final Path                          remotePath;
+    private final ResultArchiveStoreContentType remoteContentType;
+    private final Set<? extends OpenOption>     options;
+    private final FileAttribute<?>[]            attrs;
+
+    private final int                           maxInMemorySize;
+
+    private byte[]                              inMemoryContent = new byte[1024];
+    private long                                size = 0;
+    private boolean                             isOpen = true;
+
+    // Set once the artifact is being streamed to CouchDB
+    private Pipe.SinkChannel                    uploadPipe;
+    private FutureTask<PutPostResponse>         upload;
+    private ContentEncoding                     uploadContentEncoding;
+
+    // Set if the writer has seeked or truncated, so the artifact is being staged in a temporary file instead
+    private CouchdbRasWriteByteChannel          fallbackChannel;
+
+    CouchdbRasStreamingWriteByteChannel(CouchdbRasFileSystemProvider couchdbRasFileSystemProvider, CouchdbRasStore couchdbRasStore,
+            Path remotePath, ResultArchiveStoreContentType remoteContentType, Set<? extends OpenOption> options,
+            FileAttribute<?>[] attrs, int maxInMemorySize, LogFactory logFactory) {
+
+        this.logger = logFactory.getLog(CouchdbRasStreamingWriteByteChannel.class);
+        this.logFactory = logFactory;
+
+        this.couchdbRasFileSystemProvider = couchdbRasFileSystemProvider;
+        this.couchdbRasStore = couchdbRasStore;
+        this.remotePath = remotePath;
+        this.options = options;
+        this.attrs = attrs;
+        this.maxInMemorySize = maxInMemorySize;
+
+        if (remoteContentType != null) {
+            this.remoteContentType = remoteContentType;
+        } else {
+            this.remoteContentType = ResultArchiveStoreContentType.TEXT;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        if (fallbackChannel != null) {
+            return fallbackChannel.isOpen();
+        }
+        return isOpen;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fallbackChannel != null) {
+            fallbackChannel.close();
+            return;
+        }
+        if (!isOpen) {
+            return;
+        }
+        isOpen = false;
+
+        if (upload == null) {
+            ByteArrayEntity content = new ByteArrayEntity(inMemoryContent, 0, (int) size);
+            CouchdbRasWriteByteChannel.storeArtifact(this.couchdbRasFileSystemProvider, this.couchdbRasStore,
+                this.remotePath, this.remoteContentType, content, size, this.logger);
+        } else {
+            finishUpload();
+        }
+    }
+
+    private void finishUpload() throws IOException {
+        try {
+            uploadPipe.close();
+        } catch (IOException e) {
+            // The upload has already failed, find out why below
+        }
+
+        PutPostResponse putPostResponse;
+        try {
+            putPostResponse = upload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the artifact to be stored", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to store artifact attachment", e.getCause());
+        }
+
+        // CouchDB only knows the length of a compressed artifact once compressed
+        if (uploadContentEncoding != null) {
+            try {
+                putPostResponse = couchdbRasStore.updateArtifactDocumentLength(putPostResponse.id, putPostResponse.rev,
+                    remotePath.toString(), this.remoteContentType.value(), size);
+            } catch (CouchdbException e) {
+                throw new IOException("Unable to store the length of artifact " + remotePath.toString(), e);
+            }
+        }
+
+        CouchdbArtifactPath artifactPath = (CouchdbArtifactPath) remotePath;
+        this.couchdbRasFileSystemProvider.addPath(artifactPath);
+        logger.info("Stored artifact " + remotePath.toString() + " length=" + size + " contentType=" + this.remoteContentType.value()
+            + " streamed into artifact document " + putPostResponse.id);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (fallbackChannel != null) {
+            return fallbackChannel.read(dst);
+        }
+        throw new NonReadableChannelException();
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (fallbackChannel != null) {
+            return fallbackChannel.write(src);
+        }
+        if (!isOpen) {
+            throw new ClosedChannelException();
+        }
+
+        int length = src.remaining();
+        if (upload == null && size + length > maxInMemorySize) {
+            startUpload();
+        }
+
+        if (upload == null) {
+            ensureInMemoryCapacity(size + length);
+            src.get(inMemoryContent, (int) size, length);
+        } else {
+            writeToUpload(src);
+        }
+        size += length;
+        return length;
+    }
+
+    private void ensureInMemoryCapacity(long requiredSize) {
+        if (requiredSize > inMemoryContent.length) {
+            long newLength = Math.max(requiredSize, Math.min((long) maxInMemorySize, inMemoryContent.length * 2L));
+            inMemoryContent = Arrays.copyOf(inMemoryContent, (int) newLength);
+        }
+    }
+
+    private void writeToUpload(ByteBuffer src) throws IOException {
+        try {
+            while (src.hasRemaining()) {
+                uploadPipe.write(src);
+            }
+        } catch (IOException e) {
+            // The pipe breaks if the upload fails part way, so report why it failed if we can
+            if (upload.isDone()) {
+                try {
+                    upload.get();
+                } catch (ExecutionException uploadFailure) {
+                    throw new IOException("Unable to store artifact attachment", uploadFailure.getCause());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            throw e;
+        }
+    }
+
+    // Creates an artifact document for this artifact alone, then starts a chunked PUT of the attachment
+    // which reads from a pipe, and sends what is already held in memory down that pipe.
+    private void startUpload() throws IOException {
+        Pipe pipe = Pipe.open();
+        uploadPipe = pipe.sink();
+        InputStream uploadContent = Channels.newInputStream(pipe.source());
+
+        // The artifact is at least as big as what has been written so far
+        ContentEncoding contentEncoding = couchdbRasStore.getArtifactContentEncoding(remoteContentType, size);
+        uploadContentEncoding = contentEncoding;
+
+        upload = new FutureTask<>(() -> {
+            try {
+                PutPostResponse artifactDocument = couchdbRasStore.createArtifactDocumentForUpload(remotePath.toString(),
+                    remoteContentType.value(), null, null);
+
+                InputStreamEntity content = new InputStreamEntity(uploadContent, -1);
+                content.setChunked(true);
+                return CouchdbRasWriteByteChannel.putArtifactAttachment(couchdbRasStore, artifactDocument.id, artifactDocument.rev,
+                    remotePath, remoteContentType, contentEncoding, content, -1, logger);
+            } finally {
+                uploadContent.close();
+            }
+        });
+
+        Thread uploadThread = new Thread(upload, "couchdb-artifact-upload-" + remotePath.getFileName());
+        uploadThread.setDaemon(true);
+        uploadThread.start();
+
+        writeToUpload(ByteBuffer.wrap(inMemoryContent, 0, (int) size));
+        inMemoryContent = null;
+    }
+
+    @Override
+    public long position() throws IOException {
+        if (fallbackChannel != null) {
+            return fallbackChannel.position();
+        }
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        if (fallbackChannel == null && newPosition == size) {
+            return this;
+        }
+        fallBackToTemporaryFile("seek");
+        fallbackChannel.position(newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        if (fallbackChannel != null) {
+            return fallbackChannel.size();
+        }
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long newSize) throws IOException {
+        if (fallbackChannel == null && newSize >= size) {
+            return this;
+        }
+        fallBackToTemporaryFile("truncate");
+        fallbackChannel.truncate(newSize);
+        return this;
+    }
+
+    private void fallBackToTemporaryFile(String operation) throws IOException {
+        if (fallbackChannel != null) {
+            return;
+        }
+        if (!isOpen) {
+            throw new ClosedChannelException();
+        }
+        if (upload != null) {
+            throw new IOException("Unable to " + operation + " artifact " + remotePath.toString()
+                + " - it is already being streamed to the RAS");
+        }
+
+        logger.debug("Artifact " + remotePath.toString() + " needs to " + operation + ", staging it in a temporary file instead of streaming it");
+        fallbackChannel = new CouchdbRasWriteByteChannel(this.couchdbRasFileSystemProvider, this.couchdbRasStore, this.remotePath,
+            this.remoteContentType, this.options, this.attrs, this.logFactory);
+        fallbackChannel.write(ByteBuffer.wrap(inMemoryContent, 0, (int) size));
+        inMemoryContent = null;
+    }
+}
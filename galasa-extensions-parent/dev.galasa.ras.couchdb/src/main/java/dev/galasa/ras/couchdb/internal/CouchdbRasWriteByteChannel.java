@@ -15,6 +15,7 @@ import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileAttribute;
+import java.util.Base64;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -27,8 +28,8 @@ import org.apache.http.entity.FileEntity;
 import org.apache.http.util.EntityUtils;
 
 import dev.galasa.ResultArchiveStoreContentType;
+import dev.galasa.extensions.common.couchdb.CouchdbException;
 import dev.galasa.extensions.common.couchdb.pojos.PutPostResponse;
-import dev.galasa.extensions.common.api.HttpRequestFactory;
 
 /**
  * CouchDBRAS Byte Channel
@@ -41,7 +42,6 @@ public class CouchdbRasWriteByteChannel implements SeekableByteChannel {
 
     private final Path                          cachePath;
     private final SeekableByteChannel           cacheByteChannel;
-    private final HttpRequestFactory            requestFactory;
 
     private final Path                          remotePath;
     private final ResultArchiveStoreContentType remoteContentType;
@@ -59,7 +59,6 @@ public class CouchdbRasWriteByteChannel implements SeekableByteChannel {
         this.couchdbRasStore = couchdbRasStore;
         this.couchdbRasFileSystemProvider = couchdbRasFileSystemProvider;
         this.remotePath = remotePath;
-        this.requestFactory = couchdbRasStore.getRequestFactory();
 
         if (remoteContentType != null) {
             this.remoteContentType = remoteContentType;
@@ -95,49 +94,147 @@ public class CouchdbRasWriteByteChannel implements SeekableByteChannel {
     public void close() throws IOException {
         cacheByteChannel.close();
 
-        synchronized(this.getClass()) {  // Prevent multiple threads from updating the artifact document at the sametime,  only updated in this class
-
+        try {
+            storeArtifact(this.couchdbRasFileSystemProvider, this.couchdbRasStore, this.remotePath,
+                this.remoteContentType, new FileEntity(cachePath.toFile()), Files.size(cachePath), this.logger);
+        } finally {
             try {
-                String encodedRemotePath = URLEncoder.encode(this.remotePath.toString(), UTF8.name());
-
-                HttpPut request = requestFactory.getHttpPutRequest(this.couchdbRasStore.getCouchdbUri() + "/galasa_artifacts/"
-                        + this.couchdbRasStore.getArtifactDocumentId() + "/" + encodedRemotePath);
-                request.setEntity(new FileEntity(cachePath.toFile()));
-                request.setHeader("Content-Type", remoteContentType.value());
-                request.setHeader("If-Match", this.couchdbRasStore.getArtifactDocumentRev());
-
-                try (CloseableHttpResponse response = this.couchdbRasStore.getHttpClient().execute(request)) {
-                    StatusLine statusLine = response.getStatusLine();
-                    if (statusLine.getStatusCode() != HttpStatus.SC_CREATED) {
-                        if (statusLine.getStatusCode() == HttpStatus.SC_CONFLICT) {
-                            logger.error(
-                                    "The run artifact document has been updated by another engine, terminating now to avoid corruption");
-                            System.exit(0);
-                        }
-                        throw new IOException("Unable to store the artifact attachment - " + statusLine.toString());
-                    }
-                    HttpEntity entity = response.getEntity();
-                    String entityStr = EntityUtils.toString(entity);
-                    PutPostResponse putPostResponse = this.couchdbRasStore.getGson().fromJson(entityStr,PutPostResponse.class);
-                    if (putPostResponse.id == null || putPostResponse.rev == null) {
-                        throw new CouchdbRasException("Unable to store the test structure - Invalid JSON response");
-                    }
-                    this.couchdbRasStore.updateArtifactDocumentRev(putPostResponse.rev);
-                    this.couchdbRasFileSystemProvider.addPath((CouchdbArtifactPath) remotePath);
-
-                    String remotePathStr = this.remotePath.toString();
-
-                    logger.info("Stored artifact " + remotePathStr + " length=" + Files.size(cachePath) + " contentType="+ this.remoteContentType.value());
-                } catch (Exception e) {
-                    throw new IOException("Unable to store artifact attachment", e);
-                }
+                Files.delete(cachePath);
+            } catch (Exception e) {
+            } // *** Hide any delete problems
+        }
+    }
+
+    // Stores an artifact using whichever storage strategy the run has been configured with.
+    static void storeArtifact(CouchdbRasFileSystemProvider couchdbRasFileSystemProvider, CouchdbRasStore couchdbRasStore,
+            Path remotePath, ResultArchiveStoreContentType remoteContentType, HttpEntity content, long length, Log logger) throws IOException {
+        if (couchdbRasStore.isOneArtifactPerDocument()) {
+            storeInOwnArtifactDocument(couchdbRasFileSystemProvider, couchdbRasStore, remotePath, remoteContentType, content, length, logger);
+        } else {
+            storeInRunArtifactDocument(couchdbRasFileSystemProvider, couchdbRasStore, remotePath, remoteContentType, content, length, logger);
+        }
+    }
+
+    // Stores an artifact in a new artifact document of its own, so it never waits for, or rewrites, a document
+    // holding other artifacts. Artifacts no bigger than the inline limit are held in the document itself, and
+    // are stored with a single request. Larger ones are attached to the document once it has been created.
+    static void storeInOwnArtifactDocument(CouchdbRasFileSystemProvider couchdbRasFileSystemProvider, CouchdbRasStore couchdbRasStore,
+            Path remotePath, ResultArchiveStoreContentType remoteContentType, HttpEntity content, long length, Log logger) throws IOException {
+
+        String inlineArtifactData = null;
+        int inlineArtifactMaxSize = couchdbRasStore.getInlineArtifactMaxSize();
+        if (inlineArtifactMaxSize > 0 && length <= inlineArtifactMaxSize) {
+            inlineArtifactData = Base64.getEncoder().encodeToString(EntityUtils.toByteArray(content));
+        }
+
+        // Inline artifacts are small, so aren't worth compressing
+        ContentEncoding contentEncoding = null;
+        String storedContentType = remoteContentType.value();
+        if (inlineArtifactData == null) {
+            contentEncoding = couchdbRasStore.getArtifactContentEncoding(remoteContentType, length);
+            if (contentEncoding != null) {
+                storedContentType = contentEncoding.addToContentType(storedContentType, length);
+            }
+        }
+
+        String artifactDocumentId;
+        try {
+            PutPostResponse artifactDocument = couchdbRasStore.createArtifactDocumentForUpload(remotePath.toString(),
+                remoteContentType.value(), length, inlineArtifactData);
+            artifactDocumentId = artifactDocument.id;
+
+            if (inlineArtifactData == null) {
+                putArtifactAttachment(couchdbRasStore, artifactDocument.id, artifactDocument.rev, remotePath, remoteContentType,
+                    contentEncoding, content, length, logger);
+            }
+        } catch (CouchdbException e) {
+            throw new IOException("Unable to store artifact", e);
+        }
+
+        couchdbRasFileSystemProvider.addPath(new CouchdbArtifactPath(couchdbRasFileSystemProvider.getActualFileSystem(),
+            remotePath.toString(), storedContentType, length, artifactDocumentId, inlineArtifactData));
 
-            } finally {
-                try {
-                    Files.delete(cachePath);
-                } catch (Exception e) {
-                } // *** Hide any delete problems
+        logger.info("Stored artifact " + remotePath.toString() + " length=" + length + " contentType="+ remoteContentType.value()
+            + ((contentEncoding != null) ? " contentEncoding=" + contentEncoding.getName() : "")
+            + ((inlineArtifactData != null) ? " inline" : "") + " in artifact document " + artifactDocumentId);
+    }
+
+    // Stores an artifact as an attachment of one of the run's artifact documents.
+    // The document is leased for the duration of the upload, so no other thread changes its revision
+    // in the meantime, while other artifacts upload into the run's other artifact documents.
+    static void storeInRunArtifactDocument(CouchdbRasFileSystemProvider couchdbRasFileSystemProvider, CouchdbRasStore couchdbRasStore,
+            Path remotePath, ResultArchiveStoreContentType remoteContentType, HttpEntity content, long length, Log logger) throws IOException {
+
+        ArtifactDocumentPool.ArtifactDocument artifactDocument;
+        try {
+            artifactDocument = couchdbRasStore.leaseArtifactDocument();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to store artifact attachment", e);
+        } catch (Exception e) {
+            throw new IOException("Unable to store artifact attachment", e);
+        }
+
+        ContentEncoding contentEncoding = couchdbRasStore.getArtifactContentEncoding(remoteContentType, length);
+        try {
+            PutPostResponse putPostResponse = putArtifactAttachment(couchdbRasStore, artifactDocument.getId(),
+                artifactDocument.getRevision(), remotePath, remoteContentType, contentEncoding, content, length, logger);
+
+            artifactDocument.setRevision(putPostResponse.rev);
+            couchdbRasFileSystemProvider.addPath((CouchdbArtifactPath) remotePath);
+
+            logger.info("Stored artifact " + remotePath.toString() + " length=" + length + " contentType="+ remoteContentType.value()
+                + ((contentEncoding != null) ? " contentEncoding=" + contentEncoding.getName() : ""));
+        } finally {
+            couchdbRasStore.releaseArtifactDocument(artifactDocument);
+        }
+    }
+
+    // Sends an artifact to CouchDB as an attachment of the given artifact document.
+    // If an encoding is given, the artifact is compressed as it is sent, and its content type is marked with the encoding,
+    // and with its length before it was compressed unless that isn't known yet, being less than 0.
+    static PutPostResponse putArtifactAttachment(CouchdbRasStore couchdbRasStore, String artifactDocumentId, String artifactDocumentRev,
+            Path remotePath, ResultArchiveStoreContentType remoteContentType, ContentEncoding contentEncoding, HttpEntity content,
+            long length, Log logger) throws IOException {
+
+        String encodedRemotePath = URLEncoder.encode(remotePath.toString(), UTF8.name());
+
+        HttpPut request = couchdbRasStore.getRequestFactory().getHttpPutRequest(couchdbRasStore.getCouchdbUri() + "/galasa_artifacts/"
+                + artifactDocumentId + "/" + encodedRemotePath);
+        if (contentEncoding == null) {
+            request.setEntity(content);
+            request.setHeader("Content-Type", remoteContentType.value());
+        } else {
+            request.setEntity(contentEncoding.compress(content));
+            if (length >= 0) {
+                request.setHeader("Content-Type", contentEncoding.addToContentType(remoteContentType.value(), length));
+            } else {
+                request.setHeader("Content-Type", contentEncoding.addToContentType(remoteContentType.value()));
+            }
+        }
+        request.setHeader("If-Match", artifactDocumentRev);
+
+        try (CloseableHttpResponse response = couchdbRasStore.getHttpClient().execute(request)) {
+            StatusLine statusLine = response.getStatusLine();
+            if (statusLine.getStatusCode() != HttpStatus.SC_CREATED) {
+                if (statusLine.getStatusCode() == HttpStatus.SC_CONFLICT) {
+                    logger.error(
+                            "The run artifact document has been updated by another engine, terminating now to avoid corruption");
+                    System.exit(0);
+                }
+                throw new IOException("Unable to store the artifact attachment - " + statusLine.toString());
+            }
+            HttpEntity entity = response.getEntity();
+            String entityStr = EntityUtils.toString(entity);
+            PutPostResponse putPostResponse = couchdbRasStore.getGson().fromJson(entityStr,PutPostResponse.class);
+            if (putPostResponse.id == null || putPostResponse.rev == null) {
+                throw new CouchdbRasException("Unable to store the test structure - Invalid JSON response");
             }
+            return putPostResponse;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Unable to store artifact attachment", e);
         }
     }
 
@@ -0,0 +1,334 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import dev.galasa.framework.spi.ResultArchiveStoreException;
+import dev.galasa.ras.couchdb.internal.pojos.LogLines;
+
+/**
+ * The log of a run, held by CouchDB as a series of log documents which each hold a batch of lines.
+ *
+ * The lines are always in the order of the run's log record ids, which is the order the log documents
+ * were stored in, one after another by the log shipper.
+ *
+ * The log can be read whole, streamed, or read a range of lines at a time. However it is read, the
+ * log documents are loaded a few at a time ahead of where the log is being read, at the same time
+ * as each other. Streaming and reading ranges only hold a few log documents in memory at once.
+ *
+ * The number of lines in each log document is remembered once the document has been loaded, so
+ * reading a range of lines from the same run log again only loads the documents holding those lines.
+ */
+public class CouchdbRunLog {
+
+    /**
+     * Loads a log document, with its lines decompressed if they were stored compressed.
+     */
+    public interface LogDocumentLoader {
+        LogLines loadLogDocument(String logRecordId) throws ResultArchiveStoreException;
+    }
+
+    private static final int UNKNOWN_LINE_COUNT = -1;
+
+    private final List<String> logRecordIds;
+    private final LogDocumentLoader loader;
+    private final ExecutorService executor;
+    private final int maxDocumentsAhead;
+
+    // Guarded by itself
+    private final int[] lineCounts;
+
+    /**
+     * @param logRecordIds the ids of the log documents, in the order they were stored
+     * @param executor the executor to load log documents on, or null to load them one after another on the reading thread
+     * @param maxDocumentsAhead the most log documents to load at the same time
+     */
+    public CouchdbRunLog(List<String> logRecordIds, LogDocumentLoader loader, ExecutorService executor, int maxDocumentsAhead) {
+        this.logRecordIds = (logRecordIds == null) ? Collections.emptyList() : new ArrayList<>(logRecordIds);
+        this.loader = loader;
+        this.executor = executor;
+        this.maxDocumentsAhead = Math.max(1, maxDocumentsAhead);
+        this.lineCounts = new int[this.logRecordIds.size()];
+        Arrays.fill(this.lineCounts, UNKNOWN_LINE_COUNT);
+    }
+
+    /**
+     * @return the whole log, its lines separated by newlines
+     */
+    public String getLog() throws ResultArchiveStoreException {
+        List<LogLines> logDocuments = new ArrayList<>(logRecordIds.size());
+        try (LogDocumentPrefetcher documents = new LogDocumentPrefetcher(0)) {
+            while (documents.hasNext()) {
+                logDocuments.add(documents.next());
+            }
+        }
+
+        StringBuilder log = new StringBuilder();
+        for (LogLines logLines : logDocuments) {
+            for (String line : logLines.lines) {
+                if (log.length() > 0) {
+                    log.append("\n");
+                }
+                log.append(line);
+            }
+        }
+        return log.toString();
+    }
+
+    /**
+     * Reads lines of the log, only loading the log documents needed to find them.
+     *
+     * @param firstLine the number of the first line to read, counting from 0
+     * @param endLine the number of the line after the last line to read
+     * @return the lines in the range, fewer if the log ends before the end of the range
+     */
+    public List<String> getLines(long firstLine, long endLine) throws ResultArchiveStoreException {
+        if (firstLine < 0 || endLine < firstLine) {
+            throw new IllegalArgumentException("Invalid range of log lines " + firstLine + " to " + endLine);
+        }
+
+        // Skip over the documents already known to be before the range, without loading them
+        int documentIndex = 0;
+        long documentFirstLine = 0;
+        while (documentIndex < logRecordIds.size()) {
+            int lineCount = getLineCount(documentIndex);
+            if (lineCount == UNKNOWN_LINE_COUNT || documentFirstLine + lineCount > firstLine) {
+                break;
+            }
+            documentFirstLine += lineCount;
+            documentIndex++;
+        }
+
+        List<String> lines = new ArrayList<>();
+        try (LogDocumentPrefetcher documents = new LogDocumentPrefetcher(documentIndex)) {
+            while (documentFirstLine < endLine && documents.hasNext()) {
+                List<String> documentLines = documents.next().lines;
+
+                int fromIndex = (int) Math.max(0, firstLine - documentFirstLine);
+                int toIndex = (int) Math.min(documentLines.size(), endLine - documentFirstLine);
+                if (fromIndex < toIndex) {
+                    lines.addAll(documentLines.subList(fromIndex, toIndex));
+                }
+                documentFirstLine += documentLines.size();
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Streams the log, which is the same text as {@link #getLog()}. Log documents are loaded as
+     * the reader gets to them, so the reader should be closed if it isn't read to the end.
+     */
+    public Reader openReader() {
+        return new LogReader();
+    }
+
+    /**
+     * As {@link #openReader()}, as UTF-8 bytes.
+     */
+    public InputStream openInputStream() {
+        return new LogInputStream();
+    }
+
+    private int getLineCount(int documentIndex) {
+        synchronized (lineCounts) {
+            return lineCounts[documentIndex];
+        }
+    }
+
+    private void setLineCount(int documentIndex, int lineCount) {
+        synchronized (lineCounts) {
+            lineCounts[documentIndex] = lineCount;
+        }
+    }
+
+    /**
+     * Loads the log documents in order from a given document, keeping a few loading ahead of the one
+     * being read. Closing it stops the loading of any documents which haven't been read.
+     */
+    private class LogDocumentPrefetcher implements AutoCloseable {
+        private final Deque<Future<LogLines>> loading = new ArrayDeque<>();
+        private int nextDocumentIndex;
+        private int nextToLoadIndex;
+
+        LogDocumentPrefetcher(int firstDocumentIndex) {
+            this.nextDocumentIndex = firstDocumentIndex;
+            this.nextToLoadIndex = firstDocumentIndex;
+        }
+
+        boolean hasNext() {
+            return nextDocumentIndex < logRecordIds.size();
+        }
+
+        LogLines next() throws ResultArchiveStoreException {
+            int documentIndex = nextDocumentIndex++;
+
+            LogLines logLines;
+            if (executor == null) {
+                logLines = load(documentIndex);
+            } else {
+                while (loading.size() < maxDocumentsAhead && nextToLoadIndex < logRecordIds.size()) {
+                    int toLoadIndex = nextToLoadIndex++;
+                    loading.add(executor.submit(() -> load(toLoadIndex)));
+                }
+                logLines = waitFor(loading.poll());
+            }
+            return logLines;
+        }
+
+        private LogLines load(int documentIndex) throws ResultArchiveStoreException {
+            LogLines logLines = loader.loadLogDocument(logRecordIds.get(documentIndex));
+            if (logLines.lines == null) {
+                logLines.lines = Collections.emptyList();
+            }
+            setLineCount(documentIndex, logLines.lines.size());
+            return logLines;
+        }
+
+        private LogLines waitFor(Future<LogLines> logLines) throws ResultArchiveStoreException {
+            try {
+                return logLines.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ResultArchiveStoreException) {
+                    throw (ResultArchiveStoreException) e.getCause();
+                }
+                throw new ResultArchiveStoreException("Unable to load the run log", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ResultArchiveStoreException("Interrupted while loading the run log", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            for (Future<LogLines> logLines : loading) {
+                logLines.cancel(true);
+            }
+            loading.clear();
+        }
+    }
+
+    /**
+     * Gives the text of the log a line at a time, each with the newline which separates it from the line before.
+     */
+    private class LogTextIterator implements AutoCloseable {
+        private final LogDocumentPrefetcher documents = new LogDocumentPrefetcher(0);
+        private List<String> documentLines = Collections.emptyList();
+        private int nextLineIndex;
+        private boolean isTextGiven = false;
+
+        // Null at the end of the log
+        String next() throws IOException {
+            while (true) {
+                while (nextLineIndex >= documentLines.size()) {
+                    if (!documents.hasNext()) {
+                        return null;
+                    }
+                    try {
+                        documentLines = documents.next().lines;
+                    } catch (ResultArchiveStoreException e) {
+                        throw new IOException("Unable to read the run log", e);
+                    }
+                    nextLineIndex = 0;
+                }
+
+                String line = documentLines.get(nextLineIndex++);
+                String text = isTextGiven ? "\n" + line : line;
+                if (!text.isEmpty()) {
+                    isTextGiven = true;
+                    return text;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            documents.close();
+            documentLines = Collections.emptyList();
+        }
+    }
+
+    private class LogReader extends Reader {
+        private final LogTextIterator text = new LogTextIterator();
+        private String current = "";
+        private int currentIndex;
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (currentIndex >= current.length()) {
+                current = text.next();
+                currentIndex = 0;
+                if (current == null) {
+                    current = "";
+                    return -1;
+                }
+            }
+
+            int count = Math.min(length, current.length() - currentIndex);
+            current.getChars(currentIndex, currentIndex + count, buffer, offset);
+            currentIndex += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            text.close();
+        }
+    }
+
+    private class LogInputStream extends InputStream {
+        private final LogTextIterator text = new LogTextIterator();
+        private byte[] current = new byte[0];
+        private int currentIndex;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (currentIndex >= current.length) {
+                String next = text.next();
+                if (next == null) {
+                    return -1;
+                }
+                current = next.getBytes(StandardCharsets.UTF_8);
+                currentIndex = 0;
+            }
+
+            int count = Math.min(length, current.length - currentIndex);
+            System.arraycopy(current, currentIndex, buffer, offset, count);
+            currentIndex += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            text.close();
+        }
+    }
+}
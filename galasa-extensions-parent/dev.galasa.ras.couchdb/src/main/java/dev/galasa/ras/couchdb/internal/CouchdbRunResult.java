@@ -21,6 +21,9 @@ public class CouchdbRunResult implements IRunResult {
     private final CouchdbDirectoryService storeService;
     private Path path;
 
+    // Guarded by 'this'. Kept so it remembers which of the run's log documents hold which lines
+    private CouchdbRunLog runLog;
+
     public CouchdbRunResult(CouchdbRasStore store, TestStructureCouchdb testStructure, LogFactory logFactory) {
         this.store = store;
         this.storeService = (CouchdbDirectoryService) store.getDirectoryServices().get(0);
@@ -47,7 +50,17 @@ public class CouchdbRunResult implements IRunResult {
 
     @Override
     public String getLog() throws ResultArchiveStoreException {
-        return this.store.getLog(this.testStructure);
+        return getRunLog().getLog();
+    }
+
+    /**
+     * @return the log of the run, which can also be streamed or read a range of lines at a time
+     */
+    public synchronized CouchdbRunLog getRunLog() {
+        if (this.runLog == null) {
+            this.runLog = this.store.createRunLog(this.testStructure);
+        }
+        return this.runLog;
     }
 
 	@Override
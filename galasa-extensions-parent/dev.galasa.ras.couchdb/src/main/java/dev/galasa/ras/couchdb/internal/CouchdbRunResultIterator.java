@@ -0,0 +1,132 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import dev.galasa.framework.spi.IRunResult;
+import dev.galasa.framework.spi.ResultArchiveStoreException;
+import dev.galasa.framework.spi.ras.RasRunResultPage;
+
+/**
+ * Iterates over the runs found by a query, fetching them from CouchDB a page at a time
+ * as they are needed, rather than collecting every run into a list up front.
+ *
+ * While the runs of one page are being worked through, the next page is fetched in the
+ * background, so at most two pages of runs are held in memory at any one time.
+ *
+ * Problems talking to CouchDB are thrown as an {@link UncheckedResultArchiveStoreException}.
+ * The iterator should be closed if it is not iterated to the end, so that a page being
+ * fetched in the background is abandoned.
+ */
+public class CouchdbRunResultIterator implements Iterator<IRunResult>, AutoCloseable {
+
+    /**
+     * Fetches a page of runs. A null bookmark means the first page.
+     */
+    public interface RunsPageFetcher {
+        RasRunResultPage fetchPage(String bookmark) throws ResultArchiveStoreException;
+    }
+
+    private final RunsPageFetcher          runsPageFetcher;
+    private final ExecutorService          pageFetcher;
+
+    private Iterator<IRunResult>           currentPage = Collections.emptyIterator();
+    private Future<RasRunResultPage>       nextPage;
+
+    public CouchdbRunResultIterator(RunsPageFetcher runsPageFetcher) {
+        this.runsPageFetcher = runsPageFetcher;
+        this.pageFetcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "couchdb-runs-page-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.nextPage = fetchPage(null);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!currentPage.hasNext()) {
+            if (nextPage == null) {
+                return false;
+            }
+
+            RasRunResultPage page = waitForNextPage();
+            if (page.getRuns().isEmpty()) {
+                // No runs were found, so we've reached the end
+                close();
+                return false;
+            }
+
+            String bookmark = page.getNextCursor();
+            if (bookmark != null) {
+                nextPage = fetchPage(bookmark);
+            } else {
+                close();
+            }
+            currentPage = page.getRuns().iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public IRunResult next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentPage.next();
+    }
+
+    @Override
+    public void close() {
+        if (nextPage != null) {
+            nextPage.cancel(true);
+            nextPage = null;
+        }
+        pageFetcher.shutdownNow();
+    }
+
+    /**
+     * A sequential stream over the remaining runs, which closes this iterator when it is closed.
+     */
+    public Stream<IRunResult> stream() {
+        Spliterator<IRunResult> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    private Future<RasRunResultPage> fetchPage(String bookmark) {
+        return pageFetcher.submit(() -> runsPageFetcher.fetchPage(bookmark));
+    }
+
+    private RasRunResultPage waitForNextPage() {
+        try {
+            return nextPage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new UncheckedResultArchiveStoreException(new ResultArchiveStoreException("Interrupted while finding runs", e));
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof ResultArchiveStoreException) {
+                throw new UncheckedResultArchiveStoreException((ResultArchiveStoreException) cause);
+            }
+            throw new UncheckedResultArchiveStoreException(new ResultArchiveStoreException("Unable to find runs", cause));
+        } finally {
+            nextPage = null;
+        }
+    }
+}
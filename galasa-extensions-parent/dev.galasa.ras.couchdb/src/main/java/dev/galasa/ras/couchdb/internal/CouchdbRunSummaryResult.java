@@ -0,0 +1,179 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import dev.galasa.extensions.common.api.LogFactory;
+import dev.galasa.framework.spi.IRunResult;
+import dev.galasa.framework.spi.ResultArchiveStoreException;
+import dev.galasa.framework.spi.ras.ResultArchiveStoreFileStore;
+import dev.galasa.framework.spi.teststructure.TestMethod;
+import dev.galasa.framework.spi.teststructure.TestStructure;
+import dev.galasa.ras.couchdb.internal.pojos.TestStructureCouchdb;
+
+/**
+ * A run found by a query which only asked CouchDB for the summary fields of each run
+ * document, being its name, test, requestor, status, result and timestamps.
+ *
+ * The rest of the run document, such as its test methods and the ids of its log and
+ * artifact records, is only loaded from CouchDB the first time the test structure, log or
+ * artifacts of the run are asked for, so listing runs doesn't pay for the parts of the
+ * documents that lists don't show. The summary itself never goes to CouchDB.
+ *
+ * The test structure of the run is made from the summary, so the fields a list shows are
+ * read without going to CouchDB. Only asking it for the test methods, the log or artifact
+ * record ids or a report loads the rest of the run document.
+ */
+public class CouchdbRunSummaryResult implements IRunResult {
+
+    /**
+     * The fields of a run document which make up a run summary.
+     */
+    public static final String[] SUMMARY_FIELDS = {
+        "_id", "_rev", "runName", "bundle", "testName", "testShortName", "requestor",
+        "status", "result", "queued", "startTime", "endTime"
+    };
+
+    /**
+     * Loads the whole of a run document, returning null if it can't be found.
+     */
+    public interface RunDocumentLoader {
+        TestStructureCouchdb loadRunDocument(String id) throws ResultArchiveStoreException;
+    }
+
+    private final CouchdbRasStore store;
+    private final CouchdbDirectoryService storeService;
+    private final RunDocumentLoader loader;
+    private final TestStructureCouchdb summary;
+    private final TestStructure summaryTestStructure;
+    private Path path;
+
+    // Guarded by 'this'
+    private TestStructureCouchdb fullTestStructure;
+    private CouchdbRunLog runLog;
+
+    public CouchdbRunSummaryResult(CouchdbRasStore store, TestStructureCouchdb summary, LogFactory logFactory, RunDocumentLoader loader) {
+        this.store = store;
+        this.storeService = (CouchdbDirectoryService) store.getDirectoryServices().get(0);
+        this.loader = loader;
+        this.summary = summary;
+        this.summaryTestStructure = new SummaryTestStructure(summary);
+
+        // Create an empty artifact filesystem and set the artifacts path to the root of this filesystem
+        ResultArchiveStoreFileStore fileStore = new ResultArchiveStoreFileStore();
+        this.path = new CouchdbRasFileSystemProvider(fileStore, store, logFactory).getRoot();
+    }
+
+    /**
+     * @return the test structure of the run, whose summary fields are read without going to CouchDB,
+     *         with the rest of the run document being loaded the first time one of its other fields is read
+     */
+    @Override
+    public TestStructure getTestStructure() throws ResultArchiveStoreException {
+        return summaryTestStructure;
+    }
+
+    @Override
+    public Path getArtifactsRoot() throws ResultArchiveStoreException {
+        return this.path;
+    }
+
+    @Override
+    public String getLog() throws ResultArchiveStoreException {
+        return getRunLog().getLog();
+    }
+
+    /**
+     * @return the log of the run, which can also be streamed or read a range of lines at a time
+     */
+    public synchronized CouchdbRunLog getRunLog() throws ResultArchiveStoreException {
+        if (runLog == null) {
+            runLog = store.createRunLog(getFullTestStructure());
+        }
+        return runLog;
+    }
+
+    @Override
+    public void discard() throws ResultArchiveStoreException {
+        storeService.discardRun(getFullTestStructure());
+    }
+
+    @Override
+    public String getRunId() {
+        return "cdb-" + this.summary._id;
+    }
+
+    @Override
+    public void loadArtifacts() throws ResultArchiveStoreException {
+        this.path = storeService.getRunArtifactPath(getFullTestStructure());
+    }
+
+    public synchronized boolean isFullTestStructureLoaded() {
+        return fullTestStructure != null;
+    }
+
+    /**
+     * Gets the whole run document, loading it from CouchDB the first time it is needed.
+     */
+    public synchronized TestStructureCouchdb getFullTestStructure() throws ResultArchiveStoreException {
+        if (fullTestStructure == null) {
+            TestStructureCouchdb loaded = loader.loadRunDocument(summary._id);
+            if (loaded == null) {
+                throw new CouchdbRasException("Unable to load run " + summary.getRunName() + " with document id " + summary._id);
+            }
+            fullTestStructure = loaded;
+        }
+        return fullTestStructure;
+    }
+
+    /**
+     * A test structure holding the summary fields of the run, which gets the fields not in the
+     * summary from the whole run document, loading it the first time one of them is read.
+     * As the getters can't throw a ResultArchiveStoreException, a failure to load the run
+     * document is thrown as an {@link UncheckedResultArchiveStoreException}.
+     */
+    private class SummaryTestStructure extends TestStructure {
+
+        private SummaryTestStructure(TestStructure summary) {
+            super(summary);
+        }
+
+        @Override
+        public List<TestMethod> getMethods() {
+            return getFullTestStructureUnchecked().getMethods();
+        }
+
+        @Override
+        public List<String> getLogRecordIds() {
+            return getFullTestStructureUnchecked().getLogRecordIds();
+        }
+
+        @Override
+        public List<String> getArtifactRecordIds() {
+            return getFullTestStructureUnchecked().getArtifactRecordIds();
+        }
+
+        @Override
+        public String report(String prefix) {
+            return getFullTestStructureUnchecked().report(prefix);
+        }
+
+        @Override
+        public String gherkinReport(String prefix) {
+            return getFullTestStructureUnchecked().gherkinReport(prefix);
+        }
+
+        private TestStructure getFullTestStructureUnchecked() {
+            try {
+                return getFullTestStructure();
+            } catch (ResultArchiveStoreException e) {
+                throw new UncheckedResultArchiveStoreException(e);
+            }
+        }
+    }
+}
@@ -14,15 +14,16 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.util.EntityUtils;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -34,6 +35,7 @@ import dev.galasa.extensions.common.api.HttpRequestFactory;
 import dev.galasa.extensions.common.couchdb.CouchDbVersion;
 import dev.galasa.extensions.common.couchdb.CouchdbException;
 import dev.galasa.extensions.common.couchdb.CouchdbValidator;
+import dev.galasa.extensions.common.couchdb.JsonHttpEntity;
 import dev.galasa.framework.spi.utils.GalasaGson;
 import dev.galasa.framework.spi.utils.ITimeService;
 
@@ -77,14 +79,10 @@ public class CouchdbValidatorImpl implements CouchdbValidator {
 
             checkRunDesignDocument(httpClient, rasUri,1, timeService);
 
-            checkIndex(httpClient, rasUri, 1, "galasa_run", "runName",timeService);
-            checkIndex(httpClient, rasUri, 1, "galasa_run", "requestor",timeService);
-            checkIndex(httpClient, rasUri, 1, "galasa_run", "queued",timeService);
-            checkIndex(httpClient, rasUri, 1, "galasa_run", "startTime", timeService);
-            checkIndex(httpClient, rasUri, 1, "galasa_run", "endTime", timeService);
-            checkIndex(httpClient, rasUri, 1, "galasa_run", "testName", timeService);
-            checkIndex(httpClient, rasUri, 1, "galasa_run", "bundle", timeService);
-            checkIndex(httpClient, rasUri, 1, "galasa_run", "result", timeService);
+            // The single field indexes, then the composite indexes the searches for runs are planned to use
+            for (RunQueryPlanner.RunIndex runIndex : RunQueryPlanner.RUN_INDEXES) {
+                checkIndex(httpClient, rasUri, 1, "galasa_run", runIndex, timeService);
+            }
 
             logger.debug("RAS CouchDB at " + rasUri.toString() + " validated");
         } catch (CouchdbException e) {
@@ -231,7 +229,7 @@ public class CouchdbValidatorImpl implements CouchdbValidator {
         if (updated) {
             logger.info("Updating the galasa_run design document");
 
-            HttpEntity entity = new StringEntity(gson.toJson(doc), ContentType.APPLICATION_JSON);
+            HttpEntity entity = new JsonHttpEntity(doc, gson);
 
             HttpPut httpPut = requestFactory.getHttpPutRequest(rasUri + "/galasa_run/_design/docs");
             httpPut.setEntity(entity);
@@ -322,7 +320,7 @@ public class CouchdbValidatorImpl implements CouchdbValidator {
 
 
 
-    private void checkIndex(CloseableHttpClient httpClient, URI rasUri , int attempts, String dbName, String field, ITimeService timeService) throws CouchdbException {
+    private void checkIndex(CloseableHttpClient httpClient, URI rasUri , int attempts, String dbName, RunQueryPlanner.RunIndex runIndex, ITimeService timeService) throws CouchdbException {
         HttpGet httpGet = requestFactory.getHttpGetRequest(rasUri + "/galasa_run/_index");
 
         String idxJson = null;
@@ -345,7 +343,12 @@ public class CouchdbValidatorImpl implements CouchdbValidator {
         JsonObject idx = gson.fromJson(idxJson, JsonObject.class);
         boolean create = true;
 
-        String idxName = field + "-index";
+        String idxName = runIndex.getName();
+        String ddocId = "_design/" + runIndex.getDesignDocumentName();
+
+        // Indexes created before each had a design document of its own were left in design documents
+        // CouchDB named with a hash, which searches can't name, so they are replaced
+        List<String> unnamedDdocIds = new ArrayList<>();
 
         JsonArray idxs = idx.getAsJsonArray("indexes");
         if (idxs != null) {
@@ -354,13 +357,13 @@ public class CouchdbValidatorImpl implements CouchdbValidator {
                 if (elem.isJsonObject()) {
                     JsonObject o = (JsonObject) elem;
 
-                    JsonElement name = o.get("name");
-                    if (name != null) {
-                        if (name.isJsonPrimitive() && ((JsonPrimitive) name).isString()) {
-                            if (idxName.equals(name.getAsString())) {
-                                create = false;
-                                break;
-                            }
+                    String name = getStringProperty(o, "name");
+                    String ddoc = getStringProperty(o, "ddoc");
+                    if (idxName.equals(name) && ddoc != null) {
+                        if (ddocId.equals(ddoc)) {
+                            create = false;
+                        } else if (ddoc.startsWith("_design/")) {
+                            unnamedDdocIds.add(ddoc);
                         }
                     }
                 }
@@ -371,6 +374,7 @@ public class CouchdbValidatorImpl implements CouchdbValidator {
             logger.info("Updating the galasa_run index " + idxName);
 
             JsonObject doc = new JsonObject();
+            doc.addProperty("ddoc", runIndex.getDesignDocumentName());
             doc.addProperty("name", idxName);
             doc.addProperty("type", "json");
 
@@ -379,11 +383,13 @@ public class CouchdbValidatorImpl implements CouchdbValidator {
             JsonArray fields = new JsonArray();
             index.add("fields", fields);
 
-            JsonObject field1 = new JsonObject();
-            fields.add(field1);
-            field1.addProperty(field, "asc");
+            for (String field : runIndex.getFields()) {
+                JsonObject indexField = new JsonObject();
+                fields.add(indexField);
+                indexField.addProperty(field, "asc");
+            }
 
-            HttpEntity entity = new StringEntity(gson.toJson(doc), ContentType.APPLICATION_JSON);
+            HttpEntity entity = new JsonHttpEntity(doc, gson);
 
             HttpPost httpPost = requestFactory.getHttpPostRequest(rasUri + "/galasa_run/_index");
             httpPost.setEntity(entity);
@@ -400,7 +406,7 @@ public class CouchdbValidatorImpl implements CouchdbValidator {
                                 "Update of galasa_run index failed on CouchDB server due to conflicts, attempted 10 times");
                     }
                     timeService.sleepMillis(1000 + new Random().nextInt(3000));
-                    checkIndex(httpClient, rasUri, attempts, dbName, field, timeService);
+                    checkIndex(httpClient, rasUri, attempts, dbName, runIndex, timeService);
                     return;
                 }
 
@@ -416,6 +422,40 @@ public class CouchdbValidatorImpl implements CouchdbValidator {
             }
         }
 
+        for (String unnamedDdocId : unnamedDdocIds) {
+            deleteIndex(httpClient, rasUri, unnamedDdocId, idxName);
+        }
+    }
+
+    private void deleteIndex(CloseableHttpClient httpClient, URI rasUri, String ddocId, String idxName) throws CouchdbException {
+        logger.info("Deleting the galasa_run index " + idxName + " in " + ddocId);
+
+        String ddocName = ddocId.substring("_design/".length());
+        HttpDelete httpDelete = requestFactory.getHttpDeleteRequest(rasUri + "/galasa_run/_index/" + ddocName + "/json/" + idxName);
+
+        try (CloseableHttpResponse response = httpClient.execute(httpDelete)) {
+            StatusLine statusLine = response.getStatusLine();
+            EntityUtils.consumeQuietly(response.getEntity());
+            int statusCode = statusLine.getStatusCode();
+
+            // Another server may have deleted it first
+            if (statusCode != HttpStatus.SC_OK && statusCode != HttpStatus.SC_NOT_FOUND) {
+                throw new CouchdbException(
+                        "Deletion of galasa_run index failed on CouchDB server - " + statusLine.toString());
+            }
+        } catch (CouchdbException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CouchdbException("Deletion of galasa_run index failed", e);
+        }
+    }
+
+    private String getStringProperty(JsonObject object, String property) {
+        JsonElement value = object.get(property);
+        if (value != null && value.isJsonPrimitive() && ((JsonPrimitive) value).isString()) {
+            return value.getAsString();
+        }
+        return null;
     }
 
 }
@@ -19,15 +19,99 @@ public enum CpsPropertyDef {
     // If true, then couchdb puts the data inline. ie: Within a json property inside the json document.
     // Default value is 0, ie: No in-lining of attachments.
     // Only applicable when ONE_ARTIFACT_PER_DOCUMENT feature flag is enabled.
-    INLINE_ARTIFACT_MAX_SIZE("couchdb","inline.artifact.max.size")
+    INLINE_ARTIFACT_MAX_SIZE("couchdb","inline.artifact.max.size"),
+
+    // The maximum number of log batches which can be waiting to be sent to couchdb at any one time.
+    // Once this many batches are queued, writers of the run log block until the log shipper catches up.
+    LOG_SHIPPER_QUEUE_DEPTH("couchdb","log.shipper.queue.depth", 10),
+
+    // The maximum number of queued log batches which are stored together using a single _bulk_docs request.
+    LOG_SHIPPER_MAX_BATCHES_PER_REQUEST("couchdb","log.shipper.max.batches.per.request", 10),
+
+    // The minimum time between writes of the run document caused by new log records alone.
+    // Status and result changes, flushes and shutdown always write the run document straight away.
+    RUN_UPDATE_INTERVAL_MILLIS("couchdb","run.update.interval.millis", 10000),
+
+    // The number of run log lines in a batch when the test is logging slowly.
+    LOG_BATCH_MIN_LINES("couchdb","log.batch.min.lines", 100),
+
+    // The number of run log lines a batch may grow to when the test is logging heavily.
+    LOG_BATCH_MAX_LINES("couchdb","log.batch.max.lines", 1000),
+
+    // The approximate size in bytes at which a batch of run log lines is shipped, however few lines it holds.
+    // 0 means there is no size limit.
+    LOG_BATCH_MAX_BYTES("couchdb","log.batch.max.bytes", 262144),
+
+    // How long a run log line may wait to be batched up before it is shipped anyway.
+    // 0 means lines wait until the batch is full or the log is flushed.
+    LOG_BATCH_MAX_LINGER_MILLIS("couchdb","log.batch.max.linger.millis", 5000),
+
+    // If greater than 0, artifacts are streamed to couchdb as they are written, rather than staged in a temporary file.
+    // Artifacts up to this many bytes are held in memory and stored in the run's artifact document as usual.
+    // Larger ones are streamed into an artifact document of their own.
+    // Default value is 0, ie: Artifacts are staged in a temporary file and uploaded when they are closed.
+    ARTIFACT_STREAMING_THRESHOLD("couchdb","artifact.streaming.threshold"),
+
+    // The maximum number of artifacts a run uploads to couchdb at the same time.
+    // Each concurrent upload uses an artifact document of its own, so this is also the most artifact documents a run uses.
+    ARTIFACT_MAX_CONCURRENT_UPLOADS("couchdb","artifact.max.concurrent.uploads", 4),
+
+    // How text artifacts and run log documents are compressed before they are sent to couchdb, gzip or deflate.
+    // Not set by default, ie: Nothing is compressed.
+    COMPRESSION_ALGORITHM("couchdb","compression.algorithm"),
+
+    // Text artifacts and batches of run log lines smaller than this many bytes are not worth compressing.
+    // Only applicable when COMPRESSION_ALGORITHM is set.
+    COMPRESSION_THRESHOLD("couchdb","compression.threshold", 1024),
+
+    // How long the requestors, results and test classes of runs are served from memory before
+    // couchdb is asked whether any runs have changed. 0 means they are looked up every time.
+    FACET_CACHE_TTL_SECONDS("couchdb","facet.cache.ttl.seconds", 30),
+
+    // Searches for runs which couchdb takes at least this long to carry out are logged as slow,
+    // along with the fields searched on, the sort and the index used.
+    SLOW_QUERY_THRESHOLD_MILLIS("couchdb","slow.query.threshold.millis", 1000),
+
+    // The most artifact documents of runs which are loaded from couchdb at the same time, across all runs
+    // whose artifacts are being looked at. 1 means each run's artifact documents are loaded one after another.
+    ARTIFACT_DOCUMENT_MAX_CONCURRENT_LOADS("couchdb","artifact.document.max.concurrent.loads", 4),
+
+    // The most run log documents which are loaded from couchdb at the same time, across all the run logs being read.
+    // Also how far ahead of the reader a run log is loaded. 1 means each run log is loaded one document after another.
+    LOG_DOCUMENT_MAX_CONCURRENT_LOADS("couchdb","log.document.max.concurrent.loads", 4),
+
+    // The most batches of runs which are discarded at the same time when many runs are discarded together.
+    RUN_DISCARD_MAX_CONCURRENT_BATCHES("couchdb","run.discard.max.concurrent.batches", 4),
+
+    // The most megabytes of artifacts read from couchdb which are kept on local disk, shared by all the runs read through a store.
+    // The artifacts used least recently are removed first. 0 means artifacts are downloaded again every time they are read.
+    ARTIFACT_CACHE_MAX_SIZE_MB("couchdb","artifact.cache.max.size.mb", 256),
+
+    // Uncompressed artifacts of at least this many bytes are read a block at a time using HTTP Range requests,
+    // rather than being downloaded whole before any of them can be read. 0 means artifacts are always downloaded whole.
+    ARTIFACT_RANGE_READ_THRESHOLD("couchdb","artifact.range.read.threshold", 16777216),
+
+    // If true, artifacts downloaded from couchdb are read through memory mapped buffers over their local copy,
+    // which is faster for large artifacts which are scanned from start to end. Default is false.
+    ARTIFACT_MEMORY_MAPPED_READS("couchdb","artifact.memory.mapped.reads"),
+
+    // The most HTTP connections open to couchdb at the same time. 0 means there are enough for all the concurrent
+    // uploads, document loads, run discards and artifact block prefetches allowed above to happen at once.
+    HTTP_MAX_CONNECTIONS("couchdb","http.max.connections")
     ;
 
     private String namespace;
     private String propertyName ;
+    private int defaultValue;
 
     private CpsPropertyDef(String namespace, String propertyName) {
+        this(namespace, propertyName, 0);
+    }
+
+    private CpsPropertyDef(String namespace, String propertyName, int defaultValue) {
         this.namespace = namespace;
         this.propertyName = propertyName;
+        this.defaultValue = defaultValue;
     }
 
     public String getNamespace() {
@@ -38,7 +122,50 @@ public enum CpsPropertyDef {
         return this.propertyName;
     }
 
+    public int getDefaultValue() {
+        return this.defaultValue;
+    }
+
     public int getCpsIntValue(org.apache.commons.logging.Log logger, IConfigurationPropertyStoreService cps) throws CouchdbRasException {
+        String valueStr = getCpsValue(cps);
+
+        int value ;
+        if (valueStr == null) {
+            logger.trace(MessageFormat.format("Couchdb setting %s is not set. Defaulting.",this.getPropertyName()));
+            value = this.defaultValue;
+        } else {
+            value = Integer.parseInt(valueStr);
+        }
+        
+        return value;
+    }
+
+    // For feature flags. A default value of 0 means the feature is off unless the property is set to true.
+    public boolean getCpsBooleanValue(org.apache.commons.logging.Log logger, IConfigurationPropertyStoreService cps) throws CouchdbRasException {
+        String valueStr = getCpsValue(cps);
+
+        boolean value ;
+        if (valueStr == null) {
+            logger.trace(MessageFormat.format("Couchdb setting %s is not set. Defaulting.",this.getPropertyName()));
+            value = (this.defaultValue != 0);
+        } else {
+            value = Boolean.parseBoolean(valueStr.trim());
+        }
+
+        return value;
+    }
+
+    // For properties which aren't numbers. Null if the property is not set.
+    public String getCpsStringValue(org.apache.commons.logging.Log logger, IConfigurationPropertyStoreService cps) throws CouchdbRasException {
+        String valueStr = getCpsValue(cps);
+        if (valueStr == null || valueStr.trim().isEmpty()) {
+            logger.trace(MessageFormat.format("Couchdb setting %s is not set. Defaulting.",this.getPropertyName()));
+            valueStr = null;
+        }
+        return valueStr;
+    }
+
+    private String getCpsValue(IConfigurationPropertyStoreService cps) throws CouchdbRasException {
         String featurePropertyName = this.getPropertyName();
         int firstDotIndex = featurePropertyName.indexOf('.');
         String prefix = featurePropertyName.substring(0, firstDotIndex);
@@ -52,16 +179,7 @@ public enum CpsPropertyDef {
                 ex
             );
         }
-
-        int value ;
-        if (valueStr == null) {
-            logger.trace(MessageFormat.format("Couchdb setting %s is not set. Defaulting.",this.getPropertyName()));
-            value = 0;
-        } else {
-            value = Integer.parseInt(valueStr);
-        }
-        
-        return value;
+        return valueStr;
     }
 
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+
+import dev.galasa.extensions.common.api.LogFactory;
+import dev.galasa.framework.spi.ResultArchiveStoreException;
+import dev.galasa.framework.spi.utils.ITimeService;
+
+/**
+ * Holds the lists of facets which runs can be filtered by, such as the requestors,
+ * results and test classes of all the runs, so that they don't have to be worked
+ * out by a CouchDB view every time they are asked for.
+ *
+ * A facet list is served from memory until it is older than the time to live. After that,
+ * the runs database's _changes feed is checked. If no run has changed since the list was
+ * loaded, it is kept for another time to live. Otherwise it is loaded again. The lists can
+ * also be invalidated straight away, by anything which learns that the runs have changed.
+ *
+ * Facet lists are always loaded from up to date views. The sequence a list is checked against
+ * is taken before it is loaded, so a list loaded from a view which hadn't caught up with the
+ * runs would be served for as long as no other run changed.
+ */
+public class FacetCache {
+
+    /**
+     * Loads a facet list from CouchDB.
+     */
+    public interface FacetLoader<T> {
+        List<T> loadFacets() throws ResultArchiveStoreException;
+    }
+
+    /**
+     * Finds out from the _changes feed of the runs database whether any run has changed.
+     */
+    public interface RunChangesChecker {
+
+        /**
+         * @return the update sequence the runs database has reached
+         */
+        String getLatestSequence() throws ResultArchiveStoreException;
+
+        boolean hasChangedSince(String sequence) throws ResultArchiveStoreException;
+    }
+
+    private static class CachedFacets {
+        private final List<?> facets;
+
+        // Null if the sequence couldn't be found, in which case the facets are always loaded again once they expire
+        private final String sequence;
+        private final Instant expiry;
+
+        private CachedFacets(List<?> facets, String sequence, Instant expiry) {
+            this.facets = facets;
+            this.sequence = sequence;
+            this.expiry = expiry;
+        }
+    }
+
+    private final Log logger;
+    private final long timeToLiveMillis;
+    private final ITimeService timeService;
+    private final RunChangesChecker changesChecker;
+
+    private final Map<String, CachedFacets> cachedFacets = new ConcurrentHashMap<>();
+
+    /**
+     * @param timeToLiveSeconds how long facets are served from memory before the _changes feed is checked.
+     *                          0 or less means facets aren't cached at all
+     */
+    public FacetCache(int timeToLiveSeconds, ITimeService timeService, RunChangesChecker changesChecker, LogFactory logFactory) {
+        this.logger = logFactory.getLog(getClass());
+        this.timeToLiveMillis = timeToLiveSeconds * 1000L;
+        this.timeService = timeService;
+        this.changesChecker = changesChecker;
+    }
+
+    /**
+     * Gets a facet list, from memory if the one held is still up to date.
+     *
+     * @param facetName the name of the facet list, usually the name of the view it is loaded from
+     * @param loader loads the facet list from CouchDB if need be
+     * @return a copy of the facet list, which the caller is free to change
+     */
+    public <T> List<T> getFacets(String facetName, FacetLoader<T> loader) throws ResultArchiveStoreException {
+        if (timeToLiveMillis <= 0) {
+            return loader.loadFacets();
+        }
+
+        CachedFacets cached = cachedFacets.get(facetName);
+        if (cached == null || !timeService.now().isBefore(cached.expiry)) {
+            cached = refresh(facetName, loader);
+        }
+        return copyOf(cached);
+    }
+
+    /**
+     * Forgets every facet list held, so they are loaded again the next time they are asked for.
+     */
+    public void invalidate() {
+        cachedFacets.clear();
+    }
+
+    // Only one refresh at a time, so a burst of requests for an expired facet list only loads it once
+    private synchronized CachedFacets refresh(String facetName, FacetLoader<?> loader) throws ResultArchiveStoreException {
+        CachedFacets cached = cachedFacets.get(facetName);
+        Instant now = timeService.now();
+        if (cached != null && now.isBefore(cached.expiry)) {
+            return cached;
+        }
+
+        CachedFacets refreshed = null;
+        if (cached != null && cached.sequence != null && !changesChecker.hasChangedSince(cached.sequence)) {
+            logger.trace("No runs have changed since facets " + facetName + " were loaded, so they are still up to date");
+            refreshed = new CachedFacets(cached.facets, cached.sequence, now.plusMillis(timeToLiveMillis));
+        } else {
+            // Get the sequence before loading, so any change made while loading is noticed next time round
+            String sequence = getLatestSequence();
+            List<?> facets = loader.loadFacets();
+            refreshed = new CachedFacets(facets, sequence, now.plusMillis(timeToLiveMillis));
+        }
+
+        cachedFacets.put(facetName, refreshed);
+        return refreshed;
+    }
+
+    private String getLatestSequence() {
+        String sequence = null;
+        try {
+            sequence = changesChecker.getLatestSequence();
+        } catch (ResultArchiveStoreException e) {
+            logger.warn("Unable to get the update sequence of the runs database, facets will be loaded again each time they expire", e);
+        }
+        return sequence;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> List<T> copyOf(CachedFacets cached) {
+        return new ArrayList<>((List<T>) cached.facets);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+/**
+ * Decides when the run log lines cached by the RAS store are shipped to CouchDB
+ * as a LogLines document.
+ *
+ * All methods are called while the RAS store holds the lock on its log cache,
+ * so implementations do not need to do their own locking.
+ */
+public interface LogBatchingPolicy {
+
+    /**
+     * @param lineCount the number of lines in the cache
+     * @param byteCount the approximate size of those lines, in bytes
+     * @return true if the cache should be shipped now, without waiting for more lines
+     */
+    boolean isBatchFull(int lineCount, long byteCount);
+
+    /**
+     * @return how long a line may wait in the cache before it is shipped regardless
+     * of the batch size. 0 means lines wait until the batch is full or the log is flushed.
+     */
+    long getMaxLingerMillis();
+
+    /**
+     * Tells the policy that a batch has been shipped, so it can adapt to the rate
+     * at which the test is writing its log.
+     *
+     * @param lineCount     the number of lines in the batch
+     * @param byteCount     the approximate size of the batch, in bytes
+     * @param lingerMillis  how long the oldest line in the batch waited in the cache
+     * @param isFull        true if the batch was shipped because {@link #isBatchFull} said so,
+     *                      false if it was shipped because it lingered too long or was flushed
+     */
+    void batchShipped(int lineCount, long byteCount, long lingerMillis, boolean isFull);
+}
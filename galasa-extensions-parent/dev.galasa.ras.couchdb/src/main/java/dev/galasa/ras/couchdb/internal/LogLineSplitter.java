@@ -0,0 +1,75 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import dev.galasa.framework.spi.ResultArchiveStoreException;
+
+/**
+ * Splits a run log message into lines without using a regular expression or
+ * building an intermediate array.
+ *
+ * Lines end with "\r\n", "\r" or "\n", and the lines produced are exactly the ones
+ * {@code message.split("\r\n?|\n")} would produce, including the way it drops
+ * trailing empty lines.
+ */
+public class LogLineSplitter {
+
+    /**
+     * Receives each line of a message, in order.
+     */
+    public interface LineConsumer {
+        void accept(String line) throws ResultArchiveStoreException;
+    }
+
+    private LogLineSplitter() {
+    }
+
+    public static void forEachLine(String message, LineConsumer consumer) throws ResultArchiveStoreException {
+        int length = message.length();
+        int lineStart = 0;
+        boolean isLineEndFound = false;
+
+        // Empty lines are only passed on once we know a non-empty line follows them
+        int pendingEmptyLines = 0;
+
+        int index = 0;
+        while (index < length) {
+            char c = message.charAt(index);
+            if (c != '\r' && c != '\n') {
+                index++;
+                continue;
+            }
+
+            isLineEndFound = true;
+            if (index == lineStart) {
+                pendingEmptyLines++;
+            } else {
+                pendingEmptyLines = passOnEmptyLines(pendingEmptyLines, consumer);
+                consumer.accept(message.substring(lineStart, index));
+            }
+
+            index++;
+            if (c == '\r' && index < length && message.charAt(index) == '\n') {
+                index++;
+            }
+            lineStart = index;
+        }
+
+        if (!isLineEndFound) {
+            consumer.accept(message);
+        } else if (lineStart < length) {
+            passOnEmptyLines(pendingEmptyLines, consumer);
+            consumer.accept(message.substring(lineStart));
+        }
+    }
+
+    private static int passOnEmptyLines(int count, LineConsumer consumer) throws ResultArchiveStoreException {
+        for (int i = 0; i < count; i++) {
+            consumer.accept("");
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import org.apache.commons.logging.Log;
+
+import dev.galasa.extensions.common.api.LogFactory;
+import dev.galasa.framework.spi.ResultArchiveStoreException;
+import dev.galasa.framework.spi.utils.GalasaGson;
+import dev.galasa.framework.spi.utils.ITimeService;
+import dev.galasa.ras.couchdb.internal.pojos.ChangeRow;
+import dev.galasa.ras.couchdb.internal.pojos.TestStructureCouchdb;
+
+/**
+ * Follows the continuous _changes feed of the runs database on a thread of its own,
+ * keeping an index of the runs which have changed most recently and telling listeners
+ * about each change as it happens.
+ *
+ * CouchDB sends a heartbeat on the feed while nothing is changing, so a dead connection
+ * is noticed. Whenever the feed is lost, it is reconnected after a delay which doubles
+ * with each failed attempt, carrying on from the last change seen so nothing is missed.
+ */
+public class RunChangesFollower {
+
+    /**
+     * Told about each change to a run document. Listeners are called on the follower's thread,
+     * so they should hand off anything which takes a while.
+     */
+    public interface RunChangeListener {
+
+        /**
+         * @param run the run document as it is now
+         * @param previousRun the run document as it was last seen by the follower, or null if
+         *                    the follower hasn't seen this run change before
+         */
+        void runChanged(TestStructureCouchdb run, TestStructureCouchdb previousRun);
+
+        default void runDeleted(String runDocumentId) {
+        }
+    }
+
+    /**
+     * Opens the continuous _changes feed of the runs database. Closing the reader returned
+     * must disconnect from the feed.
+     */
+    public interface ChangesFeedConnector {
+        Reader openChangesFeed(String since) throws IOException, ResultArchiveStoreException;
+    }
+
+    static final long MIN_RECONNECT_DELAY_MILLIS = 1000;
+    static final long MAX_RECONNECT_DELAY_MILLIS = 60000;
+
+    private final Log logger;
+    private final GalasaGson gson;
+    private final ChangesFeedConnector connector;
+    private final ITimeService timeService;
+    private final int maxRecentRuns;
+    private final List<RunChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread followerThread;
+
+    // Guarded by itself. In the order the runs last changed, the most recent last
+    private final LinkedHashMap<String, TestStructureCouchdb> recentRuns = new LinkedHashMap<>();
+
+    private volatile String lastSequence;
+    private volatile Reader currentFeed;
+    private volatile boolean isClosed = false;
+
+    /**
+     * @param since the sequence to follow changes from, "now" for changes made from now on
+     * @param maxRecentRuns the most runs to hold in the index of recently changed runs
+     */
+    public RunChangesFollower(String since, int maxRecentRuns, ChangesFeedConnector connector, GalasaGson gson,
+            ITimeService timeService, LogFactory logFactory) {
+        this.logger = logFactory.getLog(getClass());
+        this.lastSequence = since;
+        this.maxRecentRuns = Math.max(1, maxRecentRuns);
+        this.connector = connector;
+        this.gson = gson;
+        this.timeService = timeService;
+
+        this.followerThread = new Thread(this::followChanges, "couchdb-run-changes-follower");
+        this.followerThread.setDaemon(true);
+    }
+
+    public void start() {
+        followerThread.start();
+    }
+
+    public void addListener(RunChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(RunChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the sequence of the last change seen, which is where following carries on from after a reconnect
+     */
+    public String getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return the runs which have changed since the follower started, most recently changed first,
+     *         up to the maximum number of runs held
+     */
+    public List<TestStructureCouchdb> getRecentRuns() {
+        List<TestStructureCouchdb> runs;
+        synchronized (recentRuns) {
+            runs = new ArrayList<>(recentRuns.values());
+        }
+        Collections.reverse(runs);
+        return runs;
+    }
+
+    /**
+     * Stops following changes, disconnecting from the feed.
+     */
+    public void close() {
+        isClosed = true;
+        closeCurrentFeed();
+        followerThread.interrupt();
+    }
+
+    private void followChanges() {
+        long reconnectDelayMillis = MIN_RECONNECT_DELAY_MILLIS;
+
+        while (!isClosed) {
+            try {
+                // Kept so close() can disconnect the feed while this thread is blocked reading it
+                currentFeed = connector.openChangesFeed(lastSequence);
+            } catch (IOException | ResultArchiveStoreException | RuntimeException e) {
+                currentFeed = null;
+                if (!isClosed) {
+                    logger.warn("Unable to connect to the feed of changes to runs, trying again in " + reconnectDelayMillis + "ms", e);
+                }
+            }
+
+            if (currentFeed != null) {
+                reconnectDelayMillis = followFeed(currentFeed, reconnectDelayMillis);
+            }
+
+            if (!isClosed) {
+                try {
+                    timeService.sleepMillis(reconnectDelayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                reconnectDelayMillis = Math.min(reconnectDelayMillis * 2, MAX_RECONNECT_DELAY_MILLIS);
+            }
+        }
+    }
+
+    // Returns the delay before reconnecting, which starts again from the minimum once any line has arrived
+    private long followFeed(Reader changesFeed, long reconnectDelayMillis) {
+        try (BufferedReader feed = new BufferedReader(changesFeed)) {
+            if (isClosed) {
+                return reconnectDelayMillis;
+            }
+            logger.debug("Following changes to runs from sequence " + lastSequence);
+
+            String line;
+            while (!isClosed && (line = feed.readLine()) != null) {
+                reconnectDelayMillis = MIN_RECONNECT_DELAY_MILLIS;
+                processLine(line);
+            }
+            if (!isClosed) {
+                logger.info("The feed of changes to runs ended, reconnecting in " + reconnectDelayMillis + "ms");
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!isClosed) {
+                logger.warn("Lost the feed of changes to runs, reconnecting in " + reconnectDelayMillis + "ms", e);
+            }
+        } finally {
+            currentFeed = null;
+        }
+        return reconnectDelayMillis;
+    }
+
+    // Each line of the feed is a change, a blank heartbeat, or the last sequence when the feed ends
+    void processLine(String line) {
+        if (line.isBlank()) {
+            return;
+        }
+
+        JsonObject json;
+        try {
+            json = JsonParser.parseString(line).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            logger.warn("Ignoring a line of the run changes feed which isn't a JSON object: " + line);
+            return;
+        }
+
+        if (json.has("last_seq")) {
+            lastSequence = getSequence(json.get("last_seq"));
+            return;
+        }
+
+        ChangeRow change = gson.fromJson(json, ChangeRow.class);
+        if (change.id != null && !change.id.startsWith("_design/")) {
+            if (change.deleted) {
+                runDeleted(change.id);
+            } else if (change.doc != null && change.doc.isValid()) {
+                runChanged(change.doc);
+            }
+        }
+
+        if (change.seq != null) {
+            lastSequence = getSequence(change.seq);
+        }
+    }
+
+    private void runChanged(TestStructureCouchdb run) {
+        TestStructureCouchdb previousRun;
+        synchronized (recentRuns) {
+            // Removed first, so the run moves to the most recently changed end
+            previousRun = recentRuns.remove(run._id);
+            recentRuns.put(run._id, run);
+            if (recentRuns.size() > maxRecentRuns) {
+                String oldestRunId = recentRuns.keySet().iterator().next();
+                recentRuns.remove(oldestRunId);
+            }
+        }
+
+        for (RunChangeListener listener : listeners) {
+            try {
+                listener.runChanged(run, previousRun);
+            } catch (RuntimeException e) {
+                logger.warn("Run change listener failed handling a change to run " + run.getRunName(), e);
+            }
+        }
+    }
+
+    private void runDeleted(String runDocumentId) {
+        synchronized (recentRuns) {
+            recentRuns.remove(runDocumentId);
+        }
+
+        for (RunChangeListener listener : listeners) {
+            try {
+                listener.runDeleted(runDocumentId);
+            } catch (RuntimeException e) {
+                logger.warn("Run change listener failed handling the deletion of run document " + runDocumentId, e);
+            }
+        }
+    }
+
+    private String getSequence(JsonElement sequence) {
+        return sequence.getAsString();
+    }
+
+    private void closeCurrentFeed() {
+        Reader feed = currentFeed;
+        if (feed != null) {
+            try {
+                feed.close();
+            } catch (IOException e) {
+                logger.debug("Problem disconnecting from the run changes feed", e);
+            }
+        }
+    }
+}
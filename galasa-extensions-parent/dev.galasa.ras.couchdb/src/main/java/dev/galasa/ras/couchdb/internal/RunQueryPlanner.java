@@ -0,0 +1,239 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import dev.galasa.framework.spi.ras.RasSortField;
+
+/**
+ * Chooses which of the galasa_run Mango indexes a search for runs should use.
+ *
+ * CouchDB can only use an index to sort results if the sort is on the fields of the
+ * index, in the same order. So a search for the runs of one requestor sorted by when
+ * they were queued can't use the single field requestor or queued indexes together,
+ * and ends up scanning far more documents than it returns. Composite indexes, which
+ * start with fields searched on for a single value and end with the sort field, fix
+ * that. The sort is then given on all the fields of the index, which orders the runs
+ * the same way as the sort asked for because each leading field only has one value.
+ */
+public class RunQueryPlanner {
+
+    public static class RunIndex {
+        private final String name;
+        private final List<String> fields;
+
+        public RunIndex(String... fields) {
+            this.fields = List.of(fields);
+            this.name = String.join("-", fields) + "-index";
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the design document the index is kept in, without the "_design/" prefix. Each index
+         *         has a design document of its own, named after it, so a search can name the index to use
+         *         and updating one index doesn't rebuild the others
+         */
+        public String getDesignDocumentName() {
+            return name;
+        }
+
+        public List<String> getFields() {
+            return fields;
+        }
+
+        private boolean isComposite() {
+            return fields.size() > 1;
+        }
+
+        private String getLastField() {
+            return fields.get(fields.size() - 1);
+        }
+    }
+
+    public static class RunQueryPlan {
+        private final RunIndex index;
+        private final JsonArray sort;
+        private final String shape;
+
+        private RunQueryPlan(RunIndex index, JsonArray sort, String shape) {
+            this.index = index;
+            this.sort = sort;
+            this.shape = shape;
+        }
+
+        /**
+         * @return the name of the index to hint CouchDB to use, or null to leave CouchDB to choose
+         */
+        public String getIndexName() {
+            return (index == null) ? null : index.getName();
+        }
+
+        /**
+         * @return the design document and name of the index to give CouchDB as the use_index of a search,
+         *         or null to leave CouchDB to choose. A use_index of a single string names a design document
+         *         rather than an index, so CouchDB ignores one giving just the index name
+         */
+        public String[] getIndexHint() {
+            return (index == null) ? null : new String[] { index.getDesignDocumentName(), index.getName() };
+        }
+
+        /**
+         * @return the sort to give CouchDB, or null if the results don't need sorting
+         */
+        public JsonArray getSort() {
+            return sort;
+        }
+
+        /**
+         * @return a description of the fields searched on, the sort and the index used, which is the
+         *         same for all searches which CouchDB carries out in the same way
+         */
+        public String getShape() {
+            return shape;
+        }
+    }
+
+    /**
+     * Every index on galasa_run used to search for runs, single field indexes first.
+     */
+    public static final List<RunIndex> RUN_INDEXES = List.of(
+        new RunIndex("runName"),
+        new RunIndex("requestor"),
+        new RunIndex("queued"),
+        new RunIndex("startTime"),
+        new RunIndex("endTime"),
+        new RunIndex("testName"),
+        new RunIndex("bundle"),
+        new RunIndex("result"),
+
+        // For the searches the runs page makes most, for the runs matching a filter, most recently queued first
+        new RunIndex("requestor", "queued"),
+        new RunIndex("result", "queued"),
+        new RunIndex("status", "queued"),
+        new RunIndex("testName", "queued"),
+        new RunIndex("bundle", "queued"),
+        new RunIndex("requestor", "result", "queued"),
+        new RunIndex("bundle", "testName", "queued")
+    );
+
+    private final List<RunIndex> indexes;
+
+    public RunQueryPlanner() {
+        this(RUN_INDEXES);
+    }
+
+    public RunQueryPlanner(List<RunIndex> indexes) {
+        this.indexes = indexes;
+    }
+
+    /**
+     * @param selector the selector of the search, a list of conditions under "$and", as built by the directory service
+     * @param primarySort how the runs should be sorted, or null if they needn't be
+     */
+    public RunQueryPlan plan(JsonObject selector, RasSortField primarySort) {
+        Set<String> selectorFields = new TreeSet<>();
+        Set<String> singleValueFields = new TreeSet<>();
+        findSelectorFields(selector, selectorFields, singleValueFields);
+
+        RunIndex chosenIndex = null;
+        if (primarySort != null) {
+            chosenIndex = chooseSortingIndex(singleValueFields, primarySort.getFieldName());
+        }
+
+        JsonArray sort = null;
+        if (chosenIndex != null) {
+            sort = buildSort(chosenIndex.getFields(), primarySort.getSortDirection());
+        } else if (primarySort != null) {
+            sort = buildSort(Collections.singletonList(primarySort.getFieldName()), primarySort.getSortDirection());
+        }
+
+        StringBuilder shape = new StringBuilder();
+        shape.append("selector=").append(selectorFields);
+        if (primarySort != null) {
+            shape.append(" sort=").append(primarySort.getFieldName()).append(' ').append(primarySort.getSortDirection());
+        }
+        if (chosenIndex != null) {
+            shape.append(" index=").append(chosenIndex.getName());
+        }
+
+        return new RunQueryPlan(chosenIndex, sort, shape.toString());
+    }
+
+    // The composite index with the most leading fields which are all searched on for a single value, ending with the sort field
+    private RunIndex chooseSortingIndex(Set<String> singleValueFields, String sortField) {
+        RunIndex chosenIndex = null;
+        for (RunIndex index : indexes) {
+            if (index.isComposite() && index.getLastField().equals(sortField)
+                    && singleValueFields.containsAll(index.getFields().subList(0, index.getFields().size() - 1))) {
+                if (chosenIndex == null || index.getFields().size() > chosenIndex.getFields().size()) {
+                    chosenIndex = index;
+                }
+            }
+        }
+        return chosenIndex;
+    }
+
+    private void findSelectorFields(JsonObject selector, Set<String> selectorFields, Set<String> singleValueFields) {
+        JsonElement and = selector.get("$and");
+        if (and == null || !and.isJsonArray()) {
+            return;
+        }
+
+        for (JsonElement criteria : and.getAsJsonArray()) {
+            if (!criteria.isJsonObject()) {
+                continue;
+            }
+            for (Entry<String, JsonElement> condition : criteria.getAsJsonObject().entrySet()) {
+                String field = condition.getKey();
+                selectorFields.add(field);
+                if (isSingleValueCondition(condition.getValue())) {
+                    singleValueFields.add(field);
+                }
+            }
+        }
+    }
+
+    private boolean isSingleValueCondition(JsonElement condition) {
+        if (condition.isJsonPrimitive()) {
+            return true;
+        }
+        if (!condition.isJsonObject()) {
+            return false;
+        }
+
+        JsonObject operators = condition.getAsJsonObject();
+        if (operators.size() != 1) {
+            return false;
+        }
+        if (operators.has("$eq")) {
+            return true;
+        }
+        JsonElement in = operators.get("$in");
+        return in != null && in.isJsonArray() && in.getAsJsonArray().size() == 1;
+    }
+
+    private JsonArray buildSort(List<String> fields, String direction) {
+        JsonArray sort = new JsonArray();
+        for (String field : fields) {
+            JsonObject fieldSort = new JsonObject();
+            fieldSort.addProperty(field, direction);
+            sort.add(fieldSort);
+        }
+        return sort;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+
+import dev.galasa.extensions.common.api.LogFactory;
+import dev.galasa.ras.couchdb.internal.pojos.ExecutionStats;
+
+/**
+ * Adds up the execution statistics CouchDB returns for each search for runs, by the shape
+ * of the search, being the fields searched on, the sort and the index hinted at.
+ *
+ * A shape is logged as a warning the first time one of its searches is slow, or examines
+ * many more documents than it returns, which is the sign of a search with no index to suit it.
+ */
+public class RunQueryStatistics {
+
+    // A search which examines more than this many documents for each one it returns isn't using an index to suit it
+    static final int INEFFICIENT_DOCS_EXAMINED_PER_RESULT = 10;
+
+    // Searches examining fewer documents than this are cheap whatever their shape
+    static final int MIN_DOCS_EXAMINED_TO_BE_INEFFICIENT = 1000;
+
+    /**
+     * The execution statistics of all the searches of one shape so far.
+     */
+    public static class QueryShapeStatistics {
+        private long queryCount;
+        private double totalExecutionTimeMillis;
+        private double maxExecutionTimeMillis;
+        private long totalDocsExamined;
+        private long totalKeysExamined;
+        private long totalResultsReturned;
+        private boolean isReported;
+
+        private QueryShapeStatistics() {
+        }
+
+        private QueryShapeStatistics(QueryShapeStatistics other) {
+            this.queryCount = other.queryCount;
+            this.totalExecutionTimeMillis = other.totalExecutionTimeMillis;
+            this.maxExecutionTimeMillis = other.maxExecutionTimeMillis;
+            this.totalDocsExamined = other.totalDocsExamined;
+            this.totalKeysExamined = other.totalKeysExamined;
+            this.totalResultsReturned = other.totalResultsReturned;
+            this.isReported = other.isReported;
+        }
+
+        public long getQueryCount() {
+            return queryCount;
+        }
+
+        public double getTotalExecutionTimeMillis() {
+            return totalExecutionTimeMillis;
+        }
+
+        public double getMaxExecutionTimeMillis() {
+            return maxExecutionTimeMillis;
+        }
+
+        public long getTotalDocsExamined() {
+            return totalDocsExamined;
+        }
+
+        public long getTotalKeysExamined() {
+            return totalKeysExamined;
+        }
+
+        public long getTotalResultsReturned() {
+            return totalResultsReturned;
+        }
+
+        // Returns true if this is the first search of the shape to be slow or inefficient
+        private boolean add(ExecutionStats stats, boolean isSlowOrInefficient) {
+            queryCount++;
+            totalExecutionTimeMillis += stats.execution_time_ms;
+            maxExecutionTimeMillis = Math.max(maxExecutionTimeMillis, stats.execution_time_ms);
+            totalDocsExamined += stats.total_docs_examined;
+            totalKeysExamined += stats.total_keys_examined;
+            totalResultsReturned += stats.results_returned;
+
+            boolean isFirstReport = isSlowOrInefficient && !isReported;
+            isReported = isReported || isSlowOrInefficient;
+            return isFirstReport;
+        }
+    }
+
+    private final Log logger;
+    private final long slowQueryThresholdMillis;
+    private final Map<String, QueryShapeStatistics> statisticsByShape = new ConcurrentHashMap<>();
+
+    public RunQueryStatistics(long slowQueryThresholdMillis, LogFactory logFactory) {
+        this.logger = logFactory.getLog(getClass());
+        this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+    }
+
+    public void record(String queryShape, ExecutionStats stats) {
+        boolean isSlow = slowQueryThresholdMillis > 0 && stats.execution_time_ms >= slowQueryThresholdMillis;
+        boolean isInefficient = stats.total_docs_examined >= MIN_DOCS_EXAMINED_TO_BE_INEFFICIENT
+            && stats.total_docs_examined > Math.max(1, stats.results_returned) * INEFFICIENT_DOCS_EXAMINED_PER_RESULT;
+
+        QueryShapeStatistics shapeStatistics = statisticsByShape.computeIfAbsent(queryShape, shape -> new QueryShapeStatistics());
+        boolean isFirstReport;
+        synchronized (shapeStatistics) {
+            isFirstReport = shapeStatistics.add(stats, isSlow || isInefficient);
+        }
+
+        String description = "Search for runs " + queryShape + " took " + stats.execution_time_ms + "ms, examining "
+            + stats.total_docs_examined + " documents to return " + stats.results_returned;
+        if (isFirstReport) {
+            logger.warn((isSlow ? "Slow search for runs. " : "Inefficient search for runs. ") + description);
+        } else {
+            logger.debug(description);
+        }
+    }
+
+    /**
+     * @return a copy of the statistics gathered so far for each shape of search, by shape
+     */
+    public Map<String, QueryShapeStatistics> getStatistics() {
+        Map<String, QueryShapeStatistics> snapshot = new TreeMap<>();
+        for (Map.Entry<String, QueryShapeStatistics> entry : statisticsByShape.entrySet()) {
+            QueryShapeStatistics shapeStatistics = entry.getValue();
+            synchronized (shapeStatistics) {
+                snapshot.put(entry.getKey(), new QueryShapeStatistics(shapeStatistics));
+            }
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import dev.galasa.framework.spi.ResultArchiveStoreException;
+
+/**
+ * Wraps a ResultArchiveStoreException where a checked exception can't be thrown,
+ * such as from an Iterator, a Stream or the getters of a test structure.
+ */
+public class UncheckedResultArchiveStoreException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public UncheckedResultArchiveStoreException(ResultArchiveStoreException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized ResultArchiveStoreException getCause() {
+        return (ResultArchiveStoreException) super.getCause();
+    }
+}
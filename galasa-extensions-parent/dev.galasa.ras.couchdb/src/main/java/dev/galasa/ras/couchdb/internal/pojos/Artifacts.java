@@ -10,8 +10,13 @@ public class Artifacts {
     public String runId;   // NOSONAR
     public String runName; // NOSONAR
 
-    // This is here for an experiment, where we add small artifacts inline to the artifacts document to see if it's better than 
-    // attaching the binary value of the document.
+    // Only set when each artifact is stored in an artifact document of its own.
+    public String artifactPath; // NOSONAR
+    public String contentType;  // NOSONAR
+    public Long   length;       // NOSONAR
+
+    // Small artifacts are held inline in their artifact document, base64 encoded, rather than
+    // attached to it, so they can be stored using a single request.
     public String inlineArtifactData; // NOSONAR
 
 }
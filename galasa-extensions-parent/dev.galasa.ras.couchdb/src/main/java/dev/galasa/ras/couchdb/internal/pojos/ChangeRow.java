@@ -0,0 +1,19 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal.pojos;
+
+import com.google.gson.JsonElement;
+
+public class ChangeRow {
+
+    public JsonElement seq;     // NOSONAR
+    public String      id;      // NOSONAR
+    public boolean     deleted; // NOSONAR
+
+    // Only there when the changes are asked for with include_docs=true
+    public TestStructureCouchdb doc; // NOSONAR
+
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal.pojos;
+
+import java.util.List;
+
+import com.google.gson.JsonElement;
+
+public class Changes {
+
+    public List<ChangeRow> results;  // NOSONAR
+
+    // A string in CouchDB 2.x and later, a number in earlier versions
+    public JsonElement     last_seq; // NOSONAR
+
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal.pojos;
+
+public class DeletedDocument {
+
+    public String  _id;             // NOSONAR
+    public String  _rev;            // NOSONAR
+    public boolean _deleted = true; // NOSONAR
+
+    public DeletedDocument(String id, String rev) {
+        this._id = id;
+        this._rev = rev;
+    }
+
+}
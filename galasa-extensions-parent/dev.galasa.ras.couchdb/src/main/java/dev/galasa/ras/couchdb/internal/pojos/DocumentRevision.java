@@ -0,0 +1,13 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal.pojos;
+
+public class DocumentRevision {
+
+    public String  rev;     // NOSONAR
+    public boolean deleted; // NOSONAR
+
+}
@@ -0,0 +1,18 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal.pojos;
+
+public class DocumentRevisionRow {
+
+    public String           id;    // NOSONAR
+    public String           key;   // NOSONAR
+
+    // Set instead of the value when there is no document with the key, such as "not_found"
+    public String           error; // NOSONAR
+
+    public DocumentRevision value; // NOSONAR
+
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal.pojos;
+
+public class ExecutionStats {
+
+    public long   total_keys_examined;          // NOSONAR
+
+    public long   total_docs_examined;          // NOSONAR
+
+    public long   total_quorum_docs_examined;   // NOSONAR
+
+    public long   results_returned;             // NOSONAR
+
+    public double execution_time_ms;            // NOSONAR
+
+}
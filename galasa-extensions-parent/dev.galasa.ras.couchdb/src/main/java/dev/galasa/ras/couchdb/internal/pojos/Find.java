@@ -10,10 +10,12 @@ import com.google.gson.JsonArray;
 public class Find {
 
     public Object    selector;
+    public String[]  fields;
     public JsonArray sort;
     public Integer   limit;
     public Integer   skip;
     public Boolean   execution_stats;
     public String    bookmark;
+    public String[]  use_index;
 
 }
@@ -14,4 +14,9 @@ public class LogLines {
     public long         order;   // NOSONAR
     public List<String> lines;   // NOSONAR
 
+    // Set instead of the lines when they have been compressed. The lines are joined with
+    // newlines, compressed using the named content encoding, then base64 encoded.
+    public String       contentEncoding; // NOSONAR
+    public String       compressedLines; // NOSONAR
+
 }
@@ -0,0 +1,14 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal.pojos;
+
+public class RunDocumentRow {
+
+    public String               id;  // NOSONAR
+    public String               key; // NOSONAR
+    public TestStructureCouchdb doc; // NOSONAR
+
+}
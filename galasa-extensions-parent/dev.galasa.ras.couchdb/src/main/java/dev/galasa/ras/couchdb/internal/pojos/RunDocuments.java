@@ -0,0 +1,17 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal.pojos;
+
+import java.util.List;
+
+// A page of galasa_run documents, as returned by _all_docs?include_docs=true
+public class RunDocuments {
+
+    public List<RunDocumentRow> rows;    // NOSONAR
+
+    public String               warning; // NOSONAR
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Test;
+
+public class AdaptiveLogBatchingPolicyTest {
+
+    @Test
+    public void testBatchIsFullOnceItReachesTheMinimumLineCount() {
+        AdaptiveLogBatchingPolicy policy = new AdaptiveLogBatchingPolicy(100, 1000, 0, 5000);
+
+        assertThat(policy.isBatchFull(99, 10)).isFalse();
+        assertThat(policy.isBatchFull(100, 10)).isTrue();
+    }
+
+    @Test
+    public void testBatchIsFullOnceItReachesTheMaximumSizeWhateverTheLineCount() {
+        AdaptiveLogBatchingPolicy policy = new AdaptiveLogBatchingPolicy(100, 1000, 1024, 5000);
+
+        assertThat(policy.isBatchFull(1, 1023)).isFalse();
+        assertThat(policy.isBatchFull(1, 1024)).isTrue();
+    }
+
+    @Test
+    public void testBatchesGrowUpToTheMaximumWhenTheyFillQuickly() {
+        AdaptiveLogBatchingPolicy policy = new AdaptiveLogBatchingPolicy(100, 300, 0, 4000);
+
+        policy.batchShipped(100, 1000, 10, true);
+        assertThat(policy.getTargetLines()).isEqualTo(200);
+
+        policy.batchShipped(200, 2000, 10, true);
+        assertThat(policy.getTargetLines()).isEqualTo(300);
+    }
+
+    @Test
+    public void testBatchesDontGrowWhenTheyFillSlowly() {
+        AdaptiveLogBatchingPolicy policy = new AdaptiveLogBatchingPolicy(100, 1000, 0, 4000);
+
+        policy.batchShipped(100, 1000, 3000, true);
+
+        assertThat(policy.getTargetLines()).isEqualTo(100);
+    }
+
+    @Test
+    public void testBatchesShrinkBackToTheMinimumWhenTheLogGoesQuiet() {
+        AdaptiveLogBatchingPolicy policy = new AdaptiveLogBatchingPolicy(100, 1000, 0, 4000);
+        policy.batchShipped(100, 1000, 10, true);
+        policy.batchShipped(200, 2000, 10, true);
+        assertThat(policy.getTargetLines()).isEqualTo(400);
+
+        policy.batchShipped(5, 50, 4000, false);
+        assertThat(policy.getTargetLines()).isEqualTo(200);
+
+        policy.batchShipped(5, 50, 4000, false);
+        policy.batchShipped(5, 50, 4000, false);
+        assertThat(policy.getTargetLines()).isEqualTo(100);
+    }
+}
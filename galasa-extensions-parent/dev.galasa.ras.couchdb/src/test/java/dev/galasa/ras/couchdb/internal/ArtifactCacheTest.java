@@ -0,0 +1,208 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dev.galasa.ras.couchdb.internal.mocks.MockLogFactory;
+
+public class ArtifactCacheTest {
+
+    private Path cacheDirectory;
+
+    // Writes the given content, counting how many times it has been downloaded
+    private static class MockArtifactDownloader implements ArtifactCache.ArtifactDownloader {
+        private final String content;
+        private final AtomicInteger downloadCount = new AtomicInteger();
+
+        MockArtifactDownloader(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public void download(Path target) throws IOException {
+            downloadCount.incrementAndGet();
+            Files.write(target, content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDirectory = Files.createTempDirectory("artifact_cache_test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (Files.exists(cacheDirectory)) {
+            try (Stream<Path> files = Files.list(cacheDirectory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(cacheDirectory);
+        }
+    }
+
+    private String read(ArtifactCache cache, String key, ArtifactCache.ArtifactDownloader downloader) throws IOException {
+        try (ArtifactCache.CachedArtifact artifact = cache.getArtifact(key, downloader)) {
+            return new String(Files.readAllBytes(artifact.getPath()), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testArtifactReadAgainIsNotDownloadedAgain() throws Exception {
+        // Given...
+        ArtifactCache cache = new ArtifactCache(cacheDirectory, 1024, new MockLogFactory());
+        MockArtifactDownloader downloader = new MockArtifactDownloader("Hello World");
+
+        // When...
+        String firstContent = read(cache, "doc1/1-a/terminal.png", downloader);
+        String secondContent = read(cache, "doc1/1-a/terminal.png", downloader);
+
+        // Then...
+        assertThat(firstContent).isEqualTo("Hello World");
+        assertThat(secondContent).isEqualTo("Hello World");
+        assertThat(downloader.downloadCount.get()).isEqualTo(1);
+        assertThat(cache.getSizeBytes()).isEqualTo(11);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedArtifactIsRemovedWhenTheCacheIsFull() throws Exception {
+        // Given...
+        ArtifactCache cache = new ArtifactCache(cacheDirectory, 10, new MockLogFactory());
+        MockArtifactDownloader downloaderA = new MockArtifactDownloader("AAAA");
+        MockArtifactDownloader downloaderB = new MockArtifactDownloader("BBBB");
+        MockArtifactDownloader downloaderC = new MockArtifactDownloader("CCCC");
+
+        read(cache, "a", downloaderA);
+        read(cache, "b", downloaderB);
+        read(cache, "a", downloaderA);
+
+        // When...
+        read(cache, "c", downloaderC);
+        read(cache, "a", downloaderA);
+        read(cache, "b", downloaderB);
+
+        // Then... b was used least recently when c was added, so only b had to be downloaded again
+        assertThat(downloaderA.downloadCount.get()).isEqualTo(1);
+        assertThat(downloaderB.downloadCount.get()).isEqualTo(2);
+        assertThat(cache.getSizeBytes()).isLessThanOrEqualTo(10);
+    }
+
+    @Test
+    public void testArtifactBeingReadIsNotRemovedFromUnderTheReader() throws Exception {
+        // Given...
+        ArtifactCache cache = new ArtifactCache(cacheDirectory, 4, new MockLogFactory());
+        ArtifactCache.CachedArtifact artifactA = cache.getArtifact("a", new MockArtifactDownloader("AAAA"));
+
+        // When...
+        String contentB = read(cache, "b", new MockArtifactDownloader("BBBB"));
+
+        // Then...
+        assertThat(contentB).isEqualTo("BBBB");
+        assertThat(new String(Files.readAllBytes(artifactA.getPath()), StandardCharsets.UTF_8)).isEqualTo("AAAA");
+        artifactA.close();
+        assertThat(cache.getSizeBytes()).isEqualTo(4);
+    }
+
+    @Test
+    public void testClosingAnArtifactTooBigToCacheDoesNotDeleteAnotherDownloadOfIt() throws Exception {
+        // Given...
+        ArtifactCache cache = new ArtifactCache(cacheDirectory, 4, new MockLogFactory());
+        MockArtifactDownloader downloader = new MockArtifactDownloader("Too big to cache");
+        ArtifactCache.CachedArtifact firstArtifact = cache.getArtifact("big", downloader);
+        ArtifactCache.CachedArtifact secondArtifact = cache.getArtifact("big", downloader);
+
+        // When...
+        firstArtifact.close();
+
+        // Then...
+        assertThat(downloader.downloadCount.get()).isEqualTo(2);
+        assertThat(secondArtifact.getPath()).isNotEqualTo(firstArtifact.getPath());
+        assertThat(new String(Files.readAllBytes(secondArtifact.getPath()), StandardCharsets.UTF_8)).isEqualTo("Too big to cache");
+        secondArtifact.close();
+        assertThat(secondArtifact.getPath()).doesNotExist();
+    }
+
+    @Test
+    public void testArtifactWantedByManyThreadsAtOnceIsOnlyDownloadedOnce() throws Exception {
+        // Given...
+        ArtifactCache cache = new ArtifactCache(cacheDirectory, 1024, new MockLogFactory());
+        CountDownLatch downloadStarted = new CountDownLatch(1);
+        CountDownLatch canFinishDownload = new CountDownLatch(1);
+        MockArtifactDownloader downloader = new MockArtifactDownloader("Hello World") {
+            @Override
+            public void download(Path target) throws IOException {
+                downloadStarted.countDown();
+                try {
+                    canFinishDownload.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.download(target);
+            }
+        };
+
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> contents = new ArrayList<>();
+            contents.add(readers.submit(() -> read(cache, "doc1/1-a/terminal.png", downloader)));
+            assertThat(downloadStarted.await(10, TimeUnit.SECONDS)).isTrue();
+            for (int i = 0; i < 3; i++) {
+                contents.add(readers.submit(() -> read(cache, "doc1/1-a/terminal.png", downloader)));
+            }
+
+            // When...
+            canFinishDownload.countDown();
+
+            // Then...
+            for (Future<String> content : contents) {
+                assertThat(content.get(10, TimeUnit.SECONDS)).isEqualTo("Hello World");
+            }
+            assertThat(downloader.downloadCount.get()).isEqualTo(1);
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedDownloadIsNotCached() throws Exception {
+        // Given...
+        ArtifactCache cache = new ArtifactCache(cacheDirectory, 1024, new MockLogFactory());
+        ArtifactCache.ArtifactDownloader failingDownloader = target -> {
+            throw new IOException("Connection refused");
+        };
+
+        // When...
+        IOException thrown = catchThrowableOfType(() -> {
+            read(cache, "doc1/1-a/terminal.png", failingDownloader);
+        }, IOException.class);
+        String content = read(cache, "doc1/1-a/terminal.png", new MockArtifactDownloader("Hello World"));
+
+        // Then...
+        assertThat(thrown).hasMessageContaining("Connection refused");
+        assertThat(content).isEqualTo("Hello World");
+        assertThat(cache.getSizeBytes()).isEqualTo(11);
+    }
+}
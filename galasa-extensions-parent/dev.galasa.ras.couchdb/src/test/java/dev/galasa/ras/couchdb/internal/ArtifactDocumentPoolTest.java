@@ -0,0 +1,109 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import dev.galasa.extensions.common.couchdb.CouchdbException;
+import dev.galasa.extensions.common.couchdb.pojos.PutPostResponse;
+import dev.galasa.ras.couchdb.internal.ArtifactDocumentPool.ArtifactDocument;
+
+public class ArtifactDocumentPoolTest {
+
+    private AtomicInteger documentsCreated = new AtomicInteger();
+
+    private PutPostResponse createArtifactDocument() {
+        PutPostResponse response = new PutPostResponse();
+        response.id = "extra-doc-" + documentsCreated.incrementAndGet();
+        response.rev = "1-abc";
+        response.ok = true;
+        return response;
+    }
+
+    @Test
+    public void testUploadsOneAtATimeAllUseTheFirstDocument() throws Exception {
+        ArtifactDocumentPool pool = new ArtifactDocumentPool("first-doc", "5-abc", 4, this::createArtifactDocument);
+
+        for (int i = 0; i < 3; i++) {
+            ArtifactDocument document = pool.lease();
+            assertThat(document.getId()).isEqualTo("first-doc");
+            pool.release(document);
+        }
+
+        assertThat(documentsCreated.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testConcurrentUploadGetsANewDocument() throws Exception {
+        ArtifactDocumentPool pool = new ArtifactDocumentPool("first-doc", "5-abc", 4, this::createArtifactDocument);
+
+        ArtifactDocument first = pool.lease();
+        ArtifactDocument second = pool.lease();
+
+        assertThat(first.getId()).isEqualTo("first-doc");
+        assertThat(second.getId()).isEqualTo("extra-doc-1");
+        assertThat(second.getRevision()).isEqualTo("1-abc");
+    }
+
+    @Test
+    public void testFirstDocumentIsPreferredOnceItIsFreeAgain() throws Exception {
+        ArtifactDocumentPool pool = new ArtifactDocumentPool("first-doc", "5-abc", 4, this::createArtifactDocument);
+        ArtifactDocument first = pool.lease();
+        ArtifactDocument second = pool.lease();
+        first.setRevision("6-def");
+
+        pool.release(second);
+        pool.release(first);
+
+        ArtifactDocument next = pool.lease();
+        assertThat(next.getId()).isEqualTo("first-doc");
+        assertThat(next.getRevision()).isEqualTo("6-def");
+    }
+
+    @Test
+    public void testUploadWaitsForADocumentOnceTheLimitIsReached() throws Exception {
+        ArtifactDocumentPool pool = new ArtifactDocumentPool("first-doc", "5-abc", 2, this::createArtifactDocument);
+        pool.lease();
+        ArtifactDocument second = pool.lease();
+
+        CompletableFuture<ArtifactDocument> third = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.lease();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread.sleep(100);
+        assertThat(third.isDone()).isFalse();
+
+        pool.release(second);
+        assertThat(third.get(10, TimeUnit.SECONDS).getId()).isEqualTo("extra-doc-1");
+        assertThat(documentsCreated.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFailureToCreateADocumentDoesNotUseUpTheLimit() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        ArtifactDocumentPool pool = new ArtifactDocumentPool("first-doc", "5-abc", 2, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new CouchdbException("simulated failure");
+            }
+            return createArtifactDocument();
+        });
+        pool.lease();
+
+        assertThatThrownBy(() -> pool.lease()).isInstanceOf(CouchdbException.class);
+
+        assertThat(pool.lease().getId()).isEqualTo("extra-doc-1");
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.file.FileSystem;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import dev.galasa.framework.spi.ras.ResultArchiveStoreFileStore;
+import dev.galasa.ras.couchdb.internal.mocks.MockLogFactory;
+
+public class ArtifactPathIndexTest {
+
+    private FileSystem fileSystem = new CouchdbRasFileSystemProvider(new ResultArchiveStoreFileStore(), null, new MockLogFactory())
+        .getActualFileSystem();
+
+    private ArtifactPathIndex createIndex() {
+        return new ArtifactPathIndex(new CouchdbArtifactPath(fileSystem, "/"));
+    }
+
+    private CouchdbArtifactPath createArtifactPath(String pathName) {
+        return new CouchdbArtifactPath(fileSystem, pathName, "text/plain", 11, "artifact-doc", null);
+    }
+
+    private List<String> getChildNames(ArtifactPathIndex index, String directory) {
+        List<String> names = new ArrayList<>();
+        for (CouchdbArtifactPath child : index.getChildren(new CouchdbArtifactPath(fileSystem, directory))) {
+            names.add(child.toString());
+        }
+        return names;
+    }
+
+    @Test
+    public void testAddingAPathAddsItsParentDirectories() throws Exception {
+        // Given...
+        ArtifactPathIndex index = createIndex();
+
+        // When...
+        index.add(createArtifactPath("/framework/zos/terminal1.txt"));
+        index.add(createArtifactPath("/framework/zos/terminal2.txt"));
+        index.add(createArtifactPath("/framework/cps_record.properties"));
+
+        // Then...
+        assertThat(getChildNames(index, "/")).containsExactly("/framework");
+        assertThat(getChildNames(index, "/framework")).containsExactlyInAnyOrder("/framework/zos", "/framework/cps_record.properties");
+        assertThat(getChildNames(index, "/framework/zos")).containsExactlyInAnyOrder("/framework/zos/terminal1.txt", "/framework/zos/terminal2.txt");
+        assertThat(getChildNames(index, "/framework/zos/terminal1.txt")).isEmpty();
+        assertThat(getChildNames(index, "/missing")).isEmpty();
+        assertThat(index.find(new CouchdbArtifactPath(fileSystem, "/framework/zos")).isDirectory()).isTrue();
+    }
+
+    @Test
+    public void testFindReturnsThePathAsItWasAdded() throws Exception {
+        // Given...
+        ArtifactPathIndex index = createIndex();
+        CouchdbArtifactPath artifactPath = createArtifactPath("/framework/terminal.txt");
+        index.add(artifactPath);
+
+        // When...
+        CouchdbArtifactPath found = index.find(new CouchdbArtifactPath(fileSystem, "/framework/terminal.txt"));
+        CouchdbArtifactPath foundRelative = index.find(new CouchdbArtifactPath(fileSystem, "framework/terminal.txt"));
+        CouchdbArtifactPath missing = index.find(new CouchdbArtifactPath(fileSystem, "/framework/missing.txt"));
+
+        // Then...
+        assertThat(found).isSameAs(artifactPath);
+        assertThat(found.getArtifactRecordId()).isEqualTo("artifact-doc");
+        assertThat(foundRelative).isSameAs(artifactPath);
+        assertThat(missing).isNull();
+        assertThat(index.find(new CouchdbArtifactPath(fileSystem, "/"))).isNotNull();
+    }
+
+    @Test
+    public void testPathAddedAgainIsNotReplaced() throws Exception {
+        // Given...
+        ArtifactPathIndex index = createIndex();
+        CouchdbArtifactPath firstPath = createArtifactPath("/framework/terminal.txt");
+        index.add(firstPath);
+
+        // When...
+        index.add(createArtifactPath("/framework/terminal.txt"));
+
+        // Then...
+        assertThat(index.find(firstPath)).isSameAs(firstPath);
+        assertThat(getChildNames(index, "/framework")).containsExactly("/framework/terminal.txt");
+    }
+
+    @Test
+    public void testPathsAddedByManyThreadsAtOnceAreAllKept() throws Exception {
+        // Given...
+        ArtifactPathIndex index = createIndex();
+        int threadCount = 8;
+        int pathsPerThread = 500;
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            // When... every thread adds paths to the same new directories at the same time
+            List<Future<?>> writers = new ArrayList<>();
+            for (int thread = 0; thread < threadCount; thread++) {
+                int threadNumber = thread;
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < pathsPerThread; i++) {
+                        index.add(createArtifactPath("/framework/dir" + (i % 10) + "/thread" + threadNumber + "-file" + i + ".txt"));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Then... each directory was only created once, and holds every path added to it
+        assertThat(getChildNames(index, "/framework")).hasSize(10);
+        int fileCount = 0;
+        for (int dir = 0; dir < 10; dir++) {
+            fileCount += getChildNames(index, "/framework/dir" + dir).size();
+        }
+        assertThat(fileCount).isEqualTo(threadCount * pathsPerThread);
+    }
+
+    @Test
+    public void testDirectoriesCanBeListedWhilePathsAreAdded() throws Exception {
+        // Given...
+        ArtifactPathIndex index = createIndex();
+        int pathCount = 2000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // When...
+            Future<?> adding = executor.submit(() -> {
+                for (int i = 0; i < pathCount; i++) {
+                    index.add(createArtifactPath("/framework/dir" + (i % 10) + "/file" + i + ".txt"));
+                }
+            });
+            Future<?> listing = executor.submit(() -> {
+                while (!adding.isDone()) {
+                    for (CouchdbArtifactPath directory : index.getChildren(new CouchdbArtifactPath(fileSystem, "/framework"))) {
+                        index.getChildren(directory);
+                    }
+                }
+            });
+            adding.get(10, TimeUnit.SECONDS);
+            listing.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Then...
+        int fileCount = 0;
+        for (int dir = 0; dir < 10; dir++) {
+            fileCount += getChildNames(index, "/framework/dir" + dir).size();
+        }
+        assertThat(fileCount).isEqualTo(pathCount);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import dev.galasa.extensions.common.impl.LogFactoryImpl;
+
+/**
+ * Compares how fast a local copy of an artifact is read through CouchdbRasReadByteChannel and
+ * through CouchdbRasMappedReadByteChannel. Not a unit test, so it isn't run by the build. Run it
+ * with the test classpath:
+ *
+ *   java -cp ... dev.galasa.ras.couchdb.internal.ArtifactReadBenchmark [sizeInMb] [passes]
+ *
+ * Each pass reads the whole file from start to end in 64KB reads, as the artifact viewer and
+ * log scraping tools do. The first passes warm up the JIT and the page cache and aren't counted.
+ */
+public class ArtifactReadBenchmark {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int WARM_UP_PASSES = 3;
+
+    private interface ChannelOpener {
+        SeekableByteChannel open(ArtifactCache.CachedArtifact artifact) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int sizeMb = (args.length > 0) ? Integer.parseInt(args[0]) : 128;
+        int passes = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+
+        // The file is read from the artifact cache, as it would be once an artifact has been downloaded
+        Path file = createFile(sizeMb);
+        ArtifactCache cache = new ArtifactCache(Files.createTempDirectory("artifact_read_benchmark"), Long.MAX_VALUE, new LogFactoryImpl());
+        ArtifactCache.ArtifactDownloader downloader = target -> Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            ChannelOpener plain = CouchdbRasReadByteChannel::new;
+            ChannelOpener mapped = CouchdbRasMappedReadByteChannel::new;
+
+            for (int i = 0; i < WARM_UP_PASSES; i++) {
+                readAll(plain, cache, downloader);
+                readAll(mapped, cache, downloader);
+            }
+
+            report("CouchdbRasReadByteChannel", plain, cache, downloader, sizeMb, passes);
+            report("CouchdbRasMappedReadByteChannel", mapped, cache, downloader, sizeMb, passes);
+        } finally {
+            cache.clear();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static Path createFile(int sizeMb) throws IOException {
+        Path file = Files.createTempFile("artifact_read_benchmark", ".bin");
+        byte[] block = new byte[1024 * 1024];
+        Random random = new Random(42);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < sizeMb; i++) {
+                random.nextBytes(block);
+                out.write(block);
+            }
+        }
+        return file;
+    }
+
+    private static void report(String name, ChannelOpener opener, ArtifactCache cache, ArtifactCache.ArtifactDownloader downloader,
+            int sizeMb, int passes) throws IOException {
+        long startNanos = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < passes; i++) {
+            checksum += readAll(opener, cache, downloader);
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("%-32s %8.1f MB/s (%d passes of %d MB, checksum %d)%n", name, sizeMb * passes / seconds, passes, sizeMb, checksum);
+    }
+
+    // Touches every byte read, so reads can't be optimised away
+    private static long readAll(ChannelOpener opener, ArtifactCache cache, ArtifactCache.ArtifactDownloader downloader) throws IOException {
+        long checksum = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try (SeekableByteChannel channel = opener.open(cache.getArtifact("benchmark", downloader))) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    checksum += buffer.get();
+                }
+                buffer.clear();
+            }
+        }
+        return checksum;
+    }
+}
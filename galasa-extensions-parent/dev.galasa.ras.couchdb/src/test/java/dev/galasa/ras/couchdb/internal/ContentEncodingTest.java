@@ -0,0 +1,75 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+public class ContentEncodingTest {
+
+    private static final String TERMINAL_SCREEN = "Terminal screen line with lots of repeated spaces                          \n".repeat(50);
+
+    @Test
+    public void testCompressedContentCanBeDecompressedWithEachEncoding() throws Exception {
+        byte[] content = TERMINAL_SCREEN.getBytes(StandardCharsets.UTF_8);
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            byte[] compressed = encoding.compress(content);
+
+            assertThat(compressed.length).as(encoding.getName()).isLessThan(content.length / 10);
+            assertThat(encoding.decompress(compressed)).as(encoding.getName()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    public void testCompressedEntityCanBeDecompressed() throws Exception {
+        HttpEntity entity = ContentEncoding.GZIP.compress(new StringEntity(TERMINAL_SCREEN, StandardCharsets.UTF_8));
+
+        assertThat(entity.isChunked()).isTrue();
+        assertThat(entity.getContentLength()).isEqualTo(-1);
+
+        byte[] decompressed = ContentEncoding.GZIP.decompress(EntityUtils.toByteArray(entity));
+        assertThat(new String(decompressed, StandardCharsets.UTF_8)).isEqualTo(TERMINAL_SCREEN);
+    }
+
+    @Test
+    public void testContentTypeIsMarkedWithTheEncoding() {
+        String markedContentType = ContentEncoding.DEFLATE.addToContentType("plain/text");
+
+        assertThat(markedContentType).isEqualTo("plain/text; content-encoding=deflate");
+        assertThat(ContentEncoding.fromContentType(markedContentType)).isEqualTo(ContentEncoding.DEFLATE);
+        assertThat(ContentEncoding.removeFromContentType(markedContentType)).isEqualTo("plain/text");
+    }
+
+    @Test
+    public void testContentTypeIsMarkedWithTheUncompressedLength() {
+        String markedContentType = ContentEncoding.GZIP.addToContentType("plain/text", 5000000000L);
+
+        assertThat(markedContentType).isEqualTo("plain/text; content-encoding=gzip; uncompressed-length=5000000000");
+        assertThat(ContentEncoding.fromContentType(markedContentType)).isEqualTo(ContentEncoding.GZIP);
+        assertThat(ContentEncoding.getUncompressedLength(markedContentType)).isEqualTo(5000000000L);
+        assertThat(ContentEncoding.removeFromContentType(markedContentType)).isEqualTo("plain/text");
+        assertThat(ContentEncoding.getUncompressedLength("plain/text; content-encoding=gzip")).isNull();
+    }
+
+    @Test
+    public void testUnmarkedContentTypeHasNoEncoding() {
+        assertThat(ContentEncoding.fromContentType("plain/text")).isNull();
+        assertThat(ContentEncoding.removeFromContentType("plain/text")).isEqualTo("plain/text");
+    }
+
+    @Test
+    public void testUnknownEncodingIsRejected() {
+        assertThatThrownBy(() -> ContentEncoding.fromName("brotli"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("brotli");
+    }
+}
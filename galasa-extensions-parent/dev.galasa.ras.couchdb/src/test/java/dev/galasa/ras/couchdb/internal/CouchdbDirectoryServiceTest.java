@@ -8,23 +8,44 @@ package dev.galasa.ras.couchdb.internal;
 import static org.assertj.core.api.Assertions.*;
 
 import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.validation.constraints.NotNull;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.util.EntityUtils;
 import org.junit.Test;
 
 import dev.galasa.extensions.common.couchdb.pojos.IdRev;
+import dev.galasa.extensions.common.couchdb.pojos.ViewResponse;
+import dev.galasa.extensions.common.couchdb.pojos.ViewRow;
 import dev.galasa.extensions.common.impl.HttpRequestFactoryImpl;
 import dev.galasa.extensions.mocks.BaseHttpInteraction;
 import dev.galasa.extensions.mocks.HttpInteraction;
+import dev.galasa.extensions.mocks.MockCloseableHttpResponse;
+import dev.galasa.extensions.mocks.MockTimeService;
+import dev.galasa.extensions.mocks.cps.MockConfigurationPropertyStoreService;
 import dev.galasa.framework.TestRunLifecycleStatus;
 import dev.galasa.framework.spi.IRunResult;
 import dev.galasa.framework.spi.ResultArchiveStoreException;
@@ -39,10 +60,17 @@ import dev.galasa.framework.spi.ras.RasSearchCriteriaRunName;
 import dev.galasa.framework.spi.ras.RasSearchCriteriaStatus;
 import dev.galasa.framework.spi.ras.RasSearchCriteriaTestName;
 import dev.galasa.framework.spi.ras.RasSortField;
+import dev.galasa.framework.spi.ras.RasTestClass;
 import dev.galasa.framework.spi.teststructure.TestStructure;
+import dev.galasa.framework.spi.utils.GalasaGson;
 import dev.galasa.ras.couchdb.internal.mocks.CouchdbTestFixtures;
+import dev.galasa.ras.couchdb.internal.mocks.MockConcurrentHttpClient;
 import dev.galasa.ras.couchdb.internal.mocks.MockLogFactory;
+import dev.galasa.ras.couchdb.internal.pojos.ChangeRow;
+import dev.galasa.ras.couchdb.internal.pojos.Changes;
 import dev.galasa.ras.couchdb.internal.pojos.FoundRuns;
+import dev.galasa.ras.couchdb.internal.pojos.RunDocumentRow;
+import dev.galasa.ras.couchdb.internal.pojos.RunDocuments;
 import dev.galasa.ras.couchdb.internal.pojos.TestStructureCouchdb;
 
 public class CouchdbDirectoryServiceTest {
@@ -52,6 +80,7 @@ public class CouchdbDirectoryServiceTest {
     class PostCouchdbFindRunsInteraction extends BaseHttpInteraction {
 
         private String[] expectedRequestBodyParts;
+        private String expectedRequestBody;
 
         public PostCouchdbFindRunsInteraction(String expectedUri, FoundRuns foundRuns, String... expectedRequestBodyParts) {
             this(expectedUri, HttpStatus.SC_OK, foundRuns, expectedRequestBodyParts);
@@ -67,15 +96,24 @@ public class CouchdbDirectoryServiceTest {
         public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
             super.validateRequest(host,request);
             assertThat(request.getRequestLine().getMethod()).isEqualTo("POST");
-            if (expectedRequestBodyParts.length > 0) {
+            if (expectedRequestBodyParts.length > 0 || expectedRequestBody != null) {
                 validatePostRequestBody((HttpPost) request);
             }
         }
 
+        public void setExpectedRequestBody(String expectedRequestBody) {
+            this.expectedRequestBody = expectedRequestBody;
+        }
+
         private void validatePostRequestBody(HttpPost postRequest) {
             try {
                 String requestBody = EntityUtils.toString(postRequest.getEntity());
-                assertThat(requestBody).contains(expectedRequestBodyParts);
+                if (expectedRequestBodyParts.length > 0) {
+                    assertThat(requestBody).contains(expectedRequestBodyParts);
+                }
+                if (expectedRequestBody != null) {
+                    assertThat(JsonParser.parseString(requestBody)).isEqualTo(JsonParser.parseString(expectedRequestBody));
+                }
 
             } catch (IOException ex) {
                 fail("Failed to parse POST request body");
@@ -97,6 +135,19 @@ public class CouchdbDirectoryServiceTest {
         }
     }
 
+    class GetJsonFromCouchdbInteraction extends BaseHttpInteraction {
+
+        public GetJsonFromCouchdbInteraction(String expectedUri, Object responsePayload) {
+            super(expectedUri, responsePayload);
+        }
+
+        @Override
+        public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+            super.validateRequest(host,request);
+            assertThat(request.getRequestLine().getMethod()).isEqualTo("GET");
+        }
+    }
+
     class GetDocumentByIdFromCouchdbInteraction extends BaseHttpInteraction {
 
         public GetDocumentByIdFromCouchdbInteraction(String expectedUri, int statusCode, IdRev idRev) {
@@ -124,6 +175,101 @@ public class CouchdbDirectoryServiceTest {
         }
     }
 
+    class PostToCouchdbInteraction extends BaseHttpInteraction {
+
+        private String[] expectedRequestBodyParts;
+
+        public PostToCouchdbInteraction(String expectedUri, int statusCode, Object responsePayload, String... expectedRequestBodyParts) {
+            super(expectedUri, statusCode);
+            setResponsePayload(responsePayload);
+            this.expectedRequestBodyParts = expectedRequestBodyParts;
+        }
+
+        @Override
+        public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+            super.validateRequest(host,request);
+            assertThat(request.getRequestLine().getMethod()).isEqualTo("POST");
+            if (expectedRequestBodyParts.length > 0) {
+                try {
+                    String requestBody = EntityUtils.toString(((HttpPost) request).getEntity());
+                    assertThat(requestBody).contains(expectedRequestBodyParts);
+                } catch (IOException ex) {
+                    fail("Failed to parse POST request body");
+                }
+            }
+        }
+    }
+
+    class GetArtifactDocumentFromCouchdbInteraction extends BaseHttpInteraction {
+
+        public GetArtifactDocumentFromCouchdbInteraction(String expectedUri, JsonObject artifactDocument) {
+            super(expectedUri, HttpStatus.SC_OK);
+            setResponsePayload(artifactDocument);
+        }
+
+        @Override
+        public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+            super.validateRequest(host,request);
+            assertThat(request.getRequestLine().getMethod()).isEqualTo("GET");
+        }
+    }
+
+    class GetAllRunDocumentsInteraction extends BaseHttpInteraction {
+
+        public GetAllRunDocumentsInteraction(String expectedUri, RunDocuments runDocuments) {
+            this(expectedUri, HttpStatus.SC_OK, runDocuments);
+        }
+
+        public GetAllRunDocumentsInteraction(String expectedUri, int statusCode, RunDocuments runDocuments) {
+            super(expectedUri, statusCode);
+            setResponsePayload(runDocuments);
+        }
+
+        @Override
+        public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+            super.validateRequest(host,request);
+            assertThat(request.getRequestLine().getMethod()).isEqualTo("GET");
+        }
+    }
+
+    private JsonObject createAllDocsRevisions(String... idRevisionPairs) {
+        JsonArray rows = new JsonArray();
+        for (int i = 0; i < idRevisionPairs.length; i += 2) {
+            JsonObject row = new JsonObject();
+            row.addProperty("key", idRevisionPairs[i]);
+            if (idRevisionPairs[i + 1] == null) {
+                row.addProperty("error", "not_found");
+            } else {
+                JsonObject value = new JsonObject();
+                value.addProperty("rev", idRevisionPairs[i + 1]);
+                row.addProperty("id", idRevisionPairs[i]);
+                row.add("value", value);
+            }
+            rows.add(row);
+        }
+        JsonObject allDocs = new JsonObject();
+        allDocs.addProperty("total_rows", rows.size());
+        allDocs.add("rows", rows);
+        return allDocs;
+    }
+
+    private JsonArray createBulkDocsResults(String... idErrorPairs) {
+        JsonArray results = new JsonArray();
+        for (int i = 0; i < idErrorPairs.length; i += 2) {
+            JsonObject result = new JsonObject();
+            result.addProperty("id", idErrorPairs[i]);
+            if (idErrorPairs[i + 1] == null) {
+                result.addProperty("ok", true);
+                result.addProperty("rev", "2-deleted");
+            } else {
+                result.addProperty("error", idErrorPairs[i + 1]);
+                result.addProperty("reason", "Document update " + idErrorPairs[i + 1] + ".");
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
     private TestStructureCouchdb createRunTestStructure(String runName) {
         TestStructureCouchdb mockTestStructure = new TestStructureCouchdb();
         mockTestStructure._id = runName;
@@ -303,6 +449,111 @@ public class CouchdbDirectoryServiceTest {
         assertThat(thrown.getMessage()).contains("Unable to find runs", "Invalid JSON response");
     }
 
+    @Test
+    public void testGetRunsReadsRunsFromFindResponseAndSkipsFieldsItDoesNotNeed() throws Exception {
+        // Given...
+        GalasaGson gson = new GalasaGson();
+
+        JsonObject run1 = gson.toJsonTree(createRunTestStructure("run1")).getAsJsonObject();
+        run1.add("_attachments", JsonParser.parseString("{\"a.txt\":{\"stub\":true,\"length\":3}}"));
+        JsonObject invalidRun = new JsonObject();
+        invalidRun.addProperty("_id", "not-a-run");
+
+        JsonArray docs = new JsonArray();
+        docs.add(run1);
+        docs.add(invalidRun);
+        docs.add(gson.toJsonTree(createRunTestStructure("run2")));
+
+        JsonObject findRunsResponse = new JsonObject();
+        findRunsResponse.add("docs", docs);
+        findRunsResponse.addProperty("bookmark", "nil");
+        findRunsResponse.addProperty("warning", "No matching index found, create an index to optimize query time.");
+        findRunsResponse.add("execution_stats", JsonParser.parseString("{\"total_docs_examined\":3,\"execution_time_ms\":1.5}"));
+
+        PostCouchdbFindRunsInteraction findInteraction = new PostCouchdbFindRunsInteraction("http://my.uri/galasa_run/_find", new FoundRuns());
+        findInteraction.setResponsePayload(findRunsResponse);
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(List.of(findInteraction), mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        List<IRunResult> runs = directoryService.getRuns(new RasSearchCriteriaRunName("run1", "run2"));
+
+        // Then...
+        assertThat(runs).hasSize(2);
+        assertThat(runs.get(0).getTestStructure().getRunName()).isEqualTo("run1");
+        assertThat(runs.get(1).getTestStructure().getRunName()).isEqualTo("run2");
+        assertThat(mockLogFactory.toString()).contains("CouchDB warning detected - No matching index found");
+    }
+
+    @Test
+    public void testGetRunsPageOfOneRequestorSortedByQueuedUsesCompositeIndexAndRecordsQueryStatistics() throws Exception {
+        // Given...
+        GalasaGson gson = new GalasaGson();
+
+        JsonArray docs = new JsonArray();
+        docs.add(gson.toJsonTree(createRunTestStructure("run1")));
+
+        JsonObject findRunsResponse = new JsonObject();
+        findRunsResponse.add("docs", docs);
+        findRunsResponse.addProperty("bookmark", "nil");
+        findRunsResponse.add("execution_stats", JsonParser.parseString(
+            "{\"total_keys_examined\":1,\"total_docs_examined\":1,\"results_returned\":1,\"execution_time_ms\":2.5}"));
+
+        PostCouchdbFindRunsInteraction findInteraction = new PostCouchdbFindRunsInteraction("http://my.uri/galasa_run/_find", new FoundRuns(),
+            "\"requestor\": \"desc\"", "\"queued\": \"desc\"");
+        findInteraction.setResponsePayload(findRunsResponse);
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(List.of(findInteraction), mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        RasRunResultPage runsPage = directoryService.getRunsPage(100, new RasSortField("queued", "desc"), null,
+            new RasSearchCriteriaRequestor("user1"));
+
+        // Then...
+        assertThat(runsPage.getRuns()).hasSize(1);
+
+        Map<String, RunQueryStatistics.QueryShapeStatistics> statistics = directoryService.getRunQueryStatistics();
+        assertThat(statistics).containsOnlyKeys("selector=[requestor] sort=queued desc index=requestor-queued-index");
+
+        RunQueryStatistics.QueryShapeStatistics shapeStatistics = statistics.values().iterator().next();
+        assertThat(shapeStatistics.getQueryCount()).isEqualTo(1);
+        assertThat(shapeStatistics.getTotalDocsExamined()).isEqualTo(1);
+        assertThat(shapeStatistics.getMaxExecutionTimeMillis()).isEqualTo(2.5);
+    }
+
+    @Test
+    public void testGetRunsPageNamesTheDesignDocumentAndIndexToUse() throws Exception {
+        // Given...
+        FoundRuns emptyRunsResponse = new FoundRuns();
+        emptyRunsResponse.docs = new ArrayList<>();
+
+        PostCouchdbFindRunsInteraction findInteraction = new PostCouchdbFindRunsInteraction("http://my.uri/galasa_run/_find", emptyRunsResponse);
+        findInteraction.setExpectedRequestBody("{"
+            + "\"selector\":{\"$and\":[{\"requestor\":{\"$in\":[\"user1\"]}}]},"
+            + "\"fields\":[\"_id\",\"_rev\",\"runName\",\"bundle\",\"testName\",\"testShortName\",\"requestor\","
+            + "\"status\",\"result\",\"queued\",\"startTime\",\"endTime\"],"
+            + "\"sort\":[{\"requestor\":\"desc\"},{\"queued\":\"desc\"}],"
+            + "\"limit\":100,"
+            + "\"execution_stats\":true,"
+            + "\"use_index\":[\"requestor-queued-index\",\"requestor-queued-index\"]"
+            + "}");
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(List.of(findInteraction), mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        RasRunResultPage runsPage = directoryService.getRunsPage(100, new RasSortField("queued", "desc"), null,
+            new RasSearchCriteriaRequestor("user1"));
+
+        // Then...
+        assertThat(runsPage.getRuns()).isEmpty();
+    }
+
     @Test
     public void testGetRunsMultipleCriteriaReturnsRunsOk() throws Exception {
         // Given...
@@ -552,6 +803,532 @@ public class CouchdbDirectoryServiceTest {
         assertThat(runsPage.getNextCursor()).isNull();
     }
 
+    @Test
+    public void testGetRunsPageOnlyAsksForRunSummariesAndLoadsTheRestOfARunWhenNeeded() throws Exception {
+        // Given...
+        TestStructureCouchdb runSummary = new TestStructureCouchdb();
+        runSummary._id = "run1";
+        runSummary._rev = "this-is-a-revision";
+        runSummary.setRunName("run1");
+        runSummary.setStatus("finished");
+        runSummary.setResult("Passed");
+
+        TestStructureCouchdb fullRun = createRunTestStructure("run1");
+        fullRun.setStatus("finished");
+        fullRun.setResult("Passed");
+        fullRun.setLogRecordIds(List.of("log1", "log2"));
+
+        Instant queuedFromTime = Instant.EPOCH;
+        RasSearchCriteriaQueuedFrom queuedFrom = new RasSearchCriteriaQueuedFrom(queuedFromTime);
+
+        FoundRuns findRunsResponse = new FoundRuns();
+        findRunsResponse.docs = List.of(runSummary);
+
+        List<HttpInteraction> interactions = List.of(
+            new PostCouchdbFindRunsInteraction("http://my.uri/galasa_run/_find", findRunsResponse,
+                "\"fields\"", "\"runName\"", "\"status\"", "\"result\"", "\"queued\""),
+            new GetRunByIdFromCouchdbInteraction("http://my.uri/galasa_run/run1", HttpStatus.SC_OK, fullRun)
+        );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        RasRunResultPage runsPage = directoryService.getRunsPage(100, null, null, queuedFrom);
+
+        // Then...
+        List<IRunResult> runs = runsPage.getRuns();
+        assertThat(runs).hasSize(1);
+
+        CouchdbRunSummaryResult run = (CouchdbRunSummaryResult) runs.get(0);
+        TestStructure testStructure = run.getTestStructure();
+        assertThat(run.getRunId()).isEqualTo("cdb-run1");
+        assertThat(testStructure.getRunName()).isEqualTo("run1");
+        assertThat(testStructure.getStatus()).isEqualTo("finished");
+        assertThat(testStructure.getResult()).isEqualTo("Passed");
+        assertThat(run.isFullTestStructureLoaded()).isFalse();
+
+        assertThat(testStructure.getLogRecordIds()).containsExactly("log1", "log2");
+        assertThat(run.isFullTestStructureLoaded()).isTrue();
+    }
+
+    @Test
+    public void testRunSummaryWhoseRunHasGoneThrowsErrorWhenTheRestOfTheRunIsNeeded() throws Exception {
+        // Given...
+        TestStructureCouchdb runSummary = new TestStructureCouchdb();
+        runSummary._id = "run1";
+        runSummary.setRunName("run1");
+
+        FoundRuns findRunsResponse = new FoundRuns();
+        findRunsResponse.docs = List.of(runSummary);
+
+        List<HttpInteraction> interactions = List.of(
+            new PostCouchdbFindRunsInteraction("http://my.uri/galasa_run/_find", findRunsResponse),
+            new GetRunByIdFromCouchdbInteraction("http://my.uri/galasa_run/run1", HttpStatus.SC_NOT_FOUND, null)
+        );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        IRunResult run = directoryService.getRunsPage(100, null, null, new RasSearchCriteriaRunName("run1")).getRuns().get(0);
+
+        // When...
+        ResultArchiveStoreException thrown = catchThrowableOfType(() -> run.getLog(), ResultArchiveStoreException.class);
+
+        // Then...
+        assertThat(thrown).isNotNull();
+        assertThat(thrown.getMessage()).contains("Unable to load run run1");
+    }
+
+    //------------------------------------------
+    //
+    // Tests for getting all runs
+    //
+    //------------------------------------------
+
+    @Test
+    public void testGetRunsWithNoCriteriaFetchesRunDocumentsAPageAtATime() throws Exception {
+        // Given...
+        List<RunDocumentRow> allRows = new ArrayList<>();
+        allRows.add(createRunDocumentRow("_design/docs", null));
+        for (int i = 0; i < 150; i++) {
+            String runId = String.format("run-%03d", i);
+            allRows.add(createRunDocumentRow(runId, createRunTestStructure(runId)));
+        }
+        // No run name is set, so this is not a valid run
+        allRows.add(createRunDocumentRow("run-invalid", createRunTestStructure(null)));
+
+        int pageSize = CouchdbDirectoryService.COUCHDB_ALL_DOCS_PAGE_SIZE;
+        RunDocuments firstPage = new RunDocuments();
+        firstPage.rows = allRows.subList(0, pageSize + 1);
+        RunDocuments lastPage = new RunDocuments();
+        lastPage.rows = allRows.subList(pageSize, allRows.size());
+
+        String allDocsUri = "http://my.uri/galasa_run/_all_docs?include_docs=true&limit=" + (pageSize + 1);
+        String nextPageStartKey = URLEncoder.encode("\"" + allRows.get(pageSize).id + "\"", StandardCharsets.UTF_8);
+        List<HttpInteraction> interactions = List.of(
+            new GetAllRunDocumentsInteraction(allDocsUri, firstPage),
+            new GetAllRunDocumentsInteraction(allDocsUri + "&startkey=" + nextPageStartKey, lastPage)
+        );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        List<IRunResult> runs = directoryService.getRuns();
+
+        // Then...
+        assertThat(runs).hasSize(150);
+        assertThat(runs.get(0).getTestStructure().getRunName()).isEqualTo("run-000");
+        assertThat(runs.get(pageSize).getTestStructure().getRunName()).isEqualTo(String.format("run-%03d", pageSize));
+        assertThat(runs.get(149).getTestStructure().getRunName()).isEqualTo("run-149");
+    }
+
+    @Test
+    public void testGetRunsWithNoCriteriaWithErrorResponseCodeThrowsError() throws Exception {
+        // Given...
+        String allDocsUri = "http://my.uri/galasa_run/_all_docs?include_docs=true&limit=" + (CouchdbDirectoryService.COUCHDB_ALL_DOCS_PAGE_SIZE + 1);
+        List<HttpInteraction> interactions = List.of(
+            new GetAllRunDocumentsInteraction(allDocsUri, HttpStatus.SC_INTERNAL_SERVER_ERROR, new RunDocuments())
+        );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        ResultArchiveStoreException thrown = catchThrowableOfType(() -> directoryService.getRuns(), ResultArchiveStoreException.class);
+
+        // Then...
+        assertThat(thrown).isNotNull();
+        assertThat(thrown.getMessage()).contains("Unable to find runs");
+    }
+
+    private RunDocumentRow createRunDocumentRow(String id, TestStructureCouchdb doc) {
+        RunDocumentRow row = new RunDocumentRow();
+        row.id = id;
+        row.key = id;
+        row.doc = doc;
+        return row;
+    }
+
+    //------------------------------------------
+    //
+    // Tests for getting the artifacts of a run
+    //
+    //------------------------------------------
+
+    @Test
+    public void testGetRunArtifactPathReadsSharedAndOneArtifactPerDocumentLayouts() throws Exception {
+        // Given...
+        TestStructureCouchdb mockRun1 = createRunTestStructure("ABC123");
+        mockRun1.setArtifactRecordIds(List.of("shared-doc", "attached-doc", "inline-doc"));
+
+        JsonObject sharedDocument = new JsonObject();
+        JsonObject sharedAttachments = new JsonObject();
+        sharedAttachments.add("/framework/shared1.txt", createAttachmentStub("text/plain", 5));
+        sharedAttachments.add("/framework/shared2.txt", createAttachmentStub("text/plain", 6));
+        sharedDocument.add("_attachments", sharedAttachments);
+
+        JsonObject attachedDocument = new JsonObject();
+        attachedDocument.addProperty("artifactPath", "/framework/attached.txt");
+        attachedDocument.addProperty("contentType", "text/plain");
+        attachedDocument.addProperty("length", 1000);
+        JsonObject attachedAttachments = new JsonObject();
+        attachedAttachments.add("/framework/attached.txt", createAttachmentStub("text/plain", 1000));
+        attachedDocument.add("_attachments", attachedAttachments);
+
+        JsonObject inlineDocument = new JsonObject();
+        inlineDocument.addProperty("artifactPath", "/framework/inline.txt");
+        inlineDocument.addProperty("contentType", "text/plain");
+        inlineDocument.addProperty("length", 11);
+        inlineDocument.addProperty("inlineArtifactData", Base64.getEncoder().encodeToString("Hello World".getBytes()));
+
+        String artifactsDbUri = "http://my.uri/" + CouchdbRasStore.ARTIFACTS_DB;
+        List<HttpInteraction> interactions = List.of(
+            new GetArtifactDocumentFromCouchdbInteraction(artifactsDbUri + "/shared-doc", sharedDocument),
+            new GetArtifactDocumentFromCouchdbInteraction(artifactsDbUri + "/attached-doc", attachedDocument),
+            new GetArtifactDocumentFromCouchdbInteraction(artifactsDbUri + "/inline-doc", inlineDocument)
+        );
+
+        // Loaded one after another, as the mock http client expects its requests in order
+        MockConfigurationPropertyStoreService mockCps = new MockConfigurationPropertyStoreService(
+            Map.of("artifact.document.max.concurrent.loads", "1"));
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(mockCps, null, interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        Path artifactsRoot = directoryService.getRunArtifactPath(mockRun1);
+
+        // Then...
+        List<String> artifactNames = new ArrayList<>();
+        try (DirectoryStream<Path> artifacts = Files.newDirectoryStream(artifactsRoot.resolve("framework"))) {
+            for (Path artifact : artifacts) {
+                artifactNames.add(artifact.toString());
+            }
+        }
+        assertThat(artifactNames).containsExactlyInAnyOrder(
+            "/framework/shared1.txt", "/framework/shared2.txt", "/framework/attached.txt", "/framework/inline.txt");
+
+        // The inline artifact came with its document, so it is read without going back to CouchDB
+        byte[] inlineContent = Files.readAllBytes(artifactsRoot.resolve("framework/inline.txt"));
+        assertThat(new String(inlineContent)).isEqualTo("Hello World");
+    }
+
+    @Test
+    public void testGetRunArtifactPathSkipsAnArtifactDocumentWhichIsMissing() throws Exception {
+        // Given...
+        TestStructureCouchdb mockRun1 = createRunTestStructure("ABC123");
+        mockRun1.setArtifactRecordIds(List.of("missing-doc", "shared-doc"));
+
+        JsonObject sharedDocument = new JsonObject();
+        JsonObject sharedAttachments = new JsonObject();
+        sharedAttachments.add("/framework/shared1.txt", createAttachmentStub("text/plain", 5));
+        sharedDocument.add("_attachments", sharedAttachments);
+
+        String artifactsDbUri = "http://my.uri/" + CouchdbRasStore.ARTIFACTS_DB;
+        List<HttpInteraction> interactions = List.of(
+            new BaseHttpInteraction(artifactsDbUri + "/missing-doc", HttpStatus.SC_NOT_FOUND) {},
+            new GetArtifactDocumentFromCouchdbInteraction(artifactsDbUri + "/shared-doc", sharedDocument)
+        );
+
+        MockConfigurationPropertyStoreService mockCps = new MockConfigurationPropertyStoreService(
+            Map.of("artifact.document.max.concurrent.loads", "1"));
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(mockCps, null, interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        Path artifactsRoot = directoryService.getRunArtifactPath(mockRun1);
+
+        // Then...
+        List<String> artifactNames = new ArrayList<>();
+        try (DirectoryStream<Path> artifacts = Files.newDirectoryStream(artifactsRoot.resolve("framework"))) {
+            for (Path artifact : artifacts) {
+                artifactNames.add(artifact.toString());
+            }
+        }
+        assertThat(artifactNames).containsExactly("/framework/shared1.txt");
+    }
+
+    @Test
+    public void testGetRunArtifactPathLoadsArtifactDocumentsAtTheSameTime() throws Exception {
+        // Given...
+        List<String> artifactRecordIds = List.of("doc1", "doc2", "doc3");
+        TestStructureCouchdb mockRun1 = createRunTestStructure("ABC123");
+        mockRun1.setArtifactRecordIds(artifactRecordIds);
+
+        // Each document is only returned once all of them have been asked for, so they can't be loaded one at a time
+        CountDownLatch allRequested = new CountDownLatch(artifactRecordIds.size());
+        List<BaseHttpInteraction> interactions = new ArrayList<>();
+        for (String artifactRecordId : artifactRecordIds) {
+            JsonObject artifactDocument = new JsonObject();
+            JsonObject attachments = new JsonObject();
+            attachments.add("/framework/" + artifactRecordId + ".txt", createAttachmentStub("text/plain", 5));
+            artifactDocument.add("_attachments", attachments);
+
+            String artifactDocumentUri = "http://my.uri/" + CouchdbRasStore.ARTIFACTS_DB + "/" + artifactRecordId;
+            interactions.add(new GetArtifactDocumentFromCouchdbInteraction(artifactDocumentUri, artifactDocument) {
+                @Override
+                public MockCloseableHttpResponse getResponse() {
+                    allRequested.countDown();
+                    try {
+                        assertThat(allRequested.await(10, TimeUnit.SECONDS)).as("All artifact documents were requested together").isTrue();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return super.getResponse();
+                }
+            });
+        }
+        MockConcurrentHttpClient mockHttpClient = new MockConcurrentHttpClient(interactions);
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(null, null, mockHttpClient, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        Path artifactsRoot;
+        try {
+            artifactsRoot = directoryService.getRunArtifactPath(mockRun1);
+        } finally {
+            directoryService.shutdown();
+        }
+
+        // Then...
+        assertThat(mockHttpClient.isEveryInteractionUsed()).isTrue();
+        List<String> artifactNames = new ArrayList<>();
+        try (DirectoryStream<Path> artifacts = Files.newDirectoryStream(artifactsRoot.resolve("framework"))) {
+            for (Path artifact : artifacts) {
+                artifactNames.add(artifact.toString());
+            }
+        }
+        assertThat(artifactNames).containsExactlyInAnyOrder("/framework/doc1.txt", "/framework/doc2.txt", "/framework/doc3.txt");
+    }
+
+    @Test
+    public void testArtifactLargerThan2GBHasItsWholeSizeReported() throws Exception {
+        // Given...
+        TestStructureCouchdb mockRun1 = createRunTestStructure("ABC123");
+        mockRun1.setArtifactRecordIds(List.of("artifact-doc"));
+
+        long length = 5L * 1024 * 1024 * 1024;
+        JsonObject artifactDocument = new JsonObject();
+        JsonObject attachments = new JsonObject();
+        attachments.add("/framework/heapdump.bin", createAttachmentStub("application/octet-stream", length));
+        artifactDocument.add("_attachments", attachments);
+
+        String artifactDocumentUri = "http://my.uri/" + CouchdbRasStore.ARTIFACTS_DB + "/artifact-doc";
+        List<HttpInteraction> interactions = List.of(new GetArtifactDocumentFromCouchdbInteraction(artifactDocumentUri, artifactDocument));
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        Path artifactsRoot = directoryService.getRunArtifactPath(mockRun1);
+        Path artifact;
+        try (DirectoryStream<Path> artifacts = Files.newDirectoryStream(artifactsRoot.resolve("framework"))) {
+            artifact = artifacts.iterator().next();
+        }
+
+        // When...
+        long size = Files.size(artifact);
+
+        // Then...
+        assertThat(size).isEqualTo(length);
+    }
+
+    @Test
+    public void testCompressedArtifactsHaveTheLengthTheyWereWrittenWithReported() throws Exception {
+        // Given...
+        TestStructureCouchdb mockRun1 = createRunTestStructure("ABC123");
+        mockRun1.setArtifactRecordIds(List.of("shared-doc", "streamed-doc"));
+
+        // CouchDB only knows the compressed lengths of the attachments
+        JsonObject sharedDocument = new JsonObject();
+        JsonObject sharedAttachments = new JsonObject();
+        sharedAttachments.add("/framework/shared.txt", createAttachmentStub("text/plain; content-encoding=gzip; uncompressed-length=5000", 120));
+        sharedDocument.add("_attachments", sharedAttachments);
+
+        // An artifact streamed into a document of its own has its length in the document
+        JsonObject streamedDocument = new JsonObject();
+        streamedDocument.addProperty("artifactPath", "/framework/streamed.txt");
+        streamedDocument.addProperty("contentType", "text/plain");
+        streamedDocument.addProperty("length", 7000);
+        JsonObject streamedAttachments = new JsonObject();
+        streamedAttachments.add("/framework/streamed.txt", createAttachmentStub("text/plain; content-encoding=gzip", 150));
+        streamedDocument.add("_attachments", streamedAttachments);
+
+        String artifactsDbUri = "http://my.uri/" + CouchdbRasStore.ARTIFACTS_DB;
+        List<HttpInteraction> interactions = List.of(
+            new GetArtifactDocumentFromCouchdbInteraction(artifactsDbUri + "/shared-doc", sharedDocument),
+            new GetArtifactDocumentFromCouchdbInteraction(artifactsDbUri + "/streamed-doc", streamedDocument)
+        );
+
+        // Loaded one after another, as the mock http client expects its requests in order
+        MockConfigurationPropertyStoreService mockCps = new MockConfigurationPropertyStoreService(
+            Map.of("artifact.document.max.concurrent.loads", "1"));
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(mockCps, null, interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        Path artifactsRoot = directoryService.getRunArtifactPath(mockRun1);
+
+        // When...
+        BasicFileAttributes sharedAttributes = Files.readAttributes(artifactsRoot.resolve("framework/shared.txt"), BasicFileAttributes.class);
+        Map<String, Object> sharedSizes = Files.readAttributes(artifactsRoot.resolve("framework/shared.txt"), "*");
+        long streamedSize = Files.size(artifactsRoot.resolve("framework/streamed.txt"));
+
+        // Then...
+        assertThat(sharedAttributes.size()).isEqualTo(5000);
+        assertThat(sharedSizes).containsEntry("size", 5000L).containsEntry("posix:size", 5000L);
+        assertThat(streamedSize).isEqualTo(7000);
+    }
+
+    @Test
+    public void testArtifactReadAgainIsServedFromTheArtifactCache() throws Exception {
+        // Given...
+        TestStructureCouchdb mockRun1 = createRunTestStructure("ABC123");
+        mockRun1.setArtifactRecordIds(List.of("artifact-doc"));
+
+        JsonObject artifactDocument = new JsonObject();
+        JsonObject attachments = new JsonObject();
+        attachments.add("/framework/terminal.png", createAttachmentStub("image/png", 11));
+        artifactDocument.add("_attachments", attachments);
+        artifactDocument.addProperty("_rev", "2-abc");
+
+        // The artifact is only downloaded once, as the mock http client fails any requests it doesn't expect
+        String artifactDocumentUri = "http://my.uri/" + CouchdbRasStore.ARTIFACTS_DB + "/artifact-doc";
+        List<HttpInteraction> interactions = List.of(
+            new GetArtifactDocumentFromCouchdbInteraction(artifactDocumentUri, artifactDocument),
+            new BaseHttpInteraction(artifactDocumentUri + "/%2Fframework%2Fterminal.png", HttpStatus.SC_OK) {
+                @Override
+                public MockCloseableHttpResponse getResponse() {
+                    MockCloseableHttpResponse response = super.getResponse();
+                    response.setEntity(new ByteArrayEntity("Hello World".getBytes()));
+                    return response;
+                }
+            }
+        );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+        Path artifactsRoot = directoryService.getRunArtifactPath(mockRun1);
+
+        // When...
+        byte[] firstContent = Files.readAllBytes(artifactsRoot.resolve("framework/terminal.png"));
+        byte[] secondContent = Files.readAllBytes(artifactsRoot.resolve("framework/terminal.png"));
+
+        // Then...
+        assertThat(new String(firstContent)).isEqualTo("Hello World");
+        assertThat(new String(secondContent)).isEqualTo("Hello World");
+    }
+
+    @Test
+    public void testLargeArtifactIsReadUsingRangeRequests() throws Exception {
+        // Given...
+        TestStructureCouchdb mockRun1 = createRunTestStructure("ABC123");
+        mockRun1.setArtifactRecordIds(List.of("artifact-doc"));
+
+        JsonObject artifactDocument = new JsonObject();
+        JsonObject attachments = new JsonObject();
+        attachments.add("/framework/trace.txt", createAttachmentStub("plain/text", 11));
+        artifactDocument.add("_attachments", attachments);
+
+        String artifactDocumentUri = "http://my.uri/" + CouchdbRasStore.ARTIFACTS_DB + "/artifact-doc";
+        List<HttpInteraction> interactions = List.of(
+            new GetArtifactDocumentFromCouchdbInteraction(artifactDocumentUri, artifactDocument),
+            new BaseHttpInteraction(artifactDocumentUri + "/%2Fframework%2Ftrace.txt", HttpStatus.SC_PARTIAL_CONTENT) {
+                @Override
+                public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+                    super.validateRequest(host, request);
+                    assertThat(request.getFirstHeader("Range").getValue()).isEqualTo("bytes=0-10");
+                }
+
+                @Override
+                public MockCloseableHttpResponse getResponse() {
+                    MockCloseableHttpResponse response = super.getResponse();
+                    response.setEntity(new ByteArrayEntity("Hello World".getBytes()));
+                    return response;
+                }
+            }
+        );
+
+        // Read in ranges however small the artifact, so the range requests can be seen
+        MockConfigurationPropertyStoreService mockCps = new MockConfigurationPropertyStoreService(
+            Map.of("artifact.range.read.threshold", "1"));
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(mockCps, null, interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+        Path artifactsRoot = directoryService.getRunArtifactPath(mockRun1);
+
+        // When...
+        byte[] content = Files.readAllBytes(artifactsRoot.resolve("framework/trace.txt"));
+
+        // Then...
+        assertThat(new String(content)).isEqualTo("Hello World");
+    }
+
+    @Test
+    public void testCompressedArtifactIsDecompressedWhenItIsRead() throws Exception {
+        // Given...
+        TestStructureCouchdb mockRun1 = createRunTestStructure("ABC123");
+        mockRun1.setArtifactRecordIds(List.of("artifact-doc"));
+
+        JsonObject artifactDocument = new JsonObject();
+        JsonObject attachments = new JsonObject();
+        attachments.add("/framework/terminal.txt", createAttachmentStub("plain/text; content-encoding=gzip", 11));
+        artifactDocument.add("_attachments", attachments);
+
+        byte[] compressedContent = ContentEncoding.GZIP.compress("Hello World".getBytes());
+
+        String artifactDocumentUri = "http://my.uri/" + CouchdbRasStore.ARTIFACTS_DB + "/artifact-doc";
+        List<HttpInteraction> interactions = List.of(
+            new GetArtifactDocumentFromCouchdbInteraction(artifactDocumentUri, artifactDocument),
+            new BaseHttpInteraction(artifactDocumentUri + "/%2Fframework%2Fterminal.txt", HttpStatus.SC_OK) {
+                @Override
+                public MockCloseableHttpResponse getResponse() {
+                    MockCloseableHttpResponse response = super.getResponse();
+                    response.setEntity(new ByteArrayEntity(compressedContent));
+                    return response;
+                }
+            }
+        );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+        Path artifactsRoot = directoryService.getRunArtifactPath(mockRun1);
+
+        // When...
+        byte[] content = Files.readAllBytes(artifactsRoot.resolve("framework/terminal.txt"));
+
+        // Then...
+        assertThat(new String(content)).isEqualTo("Hello World");
+        try (DirectoryStream<Path> artifacts = Files.newDirectoryStream(artifactsRoot.resolve("framework"))) {
+            CouchdbArtifactPath artifactPath = (CouchdbArtifactPath) artifacts.iterator().next();
+            assertThat(artifactPath.getContentType()).isEqualTo("plain/text");
+            assertThat(artifactPath.getContentEncoding()).isEqualTo(ContentEncoding.GZIP);
+        }
+    }
+
+    private JsonObject createAttachmentStub(String contentType, long length) {
+        JsonObject stub = new JsonObject();
+        stub.addProperty("content_type", contentType);
+        stub.addProperty("length", length);
+        stub.addProperty("stub", true);
+        return stub;
+    }
+
     //------------------------------------------
     //
     // Tests for deleting runs
@@ -705,4 +1482,236 @@ public class CouchdbDirectoryServiceTest {
         assertThat(thrown).isNotNull();
         assertThat(thrown.getMessage()).contains("Unable to delete run", runId);
     }
+
+    @Test
+    public void testDiscardRunsDeletesTheDocumentsOfEachDatabaseTogether() throws Exception {
+        // Given...
+        TestStructureCouchdb mockRun1 = createRunTestStructure("run1");
+        mockRun1.setLogRecordIds(List.of("log1", "log2"));
+        mockRun1.setArtifactRecordIds(List.of("artifact1"));
+
+        TestStructureCouchdb mockRun2 = createRunTestStructure("run2");
+        mockRun2._rev = null;
+        mockRun2.setLogRecordIds(List.of("log3"));
+        mockRun2.setArtifactRecordIds(List.of("artifact2"));
+
+        String baseUri = "http://my.uri";
+        String runsDbUri = baseUri + "/" + CouchdbRasStore.RUNS_DB;
+        String artifactsDbUri = baseUri + "/" + CouchdbRasStore.ARTIFACTS_DB;
+        String logsDbUri = baseUri + "/" + CouchdbRasStore.LOG_DB;
+        List<HttpInteraction> interactions = List.of(
+            // log3 has gone already, so it isn't deleted
+            new PostToCouchdbInteraction(logsDbUri + "/_all_docs", HttpStatus.SC_OK,
+                createAllDocsRevisions("log1", "1-a", "log2", "1-b", "log3", null), "\"log1\"", "\"log2\"", "\"log3\""),
+            new PostToCouchdbInteraction(logsDbUri + "/_bulk_docs", HttpStatus.SC_CREATED,
+                createBulkDocsResults("log1", null, "log2", null), "\"log1\"", "\"1-a\"", "\"log2\"", "\"1-b\"", "_deleted"),
+
+            // artifact2 is deleted by someone else between finding its revision and deleting it
+            new PostToCouchdbInteraction(artifactsDbUri + "/_all_docs", HttpStatus.SC_OK,
+                createAllDocsRevisions("artifact1", "1-c", "artifact2", "1-d"), "\"artifact1\"", "\"artifact2\""),
+            new PostToCouchdbInteraction(artifactsDbUri + "/_bulk_docs", HttpStatus.SC_CREATED,
+                createBulkDocsResults("artifact1", null, "artifact2", "not_found"), "\"artifact1\"", "\"artifact2\""),
+
+            // Only the run without a known revision needs its revision finding
+            new PostToCouchdbInteraction(runsDbUri + "/_all_docs", HttpStatus.SC_OK,
+                createAllDocsRevisions("run2", "3-e"), "\"run2\""),
+            new PostToCouchdbInteraction(runsDbUri + "/_bulk_docs", HttpStatus.SC_CREATED,
+                createBulkDocsResults("run1", null, "run2", null), "\"this-is-a-revision\"", "\"3-e\"")
+        );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        directoryService.discardRuns(List.of(mockRun1, mockRun2));
+
+        // Then...
+        // The assertions in the interactions should not have failed
+    }
+
+    @Test
+    public void testDiscardRunsWithConflictingUpdateThrowsCorrectError() throws Exception {
+        // Given...
+        TestStructureCouchdb mockRun1 = createRunTestStructure("run1");
+        TestStructureCouchdb mockRun2 = createRunTestStructure("run2");
+
+        String runsDbUri = "http://my.uri/" + CouchdbRasStore.RUNS_DB;
+        List<HttpInteraction> interactions = List.of(
+            new PostToCouchdbInteraction(runsDbUri + "/_bulk_docs", HttpStatus.SC_CREATED,
+                createBulkDocsResults("run1", null, "run2", "conflict"))
+        );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        ResultArchiveStoreException thrown = catchThrowableOfType(() -> {
+            directoryService.discardRuns(List.of(mockRun1, mockRun2));
+        }, ResultArchiveStoreException.class);
+
+        // Then...
+        assertThat(thrown).isNotNull();
+        assertThat(thrown.getMessage()).contains("Unable to delete 1 documents", "run2", "conflict");
+    }
+
+    @Test
+    public void testDiscardRunsSplitsManyRunsIntoBatches() throws Exception {
+        // Given...
+        List<TestStructureCouchdb> runs = new ArrayList<>();
+        String[] firstBatchResults = new String[CouchdbDirectoryService.DISCARD_RUNS_PER_BATCH * 2];
+        for (int i = 0; i < CouchdbDirectoryService.DISCARD_RUNS_PER_BATCH; i++) {
+            runs.add(createRunTestStructure("run" + i));
+            firstBatchResults[i * 2] = "run" + i;
+        }
+        runs.add(createRunTestStructure("lastRun"));
+
+        String runsDbUri = "http://my.uri/" + CouchdbRasStore.RUNS_DB;
+        List<HttpInteraction> interactions = List.of(
+            new PostToCouchdbInteraction(runsDbUri + "/_bulk_docs", HttpStatus.SC_CREATED,
+                createBulkDocsResults(firstBatchResults), "\"run0\"", "\"run99\""),
+            new PostToCouchdbInteraction(runsDbUri + "/_bulk_docs", HttpStatus.SC_CREATED,
+                createBulkDocsResults("lastRun", null), "\"lastRun\"")
+        );
+
+        // Discarded one batch after another, as the mock http client expects its requests in order
+        MockConfigurationPropertyStoreService mockCps = new MockConfigurationPropertyStoreService(
+            Map.of("run.discard.max.concurrent.batches", "1"));
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(mockCps, null, interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        directoryService.discardRuns(runs);
+
+        // Then...
+        // The assertions in the interactions should not have failed
+    }
+
+    //------------------------------------------
+    //
+    // Tests for getting the facets runs can be filtered by
+    //
+    //------------------------------------------
+
+    private Changes createChanges(String lastSeq, String... changedRunIds) {
+        Changes changes = new Changes();
+        changes.last_seq = new JsonPrimitive(lastSeq);
+        changes.results = new ArrayList<>();
+        for (String runId : changedRunIds) {
+            ChangeRow change = new ChangeRow();
+            change.id = runId;
+            change.seq = new JsonPrimitive(lastSeq);
+            changes.results.add(change);
+        }
+        return changes;
+    }
+
+    private ViewResponse createViewResponse(String... keys) {
+        ViewResponse view = new ViewResponse();
+        view.rows = new ArrayList<>();
+        for (String key : keys) {
+            ViewRow row = new ViewRow();
+            row.key = key;
+            row.value = 1;
+            view.rows.add(row);
+        }
+        return view;
+    }
+
+    @Test
+    public void testGetRequestorsIsServedFromMemoryAfterTheFirstTime() throws Exception {
+        // Given...
+        List<HttpInteraction> interactions = List.of(
+            new GetJsonFromCouchdbInteraction("http://my.uri/galasa_run/_changes?since=now&limit=0", createChanges("5-abc")),
+            new GetJsonFromCouchdbInteraction("http://my.uri/galasa_run/_design/docs/_view/requestors-view?group=true",
+                createViewResponse("requestor1", "requestor2"))
+        );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(interactions, mockLogFactory);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl());
+
+        // When...
+        List<String> requestors = directoryService.getRequestors();
+        List<String> requestorsAgain = directoryService.getRequestors();
+
+        // Then... the mock client would fail if asked to send any more requests
+        assertThat(requestors).containsExactly("requestor1", "requestor2");
+        assertThat(requestorsAgain).containsExactly("requestor1", "requestor2");
+    }
+
+    @Test
+    public void testGetTestsIsLoadedAgainOnceExpiredIfRunsHaveChanged() throws Exception {
+        // Given...
+        List<HttpInteraction> interactions = List.of(
+            new GetJsonFromCouchdbInteraction("http://my.uri/galasa_run/_changes?since=now&limit=0", createChanges("5-abc")),
+            new GetJsonFromCouchdbInteraction("http://my.uri/galasa_run/_design/docs/_view/bundle-testnames-view?group=true",
+                createViewResponse("bundle1/test1")),
+            new GetJsonFromCouchdbInteraction("http://my.uri/galasa_run/_changes?since=5-abc&limit=1", createChanges("6-def", "run1")),
+            new GetJsonFromCouchdbInteraction("http://my.uri/galasa_run/_changes?since=now&limit=0", createChanges("6-def")),
+            new GetJsonFromCouchdbInteraction("http://my.uri/galasa_run/_design/docs/_view/bundle-testnames-view?group=true",
+                createViewResponse("bundle1/test1", "undefined/undefined", "bundle2/test2"))
+        );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(interactions, mockLogFactory);
+        MockTimeService timeService = new MockTimeService(Instant.EPOCH);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl(), timeService);
+
+        directoryService.getTests();
+
+        // When...
+        timeService.setCurrentTime(Instant.EPOCH.plusSeconds(mockRasStore.getFacetCacheTtlSeconds()));
+        List<RasTestClass> tests = directoryService.getTests();
+
+        // Then...
+        assertThat(tests).extracting(RasTestClass::getBundleName).containsExactly("bundle1", "bundle2");
+        assertThat(tests).extracting(RasTestClass::getTestClass).containsExactly("test1", "test2");
+    }
+
+    @Test
+    public void testGetRequestorsIsNotReadFromAViewWhichHasNotCaughtUpWithTheRuns() throws Exception {
+        // Given...
+        // The view has not yet caught up with run2, which requestor2 submitted before the facets were
+        // first asked for, so reading it without waiting for it to be brought up to date misses requestor2
+        String viewUri = "http://my.uri/galasa_run/_design/docs/_view/requestors-view";
+        GetJsonFromCouchdbInteraction viewInteraction = new GetJsonFromCouchdbInteraction(viewUri + "?group=true", null) {
+            @Override
+            public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+                assertThat(request.getRequestLine().getMethod()).isEqualTo("GET");
+                String uri = request.getRequestLine().getUri();
+                assertThat(uri).startsWith(viewUri + "?group=true");
+                if (uri.contains("update=lazy") || uri.contains("stable=false") || uri.contains("update=false")) {
+                    setResponsePayload(createViewResponse("requestor1"));
+                } else {
+                    setResponsePayload(createViewResponse("requestor1", "requestor2"));
+                }
+            }
+        };
+
+        // No runs change after the facets are first loaded
+        List<HttpInteraction> interactions = List.of(
+            new GetJsonFromCouchdbInteraction("http://my.uri/galasa_run/_changes?since=now&limit=0", createChanges("5-abc")),
+            viewInteraction,
+            new GetJsonFromCouchdbInteraction("http://my.uri/galasa_run/_changes?since=5-abc&limit=1", createChanges("5-abc"))
+        );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore mockRasStore = fixtures.createCouchdbRasStore(interactions, mockLogFactory);
+        MockTimeService timeService = new MockTimeService(Instant.EPOCH);
+        CouchdbDirectoryService directoryService = new CouchdbDirectoryService(mockRasStore, mockLogFactory, new HttpRequestFactoryImpl(), timeService);
+
+        // When...
+        List<String> requestors = directoryService.getRequestors();
+
+        timeService.setCurrentTime(Instant.EPOCH.plusSeconds(mockRasStore.getFacetCacheTtlSeconds()));
+        List<String> requestorsOnceExpired = directoryService.getRequestors();
+
+        // Then...
+        assertThat(requestors).containsExactly("requestor1", "requestor2");
+        assertThat(requestorsOnceExpired).containsExactly("requestor1", "requestor2");
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CouchdbRangeReadByteChannelTest {
+
+    private static final int BLOCK_SIZE = 10;
+
+    // Serves ranges of an artifact whose bytes are their own positions, remembering the ranges asked for
+    private static class MockRangeFetcher implements CouchdbRangeReadByteChannel.RangeFetcher {
+        private final List<String> fetchedRanges = new CopyOnWriteArrayList<>();
+
+        @Override
+        public byte[] fetchRange(long start, int length) throws IOException {
+            fetchedRanges.add(start + "-" + (start + length - 1));
+            byte[] range = new byte[length];
+            for (int i = 0; i < length; i++) {
+                range[i] = (byte) (start + i);
+            }
+            return range;
+        }
+    }
+
+    private byte[] read(CouchdbRangeReadByteChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    @Test
+    public void testReadingTheStartOfAnArtifactOnlyFetchesTheFirstBlock() throws Exception {
+        // Given...
+        MockRangeFetcher fetcher = new MockRangeFetcher();
+        CouchdbRangeReadByteChannel channel = new CouchdbRangeReadByteChannel(100, fetcher, null, BLOCK_SIZE, 4, 2);
+
+        // When...
+        byte[] content = read(channel, 4);
+
+        // Then...
+        assertThat(content).containsExactly(0, 1, 2, 3);
+        assertThat(fetcher.fetchedRanges).containsExactly("0-9");
+        assertThat(channel.position()).isEqualTo(4);
+        assertThat(channel.size()).isEqualTo(100);
+    }
+
+    @Test
+    public void testReadingFromAPositionFetchesOnlyTheBlocksHoldingIt() throws Exception {
+        // Given...
+        MockRangeFetcher fetcher = new MockRangeFetcher();
+        CouchdbRangeReadByteChannel channel = new CouchdbRangeReadByteChannel(95, fetcher, null, BLOCK_SIZE, 4, 2);
+
+        // When...
+        channel.position(57);
+        byte[] acrossBlocks = read(channel, 6);
+        channel.position(92);
+        byte[] atTheEnd = read(channel, 10);
+
+        // Then...
+        assertThat(acrossBlocks).containsExactly(57, 58, 59, 60, 61, 62);
+        assertThat(atTheEnd).containsExactly(92, 93, 94);
+        assertThat(fetcher.fetchedRanges).containsExactly("50-59", "60-69", "90-94");
+        assertThat(channel.read(ByteBuffer.allocate(1))).isEqualTo(-1);
+    }
+
+    @Test
+    public void testRecentlyReadBlocksAreNotFetchedAgain() throws Exception {
+        // Given...
+        MockRangeFetcher fetcher = new MockRangeFetcher();
+        CouchdbRangeReadByteChannel channel = new CouchdbRangeReadByteChannel(100, fetcher, null, BLOCK_SIZE, 2, 0);
+
+        // When...
+        for (long position : new long[] { 5, 25, 7, 45, 8, 28 }) {
+            channel.position(position);
+            read(channel, 1);
+        }
+
+        // Then... only two blocks are kept, and block 0 was read more recently than block 2 when block 4 was read
+        assertThat(fetcher.fetchedRanges).containsExactly("0-9", "20-29", "40-49", "20-29");
+    }
+
+    @Test
+    public void testReadingFromStartToEndFetchesBlocksAhead() throws Exception {
+        // Given...
+        MockRangeFetcher fetcher = new MockRangeFetcher();
+        ExecutorService prefetcher = LoaderThreadPool.create("test-prefetcher", 2);
+        try {
+            CouchdbRangeReadByteChannel channel = new CouchdbRangeReadByteChannel(100, fetcher, prefetcher, BLOCK_SIZE, 4, 2);
+
+            // When...
+            byte[] content = read(channel, 5);
+
+            // Then...
+            prefetcher.shutdown();
+            assertThat(prefetcher.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(content).containsExactly(0, 1, 2, 3, 4);
+            assertThat(fetcher.fetchedRanges).containsExactlyInAnyOrder("0-9", "10-19", "20-29");
+        } finally {
+            prefetcher.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedFetchIsTriedAgainOnTheNextRead() throws Exception {
+        // Given...
+        MockRangeFetcher fetcher = new MockRangeFetcher() {
+            private boolean hasFailed = false;
+
+            @Override
+            public byte[] fetchRange(long start, int length) throws IOException {
+                if (!hasFailed) {
+                    hasFailed = true;
+                    throw new IOException("Connection reset");
+                }
+                return super.fetchRange(start, length);
+            }
+        };
+        CouchdbRangeReadByteChannel channel = new CouchdbRangeReadByteChannel(100, fetcher, null, BLOCK_SIZE, 4, 2);
+
+        // When...
+        IOException thrown = catchThrowableOfType(() -> {
+            channel.read(ByteBuffer.allocate(4));
+        }, IOException.class);
+        byte[] content = read(channel, 2);
+
+        // Then...
+        assertThat(thrown).hasMessageContaining("Connection reset");
+        assertThat(content).containsExactly(0, 1);
+    }
+
+    @Test
+    public void testChannelCannotBeWritten() throws Exception {
+        // Given...
+        CouchdbRangeReadByteChannel channel = new CouchdbRangeReadByteChannel(100, new MockRangeFetcher(), null);
+
+        // When...
+        Throwable thrown = catchThrowable(() -> {
+            channel.write(ByteBuffer.allocate(1));
+        });
+
+        // Then...
+        assertThat(thrown).isInstanceOf(NonWritableChannelException.class);
+    }
+}
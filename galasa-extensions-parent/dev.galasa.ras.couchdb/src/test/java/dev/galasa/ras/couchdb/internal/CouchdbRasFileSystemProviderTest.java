@@ -8,11 +8,16 @@ package dev.galasa.ras.couchdb.internal;
 import static org.assertj.core.api.Assertions.*;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHost;
@@ -73,13 +78,17 @@ public class CouchdbRasFileSystemProviderTest {
             HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
             String content ;
             try {
-                content = EntityUtils.toString(entity);
+                content = readAttachmentContent(entity);
             } catch (IOException ex ) {
                 throw new RuntimeException("Failed to read content from request."+ request.getRequestLine().getUri());
             }
             assertThat(content).isEqualTo(CouchdbTestFixtures.ATTACHMENT_CONTENT1);
         }
 
+        public String readAttachmentContent(HttpEntity entity) throws IOException {
+            return EntityUtils.toString(entity);
+        }
+
         @Override
         public MockCloseableHttpResponse getResponse() {
 
@@ -172,6 +181,358 @@ public class CouchdbRasFileSystemProviderTest {
     }
     
 
+    @Test
+    public void TestStreamedArtifactSmallerThanThresholdIsSavedInRunArtifactDocument() throws Exception {
+
+        // Given...
+        Map<String,String> props = new HashMap<String,String>();
+        props.put("artifact.streaming.threshold", "1024");
+
+        String testFileNameToCreate = testName.getMethodName();
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "124") );
+        interactions.add( new PutArtifactInteraction( CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "124","125", testFileNameToCreate) ) ;
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, mockLogFactory);
+
+        // When...
+        createFile(couchdbStore, testFileNameToCreate, CouchdbTestFixtures.ATTACHMENT_CONTENT1);
+
+        // Then...
+        assertThat(couchdbStore.getArtifactDocumentRev()).isEqualTo("125");
+    }
+
+    @Test
+    public void TestStreamedArtifactLargerThanThresholdIsStreamedIntoItsOwnArtifactDocument() throws Exception {
+
+        // Given...
+        Map<String,String> props = new HashMap<String,String>();
+        props.put("artifact.streaming.threshold", "4");
+
+        String testFileNameToCreate = testName.getMethodName();
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "124") );
+        // The artifact gets an artifact document of its own, then is streamed in as its attachment
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_2, "1") );
+        interactions.add( new PutArtifactInteraction( CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_2, "1","2", testFileNameToCreate) ) ;
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, mockLogFactory);
+
+        // When... the artifact is written a few bytes at a time
+        Path testFilePath = couchdbStore.getStoredArtifactsRoot().resolve(testFileNameToCreate);
+        try (SeekableByteChannel channel = Files.newByteChannel(testFilePath, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            for (String part : new String[] { "Hel", "lo W", "orld" }) {
+                channel.write(ByteBuffer.wrap(part.getBytes()));
+            }
+        }
+
+        // Then... the run's shared artifact document is left alone
+        assertThat(couchdbStore.getArtifactDocumentRev()).isEqualTo("124");
+        assertThat(mockLogFactory.toString()).contains("streamed into artifact document " + CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_2);
+    }
+
+    @Test
+    public void TestStreamedArtifactFallsBackToTemporaryFileWhenWriterSeeks() throws Exception {
+
+        // Given...
+        Map<String,String> props = new HashMap<String,String>();
+        props.put("artifact.streaming.threshold", "1024");
+
+        String testFileNameToCreate = testName.getMethodName();
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "124") );
+        interactions.add( new PutArtifactInteraction( CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "124","125", testFileNameToCreate) ) ;
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, mockLogFactory);
+
+        // When... the writer goes back and overwrites the start of the artifact
+        Path testFilePath = couchdbStore.getStoredArtifactsRoot().resolve(testFileNameToCreate);
+        try (SeekableByteChannel channel = Files.newByteChannel(testFilePath, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            channel.write(ByteBuffer.wrap("Jello World".getBytes()));
+            channel.position(0);
+            channel.write(ByteBuffer.wrap("H".getBytes()));
+        }
+
+        // Then... the corrected content was sent, see PutArtifactInteraction
+        assertThat(couchdbStore.getArtifactDocumentRev()).isEqualTo("125");
+    }
+
+    @Test
+    public void TestStreamedArtifactCannotSeekOnceStreamingHasStarted() throws Exception {
+
+        // Given...
+        Map<String,String> props = new HashMap<String,String>();
+        props.put("artifact.streaming.threshold", "4");
+
+        String testFileNameToCreate = testName.getMethodName();
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_2, "1") );
+        interactions.add( new PutArtifactInteraction( CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_2, "1","2", testFileNameToCreate) ) ;
+
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, new MockLogFactory());
+
+        Path testFilePath = couchdbStore.getStoredArtifactsRoot().resolve(testFileNameToCreate);
+        try (SeekableByteChannel channel = Files.newByteChannel(testFilePath, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            channel.write(ByteBuffer.wrap("Hello".getBytes()));
+
+            // When...
+            IOException ex = catchThrowableOfType(() -> channel.position(0), IOException.class);
+
+            // Then...
+            assertThat(ex).hasMessageContaining("already being streamed");
+            channel.write(ByteBuffer.wrap(" World".getBytes()));
+        }
+    }
+
+    public static class PutCompressedArtifactInteraction extends PutArtifactInteraction {
+
+        private String expectedContentType;
+
+        public PutCompressedArtifactInteraction(String rasUriStr , String expectedDocumentIdSentToServer, String expectedDocumentRevSentToServer, String returnedDocumentRev , String testFileNameToCreate) {
+            this(rasUriStr, expectedDocumentIdSentToServer, expectedDocumentRevSentToServer, returnedDocumentRev, testFileNameToCreate,
+                "plain/text; content-encoding=gzip; uncompressed-length=" + CouchdbTestFixtures.ATTACHMENT_CONTENT1.length());
+        }
+
+        public PutCompressedArtifactInteraction(String rasUriStr , String expectedDocumentIdSentToServer, String expectedDocumentRevSentToServer, String returnedDocumentRev , String testFileNameToCreate, String expectedContentType) {
+            super(rasUriStr, expectedDocumentIdSentToServer, expectedDocumentRevSentToServer, returnedDocumentRev, testFileNameToCreate);
+            this.expectedContentType = expectedContentType;
+        }
+
+        @Override
+        public String getExpectedHttpContentType() {
+            return expectedContentType;
+        }
+
+        @Override
+        public String readAttachmentContent(HttpEntity entity) throws IOException {
+            return new String(ContentEncoding.GZIP.decompress(EntityUtils.toByteArray(entity)));
+        }
+    }
+
+    @Test
+    public void TestTextArtifactIsCompressedWhenCompressionIsEnabled() throws Exception {
+
+        // Given...
+        Map<String,String> props = new HashMap<String,String>();
+        props.put("compression.algorithm", "gzip");
+        props.put("compression.threshold", "4");
+
+        String testFileNameToCreate = testName.getMethodName();
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "124") );
+        interactions.add( new PutCompressedArtifactInteraction( CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "124","125", testFileNameToCreate) ) ;
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, mockLogFactory);
+
+        // When...
+        createFile(couchdbStore, testFileNameToCreate, CouchdbTestFixtures.ATTACHMENT_CONTENT1);
+
+        // Then...
+        assertThat(mockLogFactory.toString()).contains("contentEncoding=gzip");
+    }
+
+    public static class PutArtifactDocumentLengthInteraction extends BaseHttpInteraction {
+
+        private String expectedDocumentRevSentToServer;
+        private String[] expectedPayloadParts;
+
+        public PutArtifactDocumentLengthInteraction(String rasUriStr, String documentId, String expectedDocumentRevSentToServer, String returnedDocumentRev, String... expectedPayloadParts) {
+            super(rasUriStr, documentId, returnedDocumentRev);
+            this.expectedDocumentRevSentToServer = expectedDocumentRevSentToServer;
+            this.expectedPayloadParts = expectedPayloadParts;
+        }
+
+        @Override
+        public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+            super.validateRequest(host,request);
+            assertThat(request.getRequestLine().getMethod()).isEqualTo("PUT");
+            assertThat(request.getRequestLine().getUri()).isEqualTo(getRasUriStr()+"/galasa_artifacts/"+getDocumentId());
+            assertThat(request.getHeaders("If-Match")[0].getValue()).isEqualTo(this.expectedDocumentRevSentToServer);
+
+            String content;
+            try {
+                content = EntityUtils.toString(((HttpEntityEnclosingRequest)request).getEntity());
+            } catch (IOException ex ) {
+                throw new RuntimeException("Failed to read content from request."+ request.getRequestLine().getUri());
+            }
+            assertThat(content).contains(expectedPayloadParts);
+        }
+
+        @Override
+        public MockCloseableHttpResponse getResponse() {
+            PutPostResponse responseTransportBean = new PutPostResponse();
+            responseTransportBean.id = getDocumentId();
+            responseTransportBean.ok = true ;
+            responseTransportBean.rev = getReturnedDocumentRev();
+
+            MockCloseableHttpResponse response = new MockCloseableHttpResponse();
+            MockStatusLine statusLine = new MockStatusLine();
+            statusLine.setStatusCode(HttpStatus.SC_CREATED);
+            response.setStatusLine(statusLine);
+            response.setEntity(new MockHttpEntity(new GalasaGson().toJson(responseTransportBean)));
+            return response;
+        }
+    }
+
+    @Test
+    public void TestStreamedTextArtifactIsCompressedAndItsLengthIsStoredOnceItIsKnown() throws Exception {
+
+        // Given...
+        Map<String,String> props = new HashMap<String,String>();
+        props.put("artifact.streaming.threshold", "4");
+        props.put("compression.algorithm", "gzip");
+        props.put("compression.threshold", "2");
+
+        String testFileNameToCreate = testName.getMethodName();
+
+        // The length isn't known when the attachment is sent, so it is added to the artifact document afterwards,
+        // keeping the attachment
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_2, "1") );
+        interactions.add( new PutCompressedArtifactInteraction( CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_2, "1","2",
+            testFileNameToCreate, "plain/text; content-encoding=gzip") ) ;
+        interactions.add( new PutArtifactDocumentLengthInteraction(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_2, "2", "3",
+            "\"artifactPath\": \"/" + testFileNameToCreate + "\"",
+            "\"length\": " + CouchdbTestFixtures.ATTACHMENT_CONTENT1.length(),
+            "\"/" + testFileNameToCreate + "\": {\n      \"stub\": true") );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, mockLogFactory);
+
+        // When...
+        Path testFilePath = couchdbStore.getStoredArtifactsRoot().resolve(testFileNameToCreate);
+        try (SeekableByteChannel channel = Files.newByteChannel(testFilePath, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            for (String part : new String[] { "Hel", "lo W", "orld" }) {
+                channel.write(ByteBuffer.wrap(part.getBytes()));
+            }
+        }
+
+        // Then...
+        assertThat(mockLogFactory.toString()).contains("streamed into artifact document " + CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_2);
+    }
+
+    @Test
+    public void TestTextArtifactSmallerThanCompressionThresholdIsNotCompressed() throws Exception {
+
+        // Given...
+        Map<String,String> props = new HashMap<String,String>();
+        props.put("compression.algorithm", "gzip");
+        props.put("compression.threshold", "1024");
+
+        String testFileNameToCreate = testName.getMethodName();
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "124") );
+        interactions.add( new PutArtifactInteraction( CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "124","125", testFileNameToCreate) ) ;
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, mockLogFactory);
+
+        // When...
+        createFile(couchdbStore, testFileNameToCreate, CouchdbTestFixtures.ATTACHMENT_CONTENT1);
+
+        // Then...
+        assertThat(mockLogFactory.toString()).doesNotContain("contentEncoding");
+    }
+
+    public static class CreateSingleArtifactDocInteraction extends CreateArtifactDocInteractionOK {
+
+        private String[] expectedPayloadParts;
+
+        public CreateSingleArtifactDocInteraction(String rasUriStr, String documentId, String returnedDocumentRev, String... expectedPayloadParts) {
+            super(rasUriStr, documentId, returnedDocumentRev);
+            this.expectedPayloadParts = expectedPayloadParts;
+        }
+
+        @Override
+        public void validateIncomingPayload(String content) throws RuntimeException {
+            super.validateIncomingPayload(content);
+            assertThat(content).contains(expectedPayloadParts);
+        }
+    }
+
+    @Test
+    public void TestOneArtifactPerDocumentStoresSmallArtifactInline() throws Exception {
+
+        // Given...
+        Map<String,String> props = new HashMap<String,String>();
+        props.put("one.artifact.per.document", "true");
+        props.put("inline.artifact.max.size", "1024");
+
+        String testFileNameToCreate = testName.getMethodName();
+        String encodedContent = Base64.getEncoder().encodeToString(CouchdbTestFixtures.ATTACHMENT_CONTENT1.getBytes());
+
+        // No shared artifact document is created for the run, and the artifact is stored using a single request
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateSingleArtifactDocInteraction(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "1",
+            "\"artifactPath\": \"/" + testFileNameToCreate + "\"",
+            "\"inlineArtifactData\": \"" + encodedContent + "\"") );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, mockLogFactory);
+
+        // When...
+        createFile(couchdbStore, testFileNameToCreate, CouchdbTestFixtures.ATTACHMENT_CONTENT1);
+
+        // Then...
+        assertThat(couchdbStore.getArtifactDocumentId()).isNull();
+        assertThat(mockLogFactory.toString()).contains("inline in artifact document " + CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1);
+    }
+
+    @Test
+    public void TestOneArtifactPerDocumentAttachesArtifactLargerThanInlineLimit() throws Exception {
+
+        // Given...
+        Map<String,String> props = new HashMap<String,String>();
+        props.put("one.artifact.per.document", "true");
+        props.put("inline.artifact.max.size", "4");
+
+        String testFileNameToCreate1 = testName.getMethodName() + "1";
+        String testFileNameToCreate2 = testName.getMethodName() + "2";
+
+        // Each artifact gets a document of its own, so neither waits on the other's revision
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateSingleArtifactDocInteraction(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "1",
+            "\"artifactPath\": \"/" + testFileNameToCreate1 + "\"") );
+        interactions.add( new PutArtifactInteraction( CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1, "1","2", testFileNameToCreate1) ) ;
+        interactions.add( new CreateSingleArtifactDocInteraction(CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_2, "1",
+            "\"artifactPath\": \"/" + testFileNameToCreate2 + "\"") );
+        interactions.add( new PutArtifactInteraction( CouchdbTestFixtures.rasUriStr , CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_2, "1","2", testFileNameToCreate2) ) ;
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, mockLogFactory);
+
+        // When...
+        createFile(couchdbStore, testFileNameToCreate1, CouchdbTestFixtures.ATTACHMENT_CONTENT1);
+        createFile(couchdbStore, testFileNameToCreate2, CouchdbTestFixtures.ATTACHMENT_CONTENT1);
+
+        // Then...
+        String logContent = mockLogFactory.toString();
+        assertThat(logContent).contains("in artifact document " + CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_1);
+        assertThat(logContent).contains("in artifact document " + CouchdbTestFixtures.ARTIFACT_DOCUMENT_ID_2);
+        assertThat(logContent).doesNotContain("inline");
+    }
+
     private void createFile( CouchdbRasStore couchdbStore, String testFileNameToCreate, String fileContent) throws IOException {
         Path rootDirPath = couchdbStore.getStoredArtifactsRoot();
         Path testFilePath = rootDirPath.resolve(testFileNameToCreate);
@@ -0,0 +1,82 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class CouchdbRasMappedReadByteChannelTest {
+
+    private Path createArtifactFile(String content) throws IOException {
+        Path file = Files.createTempFile("mapped_channel_test", ".txt");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private String read(CouchdbRasMappedReadByteChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        }
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testArtifactIsReadAcrossManyRegions() throws Exception {
+        // Given...
+        Path file = createArtifactFile("Hello World, from a mapped file");
+
+        // When...
+        String content;
+        try (CouchdbRasMappedReadByteChannel channel = new CouchdbRasMappedReadByteChannel(ArtifactCache.createUncachedArtifact(file), 4)) {
+            content = read(channel, 100);
+
+            // Then...
+            assertThat(channel.size()).isEqualTo(31);
+            assertThat(channel.read(ByteBuffer.allocate(1))).isEqualTo(-1);
+        }
+        assertThat(content).isEqualTo("Hello World, from a mapped file");
+    }
+
+    @Test
+    public void testArtifactIsReadFromAPosition() throws Exception {
+        // Given...
+        Path file = createArtifactFile("Hello World, from a mapped file");
+
+        try (CouchdbRasMappedReadByteChannel channel = new CouchdbRasMappedReadByteChannel(ArtifactCache.createUncachedArtifact(file), 4)) {
+            // When...
+            channel.position(6);
+            String word = read(channel, 5);
+
+            // Then...
+            assertThat(word).isEqualTo("World");
+            assertThat(channel.position()).isEqualTo(11);
+        }
+    }
+
+    @Test
+    public void testClosingTheChannelReleasesTheArtifact() throws Exception {
+        // Given...
+        Path file = createArtifactFile("Hello World");
+        CouchdbRasMappedReadByteChannel channel = new CouchdbRasMappedReadByteChannel(ArtifactCache.createUncachedArtifact(file));
+        read(channel, 5);
+
+        // When...
+        channel.close();
+
+        // Then... an uncached artifact is deleted once it has been read
+        assertThat(channel.isOpen()).isFalse();
+        assertThat(file).doesNotExist();
+        assertThat(catchThrowable(() -> channel.read(ByteBuffer.allocate(1)))).isInstanceOf(ClosedChannelException.class);
+    }
+}
@@ -5,9 +5,39 @@
  */
 package dev.galasa.ras.couchdb.internal;
 
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
 import org.junit.Test;
 
+import dev.galasa.extensions.common.couchdb.CouchdbException;
+import dev.galasa.framework.spi.ResultArchiveStoreException;
+import dev.galasa.framework.spi.teststructure.TestStructure;
+import dev.galasa.framework.spi.utils.GalasaGson;
+import dev.galasa.extensions.mocks.BaseHttpInteraction;
+import dev.galasa.extensions.mocks.HttpInteraction;
+import dev.galasa.extensions.mocks.MockCloseableHttpResponse;
 import dev.galasa.ras.couchdb.internal.mocks.CouchdbTestFixtures;
+import dev.galasa.ras.couchdb.internal.mocks.CouchdbTestFixtures.BulkCreateLogDocsInteractionOK;
+import dev.galasa.ras.couchdb.internal.mocks.CouchdbTestFixtures.CreateArtifactDocInteractionOK;
+import dev.galasa.ras.couchdb.internal.mocks.CouchdbTestFixtures.CreateLogDocInteractionOK;
+import dev.galasa.ras.couchdb.internal.mocks.CouchdbTestFixtures.CreateTestDocInteractionOK;
+import dev.galasa.ras.couchdb.internal.mocks.CouchdbTestFixtures.UpdateTestDocInteractionOK;
+import dev.galasa.ras.couchdb.internal.mocks.MockLogFactory;
+import dev.galasa.ras.couchdb.internal.pojos.LogLines;
 
 public class CouchdbRasStoreTest {
     
@@ -23,4 +53,362 @@ public class CouchdbRasStoreTest {
         fixtures.createCouchdbRasStore(null);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testWriteLogShipsAFullBatchAndFlushWaitsForItToBeStored() throws Exception {
+        // Given...
+        String logDocumentId = "log-doc-1";
+        CreateLogDocInteractionOK createLogInteraction = new CreateLogDocInteractionOK(CouchdbTestFixtures.rasUriStr, logDocumentId, "1", "line 0", "line 99");
+        UpdateTestDocInteractionOK updateRunInteraction = new UpdateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124", "125", logDocumentId);
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( createLogInteraction );
+        interactions.add( updateRunInteraction );
+
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(null, interactions, new MockLogFactory());
+
+        // When...
+        for (int i = 0; i < 100; i++) {
+            couchdbStore.writeLog("line " + i);
+        }
+        couchdbStore.flush();
+
+        // Then...
+        assertThat(createLogInteraction.isCompleted()).isTrue();
+        assertThat(updateRunInteraction.isCompleted()).isTrue();
+    }
+
+    @Test
+    public void testLogBatchesQueuedWhileSenderIsBusyAreStoredInOneBulkRequest() throws Exception {
+        // Given...
+        // Keep the batches the same size, so we know where each one ends
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("log.batch.max.lines", "100");
+
+        CountDownLatch firstLogPostStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstLogPost = new CountDownLatch(1);
+
+        // Holds up the sender thread, so the next batches pile up in the queue behind it
+        CreateLogDocInteractionOK slowCreateLogInteraction = new CreateLogDocInteractionOK(CouchdbTestFixtures.rasUriStr, "log-doc-1", "1", "line 0", "line 99") {
+            @Override
+            public MockCloseableHttpResponse getResponse() {
+                firstLogPostStarted.countDown();
+                try {
+                    releaseFirstLogPost.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getResponse();
+            }
+        };
+        BulkCreateLogDocsInteractionOK bulkCreateLogInteraction = new BulkCreateLogDocsInteractionOK(CouchdbTestFixtures.rasUriStr,
+            new String[] { "log-doc-2", "log-doc-3" }, "1", "line 100", "line 199", "line 200", "line 299");
+        UpdateTestDocInteractionOK finalUpdateRunInteraction = new UpdateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124", "125",
+            "log-doc-1", "log-doc-2", "log-doc-3");
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( slowCreateLogInteraction );
+        interactions.add( bulkCreateLogInteraction );
+        interactions.add( finalUpdateRunInteraction );
+
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, new MockLogFactory());
+
+        // When...
+        for (int i = 0; i < 100; i++) {
+            couchdbStore.writeLog("line " + i);
+        }
+        assertThat(firstLogPostStarted.await(10, TimeUnit.SECONDS)).isTrue();
+
+        for (int i = 100; i < 300; i++) {
+            couchdbStore.writeLog("line " + i);
+        }
+        releaseFirstLogPost.countDown();
+        couchdbStore.flush();
+
+        // Then...
+        assertThat(slowCreateLogInteraction.isCompleted()).isTrue();
+        assertThat(bulkCreateLogInteraction.isCompleted()).isTrue();
+        assertThat(finalUpdateRunInteraction.isCompleted()).isTrue();
+    }
+
+    @Test
+    public void testLogDocumentsCreatedByAPartlyFailedBulkRequestAreStillRecorded() throws Exception {
+        // Given...
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("log.batch.max.lines", "100");
+
+        CountDownLatch firstLogPostStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstLogPost = new CountDownLatch(1);
+
+        CreateLogDocInteractionOK slowCreateLogInteraction = new CreateLogDocInteractionOK(CouchdbTestFixtures.rasUriStr, "log-doc-1", "1", "line 0", "line 99") {
+            @Override
+            public MockCloseableHttpResponse getResponse() {
+                firstLogPostStarted.countDown();
+                try {
+                    releaseFirstLogPost.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getResponse();
+            }
+        };
+        // The second batch is stored, but the third is rejected
+        BulkCreateLogDocsInteractionOK bulkCreateLogInteraction = new BulkCreateLogDocsInteractionOK(CouchdbTestFixtures.rasUriStr,
+            new String[] { "log-doc-2", null }, "1", "line 100", "line 199", "line 200", "line 299");
+        UpdateTestDocInteractionOK finalUpdateRunInteraction = new UpdateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124", "125",
+            "log-doc-1", "log-doc-2");
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( slowCreateLogInteraction );
+        interactions.add( bulkCreateLogInteraction );
+        interactions.add( finalUpdateRunInteraction );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, mockLogFactory);
+
+        // When...
+        for (int i = 0; i < 100; i++) {
+            couchdbStore.writeLog("line " + i);
+        }
+        assertThat(firstLogPostStarted.await(10, TimeUnit.SECONDS)).isTrue();
+
+        for (int i = 100; i < 300; i++) {
+            couchdbStore.writeLog("line " + i);
+        }
+        releaseFirstLogPost.countDown();
+        couchdbStore.flush();
+
+        // Then...
+        assertThat(bulkCreateLogInteraction.isCompleted()).isTrue();
+        assertThat(finalUpdateRunInteraction.isCompleted()).isTrue();
+        assertThat(mockLogFactory.toString()).contains("GAL6013E");
+    }
+
+    @Test
+    public void testStatusChangeWritesRunDocumentButOtherChangesWaitForFlush() throws Exception {
+        // Given...
+        UpdateTestDocInteractionOK statusChangeInteraction = new UpdateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124", "125", "started");
+        UpdateTestDocInteractionOK flushInteraction = new UpdateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "125", "126", "my.requestor");
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( statusChangeInteraction );
+        interactions.add( flushInteraction );
+
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(null, interactions, new MockLogFactory());
+
+        TestStructure testStructure = new TestStructure();
+        testStructure.setRunName(CouchdbTestFixtures.runName1);
+
+        // When...
+        testStructure.setStatus("started");
+        couchdbStore.updateTestStructure(testStructure);
+
+        testStructure.setRequestor("my.requestor");
+        couchdbStore.updateTestStructure(testStructure);
+
+        // Then...
+        assertThat(statusChangeInteraction.isCompleted()).isTrue();
+        assertThat(flushInteraction.isCompleted()).isFalse();
+
+        couchdbStore.flush();
+        assertThat(flushInteraction.isCompleted()).isTrue();
+    }
+
+    @Test
+    public void testRunDocumentIsWrittenForEveryLogBatchWhenUpdateIntervalIsZero() throws Exception {
+        // Given...
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("run.update.interval.millis", "0");
+
+        CountDownLatch runDocumentUpdated = new CountDownLatch(1);
+        UpdateTestDocInteractionOK updateRunInteraction = new UpdateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124", "125", "log-doc-1") {
+            @Override
+            public MockCloseableHttpResponse getResponse() {
+                MockCloseableHttpResponse response = super.getResponse();
+                runDocumentUpdated.countDown();
+                return response;
+            }
+        };
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateLogDocInteractionOK(CouchdbTestFixtures.rasUriStr, "log-doc-1", "1", "line 0", "line 99") );
+        interactions.add( updateRunInteraction );
+
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, new MockLogFactory());
+
+        // When...
+        for (int i = 0; i < 100; i++) {
+            couchdbStore.writeLog("line " + i);
+        }
+
+        // Then... the run document is written without waiting for a flush
+        assertThat(runDocumentUpdated.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testLogLinesAreShippedWithoutAFlushOnceTheyHaveLingeredTooLong() throws Exception {
+        // Given...
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("log.batch.max.linger.millis", "200");
+
+        CountDownLatch logLinesStored = new CountDownLatch(1);
+        CreateLogDocInteractionOK createLogInteraction = new CreateLogDocInteractionOK(CouchdbTestFixtures.rasUriStr, "log-doc-1", "1", "a lonely line") {
+            @Override
+            public MockCloseableHttpResponse getResponse() {
+                MockCloseableHttpResponse response = super.getResponse();
+                logLinesStored.countDown();
+                return response;
+            }
+        };
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( createLogInteraction );
+
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, new MockLogFactory());
+
+        // When...
+        couchdbStore.writeLog("a lonely line");
+
+        // Then...
+        assertThat(logLinesStored.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testLogLinesAreCompressedWhenCompressionIsEnabledAndGetLogDecompressesThem() throws Exception {
+        // Given...
+        Map<String,String> props = new HashMap<String,String>();
+        props.put("compression.algorithm", "gzip");
+        props.put("compression.threshold", "0");
+
+        String logDocumentId = "log-doc-1";
+        String logDocumentUri = CouchdbTestFixtures.rasUriStr + "/galasa_log/" + logDocumentId;
+        AtomicReference<String> storedLogDocument = new AtomicReference<>();
+
+        CreateLogDocInteractionOK createLogInteraction = new CreateLogDocInteractionOK(CouchdbTestFixtures.rasUriStr, logDocumentId, "1",
+                "\"contentEncoding\": \"gzip\"", "\"compressedLines\"") {
+            @Override
+            public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+                super.validateRequest(host, request);
+                try {
+                    storedLogDocument.set(EntityUtils.toString(((HttpPost) request).getEntity()));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+
+        // The log document is read back just as it was stored
+        HttpInteraction getLogInteraction = new BaseHttpInteraction(logDocumentUri, HttpStatus.SC_OK) {
+            @Override
+            public MockCloseableHttpResponse getResponse() {
+                setResponsePayload(new GalasaGson().fromJson(storedLogDocument.get(), LogLines.class));
+                return super.getResponse();
+            }
+        };
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( createLogInteraction );
+        interactions.add( new UpdateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124", "125", logDocumentId) );
+        interactions.add( getLogInteraction );
+
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, new MockLogFactory());
+
+        // When...
+        for (int i = 0; i < 99; i++) {
+            couchdbStore.writeLog("line " + i);
+        }
+        couchdbStore.writeLog("");
+        couchdbStore.flush();
+
+        TestStructure testStructure = new TestStructure();
+        testStructure.setLogRecordIds(List.of(logDocumentId));
+        String log = couchdbStore.getLog(testStructure);
+
+        // Then...
+        assertThat(storedLogDocument.get()).doesNotContain("line 0");
+        assertThat(log).startsWith("line 0\nline 1\n").endsWith("line 98\n");
+        assertThat(log.split("\n", -1)).hasSize(100);
+    }
+
+    @Test
+    public void testFailureToStoreLogBatchIsReportedOnTheNextWrite() throws Exception {
+        // Given...
+        // Every line is shipped as soon as it is written
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("log.batch.min.lines", "1");
+        props.put("log.batch.max.lines", "1");
+
+        HttpInteraction failingLogInteraction = new BaseHttpInteraction(CouchdbTestFixtures.rasUriStr + "/galasa_log", HttpStatus.SC_INTERNAL_SERVER_ERROR) {};
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( failingLogInteraction );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, mockLogFactory);
+
+        couchdbStore.writeLog("a line which will never be stored");
+
+        // Wait for the log shipper to find it can't store the line
+        long deadlineMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!mockLogFactory.toString().contains("Unable to store a batch of the test log") && System.currentTimeMillis() < deadlineMillis) {
+            Thread.sleep(10);
+        }
+
+        // When...
+        Throwable thrown = catchThrowable(() -> couchdbStore.writeLog("the next line"));
+
+        // Then...
+        assertThat(thrown).isInstanceOf(ResultArchiveStoreException.class);
+        assertThat(thrown.getCause()).isInstanceOf(CouchdbException.class);
+        assertThat(thrown.getCause().getMessage()).contains(String.valueOf(HttpStatus.SC_INTERNAL_SERVER_ERROR));
+    }
+
+    @Test
+    public void testLogLinesWhichCouldNotBeStoredAreStillReportedAtShutdown() throws Exception {
+        // Given...
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("log.batch.min.lines", "1");
+        props.put("log.batch.max.lines", "1");
+
+        HttpInteraction failingLogInteraction = new BaseHttpInteraction(CouchdbTestFixtures.rasUriStr + "/galasa_log", HttpStatus.SC_INTERNAL_SERVER_ERROR) {};
+
+        List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new CreateTestDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( new CreateArtifactDocInteractionOK(CouchdbTestFixtures.rasUriStr, CouchdbTestFixtures.documentId1, "124") );
+        interactions.add( failingLogInteraction );
+
+        MockLogFactory mockLogFactory = new MockLogFactory();
+        CouchdbRasStore couchdbStore = fixtures.createCouchdbRasStore(props, interactions, mockLogFactory);
+
+        couchdbStore.writeLog("a line which will never be stored");
+
+        long deadlineMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!mockLogFactory.toString().contains("Unable to store a batch of the test log") && System.currentTimeMillis() < deadlineMillis) {
+            Thread.sleep(10);
+        }
+
+        // When...
+        couchdbStore.shutdown();
+
+        // Then...
+        assertThat(mockLogFactory.toString()).contains("1 lines have been lost");
+        assertThat(mockLogFactory.toString()).contains("Error with shutdown flush");
+        assertThat(mockLogFactory.toString()).contains("1 lines of the test log could not be stored");
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.After;
+import org.junit.Test;
+
+import dev.galasa.framework.spi.ResultArchiveStoreException;
+import dev.galasa.ras.couchdb.internal.pojos.LogLines;
+
+public class CouchdbRunLogTest {
+
+    private ExecutorService executor = LoaderThreadPool.create("test-log-document-loader", 4);
+
+    // Serves log documents by id, recording the ids of the documents loaded
+    private static class MockLogDocumentLoader implements CouchdbRunLog.LogDocumentLoader {
+        private final Map<String, LogLines> documents = new HashMap<>();
+        private final List<String> loadedIds = new CopyOnWriteArrayList<>();
+
+        void addDocument(String id, long order, String... lines) {
+            LogLines logLines = new LogLines();
+            logLines.order = order;
+            logLines.lines = List.of(lines);
+            documents.put(id, logLines);
+        }
+
+        @Override
+        public LogLines loadLogDocument(String logRecordId) throws ResultArchiveStoreException {
+            loadedIds.add(logRecordId);
+            LogLines logLines = documents.get(logRecordId);
+            if (logLines == null) {
+                throw new ResultArchiveStoreException("Unable to find log document " + logRecordId);
+            }
+            LogLines copy = new LogLines();
+            copy.order = logLines.order;
+            copy.lines = new ArrayList<>(logLines.lines);
+            return copy;
+        }
+    }
+
+    @After
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    private MockLogDocumentLoader createLoaderWithDocuments(int documentCount, int linesPerDocument) {
+        MockLogDocumentLoader loader = new MockLogDocumentLoader();
+        int lineNumber = 0;
+        for (int document = 0; document < documentCount; document++) {
+            String[] lines = new String[linesPerDocument];
+            for (int line = 0; line < linesPerDocument; line++) {
+                lines[line] = "line " + lineNumber++;
+            }
+            loader.addDocument("log" + document, document + 1, lines);
+        }
+        return loader;
+    }
+
+    private List<String> getDocumentIds(int documentCount) {
+        List<String> ids = new ArrayList<>();
+        for (int document = 0; document < documentCount; document++) {
+            ids.add("log" + document);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testEveryWayOfReadingTheLogFollowsTheOrderOfTheLogRecordIds() throws Exception {
+        // Given... the log record ids are in the order the documents were stored, whatever their order fields say
+        MockLogDocumentLoader loader = new MockLogDocumentLoader();
+        loader.addDocument("log-a", 2, "first", "second");
+        loader.addDocument("log-b", 1, "third", "fourth");
+        loader.addDocument("log-c", 3, "fifth");
+        CouchdbRunLog runLog = new CouchdbRunLog(List.of("log-a", "log-b", "log-c"), loader, executor, 4);
+
+        // When...
+        String log = runLog.getLog();
+        List<String> lines = runLog.getLines(0, 5);
+        StringWriter readText = new StringWriter();
+        try (Reader reader = runLog.openReader()) {
+            reader.transferTo(readText);
+        }
+
+        // Then...
+        assertThat(log).isEqualTo("first\nsecond\nthird\nfourth\nfifth");
+        assertThat(lines).containsExactly("first", "second", "third", "fourth", "fifth");
+        assertThat(readText.toString()).isEqualTo(log);
+    }
+
+    @Test
+    public void testReaderAndInputStreamGiveTheSameTextAsGetLog() throws Exception {
+        // Given...
+        MockLogDocumentLoader loader = new MockLogDocumentLoader();
+        loader.addDocument("log0", 1, "", "line \u00e9", "");
+        loader.addDocument("log1", 2, "last line", "");
+        CouchdbRunLog runLog = new CouchdbRunLog(List.of("log0", "log1"), loader, executor, 2);
+        String log = runLog.getLog();
+
+        // When...
+        StringWriter readText = new StringWriter();
+        try (Reader reader = runLog.openReader()) {
+            reader.transferTo(readText);
+        }
+        byte[] streamedBytes;
+        try (InputStream stream = runLog.openInputStream()) {
+            streamedBytes = stream.readAllBytes();
+        }
+
+        // Then...
+        assertThat(log).isEqualTo("line \u00e9\n\nlast line\n");
+        assertThat(readText.toString()).isEqualTo(log);
+        assertThat(new String(streamedBytes, StandardCharsets.UTF_8)).isEqualTo(log);
+    }
+
+    @Test
+    public void testGetLinesOnlyLoadsTheDocumentsHoldingTheLinesOnceTheirSizesAreKnown() throws Exception {
+        // Given...
+        MockLogDocumentLoader loader = createLoaderWithDocuments(10, 100);
+        CouchdbRunLog runLog = new CouchdbRunLog(getDocumentIds(10), loader, null, 1);
+        runLog.getLines(0, 1000);
+        loader.loadedIds.clear();
+
+        // When...
+        List<String> lines = runLog.getLines(450, 620);
+
+        // Then...
+        assertThat(lines).hasSize(170);
+        assertThat(lines.get(0)).isEqualTo("line 450");
+        assertThat(lines.get(169)).isEqualTo("line 619");
+        assertThat(loader.loadedIds).containsExactly("log4", "log5", "log6");
+    }
+
+    @Test
+    public void testGetLinesStopsLoadingAtTheEndOfTheRange() throws Exception {
+        // Given...
+        MockLogDocumentLoader loader = createLoaderWithDocuments(10, 100);
+        CouchdbRunLog runLog = new CouchdbRunLog(getDocumentIds(10), loader, null, 1);
+
+        // When...
+        List<String> lines = runLog.getLines(150, 160);
+
+        // Then... the earlier documents are loaded to count their lines, but none after the range
+        assertThat(lines).containsExactly("line 150", "line 151", "line 152", "line 153", "line 154",
+            "line 155", "line 156", "line 157", "line 158", "line 159");
+        assertThat(loader.loadedIds).containsExactly("log0", "log1");
+    }
+
+    @Test
+    public void testGetLinesPastTheEndOfTheLogReturnsTheLinesThereAre() throws Exception {
+        // Given...
+        MockLogDocumentLoader loader = createLoaderWithDocuments(3, 10);
+        CouchdbRunLog runLog = new CouchdbRunLog(getDocumentIds(3), loader, executor, 4);
+
+        // When...
+        List<String> lines = runLog.getLines(25, 100);
+
+        // Then...
+        assertThat(lines).containsExactly("line 25", "line 26", "line 27", "line 28", "line 29");
+    }
+
+    @Test
+    public void testProblemLoadingALogDocumentIsThrown() throws Exception {
+        // Given...
+        MockLogDocumentLoader loader = createLoaderWithDocuments(2, 10);
+        CouchdbRunLog runLog = new CouchdbRunLog(List.of("log0", "log1", "missing-log"), loader, executor, 4);
+
+        // When...
+        ResultArchiveStoreException thrown = catchThrowableOfType(() -> runLog.getLog(), ResultArchiveStoreException.class);
+
+        // Then...
+        assertThat(thrown).hasMessageContaining("Unable to find log document missing-log");
+    }
+}
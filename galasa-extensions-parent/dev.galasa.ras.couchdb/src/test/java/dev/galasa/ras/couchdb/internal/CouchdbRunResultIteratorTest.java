@@ -0,0 +1,197 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import dev.galasa.framework.spi.IRunResult;
+import dev.galasa.framework.spi.ResultArchiveStoreException;
+import dev.galasa.framework.spi.ras.RasRunResultPage;
+import dev.galasa.framework.spi.teststructure.TestStructure;
+
+public class CouchdbRunResultIteratorTest {
+
+    private static class MockRunResult implements IRunResult {
+        private final String runId;
+
+        MockRunResult(String runId) {
+            this.runId = runId;
+        }
+
+        @Override
+        public String getRunId() {
+            return runId;
+        }
+
+        @Override
+        public TestStructure getTestStructure() {
+            return null;
+        }
+
+        @Override
+        public Path getArtifactsRoot() {
+            return null;
+        }
+
+        @Override
+        public String getLog() {
+            return null;
+        }
+
+        @Override
+        public void discard() {
+        }
+
+        @Override
+        public void loadArtifacts() {
+        }
+    }
+
+    // Serves pages of runs keyed by the bookmark which asks for them, recording the bookmarks asked for.
+    private static class MockRunsPageFetcher implements CouchdbRunResultIterator.RunsPageFetcher {
+        private final Map<String, RasRunResultPage> pages;
+        private final List<String> requestedBookmarks = new CopyOnWriteArrayList<>();
+
+        MockRunsPageFetcher(Map<String, RasRunResultPage> pages) {
+            this.pages = pages;
+        }
+
+        @Override
+        public RasRunResultPage fetchPage(String bookmark) throws ResultArchiveStoreException {
+            requestedBookmarks.add(String.valueOf(bookmark));
+            RasRunResultPage page = pages.get(String.valueOf(bookmark));
+            if (page == null) {
+                throw new ResultArchiveStoreException("Unable to find runs - 500 Internal Server Error");
+            }
+            return page;
+        }
+    }
+
+    private RasRunResultPage createPage(String nextBookmark, String... runIds) {
+        List<IRunResult> runs = new ArrayList<>();
+        for (String runId : runIds) {
+            runs.add(new MockRunResult(runId));
+        }
+        return new RasRunResultPage(runs, nextBookmark);
+    }
+
+    private List<String> getRunIds(CouchdbRunResultIterator iterator) {
+        List<String> runIds = new ArrayList<>();
+        while (iterator.hasNext()) {
+            runIds.add(iterator.next().getRunId());
+        }
+        return runIds;
+    }
+
+    @Test
+    public void testIteratesOverEveryPageUntilAnEmptyPageIsFound() {
+        // Given...
+        MockRunsPageFetcher fetcher = new MockRunsPageFetcher(Map.of(
+            "null", createPage("bookmark1", "run1", "run2"),
+            "bookmark1", createPage("bookmark2", "run3"),
+            "bookmark2", createPage("bookmark3")
+        ));
+
+        // When...
+        List<String> runIds;
+        try (CouchdbRunResultIterator iterator = new CouchdbRunResultIterator(fetcher)) {
+            runIds = getRunIds(iterator);
+        }
+
+        // Then...
+        assertThat(runIds).containsExactly("run1", "run2", "run3");
+        assertThat(fetcher.requestedBookmarks).containsExactly("null", "bookmark1", "bookmark2");
+    }
+
+    @Test
+    public void testStopsWhenAPageHasNoBookmark() {
+        // Given...
+        MockRunsPageFetcher fetcher = new MockRunsPageFetcher(Map.of(
+            "null", createPage(null, "run1", "run2")
+        ));
+
+        // When...
+        List<String> runIds;
+        try (CouchdbRunResultIterator iterator = new CouchdbRunResultIterator(fetcher)) {
+            runIds = getRunIds(iterator);
+        }
+
+        // Then...
+        assertThat(runIds).containsExactly("run1", "run2");
+        assertThat(fetcher.requestedBookmarks).containsExactly("null");
+    }
+
+    @Test
+    public void testOnlyFetchesOnePageAheadOfTheConsumer() throws Exception {
+        // Given...
+        MockRunsPageFetcher fetcher = new MockRunsPageFetcher(Map.of(
+            "null", createPage("bookmark1", "run1", "run2"),
+            "bookmark1", createPage("bookmark2", "run3", "run4"),
+            "bookmark2", createPage("bookmark3", "run5"),
+            "bookmark3", createPage("bookmark4")
+        ));
+
+        try (CouchdbRunResultIterator iterator = new CouchdbRunResultIterator(fetcher)) {
+            // When...
+            assertThat(iterator.next().getRunId()).isEqualTo("run1");
+
+            // Then... the second page may be fetched in the background, but nothing after it
+            Thread.sleep(200);
+            assertThat(fetcher.requestedBookmarks).containsExactly("null", "bookmark1");
+
+            assertThat(getRunIds(iterator)).containsExactly("run2", "run3", "run4", "run5");
+        }
+    }
+
+    @Test
+    public void testProblemFetchingAPageIsThrownWhenThePageIsNeeded() {
+        // Given...
+        MockRunsPageFetcher fetcher = new MockRunsPageFetcher(Map.of(
+            "null", createPage("bookmark-of-a-failing-page", "run1")
+        ));
+
+        try (CouchdbRunResultIterator iterator = new CouchdbRunResultIterator(fetcher)) {
+            assertThat(iterator.next().getRunId()).isEqualTo("run1");
+
+            // When...
+            UncheckedResultArchiveStoreException thrown = catchThrowableOfType(() -> iterator.hasNext(),
+                UncheckedResultArchiveStoreException.class);
+
+            // Then...
+            assertThat(thrown.getCause()).hasMessageContaining("Unable to find runs");
+        }
+    }
+
+    @Test
+    public void testStreamOfRunsCanBeStoppedEarly() {
+        // Given...
+        MockRunsPageFetcher fetcher = new MockRunsPageFetcher(Map.of(
+            "null", createPage("bookmark1", "run1", "run2"),
+            "bookmark1", createPage("bookmark2", "run3"),
+            "bookmark2", createPage(null)
+        ));
+
+        // When...
+        List<String> runIds;
+        try (Stream<IRunResult> runs = new CouchdbRunResultIterator(fetcher).stream()) {
+            runIds = runs.limit(1).map(IRunResult::getRunId).collect(Collectors.toList());
+        }
+
+        // Then...
+        assertThat(runIds).isEqualTo(Collections.singletonList("run1"));
+    }
+}
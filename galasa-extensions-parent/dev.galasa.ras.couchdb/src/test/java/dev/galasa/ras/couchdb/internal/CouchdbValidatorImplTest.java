@@ -10,10 +10,17 @@ import static org.assertj.core.api.Assertions.*;
 
 import org.apache.http.*;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
 import org.junit.*;
 import org.junit.rules.TestName;
 
+import java.io.IOException;
 import java.time.Instant;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
 import dev.galasa.framework.spi.utils.GalasaGson;
 import dev.galasa.extensions.common.couchdb.pojos.Welcome;
 import dev.galasa.extensions.common.impl.HttpRequestFactoryImpl;
@@ -262,6 +269,88 @@ public class CouchdbValidatorImplTest {
 
     }
 
+    public static class ListIndexesInteraction extends WelcomeInteractionOK {
+
+        private String indexesJson;
+
+        public ListIndexesInteraction(String indexesJson) {
+            super();
+            this.indexesJson = indexesJson;
+        }
+
+        @Override
+        public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+            super.validateRequest(host,request,"GET");
+            assertThat(request.getRequestLine().getUri()).isEqualTo(getRasUriStr() + "/galasa_run/_index");
+        }
+
+        @Override
+        public MockCloseableHttpResponse getResponse() {
+            MockCloseableHttpResponse response = new MockCloseableHttpResponse();
+            MockStatusLine statusLine = new MockStatusLine();
+            statusLine.setStatusCode(HttpStatus.SC_OK);
+            response.setStatusLine(statusLine);
+            response.setEntity(new MockHttpEntity(indexesJson));
+            return response;
+        }
+    }
+
+    public static class CreateIndexInteraction extends WelcomeInteractionOK {
+
+        private String expectedIndexJson;
+
+        public CreateIndexInteraction(String expectedIndexJson) {
+            super();
+            this.expectedIndexJson = expectedIndexJson;
+        }
+
+        @Override
+        public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+            super.validateRequest(host,request,"POST");
+            assertThat(request.getRequestLine().getUri()).isEqualTo(getRasUriStr() + "/galasa_run/_index");
+            try {
+                String requestBody = EntityUtils.toString(((HttpPost) request).getEntity());
+                assertThat(JsonParser.parseString(requestBody)).isEqualTo(JsonParser.parseString(expectedIndexJson));
+            } catch (IOException ex) {
+                fail("Failed to parse POST request body");
+            }
+        }
+
+        @Override
+        public MockCloseableHttpResponse getResponse() {
+            MockCloseableHttpResponse response = new MockCloseableHttpResponse();
+            MockStatusLine statusLine = new MockStatusLine();
+            statusLine.setStatusCode(HttpStatus.SC_OK);
+            response.setStatusLine(statusLine);
+            return response;
+        }
+    }
+
+    public static class DeleteIndexInteraction extends WelcomeInteractionOK {
+
+        private String expectedUri;
+
+        public DeleteIndexInteraction(String expectedUri) {
+            super();
+            this.expectedUri = expectedUri;
+        }
+
+        @Override
+        public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+            super.validateRequest(host,request,"DELETE");
+            assertThat(request.getRequestLine().getUri()).isEqualTo(expectedUri);
+        }
+
+        @Override
+        public MockCloseableHttpResponse getResponse() {
+            MockCloseableHttpResponse response = new MockCloseableHttpResponse();
+            MockStatusLine statusLine = new MockStatusLine();
+            statusLine.setStatusCode(HttpStatus.SC_OK);
+            response.setStatusLine(statusLine);
+            return response;
+        }
+    }
+
     @Test
     public void TestRasStoreCreateBlowsUpIfCouchDBDoesntReturnWelcomeString() throws Exception {
 
@@ -318,6 +407,74 @@ public class CouchdbValidatorImplTest {
         interactions.add( new CheckIndexPOSTInteraction("bundle"));
         interactions.add( new CheckDatabaseHasDocumentInteraction());
         interactions.add( new CheckIndexPOSTInteraction("result"));
+        interactions.add( new CheckDatabaseHasDocumentInteraction());
+        interactions.add( new CheckIndexPOSTInteraction("requestor-queued-index", "requestor", "queued"));
+        interactions.add( new CheckDatabaseHasDocumentInteraction());
+        interactions.add( new CheckIndexPOSTInteraction("result-queued-index", "result", "queued"));
+        interactions.add( new CheckDatabaseHasDocumentInteraction());
+        interactions.add( new CheckIndexPOSTInteraction("status-queued-index", "status", "queued"));
+        interactions.add( new CheckDatabaseHasDocumentInteraction());
+        interactions.add( new CheckIndexPOSTInteraction("testName-queued-index", "testName", "queued"));
+        interactions.add( new CheckDatabaseHasDocumentInteraction());
+        interactions.add( new CheckIndexPOSTInteraction("bundle-queued-index", "bundle", "queued"));
+        interactions.add( new CheckDatabaseHasDocumentInteraction());
+        interactions.add( new CheckIndexPOSTInteraction("requestor-result-queued-index", "requestor", "result", "queued"));
+        interactions.add( new CheckDatabaseHasDocumentInteraction());
+        interactions.add( new CheckIndexPOSTInteraction("bundle-testName-queued-index", "bundle", "testName", "queued"));
+
+        MockCloseableHttpClient mockHttpClient = new MockCloseableHttpClient(interactions);
+
+        CouchdbValidator validatorUnderTest = new CouchdbValidatorImpl();
+        HttpRequestFactory requestFactory = new HttpRequestFactoryImpl("Basic", "checkisvalid");
+        MockTimeService mockTimeService = new MockTimeService(Instant.now());
+
+        // When..
+        Throwable thrown = catchThrowable(()->validatorUnderTest.checkCouchdbDatabaseIsValid( CouchdbTestFixtures.rasUri , mockHttpClient, requestFactory, mockTimeService));
+
+        assertThat(thrown).isNull();
+    }
+
+    @Test
+    public void TestIndexInAHashedDesignDocumentIsReplacedByOneInItsOwnDesignDocument() throws Exception {
+        // Given...
+        // All the indexes are present in their own design documents, except one created before
+        // they had them, which is in a design document CouchDB named with a hash
+        JsonArray indexes = new JsonArray();
+        indexes.add(JsonParser.parseString("{\"ddoc\":null,\"name\":\"_all_docs\",\"type\":\"special\",\"def\":{\"fields\":[{\"_id\":\"asc\"}]}}"));
+        for (RunQueryPlanner.RunIndex runIndex : RunQueryPlanner.RUN_INDEXES) {
+            JsonObject index = new JsonObject();
+            if (runIndex.getName().equals("requestor-queued-index")) {
+                index.addProperty("ddoc", "_design/a4d1c8e2f0b97d3e6c5b1a9f8e7d6c5b4a3f2e1d");
+            } else {
+                index.addProperty("ddoc", "_design/" + runIndex.getName());
+            }
+            index.addProperty("name", runIndex.getName());
+            index.addProperty("type", "json");
+            indexes.add(index);
+        }
+        JsonObject indexesList = new JsonObject();
+        indexesList.addProperty("total_rows", indexes.size());
+        indexesList.add("indexes", indexes);
+        String indexesJson = indexesList.toString();
+
+        List <HttpInteraction> interactions = new ArrayList<HttpInteraction>();
+        interactions.add( new WelcomeInteractionOK() );
+        interactions.add( new CheckDatabasePresentInteraction());
+        interactions.add( new CheckDatabasePresentInteraction());
+        interactions.add( new CheckDatabasePresentInteraction());
+        interactions.add( new CheckDatabaseHasDocumentInteraction());
+        interactions.add( new SubmitDesignDocumentInteraction());
+
+        for (RunQueryPlanner.RunIndex runIndex : RunQueryPlanner.RUN_INDEXES) {
+            interactions.add( new ListIndexesInteraction(indexesJson));
+            if (runIndex.getName().equals("requestor-queued-index")) {
+                interactions.add( new CreateIndexInteraction(
+                    "{\"ddoc\":\"requestor-queued-index\",\"name\":\"requestor-queued-index\",\"type\":\"json\","
+                    + "\"index\":{\"fields\":[{\"requestor\":\"asc\"},{\"queued\":\"asc\"}]}}"));
+                interactions.add( new DeleteIndexInteraction(CouchdbTestFixtures.rasUriStr
+                    + "/galasa_run/_index/a4d1c8e2f0b97d3e6c5b1a9f8e7d6c5b4a3f2e1d/json/requestor-queued-index"));
+            }
+        }
 
         MockCloseableHttpClient mockHttpClient = new MockCloseableHttpClient(interactions);
 
@@ -328,6 +485,7 @@ public class CouchdbValidatorImplTest {
         // When..
         Throwable thrown = catchThrowable(()->validatorUnderTest.checkCouchdbDatabaseIsValid( CouchdbTestFixtures.rasUri , mockHttpClient, requestFactory, mockTimeService));
 
+        // Then..
         assertThat(thrown).isNull();
     }
 
@@ -0,0 +1,171 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import dev.galasa.extensions.mocks.MockTimeService;
+import dev.galasa.framework.spi.ResultArchiveStoreException;
+import dev.galasa.ras.couchdb.internal.mocks.MockLogFactory;
+
+public class FacetCacheTest {
+
+    private static final int TTL_SECONDS = 30;
+
+    // Pretends to be the _changes feed of the runs database, which is at sequence 'latestSequence'
+    private static class MockRunChangesChecker implements FacetCache.RunChangesChecker {
+        private int latestSequence = 1;
+        private int checkCount = 0;
+        private boolean isChangesFeedBroken = false;
+
+        @Override
+        public String getLatestSequence() throws ResultArchiveStoreException {
+            if (isChangesFeedBroken) {
+                throw new ResultArchiveStoreException("Unable to get run changes - 500 Internal Server Error");
+            }
+            return String.valueOf(latestSequence);
+        }
+
+        @Override
+        public boolean hasChangedSince(String sequence) {
+            checkCount++;
+            return latestSequence > Integer.parseInt(sequence);
+        }
+    }
+
+    private static class MockFacetLoader implements FacetCache.FacetLoader<String> {
+        private List<String> facets = List.of("requestor1", "requestor2");
+        private int loadCount = 0;
+
+        @Override
+        public List<String> loadFacets() {
+            loadCount++;
+            return new ArrayList<>(facets);
+        }
+    }
+
+    private MockTimeService timeService = new MockTimeService(Instant.EPOCH);
+    private MockRunChangesChecker changesChecker = new MockRunChangesChecker();
+    private MockFacetLoader loader = new MockFacetLoader();
+
+    private FacetCache createFacetCache(int ttlSeconds) {
+        return new FacetCache(ttlSeconds, timeService, changesChecker, new MockLogFactory());
+    }
+
+    @Test
+    public void testFacetsAreOnlyLoadedOnceWithinTheirTimeToLive() throws Exception {
+        // Given...
+        FacetCache cache = createFacetCache(TTL_SECONDS);
+
+        // When...
+        List<String> first = cache.getFacets("requestors-view", loader);
+        timeService.setCurrentTime(Instant.EPOCH.plusSeconds(TTL_SECONDS - 1));
+        List<String> second = cache.getFacets("requestors-view", loader);
+
+        // Then...
+        assertThat(first).containsExactly("requestor1", "requestor2");
+        assertThat(second).containsExactly("requestor1", "requestor2");
+        assertThat(loader.loadCount).isEqualTo(1);
+        assertThat(changesChecker.checkCount).isEqualTo(0);
+    }
+
+    @Test
+    public void testExpiredFacetsAreKeptIfNoRunsHaveChanged() throws Exception {
+        // Given...
+        FacetCache cache = createFacetCache(TTL_SECONDS);
+        cache.getFacets("requestors-view", loader);
+
+        // When...
+        timeService.setCurrentTime(Instant.EPOCH.plusSeconds(TTL_SECONDS));
+        List<String> facets = cache.getFacets("requestors-view", loader);
+
+        // Then...
+        assertThat(facets).containsExactly("requestor1", "requestor2");
+        assertThat(loader.loadCount).isEqualTo(1);
+        assertThat(changesChecker.checkCount).isEqualTo(1);
+    }
+
+    @Test
+    public void testExpiredFacetsAreLoadedAgainIfRunsHaveChanged() throws Exception {
+        // Given...
+        FacetCache cache = createFacetCache(TTL_SECONDS);
+        cache.getFacets("requestors-view", loader);
+
+        changesChecker.latestSequence = 2;
+        loader.facets = List.of("requestor1", "requestor2", "requestor3");
+
+        // When...
+        timeService.setCurrentTime(Instant.EPOCH.plusSeconds(TTL_SECONDS));
+        List<String> facets = cache.getFacets("requestors-view", loader);
+
+        // Then...
+        assertThat(facets).containsExactly("requestor1", "requestor2", "requestor3");
+        assertThat(loader.loadCount).isEqualTo(2);
+    }
+
+    @Test
+    public void testInvalidatedFacetsAreLoadedAgainStraightAway() throws Exception {
+        // Given...
+        FacetCache cache = createFacetCache(TTL_SECONDS);
+        cache.getFacets("requestors-view", loader);
+
+        // When...
+        cache.invalidate();
+        cache.getFacets("requestors-view", loader);
+
+        // Then...
+        assertThat(loader.loadCount).isEqualTo(2);
+    }
+
+    @Test
+    public void testFacetsAreLoadedEveryTimeIfTheyHaveNoTimeToLive() throws Exception {
+        // Given...
+        FacetCache cache = createFacetCache(0);
+
+        // When...
+        cache.getFacets("requestors-view", loader);
+        cache.getFacets("requestors-view", loader);
+
+        // Then...
+        assertThat(loader.loadCount).isEqualTo(2);
+    }
+
+    @Test
+    public void testFacetsAreStillCachedWhenTheChangesFeedCannotBeRead() throws Exception {
+        // Given...
+        changesChecker.isChangesFeedBroken = true;
+        FacetCache cache = createFacetCache(TTL_SECONDS);
+
+        // When...
+        cache.getFacets("requestors-view", loader);
+        cache.getFacets("requestors-view", loader);
+        timeService.setCurrentTime(Instant.EPOCH.plusSeconds(TTL_SECONDS));
+        cache.getFacets("requestors-view", loader);
+
+        // Then... without a sequence to check against, the facets are loaded again once they expire
+        assertThat(loader.loadCount).isEqualTo(2);
+        assertThat(changesChecker.checkCount).isEqualTo(0);
+    }
+
+    @Test
+    public void testChangingTheFacetsGivenOutDoesNotChangeTheCachedFacets() throws Exception {
+        // Given...
+        FacetCache cache = createFacetCache(TTL_SECONDS);
+
+        // When...
+        cache.getFacets("requestors-view", loader).clear();
+        List<String> facets = cache.getFacets("requestors-view", loader);
+
+        // Then...
+        assertThat(facets).containsExactly("requestor1", "requestor2");
+    }
+}
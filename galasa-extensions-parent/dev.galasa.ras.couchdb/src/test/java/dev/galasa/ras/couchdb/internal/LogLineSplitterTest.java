@@ -0,0 +1,64 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LogLineSplitterTest {
+
+    private List<String> split(String message) throws Exception {
+        List<String> lines = new ArrayList<>();
+        LogLineSplitter.forEachLine(message, lines::add);
+        return lines;
+    }
+
+    private void assertSplitsLikeTheRegex(String message) throws Exception {
+        assertThat(split(message)).as("Splitting '%s'", message.replace("\r", "\\r").replace("\n", "\\n"))
+            .containsExactly(message.split("\r\n?|\n"));
+    }
+
+    @Test
+    public void testMessageWithNoLineEndsIsASingleLine() throws Exception {
+        assertThat(split("hello world")).containsExactly("hello world");
+    }
+
+    @Test
+    public void testEmptyMessageIsASingleEmptyLine() throws Exception {
+        assertThat(split("")).containsExactly("");
+    }
+
+    @Test
+    public void testAllKindsOfLineEndAreRecognised() throws Exception {
+        assertThat(split("one\rtwo\nthree\r\nfour")).containsExactly("one", "two", "three", "four");
+    }
+
+    @Test
+    public void testTrailingEmptyLinesAreDropped() throws Exception {
+        assertThat(split("one\n\n\r\n")).containsExactly("one");
+    }
+
+    @Test
+    public void testLeadingAndInnerEmptyLinesAreKept() throws Exception {
+        assertThat(split("\n\none\n\ntwo")).containsExactly("", "", "one", "", "two");
+    }
+
+    @Test
+    public void testLinesMatchStringSplit() throws Exception {
+        String[] messages = {
+            "", "a", "\n", "\r", "\r\n", "\n\r", "\r\r\n", "\n\n\n",
+            "a\n", "\na", "a\r\nb", "a\n\rb", "a\r\rb", "a\r\n\r\nb\r\n",
+            "  indented\n\ttabbed\r\n", "trailing space \n ", "\r\n\r\nx\r\n\r\n",
+        };
+        for (String message : messages) {
+            assertSplitsLikeTheRegex(message);
+        }
+    }
+}
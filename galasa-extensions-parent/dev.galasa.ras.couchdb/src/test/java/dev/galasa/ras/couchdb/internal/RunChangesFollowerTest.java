@@ -0,0 +1,231 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonPrimitive;
+
+import org.junit.Test;
+
+import dev.galasa.extensions.mocks.MockTimeService;
+import dev.galasa.framework.spi.utils.GalasaGson;
+import dev.galasa.ras.couchdb.internal.mocks.MockLogFactory;
+import dev.galasa.ras.couchdb.internal.pojos.ChangeRow;
+import dev.galasa.ras.couchdb.internal.pojos.TestStructureCouchdb;
+
+public class RunChangesFollowerTest {
+
+    private GalasaGson gson = new GalasaGson();
+
+    // A feed which stays connected without sending anything, until it is disconnected
+    private static class SilentFeed extends Reader {
+        private final CountDownLatch disconnected = new CountDownLatch(1);
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            try {
+                disconnected.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Feed disconnected");
+        }
+
+        @Override
+        public void close() {
+            disconnected.countDown();
+        }
+    }
+
+    // Hands out the given feeds in turn, or throws the given exceptions, then a silent feed once they run out
+    private static class MockChangesFeedConnector implements RunChangesFollower.ChangesFeedConnector {
+        private final Queue<Object> feeds;
+        private final List<String> sinceSequences = new CopyOnWriteArrayList<>();
+        private final SilentFeed silentFeed = new SilentFeed();
+        private final CountDownLatch silentFeedOpened = new CountDownLatch(1);
+
+        MockChangesFeedConnector(Object... feeds) {
+            this.feeds = new LinkedList<>(List.of(feeds));
+        }
+
+        @Override
+        public synchronized Reader openChangesFeed(String since) throws IOException {
+            sinceSequences.add(since);
+            Object feed = feeds.poll();
+            if (feed == null) {
+                silentFeedOpened.countDown();
+                return silentFeed;
+            }
+            if (feed instanceof IOException) {
+                throw (IOException) feed;
+            }
+            return new StringReader((String) feed);
+        }
+    }
+
+    private static class RecordingListener implements RunChangesFollower.RunChangeListener {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void runChanged(TestStructureCouchdb run, TestStructureCouchdb previousRun) {
+            String previousStatus = (previousRun == null) ? null : previousRun.getStatus();
+            events.add("changed " + run.getRunName() + " " + previousStatus + "->" + run.getStatus());
+        }
+
+        @Override
+        public void runDeleted(String runDocumentId) {
+            events.add("deleted " + runDocumentId);
+        }
+    }
+
+    private String createChangeLine(String seq, String runName, String status) {
+        TestStructureCouchdb run = new TestStructureCouchdb();
+        run._id = runName + "-id";
+        run._rev = "1-abc";
+        run.setRunName(runName);
+        run.setStatus(status);
+
+        ChangeRow change = new ChangeRow();
+        change.seq = new JsonPrimitive(seq);
+        change.id = run._id;
+        change.doc = run;
+        return gson.toJsonTree(change).toString();
+    }
+
+    private String createDeletedLine(String seq, String runName) {
+        ChangeRow change = new ChangeRow();
+        change.seq = new JsonPrimitive(seq);
+        change.id = runName + "-id";
+        change.deleted = true;
+        return gson.toJsonTree(change).toString();
+    }
+
+    private RunChangesFollower createFollower(int maxRecentRuns, RunChangesFollower.ChangesFeedConnector connector) {
+        return new RunChangesFollower("now", maxRecentRuns, connector, gson, new MockTimeService(Instant.EPOCH), new MockLogFactory());
+    }
+
+    private List<String> getRecentRunNames(RunChangesFollower follower) {
+        List<String> runNames = new ArrayList<>();
+        for (TestStructureCouchdb run : follower.getRecentRuns()) {
+            runNames.add(run.getRunName());
+        }
+        return runNames;
+    }
+
+    @Test
+    public void testChangesUpdateTheRecentRunsAndAreGivenToListeners() throws Exception {
+        // Given...
+        RunChangesFollower follower = createFollower(10, new MockChangesFeedConnector());
+        RecordingListener listener = new RecordingListener();
+        follower.addListener(listener);
+
+        // When...
+        follower.processLine(createChangeLine("1-a", "RUN1", "queued"));
+        follower.processLine("");
+        follower.processLine(createChangeLine("2-b", "RUN2", "queued"));
+        follower.processLine("{\"seq\":\"3-c\",\"id\":\"_design/docs\",\"changes\":[{\"rev\":\"2-x\"}]}");
+        follower.processLine(createChangeLine("4-d", "RUN1", "running"));
+        follower.processLine(createDeletedLine("5-e", "RUN2"));
+
+        // Then...
+        assertThat(listener.events).containsExactly(
+            "changed RUN1 null->queued",
+            "changed RUN2 null->queued",
+            "changed RUN1 queued->running",
+            "deleted RUN2-id"
+        );
+        assertThat(getRecentRunNames(follower)).containsExactly("RUN1");
+        assertThat(follower.getRecentRuns().get(0).getStatus()).isEqualTo("running");
+        assertThat(follower.getLastSequence()).isEqualTo("5-e");
+    }
+
+    @Test
+    public void testRecentRunsAreMostRecentlyChangedFirstAndBounded() throws Exception {
+        // Given...
+        RunChangesFollower follower = createFollower(3, new MockChangesFeedConnector());
+
+        // When...
+        follower.processLine(createChangeLine("1-a", "RUN1", "queued"));
+        follower.processLine(createChangeLine("2-b", "RUN2", "queued"));
+        follower.processLine(createChangeLine("3-c", "RUN3", "queued"));
+        follower.processLine(createChangeLine("4-d", "RUN1", "running"));
+        follower.processLine(createChangeLine("5-e", "RUN4", "queued"));
+
+        // Then... RUN2 changed longest ago, so it has been dropped
+        assertThat(getRecentRunNames(follower)).containsExactly("RUN4", "RUN1", "RUN3");
+    }
+
+    @Test
+    public void testListenerWhichFailsDoesNotStopOtherListeners() throws Exception {
+        // Given...
+        RunChangesFollower follower = createFollower(10, new MockChangesFeedConnector());
+        RecordingListener listener = new RecordingListener();
+        follower.addListener((run, previousRun) -> {
+            throw new IllegalStateException("Listener failed");
+        });
+        follower.addListener(listener);
+
+        // When...
+        follower.processLine(createChangeLine("1-a", "RUN1", "queued"));
+
+        // Then...
+        assertThat(listener.events).containsExactly("changed RUN1 null->queued");
+    }
+
+    @Test
+    public void testFollowerReconnectsFromTheLastSequenceSeen() throws Exception {
+        // Given...
+        String firstFeed = createChangeLine("1-a", "RUN1", "queued") + "\n\n" + createChangeLine("2-b", "RUN2", "queued") + "\n";
+        String secondFeed = "\n" + createChangeLine("3-c", "RUN1", "finished") + "\n{\"last_seq\":\"4-d\",\"pending\":0}\n";
+        MockChangesFeedConnector connector = new MockChangesFeedConnector(
+            firstFeed,
+            new IOException("Connection refused"),
+            secondFeed
+        );
+        RunChangesFollower follower = createFollower(10, connector);
+
+        // When...
+        follower.start();
+        try {
+            assertThat(connector.silentFeedOpened.await(10, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            follower.close();
+        }
+
+        // Then...
+        assertThat(connector.sinceSequences).containsExactly("now", "2-b", "2-b", "4-d");
+        assertThat(getRecentRunNames(follower)).containsExactly("RUN1", "RUN2");
+        assertThat(follower.getRecentRuns().get(0).getStatus()).isEqualTo("finished");
+    }
+
+    @Test
+    public void testClosingTheFollowerDisconnectsTheFeed() throws Exception {
+        // Given...
+        MockChangesFeedConnector connector = new MockChangesFeedConnector();
+        RunChangesFollower follower = createFollower(10, connector);
+        follower.start();
+        assertThat(connector.silentFeedOpened.await(10, TimeUnit.SECONDS)).isTrue();
+
+        // When...
+        follower.close();
+
+        // Then...
+        assertThat(connector.silentFeed.disconnected.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+}
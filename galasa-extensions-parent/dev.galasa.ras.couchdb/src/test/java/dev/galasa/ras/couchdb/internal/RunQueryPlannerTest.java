@@ -0,0 +1,81 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import dev.galasa.framework.spi.ras.RasSortField;
+
+public class RunQueryPlannerTest {
+
+    private RunQueryPlanner planner = new RunQueryPlanner();
+
+    private JsonObject createSelector(String conditions) {
+        return JsonParser.parseString("{\"$and\":[" + conditions + "]}").getAsJsonObject();
+    }
+
+    @Test
+    public void testSearchForOneValueSortedByQueuedUsesTheCompositeIndex() {
+        // Given...
+        JsonObject selector = createSelector("{\"requestor\":{\"$in\":[\"user1\"]}}, {\"queued\":{\"$gte\":\"1970-01-01T00:00:00Z\"}}");
+
+        // When...
+        RunQueryPlanner.RunQueryPlan plan = planner.plan(selector, new RasSortField("queued", "desc"));
+
+        // Then...
+        assertThat(plan.getIndexName()).isEqualTo("requestor-queued-index");
+        assertThat(plan.getIndexHint()).containsExactly("requestor-queued-index", "requestor-queued-index");
+        assertThat(plan.getSort().toString()).isEqualTo("[{\"requestor\":\"desc\"},{\"queued\":\"desc\"}]");
+        assertThat(plan.getShape()).isEqualTo("selector=[queued, requestor] sort=queued desc index=requestor-queued-index");
+    }
+
+    @Test
+    public void testIndexWithTheMostMatchingFieldsIsChosen() {
+        // Given...
+        JsonObject selector = createSelector("{\"result\":{\"$in\":[\"Passed\"]}}, {\"requestor\":{\"$in\":[\"user1\"]}}");
+
+        // When...
+        RunQueryPlanner.RunQueryPlan plan = planner.plan(selector, new RasSortField("queued", "asc"));
+
+        // Then...
+        assertThat(plan.getIndexName()).isEqualTo("requestor-result-queued-index");
+        assertThat(plan.getSort().toString()).isEqualTo("[{\"requestor\":\"asc\"},{\"result\":\"asc\"},{\"queued\":\"asc\"}]");
+    }
+
+    @Test
+    public void testSearchForManyValuesIsLeftForCouchdbToPlan() {
+        // Given...
+        JsonObject selector = createSelector("{\"requestor\":{\"$in\":[\"user1\",\"user2\"]}}");
+
+        // When...
+        RunQueryPlanner.RunQueryPlan plan = planner.plan(selector, new RasSortField("queued", "desc"));
+
+        // Then... sorting on requestor first would no longer sort the runs by when they were queued
+        assertThat(plan.getIndexName()).isNull();
+        assertThat(plan.getIndexHint()).isNull();
+        assertThat(plan.getSort().toString()).isEqualTo("[{\"queued\":\"desc\"}]");
+        assertThat(plan.getShape()).isEqualTo("selector=[requestor] sort=queued desc");
+    }
+
+    @Test
+    public void testSearchWithoutSortIsLeftForCouchdbToPlan() {
+        // Given...
+        JsonObject selector = createSelector("{\"requestor\":{\"$in\":[\"user1\"]}}");
+
+        // When...
+        RunQueryPlanner.RunQueryPlan plan = planner.plan(selector, null);
+
+        // Then...
+        assertThat(plan.getIndexName()).isNull();
+        assertThat(plan.getSort()).isNull();
+        assertThat(plan.getShape()).isEqualTo("selector=[requestor]");
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import dev.galasa.ras.couchdb.internal.mocks.MockLogFactory;
+import dev.galasa.ras.couchdb.internal.pojos.ExecutionStats;
+
+public class RunQueryStatisticsTest {
+
+    private ExecutionStats createExecutionStats(double executionTimeMillis, long docsExamined, long resultsReturned) {
+        ExecutionStats stats = new ExecutionStats();
+        stats.execution_time_ms = executionTimeMillis;
+        stats.total_docs_examined = docsExamined;
+        stats.total_keys_examined = docsExamined;
+        stats.results_returned = resultsReturned;
+        return stats;
+    }
+
+    @Test
+    public void testStatisticsAreAddedUpByShapeOfSearch() {
+        // Given...
+        RunQueryStatistics statistics = new RunQueryStatistics(1000, new MockLogFactory());
+
+        // When...
+        statistics.record("shape1", createExecutionStats(10, 100, 100));
+        statistics.record("shape1", createExecutionStats(30, 50, 50));
+        statistics.record("shape2", createExecutionStats(5, 1, 1));
+
+        // Then...
+        Map<String, RunQueryStatistics.QueryShapeStatistics> byShape = statistics.getStatistics();
+        assertThat(byShape).containsOnlyKeys("shape1", "shape2");
+
+        RunQueryStatistics.QueryShapeStatistics shape1 = byShape.get("shape1");
+        assertThat(shape1.getQueryCount()).isEqualTo(2);
+        assertThat(shape1.getTotalExecutionTimeMillis()).isEqualTo(40);
+        assertThat(shape1.getMaxExecutionTimeMillis()).isEqualTo(30);
+        assertThat(shape1.getTotalDocsExamined()).isEqualTo(150);
+        assertThat(shape1.getTotalResultsReturned()).isEqualTo(150);
+    }
+
+    @Test
+    public void testSlowShapeIsOnlyWarnedAboutOnce() {
+        // Given...
+        MockLogFactory logFactory = new MockLogFactory();
+        RunQueryStatistics statistics = new RunQueryStatistics(1000, logFactory);
+
+        // When...
+        statistics.record("slow-shape", createExecutionStats(1500, 10, 10));
+        statistics.record("slow-shape", createExecutionStats(2000, 10, 10));
+
+        // Then...
+        String log = logFactory.toString();
+        assertThat(log).contains("Slow search for runs. Search for runs slow-shape took 1500.0ms");
+        assertThat(log).doesNotContain("Slow search for runs. Search for runs slow-shape took 2000.0ms");
+    }
+
+    @Test
+    public void testShapeExaminingManyMoreDocumentsThanItReturnsIsWarnedAbout() {
+        // Given...
+        MockLogFactory logFactory = new MockLogFactory();
+        RunQueryStatistics statistics = new RunQueryStatistics(1000, logFactory);
+
+        // When...
+        statistics.record("scanning-shape", createExecutionStats(50, 5000, 20));
+
+        // Then...
+        assertThat(logFactory.toString()).contains("Inefficient search for runs. Search for runs scanning-shape took 50.0ms, examining 5000 documents to return 20");
+    }
+}
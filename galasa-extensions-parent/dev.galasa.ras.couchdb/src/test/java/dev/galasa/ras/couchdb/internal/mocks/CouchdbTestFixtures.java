@@ -22,6 +22,7 @@ import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.util.EntityUtils;
 
 import dev.galasa.extensions.common.couchdb.pojos.PutPostResponse;
@@ -200,6 +201,160 @@ public class CouchdbTestFixtures {
     }
 
 
+    public static class CreateLogDocInteractionOK extends BaseHttpInteraction {
+
+        private String[] expectedLogLines;
+        private volatile boolean isCompleted = false;
+
+        public CreateLogDocInteractionOK(String rasUriStr, String documentId, String returnedDocumentRev, String... expectedLogLines) {
+            super(rasUriStr, documentId, returnedDocumentRev);
+            this.expectedLogLines = expectedLogLines;
+        }
+
+        public boolean isCompleted() {
+            return this.isCompleted;
+        }
+
+        @Override
+        public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+            super.validateRequest(host,request);
+            assertThat(request.getRequestLine().getMethod()).isEqualTo("POST");
+            assertThat(request.getRequestLine().getUri()).isEqualTo(getRasUriStr()+"/galasa_log");
+            validatePostRequestBody((HttpPost) request, expectedLogLines);
+        }
+
+        @Override
+        public MockCloseableHttpResponse getResponse() {
+            PutPostResponse responseTransportBean = new PutPostResponse();
+            responseTransportBean.id = getDocumentId();
+            responseTransportBean.ok = true ;
+            responseTransportBean.rev = getReturnedDocumentRev();
+
+            GalasaGson gson = new GalasaGson();
+            HttpEntity entity = new MockHttpEntity(gson.toJson(responseTransportBean));
+
+            MockCloseableHttpResponse response = new MockCloseableHttpResponse();
+
+            MockStatusLine statusLine = new MockStatusLine();
+            statusLine.setStatusCode(HttpStatus.SC_CREATED);
+            response.setStatusLine(statusLine);
+            response.setEntity(entity);
+
+            this.isCompleted = true;
+            return response;
+        }
+    }
+
+    public static class BulkCreateLogDocsInteractionOK extends BaseHttpInteraction {
+
+        private String[] createdDocumentIds;
+        private String[] expectedLogLines;
+        private volatile boolean isCompleted = false;
+
+        public BulkCreateLogDocsInteractionOK(String rasUriStr, String[] createdDocumentIds, String returnedDocumentRev, String... expectedLogLines) {
+            super(rasUriStr, null, returnedDocumentRev);
+            this.createdDocumentIds = createdDocumentIds;
+            this.expectedLogLines = expectedLogLines;
+        }
+
+        public boolean isCompleted() {
+            return this.isCompleted;
+        }
+
+        @Override
+        public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+            super.validateRequest(host,request);
+            assertThat(request.getRequestLine().getMethod()).isEqualTo("POST");
+            assertThat(request.getRequestLine().getUri()).isEqualTo(getRasUriStr()+"/galasa_log/_bulk_docs");
+            validatePostRequestBody((HttpPost) request, expectedLogLines);
+        }
+
+        @Override
+        public MockCloseableHttpResponse getResponse() {
+            PutPostResponse[] responseTransportBeans = new PutPostResponse[createdDocumentIds.length];
+            for (int i = 0; i < createdDocumentIds.length; i++) {
+                PutPostResponse responseTransportBean = new PutPostResponse();
+                if (createdDocumentIds[i] == null) {
+                    // A null id stands for a document which CouchDB failed to create
+                    responseTransportBean.error = "forbidden";
+                    responseTransportBean.reason = "document rejected";
+                } else {
+                    responseTransportBean.id = createdDocumentIds[i];
+                    responseTransportBean.ok = true ;
+                    responseTransportBean.rev = getReturnedDocumentRev();
+                }
+                responseTransportBeans[i] = responseTransportBean;
+            }
+
+            GalasaGson gson = new GalasaGson();
+            HttpEntity entity = new MockHttpEntity(gson.toJson(responseTransportBeans));
+
+            MockCloseableHttpResponse response = new MockCloseableHttpResponse();
+
+            MockStatusLine statusLine = new MockStatusLine();
+            statusLine.setStatusCode(HttpStatus.SC_CREATED);
+            response.setStatusLine(statusLine);
+            response.setEntity(entity);
+
+            this.isCompleted = true;
+            return response;
+        }
+    }
+
+    public static class UpdateTestDocInteractionOK extends BaseHttpInteraction {
+
+        private String expectedDocumentRevSentToServer;
+        private String[] expectedRequestBodyParts;
+        private volatile boolean isCompleted = false;
+
+        public UpdateTestDocInteractionOK(String rasUriStr, String documentId, String expectedDocumentRevSentToServer, String returnedDocumentRev, String... expectedRequestBodyParts) {
+            super(rasUriStr, documentId, returnedDocumentRev);
+            this.expectedDocumentRevSentToServer = expectedDocumentRevSentToServer;
+            this.expectedRequestBodyParts = expectedRequestBodyParts;
+        }
+
+        public boolean isCompleted() {
+            return this.isCompleted;
+        }
+
+        @Override
+        public void validateRequest(HttpHost host, HttpRequest request) throws RuntimeException {
+            super.validateRequest(host,request);
+            assertThat(request.getRequestLine().getMethod()).isEqualTo("PUT");
+            assertThat(request.getRequestLine().getUri()).isEqualTo(getRasUriStr()+"/galasa_run/"+getDocumentId());
+            assertThat(request.getHeaders("If-Match")[0].getValue()).isEqualTo(expectedDocumentRevSentToServer);
+
+            HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+            try {
+                assertThat(EntityUtils.toString(entity)).contains(expectedRequestBodyParts);
+            } catch (IOException ex ) {
+                throw new RuntimeException("Failed to read content from request."+ request.getRequestLine().getUri());
+            }
+        }
+
+        @Override
+        public MockCloseableHttpResponse getResponse() {
+            PutPostResponse responseTransportBean = new PutPostResponse();
+            responseTransportBean.id = getDocumentId();
+            responseTransportBean.ok = true ;
+            responseTransportBean.rev = getReturnedDocumentRev();
+
+            GalasaGson gson = new GalasaGson();
+            HttpEntity entity = new MockHttpEntity(gson.toJson(responseTransportBean));
+
+            MockCloseableHttpResponse response = new MockCloseableHttpResponse();
+
+            MockStatusLine statusLine = new MockStatusLine();
+            statusLine.setStatusCode(HttpStatus.SC_CREATED);
+            response.setStatusLine(statusLine);
+            response.setEntity(entity);
+
+            this.isCompleted = true;
+            return response;
+        }
+    }
+
+
     public CouchdbRasStore createCouchdbRasStore(Map<String,String> inputProps) throws Exception {
         List<HttpInteraction> interactions = new ArrayList<HttpInteraction>();
         interactions.add( new CreateTestDocInteractionOK(rasUriStr, documentId1, "124") );
@@ -230,21 +385,23 @@ public class CouchdbTestFixtures {
     }
 
     public CouchdbRasStore createCouchdbRasStore(MockConfigurationPropertyStoreService mockCps, IRun mockRun, List<HttpInteraction> allInteractions , MockLogFactory logFactory ) throws Exception {
+        return createCouchdbRasStore(mockCps, mockRun, new MockCloseableHttpClient(allInteractions), logFactory);
+    }
+
+    public CouchdbRasStore createCouchdbRasStore(MockConfigurationPropertyStoreService mockCps, IRun mockRun, CloseableHttpClient mockHttpClient, MockLogFactory logFactory ) throws Exception {
         IFramework mockFramework = new MockFramework() {
             @Override
             public IRun getTestRun() {
                 return mockRun;
-            }     
+            }
             @Override
             public @NotNull IConfigurationPropertyStoreService getConfigurationPropertyService(
                     @NotNull String namespace) throws ConfigurationPropertyStoreException {
                 assertThat(namespace).isEqualTo("couchdb");
                 return mockCps;
-            } 
+            }
         };
 
-        MockCloseableHttpClient mockHttpClient = new MockCloseableHttpClient(allInteractions);
-
         MockCouchdbValidator mockValidator = new MockCouchdbValidator();
 
         MockHttpClientFactory mockHttpClientFactory = new MockHttpClientFactory(mockHttpClient);
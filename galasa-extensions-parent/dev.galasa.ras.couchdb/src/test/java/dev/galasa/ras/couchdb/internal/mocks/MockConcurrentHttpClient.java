@@ -0,0 +1,78 @@
+/*
+ * Copyright contributors to the Galasa project
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package dev.galasa.ras.couchdb.internal.mocks;
+
+import static org.assertj.core.api.Fail.fail;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import dev.galasa.extensions.mocks.BaseHttpInteraction;
+
+// An http client for code which sends requests from many threads at once, so the order they arrive in isn't known.
+// Each interaction is matched to the request for its URI, and is used up once it has been.
+// The responses are made outside of any lock, so an interaction can wait for other requests to arrive.
+public class MockConcurrentHttpClient extends CloseableHttpClient {
+
+    private final Map<String, BaseHttpInteraction> interactionsByUri = new HashMap<>();
+
+    public MockConcurrentHttpClient(List<BaseHttpInteraction> interactions) {
+        for (BaseHttpInteraction interaction : interactions) {
+            interactionsByUri.put(interaction.getExpectedBaseUri(), interaction);
+        }
+    }
+
+    public synchronized boolean isEveryInteractionUsed() {
+        return interactionsByUri.isEmpty();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public HttpParams getParams() {
+        throw new UnsupportedOperationException("Unimplemented method 'getParams'");
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public ClientConnectionManager getConnectionManager() {
+        throw new UnsupportedOperationException("Unimplemented method 'getConnectionManager'");
+    }
+
+    @Override
+    public void close() throws IOException {
+        throw new UnsupportedOperationException("Unimplemented method 'close'");
+    }
+
+    @Override
+    protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context)
+            throws IOException, ClientProtocolException {
+
+        BaseHttpInteraction interaction;
+        synchronized (this) {
+            interaction = interactionsByUri.remove(request.getRequestLine().getUri());
+        }
+
+        if (interaction == null) {
+            String msg = "Mock http client was sent an HTTP request which wasn't expected.\nrequest: " + request.toString();
+            fail(msg);
+            throw new ClientProtocolException(msg);
+        }
+
+        interaction.validateRequest(target, request);
+        return interaction.getResponse();
+    }
+}